@@ -0,0 +1,70 @@
+package com.hexagrammatic.cloudflow;
+
+/**
+ * Fixtures shared by the benchmarks: steps that do as little as possible, so that what is measured is the engine
+ * around them, and generated workflow definitions of any size.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public final class Benchmarks {
+
+	private Benchmarks() {}
+
+	/**
+	 * Step that does nothing.
+	 */
+	public static class NoopStep extends Step {
+		@Override
+		protected void execute() {}
+	}
+
+	/**
+	 * Step that writes a parameter through to its workflow, as most real steps do.
+	 */
+	public static class WritingStep extends Step {
+		@Override
+		protected void execute() {
+			addParameter(getName(), Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Creates a workflow definition with the provided number of steps, each carrying a few scalar parameters and a
+	 * small structured one, in the JSON object format read by <code>JsonParser</code>.
+	 * @param steps the number of steps
+	 * @return the definition
+	 */
+	public static String definition(final int steps) {
+		final StringBuilder json = new StringBuilder();
+		json.append("{\"name\":\"benchmark\",\"timeout\":\"1 HOURS\",\"region\":\"us-east-1\",\"steps\":[");
+		for (int i = 0; i < steps; i++) {
+			if (i > 0) json.append(',');
+			json.append("{\"class\":\"").append(NoopStep.class.getName()).append('"')
+				.append(",\"name\":\"step").append(i).append('"')
+				.append(",\"timeout\":\"30 SECONDS\",\"maxRetries\":3,\"waitBetweenTries\":\"100 MILLISECONDS\"")
+				.append(",\"bucket\":\"bucket-").append(i).append('"')
+				.append(",\"count\":").append(i)
+				.append(",\"enabled\":true")
+				.append(",\"tags\":{\"owner\":\"bench\",\"sizes\":[1,2,3]}}");
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+	/**
+	 * Creates a workflow of steps that do nothing.
+	 * @param steps the number of steps
+	 * @param writing <code>true</code> to have each step write a parameter to the workflow
+	 * @return the workflow
+	 */
+	public static Workflow workflow(final int steps, final boolean writing) {
+		final Workflow workflow = new Workflow();
+		for (int i = 0; i < steps; i++) {
+			final Step step = writing ? new WritingStep() : new NoopStep();
+			step.setName("step" + i);
+			workflow.add(step);
+		}
+		return workflow;
+	}
+}
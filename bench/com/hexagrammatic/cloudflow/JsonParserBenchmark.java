@@ -0,0 +1,56 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing workflow definitions, from a single step up to a thousand, with steps created eagerly and with
+ * their creation deferred until they are reached.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonParserBenchmark {
+
+	@Param({"1", "10", "100", "1000"})
+	public int steps;
+
+	private String definition;
+	private JsonParser eager;
+	private JsonParser lazy;
+
+	@Setup
+	public void setUp() {
+		definition = Benchmarks.definition(steps);
+		eager = new JsonParser();
+		lazy = new JsonParser();
+		lazy.setLazySteps(true);
+	}
+
+	@Benchmark
+	public Workflow parse() throws WorkflowCreationException {
+		return eager.parse(definition);
+	}
+
+	@Benchmark
+	public Workflow parseLazy() throws WorkflowCreationException {
+		return lazy.parse(definition);
+	}
+}
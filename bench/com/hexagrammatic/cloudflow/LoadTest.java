@@ -0,0 +1,328 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Load test harness: executes workflows of a given shape from many threads at once for a fixed time, and reports
+ * throughput, latency percentiles, thread counts and heap use.  Unlike the JMH benchmarks, which isolate single
+ * operations, this measures the library the way a busy worker process uses it, for capacity planning.
+ * <p>
+ * Run from the command line, or through <code>ant load -Dload.args="..."</code>, with these options:
+ * <ul>
+ *  <li><code>--shape SHAPE</code> - the shape of the workflows, as described by <code>WorkflowShape</code> (default <code>sleep:5,spin:200,alloc:65536</code>)</li>
+ *  <li><code>--concurrency N</code> - the number of workflows executing at once (default 16)</li>
+ *  <li><code>--warmup SECONDS</code> - how long to run before measuring (default 5)</li>
+ *  <li><code>--duration SECONDS</code> - how long to measure (default 30)</li>
+ *  <li><code>--parse</code> - count parsing each workflow's definition as part of its latency</li>
+ *  <li><code>--out FILE</code> - also write the report to FILE as JSON</li>
+ * </ul>
+ * Another engine can be measured by setting an <code>Engine</code> that executes the workflows it is given.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see WorkflowShape
+ */
+public class LoadTest {
+
+	/**
+	 * Something that executes workflows.
+	 */
+	public interface Engine {
+		/**
+		 * Executes a workflow, returning when it has completed.
+		 * @param workflow the workflow
+		 * @throws Exception if the workflow fails
+		 */
+		void execute(Workflow workflow) throws Exception;
+	}
+
+	/**
+	 * Engine calling <code>Workflow.execute()</code> on the calling thread.
+	 */
+	public static final Engine DIRECT = new Engine() {
+		@Override
+		public void execute(final Workflow workflow) throws Exception {
+			workflow.execute();
+		}
+	};
+
+	private static final long SAMPLE_MILLIS = 100;
+
+	private WorkflowShape shape = WorkflowShape.parse("sleep:5,spin:200,alloc:65536");
+	private int concurrency = 16;
+	private long warmupSeconds = 5;
+	private long durationSeconds = 30;
+	private boolean parseIncluded = false;
+	private Engine engine = DIRECT;
+
+	private final JsonParser parser = new JsonParser();
+	private final Histogram latency = new Histogram();
+	private final AtomicLong succeeded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong maxWorkflowThreads = new AtomicLong();
+	private final AtomicLong maxBusyThreads = new AtomicLong();
+	private final AtomicLong maxJvmThreads = new AtomicLong();
+	private final AtomicLong maxHeapUsed = new AtomicLong();
+	private volatile boolean measuring = false;
+	private volatile boolean running = true;
+
+	/**
+	 * Sets the shape of the workflows executed.
+	 * @param shape the shape - may not be null
+	 */
+	public void setShape(final WorkflowShape shape) {
+		Validate.notNull(shape, "The provided shape may not be null.");
+		this.shape = shape;
+	}
+
+	/**
+	 * Sets the number of workflows executing at once.
+	 * @param concurrency the number of workflows - must be positive
+	 */
+	public void setConcurrency(final int concurrency) {
+		Validate.isTrue(concurrency > 0, "The provided concurrency must be positive.");
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Sets how long to run before measuring.
+	 * @param warmupSeconds the warmup, in seconds - may not be negative
+	 */
+	public void setWarmupSeconds(final long warmupSeconds) {
+		Validate.isTrue(warmupSeconds >= 0, "The provided warmup must not be negative.");
+		this.warmupSeconds = warmupSeconds;
+	}
+
+	/**
+	 * Sets how long to measure.
+	 * @param durationSeconds the duration, in seconds - must be positive
+	 */
+	public void setDurationSeconds(final long durationSeconds) {
+		Validate.isTrue(durationSeconds > 0, "The provided duration must be positive.");
+		this.durationSeconds = durationSeconds;
+	}
+
+	/**
+	 * Sets whether parsing each workflow's definition counts toward its latency.
+	 * @param parseIncluded <code>true</code> to include parsing, <code>false</code> otherwise.
+	 */
+	public void setParseIncluded(final boolean parseIncluded) {
+		this.parseIncluded = parseIncluded;
+	}
+
+	/**
+	 * Sets the engine that executes the workflows.
+	 * @param engine the engine - may not be null
+	 */
+	public void setEngine(final Engine engine) {
+		Validate.notNull(engine, "The provided engine may not be null.");
+		this.engine = engine;
+	}
+
+	/**
+	 * Runs the load test.  May only be called once per instance.
+	 * @return the report
+	 * @throws InterruptedException if interrupted while waiting for the test to finish.
+	 */
+	public Map<String, Object> run() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			final Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						work();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+			worker.setName(String.format("Load worker #%d", i));
+			worker.setDaemon(true);
+			worker.start();
+		}
+		final Thread sampler = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				sample();
+			}
+		});
+		sampler.setName("Load sampler");
+		sampler.setDaemon(true);
+		sampler.start();
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+		final long gcCountBefore = gcCount();
+		final long gcTimeBefore = gcTime();
+		final long threadsCreatedBefore = Workflow.getThreadsCreated();
+		final long start = System.nanoTime();
+		measuring = true;
+		Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+		measuring = false;
+		final long elapsed = System.nanoTime() - start;
+		running = false;
+		done.await();
+		sampler.join();
+
+		final Map<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("shape", shape.toString());
+		report.put("steps", shape.size());
+		report.put("concurrency", concurrency);
+		report.put("parseIncluded", parseIncluded);
+		report.put("durationSeconds", elapsed / 1e9);
+		report.put("succeeded", succeeded.get());
+		report.put("failed", failed.get());
+		report.put("workflowsPerSecond", (succeeded.get() + failed.get()) / (elapsed / 1e9));
+		report.put("stepsPerSecond", (succeeded.get() + failed.get()) * shape.size() / (elapsed / 1e9));
+		final Map<String, Object> percentiles = new LinkedHashMap<String, Object>();
+		percentiles.put("min", millis(latency.getMin()));
+		percentiles.put("mean", latency.getMean() / 1e6);
+		for (final double p: new double[] {50, 90, 99, 99.9}) {
+			percentiles.put(String.format("p%s", p == Math.rint(p) ? String.valueOf((long)p) : String.valueOf(p)),
+					millis(latency.getValueAtPercentile(p)));
+		}
+		percentiles.put("max", millis(latency.getMax()));
+		report.put("latencyMillis", percentiles);
+		report.put("workflowThreadsCreated", Workflow.getThreadsCreated() - threadsCreatedBefore);
+		report.put("maxWorkflowThreadsLive", maxWorkflowThreads.get());
+		report.put("maxWorkflowThreadsBusy", maxBusyThreads.get());
+		report.put("maxJvmThreads", maxJvmThreads.get());
+		report.put("maxHeapUsedBytes", maxHeapUsed.get());
+		report.put("gcCount", gcCount() - gcCountBefore);
+		report.put("gcMillis", gcTime() - gcTimeBefore);
+		return report;
+	}
+
+	private static double millis(final long nanos) {
+		return nanos / 1e6;
+	}
+
+	/**
+	 * Body of each worker thread: executes workflows back to back until the test ends.
+	 */
+	private void work() {
+		while (running) {
+			long start = System.nanoTime();
+			boolean successful;
+			try {
+				final Workflow workflow = shape.create(parser);
+				if (!parseIncluded) start = System.nanoTime();
+				engine.execute(workflow);
+				successful = true;
+			} catch (final InterruptedException e) {
+				return;
+			} catch (final Exception e) {
+				successful = false;
+			}
+			if (measuring) {
+				latency.record(System.nanoTime() - start);
+				(successful ? succeeded : failed).incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Body of the sampler thread: records the highest thread counts and heap use seen while measuring.
+	 */
+	private void sample() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		while (running) {
+			if (measuring) {
+				max(maxWorkflowThreads, Workflow.getThreadsLive());
+				max(maxBusyThreads, Workflow.getThreadsBusy());
+				max(maxJvmThreads, threads.getThreadCount());
+				max(maxHeapUsed, memory.getHeapMemoryUsage().getUsed());
+			}
+			try {
+				Thread.sleep(SAMPLE_MILLIS);
+			} catch (final InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private static void max(final AtomicLong max, final long value) {
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {}
+	}
+
+	private static long gcCount() {
+		long total = 0;
+		for (final GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(gc.getCollectionCount(), 0);
+		}
+		return total;
+	}
+
+	private static long gcTime() {
+		long total = 0;
+		for (final GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(gc.getCollectionTime(), 0);
+		}
+		return total;
+	}
+
+	/**
+	 * Runs a load test configured from the command line and prints its report as JSON.
+	 * @param args the options described above
+	 * @throws Exception if the test cannot be run.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final LoadTest test = new LoadTest();
+		File out = null;
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if (arg.equals("--parse")) {
+				test.setParseIncluded(true);
+				continue;
+			}
+			Validate.isTrue(i + 1 < args.length, String.format("Option '%s' needs a value.", arg));
+			final String value = args[++i];
+			if (arg.equals("--shape")) {
+				test.setShape(WorkflowShape.parse(value));
+			} else if (arg.equals("--concurrency")) {
+				test.setConcurrency(Integer.parseInt(value));
+			} else if (arg.equals("--warmup")) {
+				test.setWarmupSeconds(Long.parseLong(value));
+			} else if (arg.equals("--duration")) {
+				test.setDurationSeconds(Long.parseLong(value));
+			} else if (arg.equals("--out")) {
+				out = new File(value);
+			} else {
+				throw new IllegalArgumentException(String.format("Unknown option '%s'.", arg));
+			}
+		}
+
+		final String report = new GsonBuilder().setPrettyPrinting().create().toJson(test.run());
+		System.out.println(report);
+		if (out != null) write(out, report);
+	}
+
+	private static void write(final File file, final String report) throws IOException {
+		if (file.getParentFile() != null) file.getParentFile().mkdirs();
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			writer.write(report);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading, writing, snapshotting and rolling back parameters on objects holding from ten to a thousand of
+ * them, from one thread and from several sharing the object, with lock statistics off and on.
+ * <p>
+ * The <code>mixed</code> group runs three readers against one writer, which is roughly what a workflow's own
+ * parameters see while its steps read configuration and write results through to it.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParameterizedBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int size;
+
+	@Param({"false", "true"})
+	public boolean lockStatistics;
+
+	private Parameterized target;
+	private String[] keys;
+
+	/**
+	 * Per-thread position in the keys, so threads spread their accesses over the whole object.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next = 0;
+
+		String key(final String[] keys) {
+			final String key = keys[next];
+			next = next + 1 == keys.length ? 0 : next + 1;
+			return key;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		target = new Parameterized() {};
+		target.setLockStatisticsEnabled(lockStatistics);
+		keys = new String[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = "key" + i;
+			target.addParameter(keys[i], Integer.valueOf(i));
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Object get(final Cursor cursor) {
+		return target.getParameter(cursor.key(keys));
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Object getShared(final Cursor cursor) {
+		return target.getParameter(cursor.key(keys));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void add(final Cursor cursor) {
+		target.addParameter(cursor.key(keys), Boolean.TRUE);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void addShared(final Cursor cursor) {
+		target.addParameter(cursor.key(keys), Boolean.TRUE);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void snapshotAndRollback(final Cursor cursor) {
+		target.snapshot();
+		target.addParameter(cursor.key(keys), Boolean.FALSE);
+		target.rollback();
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public Object mixedGet(final Cursor cursor) {
+		return target.getParameter(cursor.key(keys));
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public void mixedAdd(final Cursor cursor) {
+		target.addParameter(cursor.key(keys), Boolean.TRUE);
+	}
+}
@@ -0,0 +1,108 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps with configurable, predictable behavior, for load testing.  Each reads its configuration from its parameters,
+ * so it can be used from workflow definitions as well as built in code:
+ * <ul>
+ *  <li><b>SleepStep</b> - sleeps for <code>millis</code> milliseconds, like a step waiting on I/O.</li>
+ *  <li><b>SpinStep</b> - keeps a CPU busy for <code>micros</code> microseconds.</li>
+ *  <li><b>AllocateStep</b> - allocates <code>bytes</code> bytes, in chunks of <code>chunk</code> bytes (64K by default).</li>
+ *  <li><b>FailingStep</b> - throws an exception on its first <code>failures</code> tries, then succeeds.</li>
+ *  <li><b>HangingStep</b> - sleeps for <code>millis</code> milliseconds, ignoring interrupts, so that a shorter timeout always expires.</li>
+ * </ul>
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see WorkflowShape
+ */
+public final class SyntheticSteps {
+
+	private SyntheticSteps() {}
+
+	static long longParameter(final Step step, final String key, final long defaultValue) {
+		final Object value = step.getParameter(key);
+		if (value instanceof Number) return ((Number)value).longValue();
+		if (value != null) return Long.parseLong(value.toString());
+		return defaultValue;
+	}
+
+	/**
+	 * Step that sleeps for <code>millis</code> milliseconds.
+	 */
+	public static class SleepStep extends Step {
+		@Override
+		protected void execute() throws InterruptedException {
+			Thread.sleep(longParameter(this, "millis", 0));
+		}
+	}
+
+	/**
+	 * Step that keeps a CPU busy for <code>micros</code> microseconds.
+	 */
+	public static class SpinStep extends Step {
+		private static volatile long sink;
+
+		@Override
+		protected void execute() {
+			final long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(longParameter(this, "micros", 0));
+			long x = 0;
+			while (System.nanoTime() - end < 0) {
+				for (int i = 0; i < 100; i++) {
+					x = x * 31 + i;
+				}
+			}
+			sink = x;
+		}
+	}
+
+	/**
+	 * Step that allocates <code>bytes</code> bytes in chunks of <code>chunk</code> bytes, keeping none of them.
+	 */
+	public static class AllocateStep extends Step {
+		private static volatile byte[] sink;
+
+		@Override
+		protected void execute() {
+			long remaining = longParameter(this, "bytes", 0);
+			final int chunk = (int)longParameter(this, "chunk", 64 * 1024);
+			while (remaining > 0) {
+				final byte[] buffer = new byte[(int)Math.min(chunk, remaining)];
+				buffer[buffer.length - 1] = 1;
+				sink = buffer;
+				remaining -= buffer.length;
+			}
+		}
+	}
+
+	/**
+	 * Step that fails its first <code>failures</code> tries.
+	 */
+	public static class FailingStep extends Step {
+		@Override
+		protected void execute() {
+			if (getTimesTried() <= longParameter(this, "failures", 0)) {
+				throw new IllegalStateException(String.format("Synthetic failure on try %d.", getTimesTried()));
+			}
+		}
+	}
+
+	/**
+	 * Step that sleeps for <code>millis</code> milliseconds without giving up when interrupted, so it outlives its timeout.
+	 */
+	public static class HangingStep extends Step {
+		@Override
+		protected void execute() {
+			final long end = System.currentTimeMillis() + longParameter(this, "millis", 0);
+			long remaining;
+			while ((remaining = end - System.currentTimeMillis()) > 0) {
+				try {
+					Thread.sleep(remaining);
+				} catch (final InterruptedException e) {
+					// Keep hanging; the point is to be abandoned.
+				}
+			}
+		}
+	}
+}
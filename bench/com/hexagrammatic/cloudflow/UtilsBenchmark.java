@@ -0,0 +1,60 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing time tuples.  <code>parseCached</code> parses the same value over and over, as happens when many
+ * steps share a timeout, while <code>parseDistinct</code> cycles through far more values than the parser caches, so
+ * nearly every call parses from scratch.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+	private static final String[] UNITS = {"MILLISECONDS", "SECONDS", "MINUTES", "HOURS"};
+
+	private String[] distinct;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		distinct = new String[4096];
+		for (int i = 0; i < distinct.length; i++) {
+			distinct[i] = String.format("%d %s", 1000 + i, UNITS[i % UNITS.length]);
+		}
+	}
+
+	@Benchmark
+	public Duration parseCached() {
+		return Utils.parseTimeTuple("30 SECONDS");
+	}
+
+	@Benchmark
+	public Duration parseDistinct() {
+		final String value = distinct[next];
+		next = next + 1 == distinct.length ? 0 : next + 1;
+		return Utils.parseTimeTuple(value);
+	}
+
+	@Benchmark
+	public String format() {
+		return Utils.createTimeTuple(30, TimeUnit.SECONDS);
+	}
+}
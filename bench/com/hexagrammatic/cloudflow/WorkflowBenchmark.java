@@ -0,0 +1,66 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead <code>Workflow.execute()</code> adds around steps that do nothing.  A workflow can only be
+ * executed once, so each invocation executes a freshly built one; building it is not measured.
+ * <p>
+ * <code>execute</code> reports the time for a whole workflow, including creating its thread pool, while
+ * <code>executePerStep</code> runs a hundred steps per invocation and reports the time per step.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkflowBenchmark {
+	private static final int STEPS_PER_INVOCATION = 100;
+
+	@Param({"1", "10", "100"})
+	public int steps;
+
+	@Param({"false", "true"})
+	public boolean writing;
+
+	private Workflow workflow;
+	private Workflow hundred;
+
+	@Setup(Level.Invocation)
+	public void setUp() {
+		workflow = Benchmarks.workflow(steps, writing);
+		hundred = Benchmarks.workflow(STEPS_PER_INVOCATION, writing);
+	}
+
+	@Benchmark
+	public Workflow execute() throws TimeoutException, InterruptedException {
+		workflow.execute();
+		return workflow;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(STEPS_PER_INVOCATION)
+	public Workflow executePerStep() throws TimeoutException, InterruptedException {
+		hundred.execute();
+		return hundred;
+	}
+}
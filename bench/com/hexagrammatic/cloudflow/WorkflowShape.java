@@ -0,0 +1,126 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Description of the workflows a load test executes, as a list of synthetic steps.  Shapes are written as a comma
+ * separated list of <code>kind:value</code> entries, each optionally followed by <code>*count</code> to repeat it:
+ * <ul>
+ *  <li><code>sleep:MILLIS</code> - a <code>SleepStep</code></li>
+ *  <li><code>spin:MICROS</code> - a <code>SpinStep</code></li>
+ *  <li><code>alloc:BYTES</code> - an <code>AllocateStep</code></li>
+ *  <li><code>fail:N</code> - a <code>FailingStep</code> that fails N times and is allowed N retries</li>
+ *  <li><code>timeout:MILLIS</code> - an optional <code>HangingStep</code> with a timeout of MILLIS that hangs for ten times as long</li>
+ *  <li><code>noop</code> - a step that does nothing</li>
+ * </ul>
+ * For example, <code>sleep:5*3,spin:200,alloc:1048576,fail:1</code> describes six steps.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see SyntheticSteps
+ */
+public final class WorkflowShape {
+	private final List<String> steps;
+	private final String spec;
+
+	private WorkflowShape(final String spec, final List<String> steps) {
+		this.spec = spec;
+		this.steps = Collections.unmodifiableList(steps);
+	}
+
+	/**
+	 * Parses a shape.
+	 * @param spec the shape, in the format described above - may not be null or blank
+	 * @return the shape
+	 * @throws IllegalArgumentException if the shape cannot be parsed.
+	 */
+	public static WorkflowShape parse(final String spec) {
+		Validate.notEmpty(spec, "The provided shape may not be null or empty.");
+		final List<String> steps = new ArrayList<String>();
+		int index = 0;
+		for (final String raw: spec.split(",")) {
+			final String entry = raw.trim();
+			if (entry.length() == 0) continue;
+			final int star = entry.indexOf('*');
+			final String definition = star < 0 ? entry : entry.substring(0, star);
+			final int count = star < 0 ? 1 : parseNumber(entry.substring(star + 1), entry);
+			for (int i = 0; i < count; i++) {
+				steps.add(stepJson(definition, index++));
+			}
+		}
+		Validate.isTrue(!steps.isEmpty(), "The provided shape has no steps.");
+		return new WorkflowShape(spec, steps);
+	}
+
+	private static int parseNumber(final String value, final String entry) {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Shape entry '%s' has a non-numeric value.", entry), e);
+		}
+	}
+
+	private static String stepJson(final String definition, final int index) {
+		final int colon = definition.indexOf(':');
+		final String kind = (colon < 0 ? definition : definition.substring(0, colon)).trim();
+		final int value = colon < 0 ? 0 : parseNumber(definition.substring(colon + 1), definition);
+		final String name = String.format("\"name\":\"%s%d\"", kind, index);
+		if (kind.equals("noop")) {
+			return String.format("{\"class\":\"%s\",%s}", Benchmarks.NoopStep.class.getName(), name);
+		} else if (kind.equals("sleep")) {
+			return String.format("{\"class\":\"%s\",%s,\"millis\":%d}", SyntheticSteps.SleepStep.class.getName(), name, value);
+		} else if (kind.equals("spin")) {
+			return String.format("{\"class\":\"%s\",%s,\"micros\":%d}", SyntheticSteps.SpinStep.class.getName(), name, value);
+		} else if (kind.equals("alloc")) {
+			return String.format("{\"class\":\"%s\",%s,\"bytes\":%d}", SyntheticSteps.AllocateStep.class.getName(), name, value);
+		} else if (kind.equals("fail")) {
+			return String.format("{\"class\":\"%s\",%s,\"failures\":%d,\"maxRetries\":%d,\"waitBetweenTries\":\"0 MILLISECONDS\"}",
+					SyntheticSteps.FailingStep.class.getName(), name, value, value);
+		} else if (kind.equals("timeout")) {
+			return String.format("{\"class\":\"%s\",%s,\"millis\":%d,\"timeout\":\"%d MILLISECONDS\",\"optional\":true}",
+					SyntheticSteps.HangingStep.class.getName(), name, value * 10L, value);
+		}
+		throw new IllegalArgumentException(String.format("Shape entry '%s' has unknown kind '%s'.", definition, kind));
+	}
+
+	/**
+	 * Gets the number of steps in workflows of this shape.
+	 * @return the number of steps
+	 */
+	public int size() {
+		return steps.size();
+	}
+
+	/**
+	 * Creates the definition of a workflow of this shape, in the JSON format read by <code>JsonParser</code>.
+	 * @return the definition
+	 */
+	public String toJson() {
+		final StringBuilder json = new StringBuilder("{\"name\":\"load\",\"steps\":[");
+		for (int i = 0; i < steps.size(); i++) {
+			if (i > 0) json.append(',');
+			json.append(steps.get(i));
+		}
+		return json.append("]}").toString();
+	}
+
+	/**
+	 * Creates a workflow of this shape.
+	 * @param parser the parser to create it with - may not be null
+	 * @return the workflow
+	 * @throws WorkflowCreationException if the workflow cannot be created.
+	 */
+	public Workflow create(final JsonParser parser) throws WorkflowCreationException {
+		Validate.notNull(parser, "The provided parser may not be null.");
+		return parser.parse(toJson());
+	}
+
+	@Override
+	public String toString() {
+		return spec;
+	}
+}
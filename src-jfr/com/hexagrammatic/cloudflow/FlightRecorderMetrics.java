@@ -0,0 +1,224 @@
+package com.hexagrammatic.cloudflow;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Metrics implementation that commits JDK Flight Recorder events for workflow execution, step tries, retry waits,
+ * timeouts, halts, and parsing, so workflow activity can be lined up against garbage collection, lock contention,
+ * and I/O in the same recording.  Events are only built when their type is enabled in a running recording, so this
+ * costs next to nothing when nothing is recording.
+ * <p>
+ * Execution, try, and retry wait events span the work they describe.  Parsing is only reported once it is over, so
+ * parse events are committed at the end of parsing and carry its duration in their <code>parseTime</code> field.
+ * <p>
+ * This class requires Java 11 or later and is only built when the compiling JDK provides <code>jdk.jfr</code>.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Workflow#setDefaultMetrics(Metrics)
+ */
+public class FlightRecorderMetrics extends MetricsAdapter {
+
+	@Name("com.hexagrammatic.cloudflow.Parse")
+	@Label("Workflow Parse")
+	@Category("Cloudflow")
+	@Description("A workflow definition was parsed")
+	@StackTrace(false)
+	static final class ParseEvent extends Event {
+		@Label("Workflow") String workflowName;
+		@Label("Steps") int steps;
+		@Label("Parse Time") @Timespan(Timespan.NANOSECONDS) long parseTime;
+	}
+
+	@Name("com.hexagrammatic.cloudflow.WorkflowExecute")
+	@Label("Workflow Execute")
+	@Category("Cloudflow")
+	@Description("A workflow executed")
+	@StackTrace(false)
+	static final class WorkflowExecuteEvent extends Event {
+		@Label("Workflow") String workflowName;
+		@Label("Steps") int steps;
+		@Label("Successful") boolean successful;
+	}
+
+	@Name("com.hexagrammatic.cloudflow.StepAttempt")
+	@Label("Step Attempt")
+	@Category("Cloudflow")
+	@Description("A single try of a workflow step")
+	@StackTrace(false)
+	static final class StepAttemptEvent extends Event {
+		@Label("Workflow") String workflowName;
+		@Label("Step") String stepName;
+		@Label("Step Class") Class<?> stepClass;
+		@Label("Attempt") int attempt;
+		@Label("Outcome") String outcome;
+		@Label("Queue Time") @Timespan(Timespan.NANOSECONDS) long queueTime;
+		@Label("Run Time") @Timespan(Timespan.NANOSECONDS) long runTime;
+		@Label("CPU Time") @Timespan(Timespan.NANOSECONDS) long cpuTime;
+		@Label("Allocated") @DataAmount(DataAmount.BYTES) long allocated;
+	}
+
+	@Name("com.hexagrammatic.cloudflow.RetryWait")
+	@Label("Retry Wait")
+	@Category("Cloudflow")
+	@Description("The wait between a failed try of a step and its retry")
+	@StackTrace(false)
+	static final class RetryWaitEvent extends Event {
+		@Label("Workflow") String workflowName;
+		@Label("Step") String stepName;
+		@Label("Step Class") Class<?> stepClass;
+		@Label("Attempt") int attempt;
+	}
+
+	@Name("com.hexagrammatic.cloudflow.Timeout")
+	@Label("Step Timeout")
+	@Category("Cloudflow")
+	@Description("A try of a workflow step ran longer than its timeout")
+	@StackTrace(false)
+	static final class TimeoutEvent extends Event {
+		@Label("Workflow") String workflowName;
+		@Label("Step") String stepName;
+		@Label("Step Class") Class<?> stepClass;
+		@Label("Attempt") int attempt;
+	}
+
+	@Name("com.hexagrammatic.cloudflow.Halt")
+	@Label("Workflow Halt")
+	@Category("Cloudflow")
+	@Description("A workflow was halted while executing")
+	static final class HaltEvent extends Event {
+		@Label("Workflow") String workflowName;
+		@Label("Current Step") String stepName;
+	}
+
+	private final ThreadLocal<WorkflowExecuteEvent> workflowEvent = new ThreadLocal<WorkflowExecuteEvent>();
+	private final ThreadLocal<StepAttemptEvent> attemptEvent = new ThreadLocal<StepAttemptEvent>();
+	private final ThreadLocal<RetryWaitEvent> retryWaitEvent = new ThreadLocal<RetryWaitEvent>();
+
+	@Override
+	public void workflowParsed(final Workflow workflow, final long elapsedNanos) {
+		final ParseEvent event = new ParseEvent();
+		if (event.shouldCommit()) {
+			event.workflowName = workflow.getName();
+			event.steps = workflow.getSteps().size();
+			event.parseTime = elapsedNanos;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void workflowStarted(final Workflow workflow) {
+		final WorkflowExecuteEvent event = new WorkflowExecuteEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			workflowEvent.set(event);
+		}
+	}
+
+	@Override
+	public void workflowCompleted(final Workflow workflow, final long elapsedNanos, final boolean successful) {
+		final WorkflowExecuteEvent event = workflowEvent.get();
+		if (event == null) return;
+		workflowEvent.remove();
+		event.end();
+		if (event.shouldCommit()) {
+			event.workflowName = workflow.getName();
+			event.steps = workflow.getSteps().size();
+			event.successful = successful;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void workflowHalted(final Workflow workflow) {
+		final HaltEvent event = new HaltEvent();
+		if (event.shouldCommit()) {
+			final Step current = workflow.getCurrentStep();
+			event.workflowName = workflow.getName();
+			event.stepName = current == null ? null : current.getName();
+			event.commit();
+		}
+	}
+
+	@Override
+	public void stepStarted(final Step step, final Attempt attempt) {
+		final StepAttemptEvent event = new StepAttemptEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			attemptEvent.set(event);
+		}
+	}
+
+	@Override
+	public void stepCompleted(final Step step, final Attempt attempt) {
+		commitAttempt(step, attempt);
+	}
+
+	@Override
+	public void stepRetried(final Step step, final Attempt attempt) {
+		commitAttempt(step, attempt);
+		final RetryWaitEvent event = new RetryWaitEvent();
+		if (event.isEnabled()) {
+			event.begin();
+			retryWaitEvent.set(event);
+		}
+	}
+
+	@Override
+	public void stepRetryWaited(final Step step, final long waitedNanos) {
+		final RetryWaitEvent event = retryWaitEvent.get();
+		if (event == null) return;
+		retryWaitEvent.remove();
+		event.end();
+		if (event.shouldCommit()) {
+			event.workflowName = workflowName(step);
+			event.stepName = step.getName();
+			event.stepClass = step.getClass();
+			event.attempt = step.getTimesTried();
+			event.commit();
+		}
+	}
+
+	@Override
+	public void stepTimedOut(final Step step, final Attempt attempt) {
+		final TimeoutEvent event = new TimeoutEvent();
+		if (event.shouldCommit()) {
+			event.workflowName = workflowName(step);
+			event.stepName = step.getName();
+			event.stepClass = step.getClass();
+			event.attempt = attempt == null ? step.getTimesTried() : attempt.getNumber();
+			event.commit();
+		}
+	}
+
+	private void commitAttempt(final Step step, final Attempt attempt) {
+		final StepAttemptEvent event = attemptEvent.get();
+		if (event == null) return;
+		attemptEvent.remove();
+		event.end();
+		if (event.shouldCommit()) {
+			event.workflowName = workflowName(step);
+			event.stepName = step.getName();
+			event.stepClass = step.getClass();
+			event.attempt = attempt == null ? step.getTimesTried() : attempt.getNumber();
+			event.outcome = attempt == null ? null : attempt.getOutcome().name();
+			event.queueTime = attempt == null ? 0 : attempt.getQueuedNanos();
+			event.runTime = attempt == null ? 0 : Math.max(attempt.getRunNanos(), 0);
+			event.cpuTime = attempt == null ? -1 : attempt.getCpuNanos();
+			event.allocated = attempt == null ? -1 : attempt.getAllocatedBytes();
+			event.commit();
+		}
+	}
+
+	private static String workflowName(final Step step) {
+		final Workflow workflow = step.getWorkflow();
+		return workflow == null ? null : workflow.getName();
+	}
+}
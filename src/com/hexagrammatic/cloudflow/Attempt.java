@@ -0,0 +1,227 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Record of a single try of a step, from the moment the workflow submits the step for execution until the try ends.
+ * All times are taken from <code>System.nanoTime()</code>, so they are only meaningful relative to each other, but
+ * are unaffected by changes to the wall clock and resolve spans far shorter than a millisecond.
+ * <p>
+ * Each try records when it was submitted, when a thread started running it, when the step's <code>execute()</code>
+ * method finished, and when the workflow ended the try.  From these, each try is split into the time it spent
+ * queued, waiting for a thread to run it, and the time it spent running.  A try that timed out before a thread ever
+ * picked it up never started running and has no running time.
+ * <p>
+ * When the workflow has resource accounting turned on, each try also records the CPU time and the bytes allocated by
+ * the thread running it while inside the step's <code>execute()</code> method.  Comparing CPU time with running time
+ * tells steps that compute apart from steps that wait on I/O.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Step#getAttempts()
+ */
+public final class Attempt {
+	/**
+	 * How a try ended.
+	 */
+	public enum Outcome {
+		/** The try has not ended yet. */
+		IN_PROGRESS,
+		/** The step's <code>execute()</code> method returned normally. */
+		SUCCEEDED,
+		/** The step's <code>execute()</code> method threw an exception. */
+		FAILED,
+		/** The try ran longer than the step's timeout. */
+		TIMED_OUT,
+		/** The workflow was interrupted or halted while waiting on the try. */
+		INTERRUPTED
+	}
+
+	private final int number;
+	private final long submitNanos;
+	private volatile long runningNanos = -1;
+	private volatile long finishedNanos = -1;
+	private volatile long cpuNanos = -1;
+	private volatile long allocatedBytes = -1;
+	private volatile long endNanos = -1;
+	private volatile Outcome outcome = Outcome.IN_PROGRESS;
+	private volatile Throwable failure = null;
+
+	Attempt(final int number, final long submitNanos) {
+		this.number = number;
+		this.submitNanos = submitNanos;
+	}
+
+	/**
+	 * Gets which try of the step this was.
+	 * @return the try number, starting at 1.
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	/**
+	 * Gets when this try was submitted for execution.
+	 * @return the <code>System.nanoTime()</code> the try was submitted at.
+	 */
+	public long getSubmitNanos() {
+		return submitNanos;
+	}
+
+	/**
+	 * Gets when this try started running.
+	 * @return the <code>System.nanoTime()</code> the step's <code>execute()</code> method was entered at, or -1 if the try never started running.
+	 */
+	public long getRunningNanos() {
+		return runningNanos;
+	}
+
+	/**
+	 * Gets when the step's <code>execute()</code> method returned or threw for this try.  This may come after the
+	 * try ended, if the workflow stopped waiting on it because it timed out.
+	 * @return the <code>System.nanoTime()</code> the try finished running at, or -1 if it has not finished running.
+	 */
+	public long getFinishedNanos() {
+		return finishedNanos;
+	}
+
+	/**
+	 * Gets the CPU time the thread running this try used inside the step's <code>execute()</code> method.
+	 * @return the CPU time, in nanoseconds, or -1 if it was not measured or the try has not finished running.
+	 * @see Workflow#setResourceAccounting(boolean)
+	 */
+	public long getCpuNanos() {
+		return cpuNanos;
+	}
+
+	/**
+	 * Gets the bytes the thread running this try allocated inside the step's <code>execute()</code> method.
+	 * @return the allocated bytes, or -1 if they were not measured or the try has not finished running.
+	 * @see Workflow#setResourceAccounting(boolean)
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Gets when this try ended.
+	 * @return the <code>System.nanoTime()</code> the try ended at, or -1 if the try has not ended.
+	 */
+	public long getEndNanos() {
+		return endNanos;
+	}
+
+	/**
+	 * Gets how this try ended.
+	 * @return the outcome - <code>IN_PROGRESS</code> if the try has not ended.
+	 */
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * Gets why this try failed.
+	 * @return the failure cause, or <code>null</code> if the try succeeded or has not ended.
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Determines if this try has ended.
+	 * @return <code>true</code> if the try has ended, <code>false</code> otherwise.
+	 */
+	public boolean isEnded() {
+		return outcome != Outcome.IN_PROGRESS;
+	}
+
+	/**
+	 * Gets how long this try waited for a thread to run it.  If the try never started running, this is the time from
+	 * submission until the try ended or, if it is still waiting, until now.
+	 * @return the time spent queued, in nanoseconds.
+	 */
+	public long getQueuedNanos() {
+		final long running = runningNanos;
+		if (running >= 0) return running - submitNanos;
+		final long end = endNanos;
+		return (end >= 0 ? end : System.nanoTime()) - submitNanos;
+	}
+
+	/**
+	 * Gets how long this try ran or, if it is still running, has been running.  Once the step's <code>execute()</code>
+	 * method finishes, this is the time it took; until then, it is measured to the end of the try or, if the try has
+	 * not ended, to now.
+	 * @return the time spent running, in nanoseconds, or -1 if the try never started running.
+	 */
+	public long getRunNanos() {
+		final long running = runningNanos;
+		if (running < 0) return -1;
+		final long finished = finishedNanos;
+		if (finished >= 0) return finished - running;
+		final long end = endNanos;
+		return (end >= 0 ? end : System.nanoTime()) - running;
+	}
+
+	/**
+	 * Gets how long this try took from submission until it ended or, if it has not ended, until now.
+	 * @return the total time of the try, in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		final long end = endNanos;
+		return (end >= 0 ? end : System.nanoTime()) - submitNanos;
+	}
+
+	/**
+	 * Records that this try started running.  Only the first call has any effect.
+	 * @param nanos the <code>System.nanoTime()</code> the try started running at
+	 */
+	void running(final long nanos) {
+		if (runningNanos < 0) runningNanos = nanos;
+	}
+
+	/**
+	 * Records that the step's <code>execute()</code> method finished for this try.  Only the first call has any effect.
+	 * @param nanos the <code>System.nanoTime()</code> the try finished running at
+	 */
+	void finished(final long nanos) {
+		if (finishedNanos < 0) finishedNanos = nanos;
+	}
+
+	/**
+	 * Records the resources the thread running this try used.  Only the first call has any effect.
+	 * @param cpuNanos the CPU time used, or -1 if it was not measured
+	 * @param allocatedBytes the bytes allocated, or -1 if they were not measured
+	 */
+	void used(final long cpuNanos, final long allocatedBytes) {
+		if (this.cpuNanos >= 0 || this.allocatedBytes >= 0) return;
+		this.cpuNanos = cpuNanos;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/**
+	 * Records that this try ended.  Only the first call has any effect.
+	 * @param nanos the <code>System.nanoTime()</code> the try ended at
+	 * @param failure the reason the try failed, or <code>null</code> if it succeeded
+	 */
+	void end(final long nanos, final Throwable failure) {
+		if (isEnded()) return;
+		this.failure = failure;
+		this.endNanos = nanos;
+		this.outcome = outcomeOf(failure);
+	}
+
+	private static Outcome outcomeOf(final Throwable failure) {
+		if (failure == null) return Outcome.SUCCEEDED;
+		if (failure instanceof TimeoutException) return Outcome.TIMED_OUT;
+		if (failure instanceof InterruptedException || failure instanceof CancellationException) return Outcome.INTERRUPTED;
+		return Outcome.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Attempt #%d: %s, queued %dus, ran %dus", number, outcome,
+				TimeUnit.NANOSECONDS.toMicros(getQueuedNanos()), TimeUnit.NANOSECONDS.toMicros(Math.max(getRunNanos(), 0)));
+	}
+}
@@ -0,0 +1,216 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+
+/**
+ * Low-level encoding helpers shared by the binary workflow formats.  Integers are written as
+ * variable-length quantities (zig-zag encoded when they may be negative), strings as a length prefix
+ * followed by their UTF-8 bytes, and parameter values as a one-byte type tag followed by the value.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see BinaryWriter
+ * @see BinaryParser
+ */
+final class BinaryCodec {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final byte TAG_NULL = 0;
+	static final byte TAG_TRUE = 1;
+	static final byte TAG_FALSE = 2;
+	static final byte TAG_INT = 3;
+	static final byte TAG_LONG = 4;
+	static final byte TAG_FLOAT = 5;
+	static final byte TAG_DOUBLE = 6;
+	static final byte TAG_NUMBER = 7;
+	static final byte TAG_STRING = 8;
+	static final byte TAG_STRUCTURED = 9;
+	static final byte TAG_EXPRESSION = 10;
+
+	private BinaryCodec() {}
+
+	/**
+	 * Writes a non-negative value as a variable-length quantity, seven bits at a time.
+	 * @param out the output to write to - may not be null
+	 * @param value the value to write - may not be negative
+	 * @throws IOException if writing fails
+	 */
+	static void writeVarLong(final DataOutput out, final long value) throws IOException {
+		if (value < 0) throw new IllegalArgumentException(String.format("Cannot write negative value %d as an unsigned quantity.", value));
+		writeRawVarLong(out, value);
+	}
+
+	/**
+	 * Reads a non-negative value written by <code>writeVarLong</code>.
+	 * @param in the input to read from - may not be null
+	 * @return the value read
+	 * @throws IOException if reading fails or the value is malformed
+	 */
+	static long readVarLong(final DataInput in) throws IOException {
+		final long result = readRawVarLong(in);
+		if (result < 0) throw new IOException("Malformed variable-length quantity.");
+		return result;
+	}
+
+	/**
+	 * Writes a possibly negative value, zig-zag encoding it so small magnitudes stay small.
+	 */
+	static void writeSignedVarLong(final DataOutput out, final long value) throws IOException {
+		writeRawVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Reads a value written by <code>writeSignedVarLong</code>.
+	 */
+	static long readSignedVarLong(final DataInput in) throws IOException {
+		final long zigzag = readRawVarLong(in);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	private static void writeRawVarLong(final DataOutput out, long bits) throws IOException {
+		while ((bits & ~0x7FL) != 0) {
+			out.writeByte((int)((bits & 0x7F) | 0x80));
+			bits >>>= 7;
+		}
+		out.writeByte((int)bits);
+	}
+
+	private static long readRawVarLong(final DataInput in) throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = in.readUnsignedByte();
+			result |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return result;
+		}
+		throw new IOException("Malformed variable-length quantity.");
+	}
+
+	/**
+	 * Reads a length or count, ensuring it fits within an int.
+	 */
+	static int readLength(final DataInput in) throws IOException {
+		final long length = readVarLong(in);
+		if (length > Integer.MAX_VALUE) throw new IOException(String.format("Length %d is too large.", length));
+		return (int)length;
+	}
+
+	/**
+	 * Writes a string, which may be <code>null</code>, as a length prefix followed by UTF-8 bytes.
+	 */
+	static void writeString(final DataOutput out, final String value) throws IOException {
+		if (value == null) {
+			writeVarLong(out, 0);
+		} else {
+			final byte[] bytes = value.getBytes(UTF8);
+			writeVarLong(out, bytes.length + 1L);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Reads a string written by <code>writeString</code>.
+	 * @return the string read, possibly <code>null</code>
+	 */
+	static String readString(final DataInput in) throws IOException {
+		final int length = readLength(in);
+		if (length == 0) return null;
+		final byte[] bytes = new byte[length - 1];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Determines if a parameter value can be written by <code>writeValue</code>.
+	 * @param value the value to check - may be <code>null</code>
+	 * @return <code>true</code> if the value is <code>null</code>, a String, a Boolean, a Number, a StructuredValue, or a ParameterExpression.
+	 */
+	static boolean isSupported(final Object value) {
+		return value == null || value instanceof String || value instanceof Boolean || value instanceof Number ||
+				value instanceof StructuredValue || value instanceof ParameterExpression;
+	}
+
+	/**
+	 * Writes a type-tagged parameter value.
+	 * @param out the output to write to - may not be null
+	 * @param value the value, which must satisfy <code>isSupported</code>
+	 * @throws IllegalArgumentException if the value is of an unsupported type
+	 * @throws IOException if writing fails
+	 */
+	static void writeValue(final DataOutput out, final Object value) throws IOException {
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+		} else if (value instanceof String) {
+			out.writeByte(TAG_STRING);
+			writeString(out, (String)value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(((Boolean)value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			out.writeByte(TAG_INT);
+			writeSignedVarLong(out, ((Number)value).intValue());
+		} else if (value instanceof Long) {
+			out.writeByte(TAG_LONG);
+			writeSignedVarLong(out, ((Long)value).longValue());
+		} else if (value instanceof Float) {
+			out.writeByte(TAG_FLOAT);
+			out.writeFloat(((Float)value).floatValue());
+		} else if (value instanceof Double) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeDouble(((Double)value).doubleValue());
+		} else if (value instanceof Number) {
+			out.writeByte(TAG_NUMBER);
+			writeString(out, value.toString());
+		} else if (value instanceof StructuredValue) {
+			out.writeByte(TAG_STRUCTURED);
+			writeString(out, ((StructuredValue)value).toJson());
+		} else if (value instanceof ParameterExpression) {
+			out.writeByte(TAG_EXPRESSION);
+			writeString(out, ((ParameterExpression)value).getSource());
+		} else {
+			throw new IllegalArgumentException(String.format("Cannot encode value of type %s.", value.getClass().getName()));
+		}
+	}
+
+	/**
+	 * Reads a value written by <code>writeValue</code>.  Numbers of types other than the boxed primitives,
+	 * such as those produced while parsing JSON, are read back as <code>BigDecimal</code>s.  Structured values are read
+	 * back without parsing their JSON, which is left until the value is first used; expressions are compiled as they are read.
+	 * @return the value read, possibly <code>null</code>
+	 * @throws IOException if reading fails or an unknown tag is encountered
+	 */
+	static Object readValue(final DataInput in) throws IOException {
+		final byte tag = in.readByte();
+		switch (tag) {
+			case TAG_NULL: return null;
+			case TAG_TRUE: return Boolean.TRUE;
+			case TAG_FALSE: return Boolean.FALSE;
+			case TAG_INT: return Integer.valueOf((int)readSignedVarLong(in));
+			case TAG_LONG: return Long.valueOf(readSignedVarLong(in));
+			case TAG_FLOAT: return Float.valueOf(in.readFloat());
+			case TAG_DOUBLE: return Double.valueOf(in.readDouble());
+			case TAG_NUMBER:
+				try {
+					return new BigDecimal(readString(in));
+				} catch (final NumberFormatException e) {
+					throw new IOException("Malformed numeric value.");
+				}
+			case TAG_STRING: return readString(in);
+			case TAG_STRUCTURED:
+				final String json = readString(in);
+				if (json == null) throw new IOException("Structured value is missing.");
+				return new StructuredValue(json);
+			case TAG_EXPRESSION:
+				final String source = readString(in);
+				if (source == null) throw new IOException("Expression source is missing.");
+				try {
+					return ParameterExpression.compile(source);
+				} catch (final IllegalArgumentException e) {
+					throw new IOException(e.getMessage());
+				}
+			default: throw new IOException(String.format("Unknown value tag %d.", tag));
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Type to create workflow instances from the compact binary format written by <code>BinaryWriter</code>.  Reading
+ * this format involves no text tokenizing, so it is considerably cheaper than parsing the equivalent JSON definition
+ * and is well suited to shipping definitions between processes.
+ * <p>
+ * Steps are resolved and populated exactly as <code>JsonParser</code> does, including the use of a custom classloader
+ * and the <code>pre</code> and <code>post</code> hooks, so extensions that inject dependencies into steps can be
+ * carried over to this parser.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see BinaryWriter
+ * @see JsonParser
+ */
+public class BinaryParser {
+
+	private ClassLoader classLoader = BinaryParser.class.getClassLoader();
+
+	/**
+	 * Set the classloader to use when resolving Steps.  If unset,
+	 * the same classloader that loaded <code>BinaryParser</code> is used.
+	 * @param cl the classloader - may not be null
+	 */
+	public void setClassLoader(final ClassLoader cl) {
+		Validate.notNull(cl, "The provided classloader may not be null.");
+		this.classLoader = cl;
+	}
+
+	/**
+	 * Parses a workflow from an InputStream.  The stream is not closed.
+	 * @param stream the input stream - may not be null
+	 * @return the marshalled workflow
+	 * @throws WorkflowCreationException thrown if the data is malformed or creating the workflow fails
+	 */
+	public Workflow parse(final InputStream stream) throws WorkflowCreationException {
+		Validate.notNull(stream, "The provided input stream may not be null.");
+		final long start = System.nanoTime();
+		try {
+			final Workflow workflow = populateWorkflow(new DataInputStream(stream));
+			workflow.getMetrics().workflowParsed(workflow, System.nanoTime() - start);
+			return workflow;
+		} catch (final EOFException e) {
+			throw new WorkflowCreationException("Binary workflow definition ended unexpectedly.", e);
+		} catch (final IOException e) {
+			throw new WorkflowCreationException("Unable to read binary workflow definition.", e);
+		}
+	}
+
+	/**
+	 * Parses a workflow from a byte array.
+	 * @param data the encoded workflow - may not be null
+	 * @return the marshalled workflow
+	 * @throws WorkflowCreationException thrown if the data is malformed or creating the workflow fails
+	 */
+	public Workflow parse(final byte[] data) throws WorkflowCreationException {
+		Validate.notNull(data, "The provided data may not be null.");
+		return parse(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Performs any post-workflow creation actions, called after all parameters and steps have been added.
+	 * This method does nothing in this implementation.
+	 * @param workflow the workflow instance- never null.
+	 * @see JsonParser#post(Workflow)
+	 */
+	protected void post(final Workflow workflow) {};
+
+	/**
+	 * Performs any pre-workflow creation actions, called before any parameters and steps have been added.
+	 * This method does nothing in this implementation.
+	 * @param workflow the workflow instance- never null.
+	 * @see JsonParser#pre(Workflow)
+	 */
+	protected void pre(final Workflow workflow) {};
+
+	/**
+	 * Performs any post-step creation actions, called after all parameters have been added.
+	 * This method does nothing in this implementation.
+	 * @param step the step instance - never null.
+	 * @see JsonParser#post(Step)
+	 */
+	protected void post(final Step step) {};
+
+	/**
+	 * Performs any pre-step creation actions, called before any parameters have been added.
+	 * This method does nothing in this implementation.
+	 * @param step the step instance - never null.
+	 * @see JsonParser#pre(Step)
+	 */
+	protected void pre(final Step step) {};
+
+	Workflow populateWorkflow(final DataInputStream in) throws IOException, WorkflowCreationException {
+		final int magic = in.readInt();
+		if (magic != BinaryWriter.MAGIC) {
+			throw new WorkflowCreationException(String.format("Data is not a binary workflow definition (magic number 0x%08X).", magic));
+		}
+		final byte version = in.readByte();
+		if (version < BinaryWriter.MIN_VERSION || version > BinaryWriter.VERSION) {
+			throw new WorkflowCreationException(String.format("Unsupported binary workflow definition version %d; expected version %d to %d.",
+					version, BinaryWriter.MIN_VERSION, BinaryWriter.VERSION));
+		}
+
+		final Workflow workflow = new Workflow();
+		pre(workflow);
+		workflow.setName(BinaryCodec.readString(in));
+		final long timeout = BinaryCodec.readSignedVarLong(in);
+		if (timeout >= 0) {
+			workflow.setTimeoutValue(timeout);
+			workflow.setTimeoutUnits(readUnits(in));
+		}
+
+		final int steps = BinaryCodec.readLength(in);
+		for (int i = 0; i < steps; i++) {
+			workflow.add(populateStep(in));
+		}
+
+		final int params = BinaryCodec.readLength(in);
+		for (int i = 0; i < params; i++) {
+			workflow.addParameter(readKey(in), BinaryCodec.readValue(in));
+		}
+		post(workflow);
+		return workflow;
+	}
+
+	Step populateStep(final DataInputStream in) throws IOException, WorkflowCreationException {
+		final String classname = BinaryCodec.readString(in);
+		if (classname == null) throw new WorkflowCreationException("Binary step definition does not supply a class declaration.");
+		final Step step = Utils.createStep(classLoader, classname);
+		pre(step);
+
+		final String name = BinaryCodec.readString(in);
+		if (name != null) step.setName(name);
+		final long timeout = BinaryCodec.readSignedVarLong(in);
+		if (timeout >= 0) {
+			step.setTimeoutValue(timeout);
+			step.setTimeoutUnits(readUnits(in));
+		}
+		step.setMaxRetries(BinaryCodec.readLength(in));
+		final long wait = BinaryCodec.readSignedVarLong(in);
+		if (wait >= 0) {
+			step.setWaitBetweenTriesValue(wait);
+			step.setWaitBetweenTriesUnits(readUnits(in));
+		}
+		final byte flags = in.readByte();
+		step.setOptional((flags & BinaryWriter.FLAG_OPTIONAL) != 0);
+		step.setAlwaysRun((flags & BinaryWriter.FLAG_ALWAYS_RUN) != 0);
+
+		final int params = BinaryCodec.readLength(in);
+		for (int i = 0; i < params; i++) {
+			step.addParameter(readKey(in), BinaryCodec.readValue(in));
+		}
+		post(step);
+		return step;
+	}
+
+	private String readKey(final DataInputStream in) throws IOException {
+		final String key = BinaryCodec.readString(in);
+		if (key == null) throw new IOException("Parameter key is missing.");
+		return key;
+	}
+
+	private TimeUnit readUnits(final DataInputStream in) throws IOException {
+		final int tag = in.readUnsignedByte();
+		if (tag >= BinaryWriter.UNIT_TAGS.length) throw new IOException(String.format("Unknown time unit tag %d.", tag));
+		return BinaryWriter.UNIT_TAGS[tag];
+	}
+}
@@ -0,0 +1,142 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Type to write workflow definitions in the compact binary format read by <code>BinaryParser</code>.  Only the
+ * definition of a workflow is written: its name, timeout, and parameters, and the class, name, timeout, retry, wait,
+ * and flag settings of each step along with the step's own parameters.  Execution state is never written.  Steps whose
+ * creation was deferred by the parser are created in order to be written.
+ * <p>
+ * The format begins with a four byte magic number and a one byte format version, so readers can reject data
+ * written by incompatible versions of this class rather than misinterpreting it.  Version 2 added the value tags for
+ * StructuredValues and ParameterExpressions; version 1 data is otherwise laid out the same way, and can still be read.
+ * <p>
+ * Parameter values must be <code>null</code>, Strings, Booleans, Numbers, StructuredValues, or ParameterExpressions -
+ * the same values <code>JsonParser</code> produces.  Expressions are written unevaluated.  Workflows or steps carrying any other values cannot be written.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see BinaryParser
+ */
+public class BinaryWriter {
+	static final int MAGIC = 0x43464C57; // 'CFLW'
+	static final byte VERSION = 2;
+	static final byte MIN_VERSION = 1;
+	static final byte FLAG_OPTIONAL = 0x01;
+	static final byte FLAG_ALWAYS_RUN = 0x02;
+
+	/**
+	 * Time units in the order of the tags they are written with.  The tags are part of the format and must not be
+	 * reordered; new units may only be added to the end.
+	 */
+	static final TimeUnit[] UNIT_TAGS = {
+		TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS, TimeUnit.MILLISECONDS, TimeUnit.SECONDS,
+		TimeUnit.MINUTES, TimeUnit.HOURS, TimeUnit.DAYS
+	};
+
+	/**
+	 * Writes a workflow definition to an OutputStream.  The stream is flushed, but not closed.
+	 * @param workflow the workflow to write - may not be null
+	 * @param stream the output stream - may not be null
+	 * @throws IOException if writing to the stream fails
+	 * @throws IllegalArgumentException if a parameter on the workflow or its steps cannot be encoded
+	 */
+	public void write(final Workflow workflow, final OutputStream stream) throws IOException {
+		Validate.notNull(workflow, "The provided workflow may not be null.");
+		Validate.notNull(stream, "The provided output stream may not be null.");
+		final DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+
+		BinaryCodec.writeString(out, workflow.getName());
+		writeDuration(out, workflow.getTimeoutValue(), workflow.getTimeoutUnits());
+
+		final Collection<Step> steps = workflow.getSteps();
+		BinaryCodec.writeVarLong(out, steps.size());
+		for (final Step step: steps) {
+			writeStep(out, step);
+		}
+		writeParameters(out, workflow);
+		out.flush();
+	}
+
+	/**
+	 * Writes a workflow definition to a byte array.
+	 * @param workflow the workflow to write - may not be null
+	 * @return the encoded workflow definition
+	 * @throws IllegalArgumentException if a parameter on the workflow or its steps cannot be encoded
+	 */
+	public byte[] toByteArray(final Workflow workflow) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(workflow, bytes);
+		} catch (final IOException e) {
+			throw new IllegalStateException("Unexpected exception writing to memory.", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void writeStep(final DataOutputStream out, final Step candidate) throws IOException {
+		final Step step;
+		try {
+			step = candidate.materialize();
+		} catch (final WorkflowCreationException e) {
+			throw new IOException(String.format("Unable to create deferred step '%s' to write it.", candidate.getName()), e);
+		}
+		BinaryCodec.writeString(out, step.getClass().getName());
+		BinaryCodec.writeString(out, step.getName());
+		writeDuration(out, step.getTimeoutValue(), step.getTimeoutUnits());
+		BinaryCodec.writeVarLong(out, step.getMaxRetries());
+		writeDuration(out, step.getWaitBetweenTriesValue(), step.getWaitBetweenTriesUnits());
+		byte flags = 0;
+		if (step.isOptional()) flags |= FLAG_OPTIONAL;
+		if (step.isAlwaysRun()) flags |= FLAG_ALWAYS_RUN;
+		out.writeByte(flags);
+		writeParameters(out, step);
+	}
+
+	private void writeDuration(final DataOutputStream out, final long value, final TimeUnit units) throws IOException {
+		if (value < 0 || units == null) {
+			BinaryCodec.writeSignedVarLong(out, -1);
+		} else {
+			BinaryCodec.writeSignedVarLong(out, value);
+			out.writeByte(unitTag(units));
+		}
+	}
+
+	private static int unitTag(final TimeUnit units) {
+		for (int i = 0; i < UNIT_TAGS.length; i++) {
+			if (UNIT_TAGS[i] == units) return i;
+		}
+		throw new IllegalArgumentException(String.format("Cannot write time unit %s.", units));
+	}
+
+	private void writeParameters(final DataOutputStream out, final Parameterized target) throws IOException {
+		final ArrayList<String> keys = new ArrayList<String>();
+		final ArrayList<Object> values = new ArrayList<Object>();
+		for (final String key: target.getParameterNames()) {
+			final Object value = target.getLocalParameter(key);
+			if (value == null) continue;
+			if (!BinaryCodec.isSupported(value)) {
+				throw new IllegalArgumentException(String.format("Cannot write parameter '%s' - values of type %s are not supported.",
+						key, value.getClass().getName()));
+			}
+			keys.add(key);
+			values.add(value);
+		}
+		BinaryCodec.writeVarLong(out, keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			BinaryCodec.writeString(out, keys.get(i));
+			BinaryCodec.writeValue(out, values.get(i));
+		}
+	}
+}
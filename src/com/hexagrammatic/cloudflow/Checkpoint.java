@@ -0,0 +1,284 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Record of a workflow's progress, written to a <code>CheckpointJournal</code> each time one of its steps ends and once
+ * more when the workflow itself finishes.  Each checkpoint carries the workflow's parameters as they stood at that point,
+ * so the latest checkpoint of a workflow is enough to know which of its steps are done and what they left behind.
+ * <p>
+ * Parameter values are limited to those <code>BinaryWriter</code> can write: <code>null</code>, Strings, Booleans,
+ * Numbers, StructuredValues, and ParameterExpressions.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see CheckpointJournal
+ */
+public final class Checkpoint {
+	/**
+	 * How the step a checkpoint records ended.
+	 */
+	public enum StepStatus {
+		/** The step succeeded. */
+		SUCCEEDED,
+		/** The step failed, timed out, or could not be created. */
+		FAILED,
+		/** The step was skipped because an earlier step failed. */
+		SKIPPED
+	}
+
+	private static final byte TYPE_STEP = 1;
+	private static final byte TYPE_FINISHED = 2;
+
+	private final UUID workflowId;
+	private final String workflowName;
+	private final int completedSteps;
+	private final String stepName;
+	private final StepStatus stepStatus;
+	private final boolean finished;
+	private final boolean failed;
+	private final boolean successful;
+	private final long elapsedNanos;
+	private final long timestamp;
+	private final Map<String, Object> parameters;
+
+	private Checkpoint(final UUID workflowId, final String workflowName, final int completedSteps, final String stepName,
+			final StepStatus stepStatus, final boolean finished, final boolean failed, final boolean successful,
+			final long elapsedNanos, final long timestamp, final Map<String, Object> parameters) {
+		this.workflowId = workflowId;
+		this.workflowName = workflowName;
+		this.completedSteps = completedSteps;
+		this.stepName = stepName;
+		this.stepStatus = stepStatus;
+		this.finished = finished;
+		this.failed = failed;
+		this.successful = successful;
+		this.elapsedNanos = elapsedNanos;
+		this.timestamp = timestamp;
+		this.parameters = Collections.unmodifiableMap(parameters);
+	}
+
+	/**
+	 * Gets the id of the workflow.
+	 * @return the workflow id
+	 * @see Workflow#getId()
+	 */
+	public UUID getWorkflowId() {
+		return workflowId;
+	}
+
+	/**
+	 * Gets the name of the workflow.
+	 * @return the name, possibly <code>null</code>
+	 */
+	public String getWorkflowName() {
+		return workflowName;
+	}
+
+	/**
+	 * Gets the number of the workflow's steps that had ended, in order, when the checkpoint was taken.
+	 * @return the number of ended steps
+	 */
+	public int getCompletedSteps() {
+		return completedSteps;
+	}
+
+	/**
+	 * Gets the name of the step whose end the checkpoint records.
+	 * @return the step name, or <code>null</code> if the checkpoint records the end of the workflow.
+	 */
+	public String getStepName() {
+		return stepName;
+	}
+
+	/**
+	 * Gets how the step whose end the checkpoint records ended.
+	 * @return the status, or <code>null</code> if the checkpoint records the end of the workflow.
+	 */
+	public StepStatus getStepStatus() {
+		return stepStatus;
+	}
+
+	/**
+	 * Determines if the checkpoint records the end of the workflow rather than the end of a step.
+	 * @return <code>true</code> if the workflow had finished, <code>false</code> otherwise.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Determines if a step of the workflow had failed by the time the checkpoint was taken, so that only steps marked
+	 * to always run were left to run.  Failures of optional steps do not count.
+	 * @return <code>true</code> if the workflow had failed, <code>false</code> otherwise.
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Determines if the workflow had finished successfully.
+	 * @return <code>true</code> if the checkpoint records the successful end of the workflow, <code>false</code> otherwise.
+	 */
+	public boolean isSuccessful() {
+		return successful;
+	}
+
+	/**
+	 * Gets how long the workflow had been executing when the checkpoint was taken.
+	 * @return the elapsed time, in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Gets when the checkpoint was taken.
+	 * @return the time, in milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Gets the workflow's parameters as they stood when the checkpoint was taken.
+	 * @return the parameters, as an unmodifiable map in name order.
+	 */
+	public Map<String, Object> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Creates the checkpoint recording the end of a step.
+	 * @param workflow the workflow - may not be null
+	 * @param index the position of the step in the workflow
+	 * @param failed whether a step of the workflow has failed
+	 * @param elapsedNanos how long the workflow has been executing
+	 * @return the checkpoint
+	 * @throws IllegalArgumentException if a parameter of the workflow cannot be encoded
+	 */
+	static Checkpoint stepEnded(final Workflow workflow, final int index, final boolean failed, final long elapsedNanos) {
+		final Step step = workflow.getStep(index);
+		final StepStatus status = step.wasSkipped() ? StepStatus.SKIPPED : step.isSuccessful() ? StepStatus.SUCCEEDED : StepStatus.FAILED;
+		return new Checkpoint(workflow.getId(), workflow.getName(), index + 1, step.getName(), status, false, failed, false,
+				elapsedNanos, System.currentTimeMillis(), parametersOf(workflow));
+	}
+
+	/**
+	 * Creates the checkpoint recording the end of a workflow.
+	 * @param workflow the workflow - may not be null
+	 * @param successful whether the workflow succeeded
+	 * @param elapsedNanos how long the workflow executed
+	 * @return the checkpoint
+	 * @throws IllegalArgumentException if a parameter of the workflow cannot be encoded
+	 */
+	static Checkpoint workflowEnded(final Workflow workflow, final boolean successful, final long elapsedNanos) {
+		return new Checkpoint(workflow.getId(), workflow.getName(), workflow.getSteps().size(), null, null, true, !successful, successful,
+				elapsedNanos, System.currentTimeMillis(), parametersOf(workflow));
+	}
+
+	private static Map<String, Object> parametersOf(final Parameterized target) {
+		final Map<String, Object> result = new LinkedHashMap<String, Object>();
+		for (final String key: target.getParameterNames()) {
+			final Object value = target.getLocalParameter(key);
+			if (value == null) continue;
+			if (!BinaryCodec.isSupported(value)) {
+				throw new IllegalArgumentException(String.format("Cannot checkpoint parameter '%s' - values of type %s are not supported.",
+						key, value.getClass().getName()));
+			}
+			result.put(key, value);
+		}
+		return result;
+	}
+
+	/**
+	 * Encodes the checkpoint as the payload of a journal record.
+	 * @return the encoded checkpoint
+	 */
+	byte[] toByteArray() {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(finished ? TYPE_FINISHED : TYPE_STEP);
+			out.writeLong(workflowId.getMostSignificantBits());
+			out.writeLong(workflowId.getLeastSignificantBits());
+			BinaryCodec.writeString(out, workflowName);
+			BinaryCodec.writeVarLong(out, completedSteps);
+			if (finished) {
+				out.writeBoolean(successful);
+			} else {
+				BinaryCodec.writeString(out, stepName);
+				out.writeByte(stepStatus.ordinal());
+				out.writeBoolean(failed);
+			}
+			BinaryCodec.writeVarLong(out, elapsedNanos);
+			BinaryCodec.writeVarLong(out, timestamp);
+			BinaryCodec.writeVarLong(out, parameters.size());
+			for (final Map.Entry<String, Object> entry: parameters.entrySet()) {
+				BinaryCodec.writeString(out, entry.getKey());
+				BinaryCodec.writeValue(out, entry.getValue());
+			}
+			out.flush();
+		} catch (final IOException e) {
+			throw new IllegalStateException("Unexpected exception writing to memory.", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a checkpoint encoded by <code>toByteArray</code>.
+	 * @param payload the encoded checkpoint - may not be null
+	 * @return the checkpoint
+	 * @throws IOException if the payload is malformed
+	 */
+	static Checkpoint fromByteArray(final byte[] payload) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		final byte type = in.readByte();
+		if (type != TYPE_STEP && type != TYPE_FINISHED) throw new IOException(String.format("Unknown checkpoint type %d.", type));
+		final boolean finished = type == TYPE_FINISHED;
+		final UUID workflowId = new UUID(in.readLong(), in.readLong());
+		final String workflowName = BinaryCodec.readString(in);
+		final int completedSteps = BinaryCodec.readLength(in);
+		boolean successful = false;
+		boolean failed;
+		String stepName = null;
+		StepStatus stepStatus = null;
+		if (finished) {
+			successful = in.readBoolean();
+			failed = !successful;
+		} else {
+			stepName = BinaryCodec.readString(in);
+			final int status = in.readUnsignedByte();
+			if (status >= StepStatus.values().length) throw new IOException(String.format("Unknown step status %d.", status));
+			stepStatus = StepStatus.values()[status];
+			failed = in.readBoolean();
+		}
+		final long elapsedNanos = BinaryCodec.readVarLong(in);
+		final long timestamp = BinaryCodec.readVarLong(in);
+		final int count = BinaryCodec.readLength(in);
+		final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < count; i++) {
+			final String key = BinaryCodec.readString(in);
+			if (key == null) throw new IOException("Parameter name is missing.");
+			parameters.put(key, BinaryCodec.readValue(in));
+		}
+		return new Checkpoint(workflowId, workflowName, completedSteps, stepName, stepStatus, finished, failed, successful,
+				elapsedNanos, timestamp, parameters);
+	}
+
+	@Override
+	public String toString() {
+		if (finished) {
+			return String.format("%s '%s': finished %s after %dns", workflowId, workflowName, successful ? "successfully" : "unsuccessfully", elapsedNanos);
+		}
+		return String.format("%s '%s': step %d '%s' %s after %dns", workflowId, workflowName, completedSteps, stepName, stepStatus, elapsedNanos);
+	}
+}
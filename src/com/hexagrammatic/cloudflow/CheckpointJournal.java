@@ -0,0 +1,324 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Append-only file that durably records the progress of workflows, one <code>Checkpoint</code> per ended step.  A
+ * workflow given a journal through <code>Workflow.setCheckpointJournal</code> does not start its next step until the
+ * checkpoint of the previous one has been forced to disk.
+ * <p>
+ * Forcing the file to disk is the expensive part, so the journal commits in groups: checkpoints are handed to a single
+ * background thread, which writes every checkpoint waiting at the time with one write and one force, then releases
+ * all of their writers at once.  While it is forcing one group, the next one gathers, so concurrent workflows sharing
+ * a journal share the cost of each force instead of queueing up behind one another's.
+ * <p>
+ * The file starts with a four byte magic number and a one byte format version.  Each record after that is the length
+ * of its payload, a CRC-32 of the payload, and the payload itself.  A record torn by a crash fails its check; when the
+ * journal is opened, it and anything after it are cut off, so appending can resume after the last intact record.
+ * <p>
+ * Once writing to the file fails, the journal is broken: the failure is reported to every later writer.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Checkpoint
+ * @see Workflow#setCheckpointJournal(CheckpointJournal)
+ */
+public class CheckpointJournal implements Closeable {
+	static final int MAGIC = 0x43464A4E; // 'CFJN'
+	static final byte VERSION = 1;
+	static final int HEADER_LENGTH = 5;
+	static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final Thread flusher;
+	private final Object lock = new Object();
+	private ArrayList<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+	private long appended = 0;
+	private long durable = 0;
+	private long syncs = 0;
+	private boolean closed = false;
+	private IOException failure = null;
+
+	/**
+	 * Opens a journal, creating the file if it does not exist.  Records already in the file are kept, except for a
+	 * torn record at its end, which is cut off.
+	 * @param file the file - may not be null
+	 * @throws IOException if the file cannot be opened, or is not a journal
+	 */
+	public CheckpointJournal(final File file) throws IOException {
+		Validate.notNull(file, "The provided file may not be null.");
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		try {
+			if (channel.size() == 0) {
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+				header.putInt(MAGIC).put(VERSION).flip();
+				writeFully(header);
+				channel.force(true);
+			} else {
+				final long end = scan(channel, null);
+				if (end < channel.size()) {
+					channel.truncate(end);
+					channel.force(true);
+				}
+			}
+			channel.position(channel.size());
+		} catch (final IOException e) {
+			raf.close();
+			throw e;
+		}
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+		flusher.setDaemon(true);
+		flusher.setName(String.format("Cloudflow Checkpoint Journal (%s)", file.getName()));
+		flusher.start();
+	}
+
+	/**
+	 * Gets the file this journal writes to.
+	 * @return the file
+	 */
+	public final File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the number of records made durable since the journal was opened.
+	 * @return the number of records
+	 */
+	public long getRecordCount() {
+		synchronized (lock) {
+			return durable;
+		}
+	}
+
+	/**
+	 * Gets the number of times the file has been forced to disk since the journal was opened.  Comparing this to
+	 * <code>getRecordCount()</code> shows how many records each force has been carrying.
+	 * @return the number of forces
+	 */
+	public long getSyncCount() {
+		synchronized (lock) {
+			return syncs;
+		}
+	}
+
+	/**
+	 * Durably records a checkpoint, waiting until it is on disk.
+	 * @param checkpoint the checkpoint - may not be null
+	 * @throws IOException if the journal is closed or writing to it has failed
+	 * @throws InterruptedException if interrupted while waiting; the checkpoint may still be written
+	 */
+	public void append(final Checkpoint checkpoint) throws IOException, InterruptedException {
+		Validate.notNull(checkpoint, "The provided checkpoint may not be null.");
+		append(checkpoint.toByteArray());
+	}
+
+	/**
+	 * Durably records a payload, waiting until it is on disk.
+	 * @param payload the payload - may not be null
+	 * @throws IOException if the journal is closed or writing to it has failed
+	 * @throws InterruptedException if interrupted while waiting; the payload may still be written
+	 */
+	final void append(final byte[] payload) throws IOException, InterruptedException {
+		Validate.isTrue(payload.length <= MAX_RECORD_LENGTH, String.format("Record of %d bytes is too large.", payload.length));
+		final CRC32 crc = new CRC32();
+		crc.update(payload);
+		final ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+		record.putInt(payload.length).putInt((int)crc.getValue()).put(payload).flip();
+
+		synchronized (lock) {
+			if (failure != null) throw new IOException(String.format("Writing to journal %s has failed.", file), failure);
+			if (closed) throw new IOException(String.format("Journal %s is closed.", file));
+			pending.add(record);
+			final long sequence = ++appended;
+			lock.notifyAll();
+			while (durable < sequence && failure == null) {
+				lock.wait();
+			}
+			if (durable < sequence) throw new IOException(String.format("Writing to journal %s has failed.", file), failure);
+		}
+	}
+
+	/**
+	 * Body of the background thread: writes and forces groups of pending records until the journal is closed and
+	 * nothing is left pending, or writing fails.
+	 */
+	private void flush() {
+		while (true) {
+			final ArrayList<ByteBuffer> group;
+			final long sequence;
+			synchronized (lock) {
+				while (pending.isEmpty() && !closed) {
+					try {
+						lock.wait();
+					} catch (final InterruptedException e) {
+						// Only close() ends this thread.
+					}
+				}
+				if (pending.isEmpty()) return;
+				group = pending;
+				pending = new ArrayList<ByteBuffer>();
+				sequence = appended;
+			}
+			try {
+				final ByteBuffer[] records = group.toArray(new ByteBuffer[group.size()]);
+				while (records[records.length - 1].hasRemaining()) {
+					channel.write(records);
+				}
+				channel.force(false);
+				synchronized (lock) {
+					durable = sequence;
+					syncs++;
+					lock.notifyAll();
+				}
+			} catch (final IOException e) {
+				synchronized (lock) {
+					failure = e;
+					lock.notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+	private void writeFully(final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Closes the journal, waiting for records already appended to be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			if (closed) return;
+			closed = true;
+			lock.notifyAll();
+		}
+		boolean interrupted = false;
+		while (flusher.isAlive()) {
+			try {
+				flusher.join();
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		raf.close();
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Reads the checkpoints in a journal file, in the order they were recorded.  A torn record at the end of the file
+	 * ends the checkpoints read.
+	 * @param file the file - may not be null
+	 * @return the checkpoints, possibly empty.
+	 * @throws IOException if the file cannot be read, is not a journal, or holds a checkpoint that cannot be decoded
+	 */
+	public static List<Checkpoint> read(final File file) throws IOException {
+		Validate.notNull(file, "The provided file may not be null.");
+		final ArrayList<byte[]> payloads = new ArrayList<byte[]>();
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			scan(in.getChannel(), payloads);
+		} finally {
+			in.close();
+		}
+		final ArrayList<Checkpoint> result = new ArrayList<Checkpoint>(payloads.size());
+		for (final byte[] payload: payloads) {
+			result.add(Checkpoint.fromByteArray(payload));
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the latest checkpoint of each workflow in a journal file.  The checkpoints of workflows that have not
+	 * finished are the ones to resume them from after a crash:
+	 * <pre>
+	 * for (final Checkpoint checkpoint: CheckpointJournal.latest(file).values()) {
+	 *     if (!checkpoint.isFinished() &amp;&amp; !checkpoint.isFailed()) {
+	 *         final Workflow workflow = parser.parse(definitionOf(checkpoint.getWorkflowName()));
+	 *         workflow.setCheckpointJournal(journal);
+	 *         workflow.resume(checkpoint);
+	 *     }
+	 * }
+	 * </pre>
+	 * @param file the file - may not be null
+	 * @return the checkpoints, keyed by workflow id, in the order the workflows were first recorded.
+	 * @throws IOException if the file cannot be read, is not a journal, or holds a checkpoint that cannot be decoded
+	 * @see Workflow#resume(Checkpoint)
+	 */
+	public static Map<UUID, Checkpoint> latest(final File file) throws IOException {
+		final Map<UUID, Checkpoint> result = new LinkedHashMap<UUID, Checkpoint>();
+		for (final Checkpoint checkpoint: read(file)) {
+			result.put(checkpoint.getWorkflowId(), checkpoint);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks the header of a journal and reads records until the end of the file or the first torn record.
+	 * @param channel the channel to read - may not be null
+	 * @param payloads where to add the payloads of the records read; may be <code>null</code> to only check them
+	 * @return the position just past the last intact record
+	 * @throws IOException if reading fails or the file is not a journal
+	 */
+	static long scan(final FileChannel channel, final List<byte[]> payloads) throws IOException {
+		final long size = channel.size();
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		if (!readFully(channel, header, 0) || header.getInt(0) != MAGIC) {
+			throw new IOException("File is not a checkpoint journal.");
+		}
+		if (header.get(4) != VERSION) {
+			throw new IOException(String.format("Unsupported checkpoint journal version %d.", header.get(4)));
+		}
+		long position = HEADER_LENGTH;
+		final ByteBuffer prefix = ByteBuffer.allocate(8);
+		final CRC32 crc = new CRC32();
+		while (position < size) {
+			prefix.clear();
+			if (!readFully(channel, prefix, position)) break;
+			final int length = prefix.getInt(0);
+			if (length < 0 || length > MAX_RECORD_LENGTH || position + 8 + length > size) break;
+			final ByteBuffer payload = ByteBuffer.allocate(length);
+			if (!readFully(channel, payload, position + 8)) break;
+			crc.reset();
+			crc.update(payload.array());
+			if ((int)crc.getValue() != prefix.getInt(4)) break;
+			if (payloads != null) payloads.add(payload.array());
+			position += 8 + length;
+		}
+		return position;
+	}
+
+	private static boolean readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, position);
+			if (read < 0) return false;
+			position += read;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,85 @@
+package com.hexagrammatic.cloudflow;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Metrics implementation that passes every event on to several others, in the order they were provided, so a workflow
+ * can report to more than one place at once - for instance, to both <code>HistogramMetrics</code> and a profiler.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Metrics
+ */
+public class CompositeMetrics implements Metrics {
+	private final Metrics[] delegates;
+
+	/**
+	 * Creates a new instance.
+	 * @param delegates the metrics to pass events on to - may not be null or contain null
+	 */
+	public CompositeMetrics(final Metrics... delegates) {
+		Validate.notNull(delegates, "The provided metrics may not be null.");
+		Validate.noNullElements(delegates, "The provided metrics may not contain null.");
+		this.delegates = delegates.clone();
+	}
+
+	@Override
+	public void workflowParsed(final Workflow workflow, final long elapsedNanos) {
+		for (final Metrics delegate: delegates) delegate.workflowParsed(workflow, elapsedNanos);
+	}
+
+	@Override
+	public void workflowStarted(final Workflow workflow) {
+		for (final Metrics delegate: delegates) delegate.workflowStarted(workflow);
+	}
+
+	@Override
+	public void workflowCompleted(final Workflow workflow, final long elapsedNanos, final boolean successful) {
+		for (final Metrics delegate: delegates) delegate.workflowCompleted(workflow, elapsedNanos, successful);
+	}
+
+	@Override
+	public void workflowHalted(final Workflow workflow) {
+		for (final Metrics delegate: delegates) delegate.workflowHalted(workflow);
+	}
+
+	@Override
+	public void stepStarted(final Step step, final Attempt attempt) {
+		for (final Metrics delegate: delegates) delegate.stepStarted(step, attempt);
+	}
+
+	@Override
+	public void stepExecuting(final Step step, final Attempt attempt) {
+		for (final Metrics delegate: delegates) delegate.stepExecuting(step, attempt);
+	}
+
+	@Override
+	public void stepExecuted(final Step step, final Attempt attempt) {
+		for (final Metrics delegate: delegates) delegate.stepExecuted(step, attempt);
+	}
+
+	@Override
+	public void stepCompleted(final Step step, final Attempt attempt) {
+		for (final Metrics delegate: delegates) delegate.stepCompleted(step, attempt);
+	}
+
+	@Override
+	public void stepRetried(final Step step, final Attempt attempt) {
+		for (final Metrics delegate: delegates) delegate.stepRetried(step, attempt);
+	}
+
+	@Override
+	public void stepRetryWaited(final Step step, final long waitedNanos) {
+		for (final Metrics delegate: delegates) delegate.stepRetryWaited(step, waitedNanos);
+	}
+
+	@Override
+	public void stepTimedOut(final Step step, final Attempt attempt) {
+		for (final Metrics delegate: delegates) delegate.stepTimedOut(step, attempt);
+	}
+
+	@Override
+	public void stepSkipped(final Step step) {
+		for (final Metrics delegate: delegates) delegate.stepSkipped(step);
+	}
+}
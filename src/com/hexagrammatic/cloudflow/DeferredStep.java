@@ -0,0 +1,73 @@
+package com.hexagrammatic.cloudflow;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Lightweight stand-in for a step whose construction is put off until the workflow reaches it.  Only the name and the
+ * <code>optional</code> and <code>alwaysRun</code> flags are read from the definition up front; the step class is not
+ * loaded, and the step not created or populated, until <code>materialize()</code> is called.  If the workflow fails
+ * before reaching the step and the step is not "always run", it is skipped without ever being created.
+ * <p>
+ * Unless the definition names the step, the stand-in takes the name the real step would have by default, so checkpoints
+ * name the step the same way whether or not it was ever created.  Parameters added to the stand-in before it is
+ * materialized are carried over to the real step.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see JsonParser#setLazySteps(boolean)
+ */
+final class DeferredStep extends Step {
+	private final JsonParser parser;
+	private final JsonObject definition;
+	private Step materialized = null;
+
+	DeferredStep(final JsonParser parser, final JsonObject definition, final String defaultName) {
+		this.parser = parser;
+		this.definition = definition;
+
+		final JsonElement name = definition.get("name");
+		if (name != null && name.isJsonPrimitive() && name.getAsString().trim().length() > 0) {
+			setName(name.getAsString());
+		} else {
+			setName(defaultName);
+		}
+		final JsonElement optional = definition.get("optional");
+		if (optional != null && optional.isJsonPrimitive() && optional.getAsJsonPrimitive().isBoolean()) {
+			setOptional(optional.getAsBoolean());
+		}
+		final JsonElement alwaysRun = definition.get("alwaysRun");
+		if (alwaysRun != null && alwaysRun.isJsonPrimitive() && alwaysRun.getAsJsonPrimitive().isBoolean()) {
+			setAlwaysRun(alwaysRun.getAsBoolean());
+		}
+	}
+
+	/**
+	 * Creates and populates the real step from its definition, the first time this is called.
+	 * @return the real step - never this stand-in.
+	 * @throws WorkflowCreationException if the step cannot be created from its definition, including when a setting in the
+	 * definition is invalid.
+	 */
+	@Override
+	synchronized Step materialize() throws WorkflowCreationException {
+		if (materialized == null) {
+			final Step step;
+			try {
+				step = parser.populateStep(definition);
+			} catch (final RuntimeException e) {
+				throw new WorkflowCreationException(String.format("Unable to create step '%s' from its definition: %s", getName(), e.getMessage()), e);
+			}
+			for (final String key: getParameterNames()) {
+				final Object value = getLocalParameter(key);
+				if (value != null) step.addParameter(key, value);
+			}
+			materialized = step;
+		}
+		return materialized;
+	}
+
+	@Override
+	protected void execute() throws InterruptedException {
+		throw new IllegalStateException(String.format("Step '%s' must be materialized before it is executed.", getName()));
+	}
+}
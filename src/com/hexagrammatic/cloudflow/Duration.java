@@ -0,0 +1,90 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Immutable span of time, consisting of a value and the units of that value, as parsed from time tuples such as
+ * "5 MINUTES".  The special value <code>NEVER</code> stands for the absence of a time limit or wait.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Utils#parseTimeTuple(String)
+ */
+public final class Duration {
+	/**
+	 * The duration that never elapses, used for timeouts that never expire and waits that never happen.
+	 */
+	public static final Duration NEVER = new Duration(-1, null);
+
+	private final long value;
+	private final TimeUnit unit;
+
+	private Duration(final long value, final TimeUnit unit) {
+		this.value = value;
+		this.unit = unit;
+	}
+
+	/**
+	 * Gets the duration for a value and units.
+	 * @param value the value - if negative, <code>NEVER</code> is returned
+	 * @param unit the units - may not be null unless the value is negative
+	 * @return the duration
+	 */
+	public static Duration of(final long value, final TimeUnit unit) {
+		if (value < 0) return NEVER;
+		Validate.notNull(unit, "The provided time units may not be null.");
+		return new Duration(value, unit);
+	}
+
+	/**
+	 * Gets the numeric component of this duration.
+	 * @return the value, or -1 if this duration is <code>NEVER</code>.
+	 */
+	public long getValue() {
+		return value;
+	}
+
+	/**
+	 * Gets the units component of this duration.
+	 * @return the units, or <code>null</code> if this duration is <code>NEVER</code>.
+	 */
+	public TimeUnit getUnit() {
+		return unit;
+	}
+
+	/**
+	 * Determines if this is the duration that never elapses.
+	 * @return <code>true</code> if this duration is <code>NEVER</code>, <code>false</code> otherwise.
+	 */
+	public boolean isNever() {
+		return value < 0;
+	}
+
+	/**
+	 * Converts this duration to nanoseconds.
+	 * @return the duration in nanoseconds, or -1 if this duration is <code>NEVER</code>.
+	 */
+	public long toNanos() {
+		return isNever() ? -1 : unit.toNanos(value);
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (other == this) return true;
+		if (!(other instanceof Duration)) return false;
+		final Duration duration = (Duration)other;
+		return value == duration.value && unit == duration.unit;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(value ^ (value >>> 32)) * 31 + (unit == null ? 0 : unit.hashCode());
+	}
+
+	@Override
+	public String toString() {
+		return Utils.createTimeTuple(value, unit);
+	}
+}
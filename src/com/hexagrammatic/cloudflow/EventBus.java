@@ -0,0 +1,265 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.Closeable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Metrics implementation that turns workflow and step lifecycle events into <code>WorkflowEvent</code>s and delivers
+ * them to <code>WorkflowListener</code>s on a thread of its own.
+ * <p>
+ * Events pass through a ring buffer of events allocated up front, so publishing an event never allocates, never locks,
+ * and never waits on listeners: the publishing thread claims a slot, fills it in, and moves on.  The delivery thread
+ * hands listeners every event waiting for it as a batch, then frees the batch's slots.  If listeners fall so far behind
+ * that the buffer fills up, new events are dropped rather than holding up the workflows publishing them; the number
+ * dropped is available through <code>getDroppedCount()</code>.  While there is nothing to deliver, the delivery thread
+ * blocks until the next event is published.
+ * <p>
+ * Listeners that throw exceptions do not stop delivery to themselves or to other listeners; the number of such
+ * failures is available through <code>getListenerFailureCount()</code>.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Workflow#setMetrics(Metrics)
+ */
+public class EventBus implements Metrics, Closeable {
+	/**
+	 * The number of events buffered when no capacity is provided.
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private static final int SPINS_BEFORE_PARKING = 100;
+	private static final long SEALED = -1;
+
+	private final WorkflowEvent[] ring;
+	private final int mask;
+	private final AtomicLong claimed = new AtomicLong();
+	private volatile long consumed = 0;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong listenerFailures = new AtomicLong();
+	private final CopyOnWriteArrayList<WorkflowListener> listeners = new CopyOnWriteArrayList<WorkflowListener>();
+	private final Thread consumer;
+	private volatile boolean running = true;
+	private volatile boolean sleeping = false;
+
+	/**
+	 * Creates a new instance buffering up to <code>DEFAULT_CAPACITY</code> events, and starts its delivery thread.
+	 */
+	public EventBus() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new instance and starts its delivery thread.  The delivery thread is a daemon thread, so an instance
+	 * that is never closed does not keep the JVM alive.
+	 * @param capacity the number of events buffered - must be a positive power of two
+	 */
+	public EventBus(final int capacity) {
+		Validate.isTrue(capacity > 0 && Integer.bitCount(capacity) == 1, "The provided capacity must be a positive power of two.");
+		ring = new WorkflowEvent[capacity];
+		for (int i = 0; i < capacity; i++) {
+			ring[i] = new WorkflowEvent();
+		}
+		mask = capacity - 1;
+		consumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				deliver();
+			}
+		});
+		consumer.setDaemon(true);
+		consumer.setName("Cloudflow EventBus");
+		consumer.start();
+	}
+
+	/**
+	 * Adds a listener.  Listeners only receive events delivered after they are added.
+	 * @param listener the listener - may not be null
+	 */
+	public void addListener(final WorkflowListener listener) {
+		Validate.notNull(listener, "The provided listener may not be null.");
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 * @param listener the listener to remove
+	 */
+	public void removeListener(final WorkflowListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Gets the number of events dropped, either because the buffer was full or because the bus had been closed.
+	 * @return the number of events dropped
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the number of times a listener threw an exception out of <code>onEvent</code>.
+	 * @return the number of listener failures
+	 */
+	public long getListenerFailureCount() {
+		return listenerFailures.get();
+	}
+
+	/**
+	 * Gets the number of events published but not yet delivered.
+	 * @return the number of events waiting
+	 */
+	public long getPendingCount() {
+		final long sequence = claimed.get();
+		return sequence == SEALED ? 0 : sequence - consumed;
+	}
+
+	/**
+	 * Stops accepting events, delivers those already published, and stops the delivery thread.
+	 * @throws IllegalStateException if interrupted while waiting for delivery to finish.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(consumer);
+		try {
+			consumer.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for event delivery to finish.", e);
+		}
+	}
+
+	@Override
+	public void workflowParsed(final Workflow workflow, final long elapsedNanos) {
+		publish(WorkflowEvent.Type.WORKFLOW_PARSED, workflow, null, null, elapsedNanos, true);
+	}
+
+	@Override
+	public void workflowStarted(final Workflow workflow) {
+		publish(WorkflowEvent.Type.WORKFLOW_STARTED, workflow, null, null, 0, false);
+	}
+
+	@Override
+	public void workflowCompleted(final Workflow workflow, final long elapsedNanos, final boolean successful) {
+		publish(WorkflowEvent.Type.WORKFLOW_COMPLETED, workflow, null, null, elapsedNanos, successful);
+	}
+
+	@Override
+	public void workflowHalted(final Workflow workflow) {
+		publish(WorkflowEvent.Type.WORKFLOW_HALTED, workflow, null, null, 0, false);
+	}
+
+	@Override
+	public void stepStarted(final Step step, final Attempt attempt) {
+		publish(WorkflowEvent.Type.ATTEMPT_STARTED, step.getWorkflow(), step, attempt, 0, false);
+	}
+
+	@Override
+	public void stepExecuting(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepExecuted(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepCompleted(final Step step, final Attempt attempt) {
+		final boolean successful = attempt != null && attempt.getOutcome() == Attempt.Outcome.SUCCEEDED;
+		final long elapsed = attempt == null ? 0 : attempt.getTotalNanos();
+		if (attempt != null && !successful) {
+			publish(WorkflowEvent.Type.ATTEMPT_FAILED, step.getWorkflow(), step, attempt, elapsed, false);
+		}
+		publish(WorkflowEvent.Type.STEP_COMPLETED, step.getWorkflow(), step, attempt, elapsed, successful);
+	}
+
+	@Override
+	public void stepRetried(final Step step, final Attempt attempt) {
+		publish(WorkflowEvent.Type.ATTEMPT_FAILED, step.getWorkflow(), step, attempt, attempt == null ? 0 : attempt.getTotalNanos(), false);
+	}
+
+	@Override
+	public void stepRetryWaited(final Step step, final long waitedNanos) {
+		publish(WorkflowEvent.Type.STEP_RETRIED, step.getWorkflow(), step, step.getLastAttempt(), waitedNanos, false);
+	}
+
+	@Override
+	public void stepTimedOut(final Step step, final Attempt attempt) {
+		publish(WorkflowEvent.Type.STEP_TIMED_OUT, step.getWorkflow(), step, attempt, attempt == null ? 0 : attempt.getTotalNanos(), false);
+	}
+
+	@Override
+	public void stepSkipped(final Step step) {
+		publish(WorkflowEvent.Type.STEP_SKIPPED, step.getWorkflow(), step, null, 0, false);
+	}
+
+	/**
+	 * Claims the next slot in the ring, fills it in, and makes it visible to the delivery thread, waking it if it is
+	 * blocked.  If the ring is full or the bus is closed, the event is dropped.
+	 */
+	private void publish(final WorkflowEvent.Type type, final Workflow workflow, final Step step, final Attempt attempt,
+			final long elapsedNanos, final boolean successful) {
+		if (!running) {
+			dropped.incrementAndGet();
+			return;
+		}
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence == SEALED || sequence - consumed >= ring.length) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+		final WorkflowEvent event = ring[(int)(sequence & mask)];
+		event.set(type, workflow, step, attempt, elapsedNanos, successful);
+		event.publish(sequence);
+		if (sleeping) LockSupport.unpark(consumer);
+	}
+
+	/**
+	 * Body of the delivery thread: hands every published event waiting to the listeners as a batch, then frees
+	 * the batch's slots, until the bus is closed and every claimed slot has been delivered.  The delivery thread
+	 * stops by sealing the sequence, so a publisher that got past the check of <code>running</code> before the bus
+	 * closed either claims a slot that is still delivered, or finds the sequence sealed and counts its event as dropped.
+	 */
+	private void deliver() {
+		long next = 0;
+		int idle = 0;
+		while (true) {
+			long available = next;
+			while (available - next < ring.length && ring[(int)(available & mask)].getPublished() == available) {
+				available++;
+			}
+			if (available == next) {
+				if (!running && claimed.compareAndSet(next, SEALED)) return;
+				if (++idle < SPINS_BEFORE_PARKING) {
+					Thread.yield();
+				} else {
+					sleeping = true;
+					if (running && ring[(int)(next & mask)].getPublished() != next) {
+						LockSupport.park(this);
+					}
+					sleeping = false;
+				}
+				continue;
+			}
+			idle = 0;
+			for (long sequence = next; sequence < available; sequence++) {
+				final WorkflowEvent event = ring[(int)(sequence & mask)];
+				final boolean endOfBatch = sequence == available - 1;
+				for (final WorkflowListener listener: listeners) {
+					try {
+						listener.onEvent(event, endOfBatch);
+					} catch (final RuntimeException e) {
+						listenerFailures.incrementAndGet();
+					}
+				}
+				event.clear();
+			}
+			consumed = available;
+			next = available;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Metrics implementation that keeps an audit trail of every workflow and step event in a binary, append-only log.  The
+ * log is a directory of fixed-size segment files, each memory-mapped in turn; once one fills up, the next is created.
+ * Each event is written as a fixed-layout <code>ExecutionLogEntry</code> into a slot claimed with a single atomic
+ * increment, so writing is lock-free and allocation-free, and a single instance can be shared by every workflow in a
+ * process, such as through <code>Workflow.setDefaultMetrics</code>.
+ * <p>
+ * Entries are written into the operating system's page cache, so they survive the JVM exiting but not the machine
+ * failing; call <code>force()</code> to write them to disk.  Each log starts a new segment when opened, so segments are
+ * never shared between processes.  Segments are never deleted by the log; removing old ones is up to the caller.
+ * <p>
+ * If a segment cannot be created, events are dropped, and counted, until the log is reopened.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see ExecutionLogReader
+ * @see Workflow#setMetrics(Metrics)
+ */
+public class ExecutionLog implements Metrics, Closeable {
+	/** The default size of each segment file, in bytes. */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	static final int MAGIC = 0x43464C47; // 'CFLG'
+	static final byte VERSION = 1;
+	static final String SEGMENT_SUFFIX = ".log";
+
+	private static final byte WORKFLOW_PARSED = ExecutionLogEntry.code(ExecutionLogEntry.Type.WORKFLOW_PARSED);
+	private static final byte WORKFLOW_STARTED = ExecutionLogEntry.code(ExecutionLogEntry.Type.WORKFLOW_STARTED);
+	private static final byte WORKFLOW_COMPLETED = ExecutionLogEntry.code(ExecutionLogEntry.Type.WORKFLOW_COMPLETED);
+	private static final byte WORKFLOW_HALTED = ExecutionLogEntry.code(ExecutionLogEntry.Type.WORKFLOW_HALTED);
+	private static final byte STEP_STARTED = ExecutionLogEntry.code(ExecutionLogEntry.Type.STEP_STARTED);
+	private static final byte STEP_EXECUTING = ExecutionLogEntry.code(ExecutionLogEntry.Type.STEP_EXECUTING);
+	private static final byte STEP_EXECUTED = ExecutionLogEntry.code(ExecutionLogEntry.Type.STEP_EXECUTED);
+	private static final byte STEP_COMPLETED = ExecutionLogEntry.code(ExecutionLogEntry.Type.STEP_COMPLETED);
+	private static final byte STEP_RETRIED = ExecutionLogEntry.code(ExecutionLogEntry.Type.STEP_RETRIED);
+	private static final byte STEP_RETRY_WAITED = ExecutionLogEntry.code(ExecutionLogEntry.Type.STEP_RETRY_WAITED);
+	private static final byte STEP_TIMED_OUT = ExecutionLogEntry.code(ExecutionLogEntry.Type.STEP_TIMED_OUT);
+	private static final byte STEP_SKIPPED = ExecutionLogEntry.code(ExecutionLogEntry.Type.STEP_SKIPPED);
+	private static final byte IN_PROGRESS = (byte)Attempt.Outcome.IN_PROGRESS.ordinal();
+	private static final byte SUCCEEDED = (byte)Attempt.Outcome.SUCCEEDED.ordinal();
+	private static final byte FAILED = (byte)Attempt.Outcome.FAILED.ordinal();
+
+	private final File directory;
+	private final int segmentSize;
+	private final long baseNanos = System.nanoTime();
+	private final long baseEpochNanos = System.currentTimeMillis() * 1000000L;
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile Segment current;
+	private boolean closed = false;
+
+	/**
+	 * Opens a log with segments of the default size.
+	 * @param directory the directory to keep segments in, which is created if it does not exist - may not be null
+	 * @throws IOException if the directory or the first segment cannot be created
+	 */
+	public ExecutionLog(final File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens a log.
+	 * @param directory the directory to keep segments in, which is created if it does not exist - may not be null
+	 * @param segmentSize the size of each segment file, in bytes; rounded down to a whole number of entries
+	 * @throws IOException if the directory or the first segment cannot be created
+	 * @throws IllegalArgumentException if the segment size cannot hold at least one entry
+	 */
+	public ExecutionLog(final File directory, final int segmentSize) throws IOException {
+		Validate.notNull(directory, "The provided directory may not be null.");
+		Validate.isTrue(segmentSize >= 2 * ExecutionLogEntry.SIZE,
+				String.format("Segments must be at least %d bytes.", 2 * ExecutionLogEntry.SIZE));
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException(String.format("Unable to create directory %s.", directory));
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize - segmentSize % ExecutionLogEntry.SIZE;
+		final long[] existing = segments(directory);
+		this.current = open(existing.length == 0 ? 0 : existing[existing.length - 1] + 1);
+	}
+
+	/**
+	 * Gets the directory segments are kept in.
+	 * @return the directory
+	 */
+	public final File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Gets the number of events dropped because a segment could not be created or the log was closed.
+	 * @return the number of events dropped
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes the entries in the current segment to disk.
+	 */
+	public void force() {
+		final Segment segment = current;
+		if (segment != null) segment.buffer.force();
+	}
+
+	/**
+	 * Closes the log, writing the current segment to disk.  Events reported afterwards are dropped.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		force();
+		current = null;
+	}
+
+	private Segment open(final long sequence) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(segmentFile(directory, sequence), "rw");
+		try {
+			file.setLength(segmentSize);
+			final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			buffer.putInt(0, MAGIC);
+			buffer.put(4, VERSION);
+			buffer.putInt(8, ExecutionLogEntry.SIZE);
+			buffer.putLong(16, sequence);
+			return new Segment(sequence, buffer, segmentSize / ExecutionLogEntry.SIZE);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Replaces a full segment with the next one, unless another thread already has.
+	 * @param full the segment found to be full
+	 * @return the segment to write to, or <code>null</code> if the log is closed or a segment cannot be created.
+	 */
+	private synchronized Segment roll(final Segment full) {
+		if (closed || current != full) return current;
+		try {
+			current = open(full.sequence + 1);
+		} catch (final IOException e) {
+			current = null;
+		}
+		return current;
+	}
+
+	private void write(final byte type, final byte outcome, final Workflow workflow, final int step, final int attempt,
+			final long nanos, final long durationNanos) {
+		final long high = workflow == null ? 0 : workflow.getId().getMostSignificantBits();
+		final long low = workflow == null ? 0 : workflow.getId().getLeastSignificantBits();
+		final long epochNanos = baseEpochNanos + (nanos - baseNanos);
+		Segment segment = current;
+		while (segment != null) {
+			final int slot = segment.next.getAndIncrement();
+			if (slot < segment.capacity) {
+				ExecutionLogEntry.write(segment.buffer, slot * ExecutionLogEntry.SIZE, type, outcome, step, attempt,
+						high, low, epochNanos, durationNanos);
+				return;
+			}
+			segment = roll(segment);
+		}
+		dropped.incrementAndGet();
+	}
+
+	private void write(final byte type, final Step step, final Attempt attempt, final long durationNanos) {
+		write(type, attempt == null ? IN_PROGRESS : (byte)attempt.getOutcome().ordinal(), step.getWorkflow(), step.getIndex(),
+				attempt == null ? 0 : attempt.getNumber(), System.nanoTime(), durationNanos);
+	}
+
+	@Override
+	public void workflowParsed(final Workflow workflow, final long elapsedNanos) {
+		write(WORKFLOW_PARSED, IN_PROGRESS, workflow, -1, 0, System.nanoTime(), elapsedNanos);
+	}
+
+	@Override
+	public void workflowStarted(final Workflow workflow) {
+		write(WORKFLOW_STARTED, IN_PROGRESS, workflow, -1, 0, System.nanoTime(), 0);
+	}
+
+	@Override
+	public void workflowCompleted(final Workflow workflow, final long elapsedNanos, final boolean successful) {
+		write(WORKFLOW_COMPLETED, successful ? SUCCEEDED : FAILED, workflow, -1, 0, System.nanoTime(), elapsedNanos);
+	}
+
+	@Override
+	public void workflowHalted(final Workflow workflow) {
+		write(WORKFLOW_HALTED, IN_PROGRESS, workflow, -1, 0, System.nanoTime(), 0);
+	}
+
+	@Override
+	public void stepStarted(final Step step, final Attempt attempt) {
+		write(STEP_STARTED, step, attempt, 0);
+	}
+
+	@Override
+	public void stepExecuting(final Step step, final Attempt attempt) {
+		write(STEP_EXECUTING, step, attempt, attempt.getQueuedNanos());
+	}
+
+	@Override
+	public void stepExecuted(final Step step, final Attempt attempt) {
+		write(STEP_EXECUTED, step, attempt, attempt.getRunNanos());
+	}
+
+	@Override
+	public void stepCompleted(final Step step, final Attempt attempt) {
+		write(STEP_COMPLETED, step, attempt, attempt.getTotalNanos());
+	}
+
+	@Override
+	public void stepRetried(final Step step, final Attempt attempt) {
+		write(STEP_RETRIED, step, attempt, attempt.getTotalNanos());
+	}
+
+	@Override
+	public void stepRetryWaited(final Step step, final long waitedNanos) {
+		write(STEP_RETRY_WAITED, step, step.getLastAttempt(), waitedNanos);
+	}
+
+	@Override
+	public void stepTimedOut(final Step step, final Attempt attempt) {
+		write(STEP_TIMED_OUT, step, attempt, attempt.getTotalNanos());
+	}
+
+	@Override
+	public void stepSkipped(final Step step) {
+		write(STEP_SKIPPED, step, null, 0);
+	}
+
+	/**
+	 * Gets the file holding a segment.
+	 * @param directory the directory of the log
+	 * @param sequence the sequence number of the segment
+	 * @return the file
+	 */
+	static File segmentFile(final File directory, final long sequence) {
+		return new File(directory, String.format("%016d%s", sequence, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Finds the segments of a log.
+	 * @param directory the directory of the log
+	 * @return the sequence numbers of the segments, in ascending order.
+	 */
+	static long[] segments(final File directory) {
+		final String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(final File dir, final String name) {
+				return name.length() == 16 + SEGMENT_SUFFIX.length() && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (names == null) return new long[0];
+		final long[] result = new long[names.length];
+		int count = 0;
+		for (final String name: names) {
+			try {
+				result[count] = Long.parseLong(name.substring(0, 16));
+				count++;
+			} catch (final NumberFormatException e) {
+				// Not a segment.
+			}
+		}
+		final long[] sequences = Arrays.copyOf(result, count);
+		Arrays.sort(sequences);
+		return sequences;
+	}
+
+	private static final class Segment {
+		private final long sequence;
+		private final MappedByteBuffer buffer;
+		private final int capacity;
+		private final AtomicInteger next = new AtomicInteger(1);
+
+		Segment(final long sequence, final MappedByteBuffer buffer, final int capacity) {
+			this.sequence = sequence;
+			this.buffer = buffer;
+			this.capacity = capacity;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.hexagrammatic.cloudflow;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Entry of an <code>ExecutionLog</code>, as read back by an <code>ExecutionLogReader</code>.  Entries are fixed-layout:
+ * the type of the event, the outcome of the try or workflow it concerns, the position of the step in its workflow and
+ * the try number, the id of the workflow, when the event happened, and a duration whose meaning depends on the event.
+ * <p>
+ * Instances are mutable so a reader can fill the same one with entry after entry without allocating.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see ExecutionLog
+ * @see ExecutionLogReader
+ */
+public final class ExecutionLogEntry {
+	/**
+	 * The event an entry records, named after the <code>Metrics</code> call that produced it.
+	 */
+	public enum Type {
+		/** A workflow was parsed; the duration is how long parsing took. */
+		WORKFLOW_PARSED,
+		/** A workflow started executing. */
+		WORKFLOW_STARTED,
+		/** A workflow finished executing; the duration is how long it executed. */
+		WORKFLOW_COMPLETED,
+		/** A workflow was halted. */
+		WORKFLOW_HALTED,
+		/** A try of a step was submitted for execution. */
+		STEP_STARTED,
+		/** A thread picked up a try of a step; the duration is how long the try was queued. */
+		STEP_EXECUTING,
+		/** A step's <code>execute()</code> method returned or threw; the duration is how long it ran. */
+		STEP_EXECUTED,
+		/** The final try of a step ended; the duration is how long the try took from submission. */
+		STEP_COMPLETED,
+		/** A try of a step failed and will be retried; the duration is how long the try took from submission. */
+		STEP_RETRIED,
+		/** The wait before a retry ended; the duration is how long the wait was. */
+		STEP_RETRY_WAITED,
+		/** A try of a step timed out; the duration is how long the try took from submission. */
+		STEP_TIMED_OUT,
+		/** A step was skipped. */
+		STEP_SKIPPED
+	}
+
+	static final int SIZE = 48;
+	private static final int TYPE = 0;
+	private static final int OUTCOME = 1;
+	private static final int STEP = 4;
+	private static final int ATTEMPT = 8;
+	private static final int CHECK = 12;
+	private static final int WORKFLOW_HIGH = 16;
+	private static final int WORKFLOW_LOW = 24;
+	private static final int EPOCH_NANOS = 32;
+	private static final int DURATION_NANOS = 40;
+	private static final Type[] TYPES = Type.values();
+	private static final Attempt.Outcome[] OUTCOMES = Attempt.Outcome.values();
+
+	private Type type;
+	private Attempt.Outcome outcome;
+	private int step;
+	private int attempt;
+	private long workflowHigh;
+	private long workflowLow;
+	private long epochNanos;
+	private long durationNanos;
+
+	/**
+	 * Gets the event the entry records.
+	 * @return the type of event
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the outcome of the try or workflow the entry concerns.  Only entries recording the end of a try or of a
+	 * workflow carry an outcome; the rest have <code>IN_PROGRESS</code>.
+	 * @return the outcome
+	 */
+	public Attempt.Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * Gets the position of the step in its workflow.
+	 * @return the position of the step, starting at 0, or -1 for workflow events.
+	 */
+	public int getStepIndex() {
+		return step;
+	}
+
+	/**
+	 * Gets the try number of the step.
+	 * @return the try number, starting at 1, or 0 for workflow events and skipped steps.
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+	/**
+	 * Gets the id of the workflow.
+	 * @return the workflow id
+	 * @see Workflow#getId()
+	 */
+	public UUID getWorkflowId() {
+		return new UUID(workflowHigh, workflowLow);
+	}
+
+	/**
+	 * Gets when the event happened.
+	 * @return the time of the event, in nanoseconds since the epoch
+	 */
+	public long getEpochNanos() {
+		return epochNanos;
+	}
+
+	/**
+	 * Gets the duration the entry records; see <code>Type</code> for what it measures for each event.
+	 * @return the duration, in nanoseconds, or 0 for events without one.
+	 */
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	/**
+	 * Writes an entry.  Every field but the type is written first, so a reader sees no type until the rest is in
+	 * place, and the check covers the fields in case the writes become visible out of order.
+	 */
+	static void write(final ByteBuffer buffer, final int offset, final byte type, final byte outcome, final int step,
+			final int attempt, final long workflowHigh, final long workflowLow, final long epochNanos, final long durationNanos) {
+		buffer.put(offset + OUTCOME, outcome);
+		buffer.putInt(offset + STEP, step);
+		buffer.putInt(offset + ATTEMPT, attempt);
+		buffer.putLong(offset + WORKFLOW_HIGH, workflowHigh);
+		buffer.putLong(offset + WORKFLOW_LOW, workflowLow);
+		buffer.putLong(offset + EPOCH_NANOS, epochNanos);
+		buffer.putLong(offset + DURATION_NANOS, durationNanos);
+		buffer.putInt(offset + CHECK, check(type, outcome, step, attempt, workflowHigh, workflowLow, epochNanos, durationNanos));
+		buffer.put(offset + TYPE, type);
+	}
+
+	/**
+	 * Reads an entry into this instance.
+	 * @return <code>true</code> if a whole entry was read, <code>false</code> if the entry has not been written, or
+	 * not all of it yet; this instance is left unchanged in that case.
+	 */
+	boolean read(final ByteBuffer buffer, final int offset) {
+		final byte type = buffer.get(offset + TYPE);
+		if (type <= 0 || type > TYPES.length) return false;
+		final byte outcome = buffer.get(offset + OUTCOME);
+		final int step = buffer.getInt(offset + STEP);
+		final int attempt = buffer.getInt(offset + ATTEMPT);
+		final long workflowHigh = buffer.getLong(offset + WORKFLOW_HIGH);
+		final long workflowLow = buffer.getLong(offset + WORKFLOW_LOW);
+		final long epochNanos = buffer.getLong(offset + EPOCH_NANOS);
+		final long durationNanos = buffer.getLong(offset + DURATION_NANOS);
+		if (outcome < 0 || outcome >= OUTCOMES.length ||
+				buffer.getInt(offset + CHECK) != check(type, outcome, step, attempt, workflowHigh, workflowLow, epochNanos, durationNanos)) {
+			return false;
+		}
+		this.type = TYPES[type - 1];
+		this.outcome = OUTCOMES[outcome];
+		this.step = step;
+		this.attempt = attempt;
+		this.workflowHigh = workflowHigh;
+		this.workflowLow = workflowLow;
+		this.epochNanos = epochNanos;
+		this.durationNanos = durationNanos;
+		return true;
+	}
+
+	/**
+	 * Gets the code an entry type is written as.
+	 */
+	static byte code(final Type type) {
+		return (byte)(type.ordinal() + 1);
+	}
+
+	private static int check(final byte type, final byte outcome, final int step, final int attempt, final long workflowHigh,
+			final long workflowLow, final long epochNanos, final long durationNanos) {
+		long hash = workflowHigh;
+		hash = hash * 31 + workflowLow;
+		hash = hash * 31 + epochNanos;
+		hash = hash * 31 + durationNanos;
+		hash = hash * 31 + (((long)step << 32) | (attempt & 0xFFFFFFFFL));
+		hash = hash * 31 + ((type << 8) | (outcome & 0xFF));
+		return (int)(hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d %s workflow=%s step=%d attempt=%d outcome=%s duration=%dns",
+				epochNanos, type, getWorkflowId(), step, attempt, outcome, durationNanos);
+	}
+}
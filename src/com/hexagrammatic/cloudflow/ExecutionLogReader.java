@@ -0,0 +1,161 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Reads the entries of an <code>ExecutionLog</code> in the order they were written, segment by segment, while the log
+ * may still be written to.  When the reader reaches the end of what has been written, <code>next</code> returns
+ * <code>false</code>; calling it again later picks up where it left off, so tailing a log is a matter of polling.
+ * <p>
+ * An entry slot left empty by a writer that died part of the way through ends its segment, once a newer segment exists
+ * and the slot is still empty on a second call; the delay gives writers still finishing entries at the end of a segment
+ * time to finish.
+ * <p>
+ * The reader can also be run from the command line to print a log, following it if <code>--follow</code> is given:
+ * <pre>
+ * java com.hexagrammatic.cloudflow.ExecutionLogReader &lt;directory&gt; [--follow]
+ * </pre>
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see ExecutionLog
+ */
+public class ExecutionLogReader implements Closeable {
+	private final File directory;
+	private long sequence = -1;
+	private MappedByteBuffer buffer = null;
+	private int capacity = 0;
+	private int slot = 0;
+	private boolean stalled = false;
+
+	/**
+	 * Creates a reader starting at the oldest segment of a log.
+	 * @param directory the directory of the log - may not be null
+	 */
+	public ExecutionLogReader(final File directory) {
+		Validate.notNull(directory, "The provided directory may not be null.");
+		this.directory = directory;
+	}
+
+	/**
+	 * Reads the next entry.
+	 * @param entry the entry to fill - may not be null
+	 * @return <code>true</code> if an entry was read, <code>false</code> if no more have been written yet.
+	 * @throws IOException if a segment cannot be read, or is not part of an execution log
+	 */
+	public boolean next(final ExecutionLogEntry entry) throws IOException {
+		Validate.notNull(entry, "The provided entry may not be null.");
+		while (true) {
+			if (buffer == null && !openNext()) return false;
+			if (slot < capacity && entry.read(buffer, slot * ExecutionLogEntry.SIZE)) {
+				slot++;
+				stalled = false;
+				return true;
+			}
+			if (slot < capacity) {
+				if (!stalled || !hasNewerSegment()) {
+					stalled = true;
+					return false;
+				}
+			}
+			stalled = false;
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Reads the next entry into a new instance.
+	 * @return the entry, or <code>null</code> if no more have been written yet.
+	 * @throws IOException if a segment cannot be read, or is not part of an execution log
+	 */
+	public ExecutionLogEntry next() throws IOException {
+		final ExecutionLogEntry entry = new ExecutionLogEntry();
+		return next(entry) ? entry : null;
+	}
+
+	private boolean hasNewerSegment() {
+		final long[] segments = ExecutionLog.segments(directory);
+		return segments.length > 0 && segments[segments.length - 1] > sequence;
+	}
+
+	/**
+	 * Maps the segment after the current one, if it exists and its header has been written.
+	 */
+	private boolean openNext() throws IOException {
+		long next = -1;
+		for (final long candidate: ExecutionLog.segments(directory)) {
+			if (candidate > sequence) {
+				next = candidate;
+				break;
+			}
+		}
+		if (next < 0) return false;
+		final File file = ExecutionLog.segmentFile(directory, next);
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final long length = raf.length();
+			if (length < 2 * ExecutionLogEntry.SIZE) return false;
+			final MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (mapped.getInt(0) == 0) return false;
+			if (mapped.getInt(0) != ExecutionLog.MAGIC) {
+				throw new IOException(String.format("File %s is not an execution log segment.", file));
+			}
+			if (mapped.get(4) != ExecutionLog.VERSION || mapped.getInt(8) != ExecutionLogEntry.SIZE) {
+				throw new IOException(String.format("Execution log segment %s has unsupported version %d.", file, mapped.get(4)));
+			}
+			this.sequence = next;
+			this.buffer = mapped;
+			this.capacity = (int)(length / ExecutionLogEntry.SIZE);
+			this.slot = 1;
+			return true;
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public void close() {
+		buffer = null;
+	}
+
+	/**
+	 * Prints the entries of a log, one per line.
+	 * @param args the directory of the log, optionally followed by <code>--follow</code> to keep printing entries as
+	 * they are written
+	 * @throws Exception if reading the log fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 1 || (args.length > 1 && !"--follow".equals(args[1]))) {
+			System.err.println("Usage: ExecutionLogReader <directory> [--follow]");
+			System.exit(1);
+		}
+		final boolean follow = args.length > 1;
+		final ExecutionLogReader reader = new ExecutionLogReader(new File(args[0]));
+		final ExecutionLogEntry entry = new ExecutionLogEntry();
+		boolean idle = false;
+		try {
+			while (true) {
+				if (reader.next(entry)) {
+					System.out.println(entry);
+					idle = false;
+				} else if (follow) {
+					System.out.flush();
+					Thread.sleep(100);
+				} else if (idle) {
+					break;
+				} else {
+					idle = true;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * SpanExporter that appends spans to a local file, one JSON object per line, in UTF-8.  The file is flushed after
+ * every batch, so a trace can be followed with <code>tail -f</code> and survives the process being killed between
+ * batches.
+ * <p>
+ * Each line holds the span's <code>traceId</code>, <code>spanId</code>, <code>parentSpanId</code> (absent for root
+ * spans), <code>name</code>, <code>startEpochNanos</code>, <code>endEpochNanos</code>, <code>durationNanos</code>,
+ * <code>status</code>, <code>attributes</code> and <code>events</code>.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Tracer
+ */
+public class FileSpanExporter implements SpanExporter {
+	private final Writer out;
+
+	/**
+	 * Creates a new instance appending to the provided file, creating it if needed.
+	 * @param file the file - may not be null
+	 * @throws IOException if the file cannot be opened
+	 */
+	public FileSpanExporter(final File file) throws IOException {
+		Validate.notNull(file, "The provided file may not be null.");
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+	}
+
+	@Override
+	public void export(final List<Span> spans) throws IOException {
+		for (final Span span: spans) {
+			out.write(toJson(span));
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Renders a span as a single line of JSON.
+	 * @param span the span
+	 * @return the JSON, without a trailing newline
+	 * @throws IOException never, in practice
+	 */
+	static String toJson(final Span span) throws IOException {
+		final StringWriter buffer = new StringWriter();
+		final JsonWriter json = new JsonWriter(buffer);
+		json.beginObject();
+		json.name("traceId").value(span.getTraceId());
+		json.name("spanId").value(span.getSpanId());
+		if (span.getParentSpanId() != null) {
+			json.name("parentSpanId").value(span.getParentSpanId());
+		}
+		json.name("name").value(span.getName());
+		json.name("startEpochNanos").value(span.getStartEpochNanos());
+		json.name("endEpochNanos").value(span.getEndEpochNanos());
+		json.name("durationNanos").value(span.getDurationNanos());
+		json.name("status").value(span.getStatus().name());
+		json.name("attributes");
+		writeAttributes(json, span.getAttributes());
+		json.name("events").beginArray();
+		for (final Span.Event event: span.getEvents()) {
+			json.beginObject();
+			json.name("name").value(event.getName());
+			json.name("epochNanos").value(event.getEpochNanos());
+			json.name("attributes");
+			writeAttributes(json, event.getAttributes());
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+		json.close();
+		return buffer.toString();
+	}
+
+	private static void writeAttributes(final JsonWriter json, final Map<String, Object> attributes) throws IOException {
+		json.beginObject();
+		for (final Map.Entry<String, Object> entry: attributes.entrySet()) {
+			json.name(entry.getKey());
+			final Object value = entry.getValue();
+			if (value instanceof Number) {
+				json.value((Number)value);
+			} else if (value instanceof Boolean) {
+				json.value(((Boolean)value).booleanValue());
+			} else {
+				json.value(String.valueOf(value));
+			}
+		}
+		json.endObject();
+	}
+}
@@ -0,0 +1,216 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * WorkQueue that keeps its items as files in a local directory, so it can be shared by any number of workers, in any
+ * number of processes, on one machine.  Every change to an item is a single file rename, which the operating system
+ * performs atomically: of any number of workers racing to lease, extend, acknowledge or return the same item, exactly
+ * one succeeds, without any locking.
+ * <p>
+ * The directory holds three subdirectories:
+ * <ul>
+ * <li><code>pending</code>, holding items waiting to be leased, named <code>&lt;id&gt;.&lt;deliveries&gt;</code>;</li>
+ * <li><code>leased</code>, holding leased items, named
+ * <code>&lt;id&gt;.&lt;deliveries&gt;.&lt;expiry&gt;.&lt;token&gt;</code>, where the expiry is in milliseconds since the
+ * epoch and the token is chosen at random by the worker leasing the item; and</li>
+ * <li><code>tmp</code>, where new items are written before being renamed into <code>pending</code>, so workers
+ * never see partially written items.</li>
+ * </ul>
+ * Identifiers start with the time the item was enqueued, followed by a sequence number, so items are leased in the order
+ * they were enqueued, give or take items enqueued by different processes in the same millisecond.
+ * Expired leases are returned to <code>pending</code> whenever items are leased.  Since each lease lists the pending
+ * items, this implementation suits queues of up to thousands of items, not millions.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see WorkQueueWorker
+ */
+public class FileWorkQueue implements WorkQueue {
+	static final String PENDING = "pending";
+	static final String LEASED = "leased";
+	static final String TMP = "tmp";
+	private static final AtomicInteger sequence = new AtomicInteger();
+
+	private final File pending;
+	private final File leased;
+	private final File tmp;
+	private final Random random = new Random();
+
+	/**
+	 * Opens a queue, creating its directories if they do not exist.
+	 * @param directory the directory of the queue - may not be null
+	 * @throws IOException if the directories cannot be created
+	 */
+	public FileWorkQueue(final File directory) throws IOException {
+		Validate.notNull(directory, "The provided directory may not be null.");
+		this.pending = directory(new File(directory, PENDING));
+		this.leased = directory(new File(directory, LEASED));
+		this.tmp = directory(new File(directory, TMP));
+	}
+
+	private static File directory(final File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException(String.format("Unable to create directory %s.", directory));
+		}
+		return directory;
+	}
+
+	@Override
+	public String enqueue(final String definition) throws IOException {
+		Validate.notNull(definition, "The provided definition may not be null.");
+		final String id = String.format("%013d-%010d-%s", System.currentTimeMillis(),
+				sequence.getAndIncrement() & Integer.MAX_VALUE, UUID.randomUUID());
+		final File file = new File(tmp, id);
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(definition.getBytes(BinaryCodec.UTF8));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!file.renameTo(new File(pending, id + ".0"))) {
+			file.delete();
+			throw new IOException(String.format("Unable to enqueue item %s.", id));
+		}
+		return id;
+	}
+
+	@Override
+	public List<WorkItem> lease(final int max, final long duration, final TimeUnit unit) throws IOException {
+		Validate.isTrue(max > 0, "The provided maximum number of items must be positive.");
+		validateDuration(duration, unit);
+		reclaimExpired();
+		final List<WorkItem> result = new ArrayList<WorkItem>();
+		final String[] names = list(pending);
+		Arrays.sort(names);
+		for (final String name: names) {
+			if (result.size() >= max) break;
+			final String[] parts = name.split("\\.");
+			if (parts.length != 2) continue;
+			final int deliveries;
+			try {
+				deliveries = Integer.parseInt(parts[1]) + 1;
+			} catch (final NumberFormatException e) {
+				continue;
+			}
+			final long expires = System.currentTimeMillis() + unit.toMillis(duration);
+			final String receipt = String.format("%s.%d.%d.%s", parts[0], deliveries, expires, token());
+			final File file = new File(leased, receipt);
+			if (!new File(pending, name).renameTo(file)) continue;
+			result.add(new WorkItem(parts[0], read(file), deliveries, receipt, expires));
+		}
+		return result;
+	}
+
+	@Override
+	public WorkItem heartbeat(final WorkItem item, final long duration, final TimeUnit unit) throws IOException {
+		Validate.notNull(item, "The provided item may not be null.");
+		validateDuration(duration, unit);
+		final String[] parts = parseReceipt(item);
+		final long expires = System.currentTimeMillis() + unit.toMillis(duration);
+		final String receipt = String.format("%s.%s.%d.%s", parts[0], parts[1], expires, parts[3]);
+		if (!new File(leased, item.getReceipt()).renameTo(new File(leased, receipt))) return null;
+		return new WorkItem(item.getId(), item.getDefinition(), item.getDeliveries(), receipt, expires);
+	}
+
+	@Override
+	public boolean ack(final WorkItem item) throws IOException {
+		Validate.notNull(item, "The provided item may not be null.");
+		parseReceipt(item);
+		return new File(leased, item.getReceipt()).delete();
+	}
+
+	@Override
+	public boolean nack(final WorkItem item) throws IOException {
+		Validate.notNull(item, "The provided item may not be null.");
+		final String[] parts = parseReceipt(item);
+		return new File(leased, item.getReceipt()).renameTo(new File(pending, parts[0] + "." + parts[1]));
+	}
+
+	/**
+	 * Gets the number of items waiting to be leased.
+	 * @return the number of pending items
+	 */
+	public int getPendingCount() {
+		return list(pending).length;
+	}
+
+	/**
+	 * Gets the number of items currently leased, including any whose lease has expired but that have not yet been
+	 * returned to the queue.
+	 * @return the number of leased items
+	 */
+	public int getLeasedCount() {
+		return list(leased).length;
+	}
+
+	/**
+	 * Returns every item whose lease has expired to the queue.
+	 */
+	void reclaimExpired() {
+		final long now = System.currentTimeMillis();
+		for (final String name: list(leased)) {
+			final String[] parts = name.split("\\.");
+			if (parts.length != 4) continue;
+			try {
+				if (Long.parseLong(parts[2]) > now) continue;
+			} catch (final NumberFormatException e) {
+				continue;
+			}
+			new File(leased, name).renameTo(new File(pending, parts[0] + "." + parts[1]));
+		}
+	}
+
+	private String[] parseReceipt(final WorkItem item) {
+		final String[] parts = item.getReceipt().split("\\.");
+		Validate.isTrue(parts.length == 4 && parts[0].equals(item.getId()) && item.getReceipt().indexOf(File.separatorChar) < 0,
+				String.format("Item %s was not leased from a file work queue.", item.getId()));
+		return parts;
+	}
+
+	private static void validateDuration(final long duration, final TimeUnit unit) {
+		Validate.isTrue(duration > 0, "The provided lease duration must be positive.");
+		Validate.notNull(unit, "The provided lease duration unit may not be null.");
+	}
+
+	private String token() {
+		synchronized (random) {
+			return Long.toHexString(random.nextLong() & Long.MAX_VALUE);
+		}
+	}
+
+	private static String[] list(final File directory) {
+		final String[] names = directory.list();
+		return names == null ? new String[0] : names;
+	}
+
+	private static String read(final File file) throws IOException {
+		final InputStream in = new FileInputStream(file);
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int)file.length());
+			final byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) >= 0) {
+				bytes.write(buffer, 0, count);
+			}
+			return new String(bytes.toByteArray(), BinaryCodec.UTF8);
+		} finally {
+			in.close();
+		}
+	}
+}
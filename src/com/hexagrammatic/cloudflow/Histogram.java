@@ -0,0 +1,155 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Lock-free histogram of non-negative long values, such as latencies in nanoseconds.  Values are counted in log-linear
+ * buckets: every power of two is split into 32 equally sized buckets, so any value is reported to within about 3% of its
+ * true value, across the full range of a long, in a fixed 15KB of counters.
+ * <p>
+ * Recording a value never locks and never allocates, so histograms can be updated from any number of threads on hot
+ * paths.  Reads are not atomic with respect to concurrent recording: a percentile computed while values are being
+ * recorded may or may not include them.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see HistogramMetrics
+ */
+public final class Histogram {
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(-1);
+
+	/**
+	 * Records a value.
+	 * @param value the value to record; negative values are recorded as 0
+	 */
+	public void record(final long value) {
+		final long v = value < 0 ? 0 : value;
+		counts.incrementAndGet(bucketOf(v));
+		count.incrementAndGet();
+		total.addAndGet(v);
+		long current = min.get();
+		while (v < current && !min.compareAndSet(current, v)) {
+			current = min.get();
+		}
+		current = max.get();
+		while (v > current && !max.compareAndSet(current, v)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Gets the number of values recorded.
+	 * @return the number of values recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the sum of all values recorded.
+	 * @return the sum of the values, which wraps if it exceeds <code>Long.MAX_VALUE</code>.
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * Gets the smallest value recorded.
+	 * @return the smallest value, or -1 if no values have been recorded.
+	 */
+	public long getMin() {
+		final long result = min.get();
+		return result == Long.MAX_VALUE ? -1 : result;
+	}
+
+	/**
+	 * Gets the largest value recorded.
+	 * @return the largest value, or -1 if no values have been recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the mean of the values recorded.
+	 * @return the mean, or 0 if no values have been recorded.
+	 */
+	public double getMean() {
+		final long n = count.get();
+		return n == 0 ? 0 : (double)total.get() / n;
+	}
+
+	/**
+	 * Gets the value at or below which the given percentage of the recorded values fall, such as 99 for the p99.
+	 * The result is the upper bound of the bucket holding that value, but never more than the largest value recorded.
+	 * @param percentile the percentile - must be between 0 and 100, inclusive
+	 * @return the value at the percentile, or -1 if no values have been recorded.
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		Validate.isTrue(percentile >= 0 && percentile <= 100, "The provided percentile must be between 0 and 100.");
+		long n = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			n += counts.get(i);
+		}
+		if (n == 0) return -1;
+		if (percentile == 0) return getMin();
+		final long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(upperBoundOf(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Determines which bucket counts a value.
+	 * @param value the value - never negative
+	 * @return the bucket index
+	 */
+	static int bucketOf(final long value) {
+		if (value < SUB_BUCKET_COUNT) return (int)value;
+		final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = magnitude - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + (int)((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+	}
+
+	/**
+	 * Gets the smallest value counted by a bucket.
+	 * @param bucket the bucket index
+	 * @return the smallest value counted by the bucket
+	 */
+	static long lowerBoundOf(final int bucket) {
+		if (bucket < SUB_BUCKET_COUNT) return bucket;
+		final int shift = bucket / SUB_BUCKET_COUNT - 1;
+		return (long)(SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+	}
+
+	/**
+	 * Gets the largest value counted by a bucket.
+	 * @param bucket the bucket index
+	 * @return the largest value counted by the bucket
+	 */
+	static long upperBoundOf(final int bucket) {
+		if (bucket < SUB_BUCKET_COUNT) return bucket;
+		final int shift = bucket / SUB_BUCKET_COUNT - 1;
+		return lowerBoundOf(bucket) + (1L << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d, min=%d, p50=%d, p99=%d, p999=%d, max=%d", getCount(), getMin(),
+				getValueAtPercentile(50), getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+	}
+}
@@ -0,0 +1,259 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Default Metrics implementation, which keeps a latency histogram and outcome counters for every step, keyed by the
+ * step's class and then its name, along with a latency histogram and counters for workflows as a whole.  Once a step's
+ * statistics exist, recording events for it is lock-free and allocation-free, so a single instance can be shared by
+ * every workflow in a process, such as through <code>Workflow.setDefaultMetrics</code>.
+ * <p>
+ * The number of distinct step classes and names kept is bounded, so workflows that generate step names cannot grow it
+ * without limit.  Once the bound is reached, events for steps not already kept are only counted, through
+ * <code>getUntrackedCount()</code>.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see StepStatistics
+ * @see Histogram
+ */
+public class HistogramMetrics implements Metrics {
+	/**
+	 * The number of distinct step classes and names kept when no bound is provided.
+	 */
+	public static final int DEFAULT_MAX_STEPS = 1024;
+
+	private final ConcurrentMap<Class<? extends Step>, ConcurrentMap<String, StepStatistics>> steps =
+			new ConcurrentHashMap<Class<? extends Step>, ConcurrentMap<String, StepStatistics>>();
+	private final Histogram workflowLatency = new Histogram();
+	private final Histogram parseLatency = new Histogram();
+	private final AtomicLong workflowsStarted = new AtomicLong();
+	private final AtomicLong workflowsSucceeded = new AtomicLong();
+	private final AtomicLong workflowsFailed = new AtomicLong();
+	private final AtomicLong workflowsHalted = new AtomicLong();
+	private final AtomicInteger tracked = new AtomicInteger();
+	private final AtomicLong untracked = new AtomicLong();
+	private final int maxSteps;
+
+	/**
+	 * Creates a new instance keeping statistics for up to <code>DEFAULT_MAX_STEPS</code> step classes and names.
+	 */
+	public HistogramMetrics() {
+		this(DEFAULT_MAX_STEPS);
+	}
+
+	/**
+	 * Creates a new instance.
+	 * @param maxSteps the number of distinct step classes and names to keep statistics for - must be positive
+	 */
+	public HistogramMetrics(final int maxSteps) {
+		Validate.isTrue(maxSteps > 0, "The provided maximum number of steps must be positive.");
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * Gets the number of distinct step classes and names statistics are kept for, at most.
+	 * @return the maximum number of steps
+	 */
+	public int getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 * Gets the number of step events that were not recorded because statistics were already kept for as many step
+	 * classes and names as allowed.
+	 * @return the number of untracked events
+	 */
+	public long getUntrackedCount() {
+		return untracked.get();
+	}
+
+	/**
+	 * Gets the statistics for the steps with the provided class and name.
+	 * @param stepClass the class of the steps - may not be null
+	 * @param stepName the name of the steps - may not be null
+	 * @return the statistics, or <code>null</code> if no such step has been started or skipped.
+	 */
+	public StepStatistics getStepStatistics(final Class<? extends Step> stepClass, final String stepName) {
+		Validate.notNull(stepClass, "The provided step class may not be null.");
+		Validate.notNull(stepName, "The provided step name may not be null.");
+		final ConcurrentMap<String, StepStatistics> named = steps.get(stepClass);
+		return named == null ? null : named.get(stepName);
+	}
+
+	/**
+	 * Gets the statistics for every step that has been started or skipped.
+	 * @return the statistics, as an unmodifiable collection.
+	 */
+	public Collection<StepStatistics> getAllStepStatistics() {
+		final ArrayList<StepStatistics> result = new ArrayList<StepStatistics>();
+		for (final ConcurrentMap<String, StepStatistics> named: steps.values()) {
+			result.addAll(named.values());
+		}
+		return Collections.unmodifiableCollection(result);
+	}
+
+	/**
+	 * Gets the histogram of how long each workflow executed, in nanoseconds.
+	 * @return the workflow latency histogram
+	 */
+	public Histogram getWorkflowLatency() {
+		return workflowLatency;
+	}
+
+	/**
+	 * Gets the histogram of how long parsing each workflow took, in nanoseconds.
+	 * @return the parse latency histogram
+	 */
+	public Histogram getParseLatency() {
+		return parseLatency;
+	}
+
+	/**
+	 * Gets the number of workflows that started executing.
+	 * @return the number of workflows started
+	 */
+	public long getWorkflowsStarted() {
+		return workflowsStarted.get();
+	}
+
+	/**
+	 * Gets the number of workflows that completed successfully.
+	 * @return the number of successful workflows
+	 */
+	public long getWorkflowsSucceeded() {
+		return workflowsSucceeded.get();
+	}
+
+	/**
+	 * Gets the number of workflows that completed unsuccessfully, including those halted.
+	 * @return the number of failed workflows
+	 */
+	public long getWorkflowsFailed() {
+		return workflowsFailed.get();
+	}
+
+	/**
+	 * Gets the number of workflows that were halted.
+	 * @return the number of halted workflows
+	 */
+	public long getWorkflowsHalted() {
+		return workflowsHalted.get();
+	}
+
+	@Override
+	public void workflowParsed(final Workflow workflow, final long elapsedNanos) {
+		parseLatency.record(elapsedNanos);
+	}
+
+	@Override
+	public void workflowStarted(final Workflow workflow) {
+		workflowsStarted.incrementAndGet();
+	}
+
+	@Override
+	public void workflowCompleted(final Workflow workflow, final long elapsedNanos, final boolean successful) {
+		workflowLatency.record(elapsedNanos);
+		if (successful) {
+			workflowsSucceeded.incrementAndGet();
+		} else {
+			workflowsFailed.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void workflowHalted(final Workflow workflow) {
+		workflowsHalted.incrementAndGet();
+	}
+
+	@Override
+	public void stepStarted(final Step step, final Attempt attempt) {
+		final StepStatistics statistics = statisticsFor(step);
+		if (statistics != null) statistics.started();
+	}
+
+	@Override
+	public void stepExecuting(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepExecuted(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepCompleted(final Step step, final Attempt attempt) {
+		final StepStatistics statistics = statisticsFor(step);
+		if (statistics != null) statistics.completed(attempt);
+	}
+
+	@Override
+	public void stepRetried(final Step step, final Attempt attempt) {
+		final StepStatistics statistics = statisticsFor(step);
+		if (statistics != null) statistics.retried(attempt);
+	}
+
+	@Override
+	public void stepRetryWaited(final Step step, final long waitedNanos) {
+		final StepStatistics statistics = statisticsFor(step);
+		if (statistics != null) statistics.retryWaited(waitedNanos);
+	}
+
+	@Override
+	public void stepTimedOut(final Step step, final Attempt attempt) {
+		final StepStatistics statistics = statisticsFor(step);
+		if (statistics != null) statistics.timedOut();
+	}
+
+	@Override
+	public void stepSkipped(final Step step) {
+		final StepStatistics statistics = statisticsFor(step);
+		if (statistics != null) statistics.skipped();
+	}
+
+	/**
+	 * Gets the statistics for a step, creating them the first time the step's class and name are seen.
+	 * @param step the step
+	 * @return the statistics, or <code>null</code> if they are not kept because statistics are already kept for
+	 * <code>getMaxSteps()</code> other step classes and names.
+	 */
+	protected final StepStatistics statisticsFor(final Step step) {
+		final Class<? extends Step> stepClass = step.getClass();
+		ConcurrentMap<String, StepStatistics> named = steps.get(stepClass);
+		if (named != null) {
+			final StepStatistics result = named.get(step.getName());
+			if (result != null) return result;
+		}
+		if (tracked.incrementAndGet() > maxSteps) {
+			tracked.decrementAndGet();
+			untracked.incrementAndGet();
+			return null;
+		}
+		if (named == null) {
+			final ConcurrentMap<String, StepStatistics> created = new ConcurrentHashMap<String, StepStatistics>();
+			named = steps.putIfAbsent(stepClass, created);
+			if (named == null) named = created;
+		}
+		final StepStatistics created = new StepStatistics(stepClass, step.getName());
+		final StepStatistics raced = named.putIfAbsent(step.getName(), created);
+		if (raced == null) return created;
+		tracked.decrementAndGet();
+		return raced;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append(String.format("workflows: started=%d, succeeded=%d, failed=%d, halted=%d, latency(ns)=[%s]",
+				getWorkflowsStarted(), getWorkflowsSucceeded(), getWorkflowsFailed(), getWorkflowsHalted(), workflowLatency));
+		for (final StepStatistics statistics: getAllStepStatistics()) {
+			builder.append('\n').append(statistics);
+		}
+		return builder.toString();
+	}
+}
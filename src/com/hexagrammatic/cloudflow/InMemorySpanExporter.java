@@ -0,0 +1,50 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SpanExporter that keeps every span exported to it in memory, for tests and for inspecting traces in-process.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Tracer
+ */
+public class InMemorySpanExporter implements SpanExporter {
+	private final List<Span> spans = new ArrayList<Span>();
+	private int batches = 0;
+
+	@Override
+	public synchronized void export(final List<Span> batch) {
+		spans.addAll(batch);
+		batches++;
+	}
+
+	/**
+	 * Gets the spans exported so far, in the order they were exported.
+	 * @return a copy of the spans
+	 */
+	public synchronized List<Span> getSpans() {
+		return Collections.unmodifiableList(new ArrayList<Span>(spans));
+	}
+
+	/**
+	 * Gets the number of batches exported so far.
+	 * @return the number of batches
+	 */
+	public synchronized int getBatchCount() {
+		return batches;
+	}
+
+	/**
+	 * Discards the spans exported so far.
+	 */
+	public synchronized void clear() {
+		spans.clear();
+		batches = 0;
+	}
+
+	@Override
+	public void close() {}
+}
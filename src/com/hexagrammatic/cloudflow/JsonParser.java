@@ -63,6 +63,20 @@ import com.google.gson.JsonPrimitive;
  * }
  * </pre>
  * <p>
+ * Parameter values may be JSON primitives, which are assigned as Booleans, Numbers, or Strings, or JSON objects and arrays,
+ * which are assigned as <code>StructuredValue</code>s.  The whole document, structured values included, is still parsed
+ * into a JSON tree up front; what is deferred is decoding that tree into Java maps and lists, which only happens when a
+ * step reads the value.  Large pieces of configuration that most steps never look at therefore cost their parsing but
+ * nothing more.
+ * <p>
+ * If enabled with <code>setExpressionsEnabled</code>, String parameter values containing references such as
+ * <code>"${region}-${cluster}"</code> are compiled once, during parsing, into <code>ParameterExpression</code>s that are
+ * evaluated against the step or workflow whenever the parameter is read.
+ * <p>
+ * The <code>class</code> of a step may also be the alias of a step annotated with <code>StepDefinition</code>.  Steps in the
+ * build-time step index are constructed by generated factories rather than by reflection, whether they are referred to by
+ * alias or by class name.
+ * <p>
  * In the case that you want to load classes for Steps from another classloader, feel free to use the <code>setClassLoader</code> method to set the specific
  * classloader that loads the Step classes.  This may be useful in some cases where the Step bytecode is defined outside the initial Java classpath and could
  * be dyanmically updated, such as hosting the classes in a version control system or a distributed filesystem, allowing them to be updated without restarting
@@ -79,6 +93,8 @@ import com.google.gson.JsonPrimitive;
 public class JsonParser {
 	
 	private ClassLoader classLoader = JsonParser.class.getClassLoader();
+	private boolean expressions = false;
+	private boolean lazySteps = false;
 	
 	/**
 	 * Set the classloader to use when resolving Steps.  If unset,
@@ -90,6 +106,34 @@ public class JsonParser {
 		this.classLoader = cl;
 	}
 	
+	/**
+	 * Sets whether String parameter values containing <code>${...}</code> references are compiled into
+	 * <code>ParameterExpression</code>s, which are evaluated whenever the parameter is read.  Escaped dollar signs,
+	 * written <code>$$</code>, are unescaped whether or not the value also holds a reference; values with no
+	 * references are assigned as the unescaped String.  If unset, expressions are not compiled and such values are
+	 * assigned as plain Strings, escapes and all.
+	 * @param expressions <code>true</code> to compile parameter expressions, <code>false</code> otherwise
+	 * @see ParameterExpression
+	 */
+	public void setExpressionsEnabled(final boolean expressions) {
+		this.expressions = expressions;
+	}
+
+	/**
+	 * Sets whether steps are created when the workflow reaches them rather than during parsing.  Lazily created steps
+	 * are represented by lightweight stand-ins carrying only their name and their <code>optional</code> and
+	 * <code>alwaysRun</code> flags; their classes are not loaded, and the <code>pre(Step)</code> and <code>post(Step)</code>
+	 * hooks not called, until the workflow is about to execute them.  Steps skipped because an earlier step failed are
+	 * never created.  If unset, steps are created during parsing.
+	 * <p>
+	 * Note: with lazy steps, a definition naming a missing or invalid step class is only reported when the workflow reaches
+	 * that step, as a failure of the step.
+	 * @param lazySteps <code>true</code> to create steps when they are reached, <code>false</code> to create them while parsing
+	 */
+	public void setLazySteps(final boolean lazySteps) {
+		this.lazySteps = lazySteps;
+	}
+
 	/**
 	 * Parses a workflow from a Reader. 
 	 * @param reader the reader - may not be null
@@ -98,8 +142,9 @@ public class JsonParser {
 	 */	
 	public Workflow parse(final Reader reader) throws WorkflowCreationException {
 		Validate.notNull(reader, "The provided reader may not be null.");
+		final long start = System.nanoTime();
 		final com.google.gson.JsonParser parser = new com.google.gson.JsonParser();
-		return populateWorkflow(parser.parse(reader));
+		return parsed(populateWorkflow(parser.parse(reader)), start);
 	}
 
 	/**
@@ -110,8 +155,9 @@ public class JsonParser {
 	 */	
 	public Workflow parse(final InputStream stream) throws WorkflowCreationException {
 		Validate.notNull(stream, "The provided input stream may not be null.");
+		final long start = System.nanoTime();
 		final com.google.gson.JsonParser parser = new com.google.gson.JsonParser();
-		return populateWorkflow(parser.parse(new InputStreamReader(stream)));
+		return parsed(populateWorkflow(parser.parse(new InputStreamReader(stream))), start);
 	}
 	
 	/**
@@ -122,8 +168,20 @@ public class JsonParser {
 	 */		
 	public Workflow parse(final String data) throws WorkflowCreationException {
 		Validate.notNull(data, "The provided data may not be null.");
+		final long start = System.nanoTime();
 		final com.google.gson.JsonParser parser = new com.google.gson.JsonParser();
-		return populateWorkflow(parser.parse(data));		
+		return parsed(populateWorkflow(parser.parse(data)), start);
+	}
+
+	/**
+	 * Reports a newly parsed workflow to its metrics.
+	 * @param workflow the workflow
+	 * @param start the <code>System.nanoTime()</code> parsing started at
+	 * @return the workflow
+	 */
+	private Workflow parsed(final Workflow workflow, final long start) {
+		workflow.getMetrics().workflowParsed(workflow, System.nanoTime() - start);
+		return workflow;
 	}
 	
 	
@@ -204,8 +262,10 @@ public class JsonParser {
 					workflow.addParameter(entry.getKey(), null);
 				} else if (element.isJsonPrimitive()) {
 					workflow.addParameter(entry.getKey(), translatePrimitive(element.getAsJsonPrimitive()));
+				} else if (element.isJsonObject() || element.isJsonArray()) {
+					workflow.addParameter(entry.getKey(), new StructuredValue(element));
 				} else {
-					throw new WorkflowCreationException(String.format("Cannot assign JSON value '%s' as a primitive to property '%s' on workflow - element is a %s.",
+					throw new WorkflowCreationException(String.format("Cannot assign JSON value '%s' to property '%s' on workflow - element is a %s.",
 							element.toString(), entry.getKey(), element.getClass().getSimpleName()));
 				}
 			}
@@ -219,7 +279,9 @@ public class JsonParser {
 	
 	void populateSteps(final JsonArray steps, final Workflow workflow) throws WorkflowCreationException {
 		for (final JsonElement step: steps) {
-			if (step.isJsonObject()) {
+			if (step.isJsonObject() && lazySteps) {
+				workflow.add(deferStep(step.getAsJsonObject()));
+			} else if (step.isJsonObject()) {
 				workflow.add(populateStep(step.getAsJsonObject()));
 			} else {
 				throw new WorkflowCreationException(String.format("Cannot create workflow Step from non-object value '%s' of type %s.", 
@@ -228,99 +290,103 @@ public class JsonParser {
 		}
 	}
 	
+	Step deferStep(final JsonObject obj) throws WorkflowCreationException {
+		final JsonElement classname = obj.get("class");
+		if (classname == null) 
+			throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' does not supply a class declaration.", obj.toString()));
+		if (!classname.isJsonPrimitive()) 
+			throw new WorkflowCreationException(String.format("Provided JSON step class declaration '%s' is not a JSON primitive.", classname.toString()));
+		return new DeferredStep(this, obj, Utils.defaultStepName(classLoader, classname.getAsString()));
+	}
+	
 	Step populateStep(final JsonObject obj) throws WorkflowCreationException {
-		Step step = null;
 		JsonElement classname = obj.get("class");
 		if (classname == null) 
 			throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' does not supply a class declaration.", obj.toString()));
 		if (!classname.isJsonPrimitive()) 
 			throw new WorkflowCreationException(String.format("Provided JSON step class declaration '%s' is not a JSON primitive.", classname.toString()));
 		
+		final Step step = Utils.createStep(classLoader, classname.getAsString());
+		pre(step);
 		
-		try {
-			final Class<?> source = classLoader.loadClass(classname.getAsString());
-			if (Step.class.isAssignableFrom(source)) {
-				step = (Step)source.newInstance();
-				pre(step);
-				
-				JsonElement je = obj.get("maxRetries");
-				if (je!=null && !je.isJsonNull()) {
-					if (je.isJsonPrimitive() && je.getAsJsonPrimitive().isNumber()) {
-						step.setMaxRetries(je.getAsInt());
-					} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'maxRetries' value.", je.toString()));
-					obj.remove("maxRetries");
-				}
-				
-				je = obj.get("name");
-				if (je!=null && !je.isJsonNull()) {
-					if (je.isJsonPrimitive()) {
-						step.setName(je.getAsString());					
-					} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'name' value.", je.toString()));
-					obj.remove("name");
-				}
+		JsonElement je = obj.get("maxRetries");
+		if (je!=null && !je.isJsonNull()) {
+			if (je.isJsonPrimitive() && je.getAsJsonPrimitive().isNumber()) {
+				step.setMaxRetries(je.getAsInt());
+			} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'maxRetries' value.", je.toString()));
+			obj.remove("maxRetries");
+		}
+		
+		je = obj.get("name");
+		if (je!=null && !je.isJsonNull()) {
+			if (je.isJsonPrimitive()) {
+				step.setName(je.getAsString());					
+			} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'name' value.", je.toString()));
+			obj.remove("name");
+		}
 
-				je = obj.get("timeout");
-				if (je!=null && !je.isJsonNull()) {
-					if (je.isJsonPrimitive()) {
-						step.setTimeout(je.getAsString());
-					} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'timeout' value.", je.toString()));
-					obj.remove("timeout");
-				}
+		je = obj.get("timeout");
+		if (je!=null && !je.isJsonNull()) {
+			if (je.isJsonPrimitive()) {
+				step.setTimeout(je.getAsString());
+			} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'timeout' value.", je.toString()));
+			obj.remove("timeout");
+		}
 
-				je = obj.get("waitBetweenTries");
-				if (je!=null && !je.isJsonNull()) {
-					if (je.isJsonPrimitive()) {
-						step.setWaitBetweenTries(je.getAsString());
-					} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'waitBetweenTries' value.", je.toString()));
-					obj.remove("waitBetweenTries");
-				}
+		je = obj.get("waitBetweenTries");
+		if (je!=null && !je.isJsonNull()) {
+			if (je.isJsonPrimitive()) {
+				step.setWaitBetweenTries(je.getAsString());
+			} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'waitBetweenTries' value.", je.toString()));
+			obj.remove("waitBetweenTries");
+		}
 
-				je = obj.get("optional");
-				if (je!=null && !je.isJsonNull()) {
-					if (je.isJsonPrimitive() && je.getAsJsonPrimitive().isBoolean()) {						
-						step.setOptional(je.getAsBoolean());
-					} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'optional' value.", je.toString()));					
-				}
+		je = obj.get("optional");
+		if (je!=null && !je.isJsonNull()) {
+			if (je.isJsonPrimitive() && je.getAsJsonPrimitive().isBoolean()) {						
+				step.setOptional(je.getAsBoolean());
+			} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'optional' value.", je.toString()));					
+		}
 
-				je = obj.get("alwaysRun");
-				if (je!=null && !je.isJsonNull()) {
-					if (je.isJsonPrimitive() && je.getAsJsonPrimitive().isBoolean()) {						
-						step.setAlwaysRun(je.getAsBoolean());
-					} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'alwaysRun' value.", je.toString()));					
-				}
+		je = obj.get("alwaysRun");
+		if (je!=null && !je.isJsonNull()) {
+			if (je.isJsonPrimitive() && je.getAsJsonPrimitive().isBoolean()) {						
+				step.setAlwaysRun(je.getAsBoolean());
+			} else throw new WorkflowCreationException(String.format("Provided JSON step definition '%s' supplies a non-primitive 'alwaysRun' value.", je.toString()));					
+		}
 
-				for (final Map.Entry<String, JsonElement> entry: obj.entrySet()) {						
-					JsonElement element = entry.getValue();						
-					if (element == null) {
-						step.addParameter(entry.getKey(), null);
-					} else if (element.isJsonNull()) {
-						step.addParameter(entry.getKey(), null);
-					} else if (element.isJsonPrimitive()) {
-						step.addParameter(entry.getKey(), translatePrimitive(element.getAsJsonPrimitive()));
-					} else {
-						throw new WorkflowCreationException(String.format("Cannot assign JSON value '%s' as a primitive to property '%s' on step '%s' - element is a %s.",
-								element.toString(), entry.getKey(), step.getName(), element.getClass().getSimpleName()));
-					}
-				}
-				post(step);
+		for (final Map.Entry<String, JsonElement> entry: obj.entrySet()) {						
+			JsonElement element = entry.getValue();						
+			if (element == null) {
+				step.addParameter(entry.getKey(), null);
+			} else if (element.isJsonNull()) {
+				step.addParameter(entry.getKey(), null);
+			} else if (element.isJsonPrimitive()) {
+				step.addParameter(entry.getKey(), translatePrimitive(element.getAsJsonPrimitive()));
+			} else if (element.isJsonObject() || element.isJsonArray()) {
+				step.addParameter(entry.getKey(), new StructuredValue(element));
 			} else {
-				throw new WorkflowCreationException(String.format("Provided step class definition '%s' does not extend '%s'", source.getName(), Step.class.getName()));
+				throw new WorkflowCreationException(String.format("Cannot assign JSON value '%s' to property '%s' on step '%s' - element is a %s.",
+						element.toString(), entry.getKey(), step.getName(), element.getClass().getSimpleName()));
 			}
-		} catch (final ClassNotFoundException e) {
-			throw new WorkflowCreationException(String.format("Unable to find Step class '%s'.", classname.getAsString()), e);
-		} catch (final InstantiationException e) {
-			throw new WorkflowCreationException(String.format("Unable to create instance of Step class '%s' due to an exception in the constructor.", classname.getAsString()), e);
-		} catch (final IllegalAccessException e) {
-			throw new WorkflowCreationException(String.format("Step class '%s' cannot be constructed due to access restrictions.", classname.getAsString()), e);
 		}
+		post(step);
 		return step;
 	}
 	
-	private Object translatePrimitive(final JsonPrimitive primitive) {
+	private Object translatePrimitive(final JsonPrimitive primitive) throws WorkflowCreationException {
 		if (primitive.isBoolean()) {
 			return primitive.getAsBoolean();
 		} else if (primitive.isNumber()) {
 			return primitive.getAsNumber();
+		} else if (expressions && ParameterExpression.isExpression(primitive.getAsString())) {
+			try {
+				final ParameterExpression expression = ParameterExpression.compile(primitive.getAsString());
+				final String literal = expression.getLiteral();
+				return literal == null ? expression : literal;
+			} catch (final IllegalArgumentException e) {
+				throw new WorkflowCreationException(e.getMessage(), e);
+			}
 		} else {
 			return primitive.getAsString();
 		}
@@ -0,0 +1,163 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how the lock guarding a <code>Parameterized</code> object's parameters has been used: how often
+ * it was taken for reading and for writing, how often a thread had to wait for it because another thread held it,
+ * how long such threads waited, and how long the lock was held once taken.
+ * <p>
+ * Recording is off by default, since it costs a few calls to <code>System.nanoTime()</code> per lock acquisition; it is
+ * turned on with <code>Parameterized.setLockStatisticsEnabled(true)</code>.  For a workflow, turning it on also turns it
+ * on for the workflow's steps, and <code>Workflow.getLockStatisticsSummary()</code> adds up the counters of the workflow
+ * and all of its steps.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Parameterized#setLockStatisticsEnabled(boolean)
+ * @see Workflow#getLockStatisticsSummary()
+ */
+public final class LockStatistics {
+	private final AtomicLong readAcquisitions = new AtomicLong();
+	private final AtomicLong writeAcquisitions = new AtomicLong();
+	private final AtomicLong contendedReads = new AtomicLong();
+	private final AtomicLong contendedWrites = new AtomicLong();
+	private final AtomicLong readWaitNanos = new AtomicLong();
+	private final AtomicLong writeWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong readHoldNanos = new AtomicLong();
+	private final AtomicLong writeHoldNanos = new AtomicLong();
+
+	/**
+	 * Gets the number of times the lock was taken for reading.
+	 * @return the number of read acquisitions
+	 */
+	public long getReadAcquisitions() {
+		return readAcquisitions.get();
+	}
+
+	/**
+	 * Gets the number of times the lock was taken for writing.
+	 * @return the number of write acquisitions
+	 */
+	public long getWriteAcquisitions() {
+		return writeAcquisitions.get();
+	}
+
+	/**
+	 * Gets the number of times a reader had to wait for the lock.
+	 * @return the number of contended read acquisitions
+	 */
+	public long getContendedReads() {
+		return contendedReads.get();
+	}
+
+	/**
+	 * Gets the number of times a writer had to wait for the lock.
+	 * @return the number of contended write acquisitions
+	 */
+	public long getContendedWrites() {
+		return contendedWrites.get();
+	}
+
+	/**
+	 * Gets the total time readers spent waiting for the lock.
+	 * @return the read wait time, in nanoseconds
+	 */
+	public long getReadWaitNanos() {
+		return readWaitNanos.get();
+	}
+
+	/**
+	 * Gets the total time writers spent waiting for the lock.
+	 * @return the write wait time, in nanoseconds
+	 */
+	public long getWriteWaitNanos() {
+		return writeWaitNanos.get();
+	}
+
+	/**
+	 * Gets the longest time any thread spent waiting for the lock.
+	 * @return the longest wait, in nanoseconds
+	 */
+	public long getMaxWaitNanos() {
+		return maxWaitNanos.get();
+	}
+
+	/**
+	 * Gets the total time the lock was held for reading, added up over every reader, so concurrent readers each count.
+	 * @return the read hold time, in nanoseconds
+	 */
+	public long getReadHoldNanos() {
+		return readHoldNanos.get();
+	}
+
+	/**
+	 * Gets the total time the lock was held for writing.
+	 * @return the write hold time, in nanoseconds
+	 */
+	public long getWriteHoldNanos() {
+		return writeHoldNanos.get();
+	}
+
+	/**
+	 * Gets the fraction of acquisitions, of either kind, that had to wait for the lock.
+	 * @return the contention ratio, between 0 and 1; 0 if the lock has never been taken.
+	 */
+	public double getContentionRatio() {
+		final long acquisitions = getReadAcquisitions() + getWriteAcquisitions();
+		return acquisitions == 0 ? 0.0 : (double)(getContendedReads() + getContendedWrites()) / acquisitions;
+	}
+
+	/**
+	 * Records that the lock was taken.
+	 * @param write <code>true</code> if the lock was taken for writing, <code>false</code> for reading
+	 * @param waitNanos how long the thread waited for the lock
+	 * @param contended <code>true</code> if the lock was not immediately available
+	 */
+	void acquired(final boolean write, final long waitNanos, final boolean contended) {
+		if (write) {
+			writeAcquisitions.incrementAndGet();
+		} else {
+			readAcquisitions.incrementAndGet();
+		}
+		if (contended) {
+			(write ? contendedWrites : contendedReads).incrementAndGet();
+			(write ? writeWaitNanos : readWaitNanos).addAndGet(waitNanos);
+			long max;
+			while (waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos)) {}
+		}
+	}
+
+	/**
+	 * Records that the lock was released.
+	 * @param write <code>true</code> if the lock was held for writing, <code>false</code> for reading
+	 * @param holdNanos how long the lock was held
+	 */
+	void released(final boolean write, final long holdNanos) {
+		(write ? writeHoldNanos : readHoldNanos).addAndGet(holdNanos);
+	}
+
+	/**
+	 * Adds another instance's counters to this one's.
+	 * @param other the instance to add
+	 */
+	void add(final LockStatistics other) {
+		readAcquisitions.addAndGet(other.getReadAcquisitions());
+		writeAcquisitions.addAndGet(other.getWriteAcquisitions());
+		contendedReads.addAndGet(other.getContendedReads());
+		contendedWrites.addAndGet(other.getContendedWrites());
+		readWaitNanos.addAndGet(other.getReadWaitNanos());
+		writeWaitNanos.addAndGet(other.getWriteWaitNanos());
+		maxWaitNanos.set(Math.max(getMaxWaitNanos(), other.getMaxWaitNanos()));
+		readHoldNanos.addAndGet(other.getReadHoldNanos());
+		writeHoldNanos.addAndGet(other.getWriteHoldNanos());
+	}
+
+	@Override
+	public String toString() {
+		return String.format("reads=%d (%d contended, %dns waiting, %dns held) writes=%d (%d contended, %dns waiting, %dns held) maxWait=%dns",
+				getReadAcquisitions(), getContendedReads(), getReadWaitNanos(), getReadHoldNanos(),
+				getWriteAcquisitions(), getContendedWrites(), getWriteWaitNanos(), getWriteHoldNanos(), getMaxWaitNanos());
+	}
+}
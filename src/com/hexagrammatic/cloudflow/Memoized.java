@@ -0,0 +1,51 @@
+package com.hexagrammatic.cloudflow;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a Step class whose results may be reused.  When a workflow executes a step of an annotated class, it first
+ * looks up the values of the step's declared inputs in the class's <code>StepCache</code>; if an earlier execution of
+ * the class saw the same inputs, the outputs it produced are added to the step with <code>addParameter</code> and
+ * <code>execute()</code> is not called.  Otherwise, the step is executed and, if it succeeds, its outputs are cached.
+ * <p>
+ * Only annotate steps whose outputs depend on nothing but their declared inputs, and whose only effect is to set their
+ * declared outputs.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see StepCache
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Memoized {
+	/**
+	 * The names of the parameters the step's outputs depend on.  Inputs are read with <code>getParameter</code>, so they
+	 * may come from the step's workflow, and expressions are evaluated; a missing input is part of the key as
+	 * <code>null</code>.
+	 */
+	String[] inputs();
+
+	/**
+	 * The names of the parameters the step sets with <code>addParameter</code>.  An output the step did not set is not
+	 * replayed.
+	 */
+	String[] outputs();
+
+	/**
+	 * The largest number of results kept for the class; once exceeded, the least recently used result is evicted.
+	 */
+	int maxSize() default 1000;
+
+	/**
+	 * How long a result is kept after being cached, as a time tuple such as <code>"30 MINUTES"</code>, or
+	 * <code>"NEVER"</code> to keep results until they are evicted.
+	 */
+	String ttl() default "1 HOUR";
+}
@@ -0,0 +1,109 @@
+package com.hexagrammatic.cloudflow;
+
+/**
+ * Interface for receiving notice of workflow and step lifecycle events as a workflow executes, for the purpose of
+ * gathering statistics about them.  A workflow calls its metrics from the threads executing it, in line with the
+ * execution itself, so implementations must be thread-safe, should return quickly, and must not throw exceptions.
+ * <p>
+ * Each try of a step produces one <code>stepStarted</code> call; <code>stepExecuting</code> and <code>stepExecuted</code>
+ * calls, made on the thread running the step, if a thread picks the try up; and, when the try ends, either a <code>stepRetried</code>
+ * call, if the step will be tried again, or a <code>stepCompleted</code> call, if it will not.  Tries that time out also
+ * produce a <code>stepTimedOut</code> call before either of those, and retries produce a <code>stepRetryWaited</code>
+ * call once the wait before them is over.
+ * <p>
+ * Implementors that only care about some events may extend <code>MetricsAdapter</code> instead.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Workflow#setMetrics(Metrics)
+ * @see HistogramMetrics
+ */
+public interface Metrics {
+
+	/**
+	 * Called when a parser finishes creating a workflow from its definition, with the metrics of the created workflow.
+	 * @param workflow the workflow
+	 * @param elapsedNanos how long parsing took, in nanoseconds
+	 */
+	void workflowParsed(Workflow workflow, long elapsedNanos);
+
+	/**
+	 * Called when a workflow starts executing.
+	 * @param workflow the workflow
+	 */
+	void workflowStarted(Workflow workflow);
+
+	/**
+	 * Called when a workflow finishes executing, whether or not it was successful.
+	 * @param workflow the workflow
+	 * @param elapsedNanos how long the workflow executed, in nanoseconds
+	 * @param successful <code>true</code> if every step completed successfully, <code>false</code> otherwise
+	 */
+	void workflowCompleted(Workflow workflow, long elapsedNanos, boolean successful);
+
+	/**
+	 * Called when a workflow that is executing is halted.  <code>workflowCompleted</code> is still called once the
+	 * execution unwinds.
+	 * @param workflow the workflow
+	 */
+	void workflowHalted(Workflow workflow);
+
+	/**
+	 * Called when a try of a step is submitted for execution.
+	 * @param step the step
+	 * @param attempt the record of the try, which has not ended
+	 */
+	void stepStarted(Step step, Attempt attempt);
+
+	/**
+	 * Called on the thread about to run a try of a step, just before the step's <code>execute()</code> method is called.
+	 * Unlike the other step events, this is called on the thread running the step itself, so implementations may set up
+	 * thread-local state for the step to use.
+	 * @param step the step
+	 * @param attempt the record of the try
+	 */
+	void stepExecuting(Step step, Attempt attempt);
+
+	/**
+	 * Called on the thread that ran a try of a step, just after the step's <code>execute()</code> method returns or
+	 * throws, so implementations may tear down anything set up by <code>stepExecuting</code>.
+	 * @param step the step
+	 * @param attempt the record of the try
+	 */
+	void stepExecuted(Step step, Attempt attempt);
+
+	/**
+	 * Called when the final try of a step ends, whether or not it was successful.
+	 * @param step the step
+	 * @param attempt the record of the final try
+	 */
+	void stepCompleted(Step step, Attempt attempt);
+
+	/**
+	 * Called when a try of a step fails and the step will be tried again.
+	 * @param step the step
+	 * @param attempt the record of the failed try
+	 */
+	void stepRetried(Step step, Attempt attempt);
+
+	/**
+	 * Called when the wait before a retry of a step is over, just before the step is tried again.
+	 * @param step the step
+	 * @param waitedNanos how long the workflow waited before the retry, in nanoseconds
+	 * @see Workflow#waitBeforeRetry(Step)
+	 */
+	void stepRetryWaited(Step step, long waitedNanos);
+
+	/**
+	 * Called when a try of a step runs longer than the step's timeout.
+	 * @param step the step
+	 * @param attempt the record of the timed out try
+	 */
+	void stepTimedOut(Step step, Attempt attempt);
+
+	/**
+	 * Called when a step is skipped because an earlier step failed.
+	 * @param step the step
+	 */
+	void stepSkipped(Step step);
+}
@@ -0,0 +1,47 @@
+package com.hexagrammatic.cloudflow;
+
+/**
+ * Metrics implementation that ignores every event, for implementors that only want to override some of them.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Metrics
+ */
+public abstract class MetricsAdapter implements Metrics {
+
+	@Override
+	public void workflowParsed(final Workflow workflow, final long elapsedNanos) {}
+
+	@Override
+	public void workflowStarted(final Workflow workflow) {}
+
+	@Override
+	public void workflowCompleted(final Workflow workflow, final long elapsedNanos, final boolean successful) {}
+
+	@Override
+	public void workflowHalted(final Workflow workflow) {}
+
+	@Override
+	public void stepStarted(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepExecuting(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepExecuted(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepCompleted(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepRetried(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepRetryWaited(final Step step, final long waitedNanos) {}
+
+	@Override
+	public void stepTimedOut(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepSkipped(final Step step) {}
+}
@@ -0,0 +1,189 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Type to write the parameters of a workflow or step, including every version kept by <code>snapshot()</code>, in a
+ * compact binary format, and to read them back into another object, such as one in another process.  Only the object's
+ * own parameters are written: a step's are written without its workflow's.
+ * <p>
+ * The format begins with a four byte magic number, a one byte format version, and a one byte set of flags, so readers
+ * can reject data written by incompatible versions of this class rather than misinterpreting it.  The parameters follow,
+ * deflated if compression is on: the number of parameters, then the name of each along with its number of versions
+ * and each version, newest first, as a type-tagged value.
+ * <p>
+ * Parameter values must be <code>null</code>, Strings, Booleans, Numbers, StructuredValues, or ParameterExpressions -
+ * the same values <code>BinaryWriter</code> can write.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see BinaryCodec
+ */
+public class ParameterCodec {
+	static final int MAGIC = 0x43465052; // 'CFPR'
+	static final byte VERSION = 1;
+	static final byte FLAG_COMPRESSED = 0x01;
+
+	private boolean compressed = false;
+
+	/**
+	 * Determines if the parameters are deflated when written.
+	 * @return <code>true</code> if compression is on, <code>false</code> otherwise.
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Turns deflating the parameters when writing them on or off.  Compression pays off for large or repetitive
+	 * values, such as structured values; for a handful of short values, it only costs time.  Reading handles
+	 * compressed and uncompressed data alike, whatever this setting is.
+	 * @param compressed <code>true</code> to deflate the parameters, <code>false</code> otherwise.
+	 */
+	public void setCompressed(final boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Writes the parameters of an object to an OutputStream.  The stream is flushed, but not closed.
+	 * @param source the object whose parameters to write - may not be null
+	 * @param stream the output stream - may not be null
+	 * @throws IOException if writing to the stream fails
+	 * @throws IllegalArgumentException if a version of a parameter cannot be encoded
+	 */
+	public void write(final Parameterized source, final OutputStream stream) throws IOException {
+		Validate.notNull(source, "The provided source may not be null.");
+		Validate.notNull(stream, "The provided output stream may not be null.");
+		final Map<String, Object[]> history = source.getParameterHistory();
+		for (final Map.Entry<String, Object[]> entry: history.entrySet()) {
+			for (final Object value: entry.getValue()) {
+				if (!BinaryCodec.isSupported(value)) {
+					throw new IllegalArgumentException(String.format("Cannot write parameter '%s' - values of type %s are not supported.",
+							entry.getKey(), value.getClass().getName()));
+				}
+			}
+		}
+
+		final DataOutputStream header = new DataOutputStream(stream);
+		header.writeInt(MAGIC);
+		header.writeByte(VERSION);
+		header.writeByte(compressed ? FLAG_COMPRESSED : 0);
+		header.flush();
+		if (!compressed) {
+			writeHistory(header, history);
+			header.flush();
+			return;
+		}
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			final DeflaterOutputStream deflated = new DeflaterOutputStream(stream, deflater);
+			final DataOutputStream out = new DataOutputStream(deflated);
+			writeHistory(out, history);
+			out.flush();
+			deflated.finish();
+			stream.flush();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Writes the parameters of an object to a byte array.
+	 * @param source the object whose parameters to write - may not be null
+	 * @return the encoded parameters
+	 * @throws IllegalArgumentException if a version of a parameter cannot be encoded
+	 */
+	public byte[] toByteArray(final Parameterized source) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(source, bytes);
+		} catch (final IOException e) {
+			throw new IllegalStateException("Unexpected exception writing to memory.", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads parameters written by <code>write</code> into an object, replacing all of its own parameters and their
+	 * versions.  The target's parameters are only replaced once everything has been read, so they are left as they were
+	 * if reading fails.
+	 * @param stream the input stream, which is not closed - may not be null
+	 * @param target the object to read the parameters into - may not be null
+	 * @throws IOException if reading from the stream fails or the data is malformed
+	 */
+	public void read(final InputStream stream, final Parameterized target) throws IOException {
+		Validate.notNull(stream, "The provided input stream may not be null.");
+		Validate.notNull(target, "The provided target may not be null.");
+		final DataInputStream header = new DataInputStream(stream);
+		if (header.readInt() != MAGIC) throw new IOException("Data is not in the binary parameter format.");
+		final byte version = header.readByte();
+		if (version != VERSION) throw new IOException(String.format("Unsupported binary parameter format version %d.", version));
+		final byte flags = header.readByte();
+		if ((flags & ~FLAG_COMPRESSED) != 0) throw new IOException(String.format("Unknown binary parameter flags %d.", flags));
+		if ((flags & FLAG_COMPRESSED) == 0) {
+			target.setParameterHistory(readHistory(header));
+			return;
+		}
+		final Inflater inflater = new Inflater();
+		try {
+			target.setParameterHistory(readHistory(new DataInputStream(new InflaterInputStream(stream, inflater))));
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Reads parameters written by <code>write</code> from a byte array into an object, replacing all of its own
+	 * parameters and their versions.
+	 * @param bytes the encoded parameters - may not be null
+	 * @param target the object to read the parameters into - may not be null
+	 * @throws IOException if the data is malformed
+	 */
+	public void read(final byte[] bytes, final Parameterized target) throws IOException {
+		Validate.notNull(bytes, "The provided bytes may not be null.");
+		read(new ByteArrayInputStream(bytes), target);
+	}
+
+	private void writeHistory(final DataOutputStream out, final Map<String, Object[]> history) throws IOException {
+		BinaryCodec.writeVarLong(out, history.size());
+		for (final Map.Entry<String, Object[]> entry: history.entrySet()) {
+			BinaryCodec.writeString(out, entry.getKey());
+			BinaryCodec.writeVarLong(out, entry.getValue().length);
+			for (final Object value: entry.getValue()) {
+				BinaryCodec.writeValue(out, value);
+			}
+		}
+	}
+
+	private Map<String, Object[]> readHistory(final DataInputStream in) throws IOException {
+		final int count = BinaryCodec.readLength(in);
+		final Map<String, Object[]> history = new TreeMap<String, Object[]>();
+		for (int i = 0; i < count; i++) {
+			final String key = BinaryCodec.readString(in);
+			if (key == null) throw new IOException("Parameter name is missing.");
+			final int length = BinaryCodec.readLength(in);
+			if (length == 0) throw new IOException(String.format("Parameter '%s' has no versions.", key));
+			final ArrayList<Object> versions = new ArrayList<Object>(Math.min(length, 16));
+			for (int j = 0; j < length; j++) {
+				versions.add(BinaryCodec.readValue(in));
+			}
+			history.put(key, versions.toArray());
+		}
+		return history;
+	}
+}
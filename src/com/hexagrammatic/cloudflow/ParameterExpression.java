@@ -0,0 +1,164 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.ArrayList;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Parameter value that is computed from other parameters each time it is read.  Expressions are strings containing
+ * references of the form <code>${name}</code> or <code>${name:default}</code>, such as <code>"${region}-${cluster}"</code>.
+ * Expressions are compiled once, when they are created, and evaluated whenever <code>getParameter</code> returns them,
+ * against the object the parameter was read from - so a step parameter referring to <code>${region}</code> sees the
+ * step's own <code>region</code> parameter or, failing that, the workflow's.
+ * <p>
+ * An expression consisting of a single reference and nothing else evaluates to the referenced value itself, keeping its
+ * type; any other expression evaluates to a String.  A literal <code>$</code> is written as <code>$$</code>.  Referring
+ * to a missing parameter without supplying a default is an error at evaluation time.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Parameterized#getParameter(String, Object)
+ */
+public final class ParameterExpression {
+	private static final int MAX_DEPTH = 16;
+	private static final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	private final String source;
+	private final String[] literals;
+	private final String[] names;
+	private final String[] defaults;
+
+	private ParameterExpression(final String source, final String[] literals, final String[] names, final String[] defaults) {
+		this.source = source;
+		this.literals = literals;
+		this.names = names;
+		this.defaults = defaults;
+	}
+
+	/**
+	 * Determines if a string contains any parameter references or escaped dollar signs and so should be compiled as an
+	 * expression.
+	 * @param value the string to check - may be <code>null</code>
+	 * @return <code>true</code> if the string contains <code>${</code> or <code>$$</code>, <code>false</code> otherwise.
+	 */
+	public static boolean isExpression(final String value) {
+		return value != null && (value.indexOf("${") >= 0 || value.indexOf("$$") >= 0);
+	}
+
+	/**
+	 * Compiles an expression.
+	 * @param source the expression source - may not be null
+	 * @return the compiled expression
+	 * @throws IllegalArgumentException if the source is null, contains an unterminated reference, or a reference with no name.
+	 */
+	public static ParameterExpression compile(final String source) {
+		Validate.notNull(source, "The provided expression may not be null.");
+		final ArrayList<String> literals = new ArrayList<String>();
+		final ArrayList<String> names = new ArrayList<String>();
+		final ArrayList<String> defaults = new ArrayList<String>();
+		final StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < source.length()) {
+			final char c = source.charAt(i);
+			if (c == '$' && i + 1 < source.length() && source.charAt(i + 1) == '$') {
+				literal.append('$');
+				i += 2;
+			} else if (c == '$' && i + 1 < source.length() && source.charAt(i + 1) == '{') {
+				final int end = source.indexOf('}', i + 2);
+				if (end < 0) {
+					throw new IllegalArgumentException(String.format("Expression '%s' has an unterminated reference at position %d.", source, i));
+				}
+				final String reference = source.substring(i + 2, end);
+				final int colon = reference.indexOf(':');
+				final String name = (colon < 0 ? reference : reference.substring(0, colon)).trim();
+				if (name.length() == 0) {
+					throw new IllegalArgumentException(String.format("Expression '%s' has a reference with no name at position %d.", source, i));
+				}
+				literals.add(literal.toString());
+				literal.setLength(0);
+				names.add(name);
+				defaults.add(colon < 0 ? null : reference.substring(colon + 1));
+				i = end + 1;
+			} else {
+				literal.append(c);
+				i++;
+			}
+		}
+		literals.add(literal.toString());
+		return new ParameterExpression(source, literals.toArray(new String[literals.size()]),
+				names.toArray(new String[names.size()]), defaults.toArray(new String[defaults.size()]));
+	}
+
+	/**
+	 * Gets the text of an expression that refers to no parameters, with its escapes applied.
+	 * @return the text, or <code>null</code> if the expression refers to any parameters.
+	 */
+	String getLiteral() {
+		return names.length == 0 ? literals[0] : null;
+	}
+
+	/**
+	 * Gets the source this expression was compiled from.
+	 * @return the source - never null.
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Evaluates this expression, resolving references with <code>scope.getParameter</code>.
+	 * @param scope the object to resolve references against - may not be null
+	 * @return the referenced value, for an expression that is a single reference, or the expanded String otherwise.
+	 * @throws IllegalStateException if a reference without a default cannot be resolved, or expressions refer to each other too deeply.
+	 */
+	public Object evaluate(final Parameterized scope) {
+		Validate.notNull(scope, "The provided scope may not be null.");
+		final int[] current = depth.get();
+		if (current[0] >= MAX_DEPTH) {
+			throw new IllegalStateException(String.format("Expression '%s' refers to other expressions more than %d levels deep; the references may be circular.", source, MAX_DEPTH));
+		}
+		current[0]++;
+		try {
+			if (names.length == 1 && literals[0].length() == 0 && literals[1].length() == 0) {
+				return resolve(scope, 0);
+			}
+			final StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < names.length; i++) {
+				builder.append(literals[i]);
+				builder.append(resolve(scope, i));
+			}
+			builder.append(literals[names.length]);
+			return builder.toString();
+		} finally {
+			current[0]--;
+		}
+	}
+
+	private Object resolve(final Parameterized scope, final int i) {
+		final Object value = scope.getParameter(names[i], defaults[i]);
+		if (value == null) {
+			throw new IllegalStateException(String.format("Expression '%s' refers to missing parameter '%s'.", source, names[i]));
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		return other instanceof ParameterExpression && source.equals(((ParameterExpression)other).source);
+	}
+
+	@Override
+	public int hashCode() {
+		return source.hashCode();
+	}
+}
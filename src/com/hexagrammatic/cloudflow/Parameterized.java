@@ -4,7 +4,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -18,12 +20,80 @@ import org.apache.commons.lang.Validate;
  * <p>
  * Note: This type provides very crude thread-safety using read-write locks.  This is probably overkill, and implementors may 
  * coose to abandon thread-safety if they can ensure that only one thread will be accessing an object of this type at a time.
+ * Whether the locking actually costs anything can be measured by turning on lock statistics.
  * @author Bill Dimmick <me@billdimmick.com>
  * @since 2012.12
  */
 public abstract class Parameterized {
+	private static final long UNTIMED = Long.MIN_VALUE;
+
 	private HashMap<String, LiteLinkedList> values = new HashMap<String, LiteLinkedList>();
 	private ReadWriteLock rwLock = new ReentrantReadWriteLock();
+	private volatile LockStatistics lockStatistics = null;
+
+	/**
+	 * Turns recording of statistics about the lock guarding this object's parameters on or off.  Turning recording
+	 * on when it is already on keeps the statistics recorded so far; turning it off discards them.
+	 * <p>
+	 * Note: Implementors may override this method to turn recording on or off for related objects as well; such
+	 * implementations <i>must</i> contain a call to <code>super.setLockStatisticsEnabled(boolean)</code>.
+	 * @param enabled <code>true</code> to record statistics, <code>false</code> otherwise.
+	 * @since 2013.05
+	 */
+	public void setLockStatisticsEnabled(final boolean enabled) {
+		if (!enabled) {
+			lockStatistics = null;
+		} else if (lockStatistics == null) {
+			lockStatistics = new LockStatistics();
+		}
+	}
+
+	/**
+	 * Gets the statistics about the lock guarding this object's parameters.
+	 * @return the statistics, or <code>null</code> if recording is off.
+	 * @since 2013.05
+	 */
+	public final LockStatistics getLockStatistics() {
+		return lockStatistics;
+	}
+
+	/**
+	 * Takes the lock for reading or writing.  While statistics are being recorded, an attempt is first made to take
+	 * the lock without waiting, so only acquisitions that actually had to wait are counted as contended.
+	 * @param write <code>true</code> to take the lock for writing, <code>false</code> for reading
+	 * @return the <code>System.nanoTime()</code> the lock was taken at, or <code>UNTIMED</code> if statistics are
+	 * not being recorded; to be passed to <code>unlock</code>.
+	 */
+	private long lock(final boolean write) {
+		final Lock lock = write ? rwLock.writeLock() : rwLock.readLock();
+		final LockStatistics statistics = lockStatistics;
+		if (statistics == null) {
+			lock.lock();
+			return UNTIMED;
+		}
+		final long start = System.nanoTime();
+		if (lock.tryLock()) {
+			statistics.acquired(write, 0, false);
+			return start;
+		}
+		lock.lock();
+		final long acquired = System.nanoTime();
+		statistics.acquired(write, acquired - start, true);
+		return acquired;
+	}
+
+	/**
+	 * Releases the lock taken by <code>lock</code>.
+	 * @param write <code>true</code> if the lock was taken for writing, <code>false</code> for reading
+	 * @param acquired the value returned by <code>lock</code>
+	 */
+	private void unlock(final boolean write, final long acquired) {
+		final LockStatistics statistics = lockStatistics;
+		if (acquired != UNTIMED && statistics != null) {
+			statistics.released(write, System.nanoTime() - acquired);
+		}
+		(write ? rwLock.writeLock() : rwLock.readLock()).unlock();
+	}
 	
     /**
      * Snapshots the current parameters.  
@@ -33,7 +103,7 @@ public abstract class Parameterized {
      * <code>super.snapshot()</code>.
      */
 	public void snapshot() {
-    	rwLock.writeLock().lock();
+    	final long acquired = lock(true);
     	try {
 	    	for (final Map.Entry<String, LiteLinkedList> entry: values.entrySet()) {
 	    		final LiteLinkedList current = entry.getValue();
@@ -42,7 +112,7 @@ public abstract class Parameterized {
 	    		entry.setValue(next);
 	    	}
     	} finally {
-    		rwLock.writeLock().unlock();
+    		unlock(true, acquired);
     	}
     }
     
@@ -53,7 +123,7 @@ public abstract class Parameterized {
      * such implementations <i>must</i> contain a call to <code>super.rollback()</code>.
      */
 	public void rollback() {
-    	rwLock.writeLock().lock();
+    	final long acquired = lock(true);
     	try {
 	    	final ArrayList<String> removals = new ArrayList<String>();
 	    	for (final Map.Entry<String, LiteLinkedList> entry: values.entrySet()) {
@@ -69,7 +139,7 @@ public abstract class Parameterized {
 	    		values.remove(removal);
 	    	}
     	} finally {
-    		rwLock.writeLock().unlock();
+    		unlock(true, acquired);
     	}
     }
 
@@ -80,7 +150,7 @@ public abstract class Parameterized {
      */
 	public void addParameter(final String key, final Object value) {
 		Validate.notNull(key, "The provided key may not be null.");
-		rwLock.writeLock().lock();
+		final long acquired = lock(true);
 		try {
 			LiteLinkedList stack = values.get(key);
 			if (stack == null) {
@@ -89,7 +159,7 @@ public abstract class Parameterized {
 			}
 			stack.setValue(value);
 		} finally {
-			rwLock.writeLock().unlock();
+			unlock(true, acquired);
 		}
 	}
 	
@@ -99,14 +169,14 @@ public abstract class Parameterized {
 	 */
 	public void removeParameter(final String key) {
 		if (key == null) return;
-		rwLock.writeLock().lock();
+		final long acquired = lock(true);
 		try {
 			final LiteLinkedList stack = values.get(key);
 			if (stack != null) {
 				stack.setValue(null);
 			}
 		} finally {
-			rwLock.writeLock().unlock();
+			unlock(true, acquired);
 		}
 	}
 	
@@ -117,14 +187,14 @@ public abstract class Parameterized {
 	 */
 	public boolean hasParameter(final String key) {
 		if (key == null) return false;
-		rwLock.readLock().lock();
+		final long acquired = lock(false);
 		try {
 			final LiteLinkedList stack = values.get(key);
 			if (stack == null) return false;
 			if (stack.getValue() == null) return false;
 			return true;
 		} finally {
-			rwLock.readLock().unlock();
+			unlock(false, acquired);
 		}
 	}
 
@@ -139,19 +209,35 @@ public abstract class Parameterized {
 	}
 
 	/**
-	 * Get the value for a specific parameter.
+	 * Get the value for a specific parameter.  If the value is a <code>ParameterExpression</code>, it is evaluated
+	 * against this object and the result is returned instead.
 	 * @param key the parameter key to find - may be <code>null</code>
 	 * @param defaultValue the default value to return if the parameter is not found - may be <code>null</code>
 	 * @return the value of the parameter or <code>defaultValue</code> if not found
+	 * @see ParameterExpression
 	 */
 	public Object getParameter(final String key, final Object defaultValue) {		
-		if (key == null) return defaultValue;
-		rwLock.readLock().lock();
+		final Object value = getLocalParameter(key);
+		if (value == null) return defaultValue;
+		if (value instanceof ParameterExpression) return ((ParameterExpression)value).evaluate(this);
+		return value;
+	}
+	
+	/**
+	 * Get the value stored for a specific parameter on this object alone.  Unlike <code>getParameter</code>,
+	 * this never consults anything subclasses may layer on top of this object's own values, such as a step
+	 * falling back to its workflow.
+	 * @param key the parameter key to find - may be <code>null</code>
+	 * @return the value of the parameter or <code>null</code> if not found
+	 */
+	final Object getLocalParameter(final String key) {
+		if (key == null) return null;
+		final long acquired = lock(false);
 		try {
 			final LiteLinkedList stack = values.get(key);
-			return stack == null || stack.getValue() == null ? defaultValue : stack.getValue();
+			return stack == null ? null : stack.getValue();
 		} finally {
-			rwLock.readLock().unlock();
+			unlock(false, acquired);
 		}
 	}
 	
@@ -162,13 +248,13 @@ public abstract class Parameterized {
 	 */
 	public int numVersions(final String key) {
 		if (key == null) return 0;
-		rwLock.readLock().lock();
+		final long acquired = lock(false);
 		try {
 			final LiteLinkedList stack = values.get(key);
 			if (stack == null) return 0;
 			return stack.length();
 		} finally {
-			rwLock.readLock().unlock();
+			unlock(false, acquired);
 		}
 	}
 	
@@ -177,14 +263,65 @@ public abstract class Parameterized {
 	 * @return the list of parameter names, sorted.  Never null, possibly empty.
 	 */
 	public Collection<String> getParameterNames() {
-		rwLock.readLock().lock();
+		final long acquired = lock(false);
 		try {
 			return new TreeSet<String>(values.keySet());
 		} finally {
-			rwLock.readLock().unlock();
+			unlock(false, acquired);
 		}
 	}
 	
+	/**
+	 * Gets every version of every parameter on this object, as kept by <code>snapshot()</code>.
+	 * @return the versions of each parameter, newest first, keyed by parameter name in name order.  A <code>null</code>
+	 * version is one in which the parameter was removed, or did not yet exist.
+	 * @since 2013.05
+	 */
+	final Map<String, Object[]> getParameterHistory() {
+		final long acquired = lock(false);
+		try {
+			final Map<String, Object[]> result = new TreeMap<String, Object[]>();
+			for (final Map.Entry<String, LiteLinkedList> entry: values.entrySet()) {
+				final Object[] versions = new Object[entry.getValue().depth()];
+				LiteLinkedList node = entry.getValue();
+				for (int i = 0; i < versions.length; i++) {
+					versions[i] = node.getValue();
+					node = node.next();
+				}
+				result.put(entry.getKey(), versions);
+			}
+			return result;
+		} finally {
+			unlock(false, acquired);
+		}
+	}
+
+	/**
+	 * Replaces every parameter on this object, along with their versions, with the provided ones.  Unlike
+	 * <code>addParameter</code>, this never affects anything subclasses layer on top of this object's own values.
+	 * @param history the versions of each parameter, newest first, as returned by <code>getParameterHistory()</code>
+	 * @since 2013.05
+	 */
+	final void setParameterHistory(final Map<String, Object[]> history) {
+		final HashMap<String, LiteLinkedList> replacement = new HashMap<String, LiteLinkedList>();
+		for (final Map.Entry<String, Object[]> entry: history.entrySet()) {
+			final Object[] versions = entry.getValue();
+			if (versions.length == 0) continue;
+			LiteLinkedList node = null;
+			for (int i = versions.length - 1; i >= 0; i--) {
+				node = new LiteLinkedList(node);
+				node.setValue(versions[i]);
+			}
+			replacement.put(entry.getKey(), node);
+		}
+		final long acquired = lock(true);
+		try {
+			values = replacement;
+		} finally {
+			unlock(true, acquired);
+		}
+	}
+
 	private static final class LiteLinkedList {
 		private Object value;
 		private final LiteLinkedList next;
@@ -216,5 +353,13 @@ public abstract class Parameterized {
 			}
 			return k + next.length();
 		}
+
+		public int depth() {
+			int result = 1;
+			for (LiteLinkedList node = next; node != null; node = node.next) {
+				result++;
+			}
+			return result;
+		}
 	}
 }
@@ -0,0 +1,219 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One end of a connection between a <code>RemoteStepClient</code> and a <code>RemoteStepServer</code>.  Frames - length
+ * prefixed messages - may be sent by any number of threads at once without blocking: they are queued, and a writer
+ * thread takes every frame queued so far, writes them all, and flushes the socket once per batch, so concurrent
+ * invocations share packets and system calls.  A reader thread hands every frame received to a handler.
+ * <p>
+ * Each end starts by sending a four byte magic number and a one byte protocol version; a connection whose other end
+ * sends anything else is closed.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see RemoteStepClient
+ * @see RemoteStepServer
+ */
+final class RemoteConnection implements Closeable {
+	static final int MAGIC = 0x43465253; // 'CFRS'
+	static final byte VERSION = 1;
+	static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+	static final int MAX_BATCH = 1024;
+
+	static final byte REQUEST = 1;
+	static final byte CANCEL = 2;
+	static final byte RESULT = 3;
+	static final byte ERROR = 4;
+
+	private static final byte[] CLOSE = new byte[0];
+
+	/**
+	 * Receives what arrives on a connection.  Calls are made from the connection's reader thread.
+	 */
+	interface Handler {
+		/**
+		 * Handles a frame.
+		 * @param in the frame's contents
+		 * @throws IOException if the frame is malformed, which closes the connection
+		 */
+		void received(DataInputStream in) throws IOException;
+
+		/**
+		 * Handles the connection closing, for whatever reason.  Called exactly once.
+		 * @param cause why the connection closed, or <code>null</code> if it was closed normally
+		 */
+		void closed(IOException cause);
+	}
+
+	private final Socket socket;
+	private final Handler handler;
+	private final Thread reader;
+	private final Thread writer;
+	private final LinkedBlockingQueue<byte[]> outgoing = new LinkedBlockingQueue<byte[]>();
+	private final AtomicLong framesSent = new AtomicLong();
+	private final AtomicLong batchesSent = new AtomicLong();
+	private boolean closed = false;
+
+	/**
+	 * Creates a connection; nothing is sent or received until it is started.
+	 * @param socket the connected socket
+	 * @param handler the handler for frames received
+	 * @param name the name for the connection's threads
+	 * @throws IOException if the socket cannot be configured
+	 */
+	RemoteConnection(final Socket socket, final Handler handler, final String name) throws IOException {
+		this.socket = socket;
+		this.handler = handler;
+		socket.setTcpNoDelay(true);
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				read(in);
+			}
+		});
+		reader.setDaemon(true);
+		reader.setName(String.format("%s Reader", name));
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write(out);
+			}
+		});
+		writer.setDaemon(true);
+		writer.setName(String.format("%s Writer", name));
+	}
+
+	/**
+	 * Starts the reader and writer threads.
+	 */
+	void start() {
+		reader.start();
+		writer.start();
+	}
+
+	/**
+	 * Queues a frame to be sent.
+	 * @param frame the frame's contents
+	 * @throws IOException if the connection is closed
+	 */
+	void send(final byte[] frame) throws IOException {
+		synchronized (this) {
+			if (closed) throw new IOException(String.format("Connection to %s is closed.", socket.getRemoteSocketAddress()));
+			outgoing.add(frame);
+		}
+	}
+
+	/**
+	 * Determines if the connection has been closed.
+	 * @return <code>true</code> if closed, <code>false</code> otherwise.
+	 */
+	synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Gets the number of frames sent.
+	 * @return the number of frames
+	 */
+	long getFramesSent() {
+		return framesSent.get();
+	}
+
+	/**
+	 * Gets the number of batches sent, each with a single flush of the socket.
+	 * @return the number of batches
+	 */
+	long getBatchesSent() {
+		return batchesSent.get();
+	}
+
+	@Override
+	public void close() {
+		close(null);
+	}
+
+	private void close(final IOException cause) {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+			outgoing.add(CLOSE);
+		}
+		try {
+			socket.close();
+		} catch (final IOException e) {
+			// Nothing more to do.
+		}
+		handler.closed(cause);
+	}
+
+	private void read(final DataInputStream in) {
+		try {
+			if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+				throw new IOException(String.format("Connection from %s does not speak the remote step protocol.", socket.getRemoteSocketAddress()));
+			}
+			while (true) {
+				final int length = in.readInt();
+				if (length < 1 || length > MAX_FRAME_SIZE) throw new IOException(String.format("Malformed frame of %d bytes.", length));
+				final byte[] frame = new byte[length];
+				in.readFully(frame);
+				handler.received(new DataInputStream(new ByteArrayInputStream(frame)));
+			}
+		} catch (final EOFException e) {
+			close(null);
+		} catch (final IOException e) {
+			close(isClosed() ? null : e);
+		}
+	}
+
+	private void write(final DataOutputStream out) {
+		final List<byte[]> batch = new ArrayList<byte[]>();
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.flush();
+			while (true) {
+				batch.clear();
+				batch.add(outgoing.take());
+				outgoing.drainTo(batch, MAX_BATCH - 1);
+				int written = 0;
+				boolean closing = false;
+				for (final byte[] frame: batch) {
+					if (frame == CLOSE) {
+						closing = true;
+						break;
+					}
+					out.writeInt(frame.length);
+					out.write(frame);
+					written++;
+				}
+				// Flush frames written ahead of a close rather than leaving them in the buffer
+				out.flush();
+				if (written > 0) {
+					framesSent.addAndGet(written);
+					batchesSent.incrementAndGet();
+				}
+				if (closing) return;
+			}
+		} catch (final InterruptedException e) {
+			close(null);
+		} catch (final IOException e) {
+			close(isClosed() ? null : e);
+		}
+	}
+}
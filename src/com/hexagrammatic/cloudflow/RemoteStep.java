@@ -0,0 +1,88 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Step that executes another step in a <code>RemoteStepServer</code>, for steps needing resources that only exist on
+ * certain hosts.  The step to execute and where to execute it are set with parameters, such as in JSON:
+ * <pre>
+ * {"class": "com.hexagrammatic.cloudflow.RemoteStep", "remoteHost": "gpu1", "remotePort": 7070,
+ *  "remotePool": "gpu", "remoteClass": "some.package.RenderStep", "timeout": "5 MINUTES", "maxRetries": 2}
+ * </pre>
+ * The remote step is given this step's parameters, including those of its workflow, other than the ones above and any
+ * whose values <code>BinaryCodec</code> cannot encode; the parameters it adds or changes are added to this step, and so
+ * to the workflow.
+ * <p>
+ * This step's timeout and retries apply to the remote step as they would to a local one: the timeout is sent with the
+ * request, and a try that times out in the workflow is interrupted on the server too.  A remote step that fails, or a
+ * connection that fails, fails the try.  Connections are shared by every remote step in the process invoking steps on
+ * the same server.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see RemoteStepServer
+ * @see RemoteStepClient
+ */
+public class RemoteStep extends Step {
+	/** The parameter naming the host of the server. */
+	public static final String HOST = "remoteHost";
+	/** The parameter naming the port of the server. */
+	public static final String PORT = "remotePort";
+	/** The parameter naming the server's executor pool to execute the step in. */
+	public static final String POOL = "remotePool";
+	/** The parameter naming the class of the step to execute, or its indexed alias. */
+	public static final String CLASS = "remoteClass";
+
+	@Override
+	protected void execute() throws InterruptedException {
+		final String host = required(HOST).toString();
+		final Object port = required(PORT);
+		final String pool = required(POOL).toString();
+		final String stepClass = required(CLASS).toString();
+		final long timeoutNanos = getTimeoutValue() > 0 ? getTimeoutUnits().toNanos(getTimeoutValue()) : 0;
+		try {
+			final RemoteStepClient client = RemoteStepClient.forAddress(host,
+					port instanceof Number ? ((Number)port).intValue() : Integer.parseInt(port.toString()));
+			final Map<String, Object> outputs = client.invoke(pool, stepClass, remoteParameters(), timeoutNanos);
+			for (final Map.Entry<String, Object> entry: outputs.entrySet()) {
+				addParameter(entry.getKey(), entry.getValue());
+			}
+		} catch (final NumberFormatException e) {
+			throw new IllegalStateException(String.format("Remote step parameter '%s' is not a port number: '%s'.", PORT, port), e);
+		} catch (final IOException e) {
+			throw new IllegalStateException(String.format("Unable to execute step '%s' on %s:%s.", stepClass, host, port), e);
+		}
+	}
+
+	private Object required(final String key) {
+		final Object value = getParameter(key);
+		if (value == null) throw new IllegalStateException(String.format("Remote step '%s' requires parameter '%s'.", getName(), key));
+		return value;
+	}
+
+	/**
+	 * Gathers the parameters to give the remote step.
+	 * @return the parameters, with this step's taking precedence over its workflow's
+	 */
+	private Map<String, Object> remoteParameters() {
+		final Map<String, Object> result = new TreeMap<String, Object>();
+		if (getWorkflow() != null) {
+			gather(getWorkflow(), result);
+		}
+		gather(this, result);
+		result.remove(HOST);
+		result.remove(PORT);
+		result.remove(POOL);
+		result.remove(CLASS);
+		return result;
+	}
+
+	private static void gather(final Parameterized source, final Map<String, Object> result) {
+		for (final String name: source.getParameterNames()) {
+			final Object value = source.getLocalParameter(name);
+			if (BinaryCodec.isSupported(value)) result.put(name, value);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Client for executing steps in a <code>RemoteStepServer</code>.  A client holds a single connection, over which any
+ * number of threads may invoke steps at once: each invocation is tagged with an identifier, sent without waiting for
+ * earlier ones to finish, and matched to its result when that arrives, in whatever order results arrive.  Requests made
+ * at about the same time are written to the socket together.
+ * <p>
+ * A thread interrupted while waiting for a result, such as by its step timing out, asks the server to interrupt the
+ * remote step.  If the connection fails, every invocation waiting on it fails; the client cannot be used again, but
+ * <code>forAddress</code> replaces closed clients with new ones.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see RemoteStep
+ * @see RemoteStepServer
+ */
+public class RemoteStepClient implements Closeable {
+	/** The time allowed for connecting to a server, in milliseconds. */
+	public static final int CONNECT_TIMEOUT_MILLIS = 10000;
+
+	private static final Map<String, RemoteStepClient> clients = new HashMap<String, RemoteStepClient>();
+
+	private final RemoteConnection connection;
+	private final Map<Long, Call> calls = new ConcurrentHashMap<Long, Call>();
+	private final AtomicLong ids = new AtomicLong();
+
+	/**
+	 * Gets a client shared by everything in this process invoking steps in the server at the provided address,
+	 * connecting to it if there is no open client yet.
+	 * @param host the host of the server - may not be null
+	 * @param port the port of the server
+	 * @return the client
+	 * @throws IOException if connecting to the server fails
+	 */
+	public static RemoteStepClient forAddress(final String host, final int port) throws IOException {
+		Validate.notNull(host, "The provided host may not be null.");
+		final String key = host + ":" + port;
+		synchronized (clients) {
+			RemoteStepClient client = clients.get(key);
+			if (client == null || client.isClosed()) {
+				client = new RemoteStepClient(host, port);
+				clients.put(key, client);
+			}
+			return client;
+		}
+	}
+
+	/**
+	 * Connects to a server.
+	 * @param host the host of the server - may not be null
+	 * @param port the port of the server
+	 * @throws IOException if connecting to the server fails
+	 */
+	public RemoteStepClient(final String host, final int port) throws IOException {
+		Validate.notNull(host, "The provided host may not be null.");
+		final Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+		} catch (final IOException e) {
+			socket.close();
+			throw e;
+		}
+		this.connection = new RemoteConnection(socket, new RemoteConnection.Handler() {
+			@Override
+			public void received(final DataInputStream in) throws IOException {
+				receive(in);
+			}
+
+			@Override
+			public void closed(final IOException cause) {
+				fail(cause);
+			}
+		}, String.format("Cloudflow Remote Step Client (%s:%d)", host, port));
+		connection.start();
+	}
+
+	/**
+	 * Executes a step in the server, waiting for it to finish.
+	 * @param pool the name of the server's executor pool to execute the step in - may not be null
+	 * @param stepClass the name of the step class, or its indexed alias - may not be null
+	 * @param parameters the parameters to give the step - may not be null, and every value must be one
+	 * <code>BinaryCodec</code> supports
+	 * @param timeoutNanos the time after which the server interrupts the step, in nanoseconds, or 0 for no limit
+	 * @return the parameters the step added or changed
+	 * @throws IOException if the connection fails before the result arrives
+	 * @throws InterruptedException if interrupted while waiting for the result
+	 * @throws IllegalStateException if the step fails, cannot be created, or is interrupted by the server
+	 */
+	public Map<String, Object> invoke(final String pool, final String stepClass, final Map<String, Object> parameters,
+			final long timeoutNanos) throws IOException, InterruptedException {
+		Validate.notNull(pool, "The provided pool may not be null.");
+		Validate.notNull(stepClass, "The provided step class may not be null.");
+		Validate.notNull(parameters, "The provided parameters may not be null.");
+		Validate.isTrue(timeoutNanos >= 0, "The provided timeout may not be negative.");
+		final long id = ids.incrementAndGet();
+		final byte[] request = request(id, pool, stepClass, parameters, timeoutNanos);
+		final Call call = new Call();
+		calls.put(id, call);
+		try {
+			connection.send(request);
+		} catch (final IOException e) {
+			calls.remove(id);
+			throw e;
+		}
+		try {
+			call.done.await();
+		} catch (final InterruptedException e) {
+			calls.remove(id);
+			try {
+				connection.send(cancel(id));
+			} catch (final IOException ce) {
+				// The server drops the step along with the connection.
+			}
+			throw e;
+		}
+		if (call.failure != null) {
+			throw new IOException(String.format("Connection failed while executing remote step '%s'.", stepClass), call.failure);
+		}
+		if (call.error != null) {
+			throw new IllegalStateException(String.format("Remote step '%s' failed: %s", stepClass, call.error));
+		}
+		return call.result;
+	}
+
+	/**
+	 * Determines if the connection to the server has been closed.
+	 * @return <code>true</code> if closed, <code>false</code> otherwise.
+	 */
+	public boolean isClosed() {
+		return connection.isClosed();
+	}
+
+	/**
+	 * Gets the number of requests sent, including requests to cancel steps.
+	 * @return the number of requests
+	 */
+	public long getRequestsSent() {
+		return connection.getFramesSent();
+	}
+
+	/**
+	 * Gets the number of batches of requests sent, each written to the socket at once.
+	 * @return the number of batches
+	 */
+	public long getBatchesSent() {
+		return connection.getBatchesSent();
+	}
+
+	/**
+	 * Closes the connection.  Invocations still waiting for results fail.
+	 */
+	@Override
+	public void close() {
+		connection.close();
+	}
+
+	private void receive(final DataInputStream in) throws IOException {
+		final byte type = in.readByte();
+		final long id = BinaryCodec.readVarLong(in);
+		final Call call = calls.remove(id);
+		if (type == RemoteConnection.RESULT) {
+			final int count = BinaryCodec.readLength(in);
+			final Map<String, Object> result = new TreeMap<String, Object>();
+			for (int i = 0; i < count; i++) {
+				final String name = BinaryCodec.readString(in);
+				if (name == null) throw new IOException("Result parameter name is missing.");
+				result.put(name, BinaryCodec.readValue(in));
+			}
+			if (call != null) {
+				call.result = result;
+				call.done.countDown();
+			}
+		} else if (type == RemoteConnection.ERROR) {
+			final String error = BinaryCodec.readString(in);
+			if (call != null) {
+				call.error = error;
+				call.done.countDown();
+			}
+		} else {
+			throw new IOException(String.format("Unexpected frame type %d from server.", type));
+		}
+	}
+
+	private void fail(final IOException cause) {
+		final IOException failure = cause == null ? new IOException("Connection closed.") : cause;
+		for (final Long id: calls.keySet()) {
+			final Call call = calls.remove(id);
+			if (call != null) {
+				call.failure = failure;
+				call.done.countDown();
+			}
+		}
+	}
+
+	private static byte[] request(final long id, final String pool, final String stepClass,
+			final Map<String, Object> parameters, final long timeoutNanos) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(RemoteConnection.REQUEST);
+			BinaryCodec.writeVarLong(out, id);
+			BinaryCodec.writeString(out, pool);
+			BinaryCodec.writeString(out, stepClass);
+			BinaryCodec.writeVarLong(out, timeoutNanos);
+			BinaryCodec.writeVarLong(out, parameters.size());
+			for (final Map.Entry<String, Object> entry: parameters.entrySet()) {
+				BinaryCodec.writeString(out, entry.getKey());
+				BinaryCodec.writeValue(out, entry.getValue());
+			}
+		} catch (final IOException e) {
+			throw new IllegalStateException("Unexpected exception writing to memory.", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] cancel(final long id) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(RemoteConnection.CANCEL);
+			BinaryCodec.writeVarLong(out, id);
+		} catch (final IOException e) {
+			throw new IllegalStateException("Unexpected exception writing to memory.", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static final class Call {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Map<String, Object> result;
+		private volatile String error;
+		private volatile IOException failure;
+	}
+}
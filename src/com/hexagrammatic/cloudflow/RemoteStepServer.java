@@ -0,0 +1,376 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Server executing steps on behalf of <code>RemoteStepClient</code>s, for steps that need resources only this process
+ * has.  Steps are executed in named executor pools, so a host can, for instance, run steps needing a scarce resource
+ * in a small pool and everything else in a larger one.  Each request creates a new instance of the requested step
+ * class, gives it the request's parameters, and calls its <code>execute()</code>; the parameters the step added or
+ * changed are sent back.
+ * <p>
+ * Each pool only runs the steps it was added with, and the server only listens on the loopback address unless given
+ * another, since anything able to connect can run those steps.
+ * <p>
+ * A step is interrupted if its client asks, such as because the step timed out in the client's workflow, if it runs
+ * past the timeout sent with it, or if its connection closes.  Pools are owned by the caller and are not shut down
+ * when the server is closed.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see RemoteStep
+ */
+public class RemoteStepServer implements Closeable {
+	private final ServerSocket serverSocket;
+	private final Map<String, Pool> pools = new ConcurrentHashMap<String, Pool>();
+	private final Set<RemoteConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<RemoteConnection, Boolean>());
+	private final ScheduledThreadPoolExecutor deadlines;
+	private volatile ClassLoader classLoader = RemoteStepServer.class.getClassLoader();
+	private Thread acceptor = null;
+	private boolean closed = false;
+
+	/**
+	 * Creates a server listening on the loopback address only.
+	 * @param port the port to listen on, or 0 for any free port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public RemoteStepServer(final int port) throws IOException {
+		this(port, null);
+	}
+
+	/**
+	 * Creates a server.  Anything able to connect to the server can run the steps its pools accept, so only listen
+	 * on addresses reachable by trusted clients.
+	 * @param port the port to listen on, or 0 for any free port
+	 * @param bindAddress the local address to listen on, such as the wildcard address to listen on every local
+	 * address, or <code>null</code> for the loopback address only
+	 * @throws IOException if the port cannot be bound
+	 */
+	public RemoteStepServer(final int port, final InetAddress bindAddress) throws IOException {
+		this.serverSocket = new ServerSocket(port, 50, bindAddress == null ? InetAddress.getByName(null) : bindAddress);
+		this.deadlines = new ScheduledThreadPoolExecutor(1, daemon("Cloudflow Remote Step Deadlines"));
+	}
+
+	private static ThreadFactory daemon(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				thread.setName(name);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Gets the port the server listens on.
+	 * @return the port
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Gets the local address the server listens on.
+	 * @return the address
+	 */
+	public InetAddress getAddress() {
+		return serverSocket.getInetAddress();
+	}
+
+	/**
+	 * Sets the classloader step classes are loaded with.  Defaults to the classloader of this class.
+	 * @param classLoader the classloader - may not be null
+	 */
+	public void setClassLoader(final ClassLoader classLoader) {
+		Validate.notNull(classLoader, "The provided classloader may not be null.");
+		this.classLoader = classLoader;
+	}
+
+	/**
+	 * Adds or replaces a named executor pool, along with the steps it accepts.  Requests for a pool the server does
+	 * not have, or for a step the pool does not accept, fail without loading any class.
+	 * @param name the name of the pool - may not be null
+	 * @param executor the executor - may not be null
+	 * @param steps the step class names or indexed aliases the pool accepts, exactly as clients request them - may not
+	 * be empty
+	 */
+	public void addPool(final String name, final ExecutorService executor, final String... steps) {
+		Validate.notNull(name, "The provided pool name may not be null.");
+		Validate.notNull(executor, "The provided executor may not be null.");
+		Validate.notEmpty(steps, "The provided pool must accept at least one step.");
+		Validate.noNullElements(steps, "The provided steps may not contain null.");
+		pools.put(name, new Pool(executor, new HashSet<String>(Arrays.asList(steps))));
+	}
+
+	/**
+	 * Starts accepting connections.
+	 * @throws IllegalStateException if the server has already been started or has been closed
+	 */
+	public synchronized void start() {
+		if (closed || acceptor != null) throw new IllegalStateException("The server has already been started.");
+		acceptor = daemon(String.format("Cloudflow Remote Step Server (%d)", getPort())).newThread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		});
+		acceptor.start();
+	}
+
+	/**
+	 * Stops accepting connections and closes every connection, interrupting the steps they requested.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+		}
+		try {
+			serverSocket.close();
+		} catch (final IOException e) {
+			// Nothing more to do.
+		}
+		for (final RemoteConnection connection: connections) {
+			connection.close();
+		}
+		deadlines.shutdownNow();
+	}
+
+	private void accept() {
+		while (true) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (final IOException e) {
+				return;
+			}
+			try {
+				new Session(socket);
+			} catch (final IOException e) {
+				try {
+					socket.close();
+				} catch (final IOException ce) {
+					// Nothing more to do.
+				}
+			}
+		}
+	}
+
+	private static final class Pool {
+		private final ExecutorService executor;
+		private final Set<String> steps;
+
+		Pool(final ExecutorService executor, final Set<String> steps) {
+			this.executor = executor;
+			this.steps = steps;
+		}
+	}
+
+	/**
+	 * The steps requested over one connection.
+	 */
+	private final class Session implements RemoteConnection.Handler {
+		private final Map<Long, Invocation> running = new ConcurrentHashMap<Long, Invocation>();
+		private final RemoteConnection connection;
+
+		Session(final Socket socket) throws IOException {
+			this.connection = new RemoteConnection(socket, this,
+					String.format("Cloudflow Remote Step Server (%s)", socket.getRemoteSocketAddress()));
+			connections.add(connection);
+			synchronized (RemoteStepServer.this) {
+				if (closed) connection.close();
+			}
+			connection.start();
+		}
+
+		@Override
+		public void received(final DataInputStream in) throws IOException {
+			final byte type = in.readByte();
+			final long id = BinaryCodec.readVarLong(in);
+			if (type == RemoteConnection.CANCEL) {
+				final Invocation invocation = running.remove(id);
+				if (invocation != null) invocation.cancel();
+				return;
+			}
+			if (type != RemoteConnection.REQUEST) throw new IOException(String.format("Unexpected frame type %d from client.", type));
+			final String pool = BinaryCodec.readString(in);
+			final String stepClass = BinaryCodec.readString(in);
+			if (pool == null || stepClass == null) throw new IOException("Request is missing its pool or step class.");
+			final long timeoutNanos = BinaryCodec.readVarLong(in);
+			final int count = BinaryCodec.readLength(in);
+			final Map<String, Object> parameters = new HashMap<String, Object>();
+			for (int i = 0; i < count; i++) {
+				final String name = BinaryCodec.readString(in);
+				if (name == null) throw new IOException("Request parameter name is missing.");
+				parameters.put(name, BinaryCodec.readValue(in));
+			}
+
+			final Pool target = pools.get(pool);
+			if (target == null) {
+				error(id, String.format("Unknown executor pool '%s'.", pool));
+				return;
+			}
+			if (!target.steps.contains(stepClass)) {
+				error(id, String.format("Executor pool '%s' does not accept step '%s'.", pool, stepClass));
+				return;
+			}
+			final Invocation invocation = new Invocation(id, stepClass, parameters);
+			running.put(id, invocation);
+			synchronized (invocation) {
+				try {
+					invocation.future = target.executor.submit(invocation);
+				} catch (final RejectedExecutionException e) {
+					running.remove(id);
+					error(id, String.format("Executor pool '%s' rejected the step.", pool));
+					return;
+				}
+				if (timeoutNanos > 0 && !invocation.future.isDone()) {
+					invocation.deadline = deadlines.schedule(new Runnable() {
+						@Override
+						public void run() {
+							if (invocation.future.cancel(true)) {
+								running.remove(id);
+								error(id, String.format("Timed out after %s.", Utils.createTimeTuple(timeoutNanos, TimeUnit.NANOSECONDS)));
+							}
+						}
+					}, timeoutNanos, TimeUnit.NANOSECONDS);
+				}
+			}
+		}
+
+		@Override
+		public void closed(final IOException cause) {
+			connections.remove(connection);
+			for (final Long id: running.keySet()) {
+				final Invocation invocation = running.remove(id);
+				if (invocation != null) invocation.cancel();
+			}
+		}
+
+		private void error(final long id, final String message) {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				out.writeByte(RemoteConnection.ERROR);
+				BinaryCodec.writeVarLong(out, id);
+				BinaryCodec.writeString(out, message);
+			} catch (final IOException e) {
+				throw new IllegalStateException("Unexpected exception writing to memory.", e);
+			}
+			send(bytes.toByteArray());
+		}
+
+		private byte[] result(final long id, final Map<String, Object> outputs) {
+			for (final Map.Entry<String, Object> entry: outputs.entrySet()) {
+				if (!BinaryCodec.isSupported(entry.getValue())) {
+					throw new IllegalArgumentException(String.format("Cannot return parameter '%s' - values of type %s are not supported.",
+							entry.getKey(), entry.getValue().getClass().getName()));
+				}
+			}
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				out.writeByte(RemoteConnection.RESULT);
+				BinaryCodec.writeVarLong(out, id);
+				BinaryCodec.writeVarLong(out, outputs.size());
+				for (final Map.Entry<String, Object> entry: outputs.entrySet()) {
+					BinaryCodec.writeString(out, entry.getKey());
+					BinaryCodec.writeValue(out, entry.getValue());
+				}
+			} catch (final IOException e) {
+				throw new IllegalStateException("Unexpected exception writing to memory.", e);
+			}
+			return bytes.toByteArray();
+		}
+
+		private void send(final byte[] frame) {
+			try {
+				connection.send(frame);
+			} catch (final IOException e) {
+				// The connection closed; its client is no longer waiting.
+			}
+		}
+
+		/**
+		 * A step requested over this connection, from being received until it finishes or is cancelled.
+		 */
+		private final class Invocation implements Runnable {
+			private final long id;
+			private final String stepClass;
+			private final Map<String, Object> parameters;
+			private Future<?> future = null;
+			private ScheduledFuture<?> deadline = null;
+
+			Invocation(final long id, final String stepClass, final Map<String, Object> parameters) {
+				this.id = id;
+				this.stepClass = stepClass;
+				this.parameters = parameters;
+			}
+
+			@Override
+			public void run() {
+				try {
+					execute();
+				} finally {
+					running.remove(id);
+					synchronized (this) {
+						if (deadline != null && deadline.cancel(false)) deadlines.remove((Runnable)deadline);
+					}
+				}
+			}
+
+			synchronized void cancel() {
+				if (future != null) future.cancel(true);
+				if (deadline != null && deadline.cancel(false)) deadlines.remove((Runnable)deadline);
+			}
+
+			private void execute() {
+				try {
+					final Step step = Utils.createStep(classLoader, stepClass);
+					for (final Map.Entry<String, Object> entry: parameters.entrySet()) {
+						step.addParameter(entry.getKey(), entry.getValue());
+					}
+					step.execute();
+					final Map<String, Object> outputs = new HashMap<String, Object>();
+					for (final String name: step.getParameterNames()) {
+						final Object value = step.getLocalParameter(name);
+						if (value != parameters.get(name)) outputs.put(name, value);
+					}
+					send(result(id, outputs));
+				} catch (final InterruptedException e) {
+					// The step was cancelled; its client is no longer waiting.
+				} catch (final WorkflowCreationException e) {
+					error(id, e.getMessage());
+				} catch (final Throwable e) {
+					error(id, String.format("%s: %s", e.getClass().getName(), e.getMessage()));
+				}
+			}
+		}
+	}
+}
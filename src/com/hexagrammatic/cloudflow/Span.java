@@ -0,0 +1,220 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timed operation within a trace, recorded by a <code>Tracer</code>: the execution of a workflow, which is the root span
+ * of its trace, or a single try of one of its steps, which is a child of the workflow's span.  Spans carry attributes
+ * describing the operation and timestamped events marking things that happened during it, such as timeouts.
+ * <p>
+ * Durations are measured with <code>System.nanoTime()</code>; the wall clock is only read once, when the span starts.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Tracer
+ * @see SpanExporter
+ */
+public final class Span {
+	/**
+	 * How an operation ended.
+	 */
+	public enum Status {
+		/** The operation has not ended, or its outcome is unknown. */
+		UNSET,
+		/** The operation succeeded. */
+		OK,
+		/** The operation failed. */
+		ERROR
+	}
+
+	/**
+	 * Something that happened at a point in time during a span.
+	 */
+	public static final class Event {
+		private final String name;
+		private final long epochNanos;
+		private final Map<String, Object> attributes;
+
+		Event(final String name, final long epochNanos, final Map<String, Object> attributes) {
+			this.name = name;
+			this.epochNanos = epochNanos;
+			this.attributes = Collections.unmodifiableMap(new LinkedHashMap<String, Object>(attributes));
+		}
+
+		/**
+		 * Gets the name of the event.
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets when the event happened.
+		 * @return the time of the event, in nanoseconds since the epoch
+		 */
+		public long getEpochNanos() {
+			return epochNanos;
+		}
+
+		/**
+		 * Gets the attributes describing the event.
+		 * @return the attributes, as an unmodifiable map.
+		 */
+		public Map<String, Object> getAttributes() {
+			return attributes;
+		}
+	}
+
+	private final TraceContext context;
+	private final long parentSpanId;
+	private final String name;
+	private final long startNanos;
+	private final long startEpochNanos;
+	private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+	private final List<Event> events = new ArrayList<Event>();
+	private long endNanos = -1;
+	private Status status = Status.UNSET;
+
+	/**
+	 * Creates a span.
+	 * @param context the identity of the span
+	 * @param parentSpanId the id of the parent span, or 0 for a root span
+	 * @param name the name of the operation
+	 * @param startNanos the <code>System.nanoTime()</code> the operation started at
+	 */
+	Span(final TraceContext context, final long parentSpanId, final String name, final long startNanos) {
+		this.context = context;
+		this.parentSpanId = parentSpanId;
+		this.name = name;
+		this.startNanos = startNanos;
+		this.startEpochNanos = System.currentTimeMillis() * 1000000L - (System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Gets the identity of this span.
+	 * @return the context
+	 */
+	public TraceContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Gets the id of the trace this span belongs to.
+	 * @return the trace id, as 32 lowercase hex digits
+	 */
+	public String getTraceId() {
+		return context.getTraceId();
+	}
+
+	/**
+	 * Gets the id of this span.
+	 * @return the span id, as 16 lowercase hex digits
+	 */
+	public String getSpanId() {
+		return context.getSpanId();
+	}
+
+	/**
+	 * Gets the id of the parent of this span.
+	 * @return the parent span id, as 16 lowercase hex digits, or <code>null</code> for a root span.
+	 */
+	public String getParentSpanId() {
+		return parentSpanId == 0 ? null : String.format("%016x", parentSpanId);
+	}
+
+	/**
+	 * Gets the name of the operation.
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets when the operation started.
+	 * @return the start time, in nanoseconds since the epoch
+	 */
+	public long getStartEpochNanos() {
+		return startEpochNanos;
+	}
+
+	/**
+	 * Gets when the operation ended.
+	 * @return the end time, in nanoseconds since the epoch, or -1 if the span has not ended.
+	 */
+	public synchronized long getEndEpochNanos() {
+		return endNanos < 0 ? -1 : startEpochNanos + (endNanos - startNanos);
+	}
+
+	/**
+	 * Gets how long the operation took.
+	 * @return the duration, in nanoseconds, or -1 if the span has not ended.
+	 */
+	public synchronized long getDurationNanos() {
+		return endNanos < 0 ? -1 : endNanos - startNanos;
+	}
+
+	/**
+	 * Determines if the span has ended.
+	 * @return <code>true</code> if the span has ended, <code>false</code> otherwise.
+	 */
+	public synchronized boolean isEnded() {
+		return endNanos >= 0;
+	}
+
+	/**
+	 * Gets how the operation ended.
+	 * @return the status
+	 */
+	public synchronized Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Gets the attributes describing the operation.
+	 * @return a copy of the attributes
+	 */
+	public synchronized Map<String, Object> getAttributes() {
+		return Collections.unmodifiableMap(new LinkedHashMap<String, Object>(attributes));
+	}
+
+	/**
+	 * Gets the events that happened during the operation, in the order they were added.
+	 * @return a copy of the events
+	 */
+	public synchronized List<Event> getEvents() {
+		return Collections.unmodifiableList(new ArrayList<Event>(events));
+	}
+
+	synchronized Span setAttribute(final String key, final Object value) {
+		if (value != null) attributes.put(key, value);
+		return this;
+	}
+
+	synchronized void addEvent(final String name, final long nanos, final Map<String, Object> attributes) {
+		events.add(new Event(name, startEpochNanos + (nanos - startNanos), attributes));
+	}
+
+	/**
+	 * Ends the span.  Only the first call has any effect.
+	 * @param nanos the <code>System.nanoTime()</code> the operation ended at
+	 * @param status how the operation ended
+	 * @return <code>true</code> if this call ended the span, <code>false</code> if it had already ended.
+	 */
+	synchronized boolean end(final long nanos, final Status status) {
+		if (endNanos >= 0) return false;
+		this.endNanos = Math.max(nanos, startNanos);
+		this.status = status;
+		return true;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s [%s/%s parent=%s] %s %dns", name, getTraceId(), getSpanId(), getParentSpanId(), status, getDurationNanos());
+	}
+}
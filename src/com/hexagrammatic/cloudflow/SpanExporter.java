@@ -0,0 +1,26 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Interface for sending finished spans somewhere.  A <code>Tracer</code> calls its exporter from a single background
+ * thread, with batches of spans, so implementations need not be thread-safe with respect to the tracer, and may take
+ * their time without slowing down the workflows being traced.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Tracer
+ * @see FileSpanExporter
+ * @see InMemorySpanExporter
+ */
+public interface SpanExporter extends Closeable {
+
+	/**
+	 * Exports a batch of finished spans.
+	 * @param spans the spans - never empty
+	 * @throws IOException if exporting fails; the batch is dropped
+	 */
+	void export(List<Span> spans) throws IOException;
+}
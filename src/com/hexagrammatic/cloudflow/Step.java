@@ -1,5 +1,8 @@
 package com.hexagrammatic.cloudflow;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -20,6 +23,7 @@ import org.apache.commons.lang.Validate;
 public abstract class Step extends Parameterized {	
 	private String name = getClass().getSimpleName();
 	private Workflow workflow = null;
+	private int index = -1;
 	private long timeoutValue = -1;
 	private TimeUnit timeoutUnits = TimeUnit.SECONDS;
 	private int maxRetries = 0;
@@ -29,10 +33,16 @@ public abstract class Step extends Parameterized {
 	private boolean alwaysRun = false;
 	private volatile boolean completed = false;
 	private volatile boolean skipped = false;
+	private volatile boolean resumed = false;
 	private volatile long startTime = -1;
 	private volatile long endTime = -1;
+	private volatile long startNanos = -1;
+	private volatile long endNanos = -1;
 	private volatile int tries = 0;	
+	private volatile Attempt[] attempts = new Attempt[0];
 	private AtomicReference<Throwable> failureCause = new AtomicReference<Throwable>();
+	private volatile StepCache cache = null;
+	private volatile boolean cacheResolved = false;
 		
 	/**
 	 * Gets the name of this step.
@@ -59,6 +69,22 @@ public abstract class Step extends Parameterized {
 		this.workflow = workflow;
 	}
 	
+	/**
+	 * Records the position of this step in the workflow that owns it.
+	 * @param index the position of the step, starting at 0
+	 */
+	final void setIndex(final int index) {
+		this.index = index;
+	}
+
+	/**
+	 * Gets the position of this step in the workflow that owns it.
+	 * @return the position of the step, starting at 0, or -1 if the step is 'unowned'
+	 */
+	final int getIndex() {
+		return index;
+	}
+
 	/**
 	 * Gets the workflow the 'owns' this step instance.
 	 * @return the workflow instance, or <code>null</code> if the step is 'unowned'
@@ -148,9 +174,9 @@ public abstract class Step extends Parameterized {
 	 * @see Utils#parseTimeTuple(String)
 	 */
 	public final void setTimeout(final String timeout) {		
-		final Object[] parsed = Utils.parseTimeTuple(timeout);
-		setTimeoutValue((Long)parsed[0]);
-		setTimeoutUnits((TimeUnit)parsed[1]);
+		final Duration parsed = Utils.parseTimeTuple(timeout);
+		setTimeoutValue(parsed.getValue());
+		if (!parsed.isNever()) setTimeoutUnits(parsed.getUnit());
 	}
 	
 	/**
@@ -223,9 +249,9 @@ public abstract class Step extends Parameterized {
 	 * @see Utils#parseTimeTuple(String)
 	 */
 	public final void setWaitBetweenTries(final String wait) {
-		final Object[] parsed = Utils.parseTimeTuple(wait);
-		setWaitBetweenTriesValue((Long)parsed[0]);
-		setWaitBetweenTriesUnits((TimeUnit)parsed[1]);
+		final Duration parsed = Utils.parseTimeTuple(wait);
+		setWaitBetweenTriesValue(parsed.getValue());
+		if (!parsed.isNever()) setWaitBetweenTriesUnits(parsed.getUnit());
 	}
 	
 	/**
@@ -306,6 +332,16 @@ public abstract class Step extends Parameterized {
 		this.alwaysRun = alwaysRun;
 	}
 
+	/**
+	 * Gets the step that should actually be executed in place of this one.  Steps are normally executed as-is, but steps
+	 * whose creation has been deferred until the workflow reaches them are created by this method.
+	 * @return the step to execute - this step, unless its creation was deferred.
+	 * @throws WorkflowCreationException if creating a deferred step fails.
+	 */
+	Step materialize() throws WorkflowCreationException {
+		return this;
+	}
+
 	/**
 	 * Body of step execution logic.  Implementors must override this method and implement whatever
 	 * the step has to do.  Implementors may feel free to let unchecked exceptions
@@ -339,27 +375,137 @@ public abstract class Step extends Parameterized {
 	public boolean wasSkipped() {
 		return skipped;
 	}
+
+	/**
+	 * Returns if this step had already ended when its workflow was resumed from a checkpoint, and so was not run.
+	 * @return <code>true</code> if this step ended before the workflow was resumed, <code>false</code> otherwise.
+	 * @see Workflow#resume(Checkpoint)
+	 * @since 2013.05
+	 */
+	public boolean wasResumed() {
+		return resumed;
+	}
 	
 	/**
 	 * Returns how long this step ran or has been running, in milliseconds.  If the step is currently running, 
 	 * this returns the current running time of this step; if the step has not started, -1 is returned;
-	 * otherwise the total time taken to run the step is returned.  
+	 * otherwise the total time taken to run the step is returned.  Only the most recent try is counted.
 	 * @return how long the step has run or ran, or -1 if the step has not started.
+	 * @see Step#getTimeRunningNanos()
 	 */
 	public long getTimeRunning() {
-		if (startTime == -1) {
+		final long nanos = getTimeRunningNanos();
+		return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * Returns how long this step ran or has been running, in nanoseconds, as measured by <code>System.nanoTime()</code>.
+	 * @return how long the step has run or ran, or -1 if the step has not started.
+	 * @see Step#getTimeRunning()
+	 */
+	public long getTimeRunningNanos() {
+		final long start = startNanos;
+		if (start == -1) {
 			return -1;
 		} else {
 			if (completed) {
-				return endTime - startTime;
+				return endNanos - start;
 			} else {
-				return System.currentTimeMillis() - startTime;
+				return System.nanoTime() - start;
 			}
 		}
 	}
+
+	/**
+	 * Returns how long the tries of this step spent queued, waiting for a thread to run them, added up over every try.
+	 * Under load this is where latency that <code>execute()</code> is not responsible for shows up.
+	 * @return the total time spent queued, in nanoseconds; 0 if the step has never been started.
+	 * @see Attempt#getQueuedNanos()
+	 */
+	public long getQueuedNanos() {
+		long total = 0;
+		for (final Attempt attempt: attempts) {
+			total += attempt.getQueuedNanos();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns how long the tries of this step spent running <code>execute()</code>, added up over every try.
+	 * @return the total time spent running, in nanoseconds; 0 if no try has started running.
+	 * @see Attempt#getRunNanos()
+	 */
+	public long getRunNanos() {
+		long total = 0;
+		for (final Attempt attempt: attempts) {
+			total += Math.max(attempt.getRunNanos(), 0);
+		}
+		return total;
+	}
+
+	/**
+	 * Returns how much CPU time the tries of this step used running <code>execute()</code>, added up over every try.
+	 * Only measured while the workflow has resource accounting turned on.
+	 * @return the total CPU time, in nanoseconds, or -1 if no try had it measured.
+	 * @see Attempt#getCpuNanos()
+	 * @see Workflow#setResourceAccounting(boolean)
+	 */
+	public long getCpuNanos() {
+		long total = -1;
+		for (final Attempt attempt: attempts) {
+			if (attempt.getCpuNanos() >= 0) total = Math.max(total, 0) + attempt.getCpuNanos();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns how many bytes the tries of this step allocated running <code>execute()</code>, added up over every try.
+	 * Only measured while the workflow has resource accounting turned on.
+	 * @return the total allocated bytes, or -1 if no try had them measured.
+	 * @see Attempt#getAllocatedBytes()
+	 * @see Workflow#setResourceAccounting(boolean)
+	 */
+	public long getAllocatedBytes() {
+		long total = -1;
+		for (final Attempt attempt: attempts) {
+			if (attempt.getAllocatedBytes() >= 0) total = Math.max(total, 0) + attempt.getAllocatedBytes();
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the record of every try of this step, in the order they were made, including any try still in progress.
+	 * @return the tries, as an unmodifiable list; empty if the step has never been started.
+	 */
+	public List<Attempt> getAttempts() {
+		return Collections.unmodifiableList(Arrays.asList(attempts));
+	}
+
+	/**
+	 * Gets the record of the most recent try of this step.
+	 * @return the most recent try, or <code>null</code> if the step has never been started.
+	 */
+	public Attempt getLastAttempt() {
+		final Attempt[] current = attempts;
+		return current.length == 0 ? null : current[current.length - 1];
+	}
 	
 	/**
-	 * Returns when this step was started.
+	 * Gets the cache of this step's class, looking it up the first time it is needed.
+	 * @return the cache, or <code>null</code> if the class is not annotated with <code>Memoized</code>.
+	 * @throws IllegalArgumentException if the class's annotation is invalid
+	 */
+	final StepCache getCache() {
+		if (!cacheResolved) {
+			cache = StepCache.forClass(getClass());
+			cacheResolved = true;
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns when this step was started, by the wall clock.  Use <code>getTimeRunningNanos()</code> or
+	 * <code>getAttempts()</code> to measure how long the step took.
 	 * @return the time this step was started, in milliseconds since the computational epoch, or -1 if this step has not been started.
 	 */
 	public long getStartTime() {
@@ -395,7 +541,9 @@ public abstract class Step extends Parameterized {
 	 * @param failure the reason this step has failed; if <code>null</code> this step is marked as successful.
 	 */
 	final void complete(final Throwable failure) {
+		endAttempt(failure);
 		this.endTime = System.currentTimeMillis();
+		this.endNanos = System.nanoTime();
 		this.completed = true;
 		this.failureCause.set(failure);
 	}
@@ -408,14 +556,75 @@ public abstract class Step extends Parameterized {
 		this.skipped = true;
 		this.startTime = System.currentTimeMillis();
 		this.endTime = this.startTime;
+		this.startNanos = System.nanoTime();
+		this.endNanos = this.startNanos;
 	}
 	
 	/**
-	 * Starts this step.  This marks it as not completed and records the time this step started.
+	 * Marks this step as having ended before its workflow was resumed from a checkpoint.  This marks it as completed
+	 * without any tries, and as skipped or failed if it was.
+	 * @param status how the step ended
+	 */
+	final void resume(final Checkpoint.StepStatus status) {
+		this.completed = true;
+		this.resumed = true;
+		this.skipped = status == Checkpoint.StepStatus.SKIPPED;
+		this.failureCause.set(status == Checkpoint.StepStatus.FAILED ?
+				new IllegalStateException(String.format("Step '%s' failed before its workflow was resumed.", getName())) : null);
+	}
+
+	/**
+	 * Starts this step.  This marks it as not completed, records the time this step started, and begins the record of a new try.
 	 */
 	final void start() {
 		this.completed = false;
 		this.startTime = System.currentTimeMillis();
+		this.startNanos = System.nanoTime();
 		this.tries++;
+		final Attempt[] current = attempts;
+		final Attempt[] next = Arrays.copyOf(current, current.length + 1);
+		next[current.length] = new Attempt(tries, startNanos);
+		this.attempts = next;
+	}
+
+	/**
+	 * Records that a try has been picked up by a thread and is about to call <code>execute()</code>.
+	 * @param attempt the try, as captured when it was submitted - may be <code>null</code>
+	 */
+	final void running(final Attempt attempt) {
+		if (attempt != null) attempt.running(System.nanoTime());
+	}
+
+	/**
+	 * Records that a try's call to <code>execute()</code> has returned or thrown.  The try is passed in, rather than
+	 * taken to be the current one, since a try abandoned after timing out may return after its retry has started.
+	 * @param attempt the try, as captured when it was submitted - may be <code>null</code>
+	 */
+	final void executed(final Attempt attempt) {
+		if (attempt != null) attempt.finished(System.nanoTime());
+	}
+
+	/**
+	 * Records that a try's call to <code>execute()</code> has returned or thrown, along with the resources the thread
+	 * running it used.
+	 * @param attempt the try, as captured when it was submitted - may be <code>null</code>
+	 * @param cpuNanos the CPU time used, or -1 if it was not measured
+	 * @param allocatedBytes the bytes allocated, or -1 if they were not measured
+	 */
+	final void executed(final Attempt attempt, final long cpuNanos, final long allocatedBytes) {
+		if (attempt != null) {
+			attempt.finished(System.nanoTime());
+			attempt.used(cpuNanos, allocatedBytes);
+		}
+	}
+
+	/**
+	 * Ends the record of the current try without completing this step, such as when the try will be retried.
+	 * Has no effect if the current try has already ended or the step has never been started.
+	 * @param failure the reason the try failed; if <code>null</code> the try is recorded as successful.
+	 */
+	final void endAttempt(final Throwable failure) {
+		final Attempt attempt = getLastAttempt();
+		if (attempt != null) attempt.end(System.nanoTime(), failure);
 	}
 }
\ No newline at end of file
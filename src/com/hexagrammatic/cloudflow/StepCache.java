@@ -0,0 +1,237 @@
+package com.hexagrammatic.cloudflow;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * The results of the steps of a class annotated with <code>Memoized</code>, shared by every workflow in the process.
+ * Results are keyed on the values of the class's declared inputs, and hold the values of its declared outputs.  The
+ * cache is bounded: results expire once older than the class's time-to-live, and the least recently used result is
+ * evicted once there are more than the class's maximum.
+ * <p>
+ * Cached output values are handed to every step that hits them, so they should not be modified.  Caches are held by
+ * weak references to their classes, so a cache does not keep its class, or the class's classloader, from being collected
+ * unless its cached values do.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Memoized
+ */
+public final class StepCache {
+	private static final ConcurrentMap<WeakIdentityKey<Class<?>>, StepCache> caches =
+			new ConcurrentHashMap<WeakIdentityKey<Class<?>>, StepCache>();
+	private static final ReferenceQueue<Class<?>> collected = new ReferenceQueue<Class<?>>();
+
+	private final String[] inputs;
+	private final String[] outputs;
+	private final int maxSize;
+	private final long ttlNanos;
+	private final Map<Key, Result> results;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+
+	/**
+	 * Gets the cache for a step class, creating it the first time it is requested.
+	 * @param type the step class - may not be null
+	 * @return the cache, or <code>null</code> if the class is not annotated with <code>Memoized</code>.
+	 * @throws IllegalArgumentException if the class's annotation is invalid
+	 */
+	public static StepCache forClass(final Class<? extends Step> type) {
+		Validate.notNull(type, "The provided step class may not be null.");
+		final Memoized memoized = type.getAnnotation(Memoized.class);
+		if (memoized == null) return null;
+		final StepCache cache = caches.get(new WeakIdentityKey<Class<?>>(type, null));
+		if (cache != null) return cache;
+		Reference<? extends Class<?>> stale;
+		while ((stale = collected.poll()) != null) {
+			caches.remove(stale);
+		}
+		final StepCache created = new StepCache(type, memoized);
+		final StepCache raced = caches.putIfAbsent(new WeakIdentityKey<Class<?>>(type, collected), created);
+		return raced == null ? created : raced;
+	}
+
+	private StepCache(final Class<?> type, final Memoized memoized) {
+		Validate.isTrue(memoized.maxSize() > 0,
+				String.format("Memoized step class %s must keep at least one result.", type.getName()));
+		Validate.noNullElements(memoized.inputs(),
+				String.format("Memoized step class %s may not declare null inputs.", type.getName()));
+		Validate.noNullElements(memoized.outputs(),
+				String.format("Memoized step class %s may not declare null outputs.", type.getName()));
+		final Duration ttl = Utils.parseTimeTuple(memoized.ttl());
+		Validate.isTrue(ttl.isNever() || ttl.getValue() > 0,
+				String.format("Memoized step class %s must keep results for a positive time.", type.getName()));
+		this.inputs = memoized.inputs().clone();
+		this.outputs = memoized.outputs().clone();
+		this.maxSize = memoized.maxSize();
+		this.ttlNanos = ttl.isNever() ? -1 : ttl.toNanos();
+		this.results = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Key, Result> eldest) {
+				if (size() <= maxSize) return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Builds the key for the current values of a step's inputs.
+	 * @param step the step - may not be null
+	 * @return the key
+	 */
+	Key key(final Step step) {
+		final Object[] values = new Object[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			values[i] = step.getParameter(inputs[i]);
+		}
+		return new Key(values);
+	}
+
+	/**
+	 * Adds the outputs cached for a key to a step, if there are any.
+	 * @param step the step - may not be null
+	 * @param key the key of the step's inputs - may not be null
+	 * @return <code>true</code> if the outputs were added, <code>false</code> if nothing usable is cached for the key.
+	 */
+	boolean replay(final Step step, final Key key) {
+		final Result result;
+		synchronized (this) {
+			final Result cached = results.get(key);
+			if (cached != null && ttlNanos >= 0 && System.nanoTime() - cached.created >= ttlNanos) {
+				results.remove(key);
+				expirations++;
+				result = null;
+			} else {
+				result = cached;
+			}
+			if (result == null) {
+				misses++;
+				return false;
+			}
+			hits++;
+		}
+		for (int i = 0; i < outputs.length; i++) {
+			if (result.values[i] != null) step.addParameter(outputs[i], result.values[i]);
+		}
+		return true;
+	}
+
+	/**
+	 * Caches the current values of a step's outputs.
+	 * @param step the step, which has just executed successfully - may not be null
+	 * @param key the key of the step's inputs before it executed - may not be null
+	 */
+	void store(final Step step, final Key key) {
+		final Object[] values = new Object[outputs.length];
+		for (int i = 0; i < outputs.length; i++) {
+			values[i] = step.getLocalParameter(outputs[i]);
+		}
+		final Result result = new Result(values, System.nanoTime());
+		synchronized (this) {
+			results.put(key, result);
+		}
+	}
+
+	/**
+	 * Gets the number of results currently cached, including any that have expired but have not been looked up since.
+	 * @return the number of results
+	 */
+	public synchronized int size() {
+		return results.size();
+	}
+
+	/**
+	 * Gets the largest number of results kept.
+	 * @return the maximum number of results
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Gets the number of lookups that found a result.
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of lookups that found no result, or an expired one.
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Gets the number of results evicted to keep the cache within its maximum size.
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Gets the number of results removed because they were looked up after expiring.
+	 * @return the number of expirations
+	 */
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+
+	/**
+	 * Removes every result.  Statistics are kept.
+	 */
+	public synchronized void clear() {
+		results.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("StepCache[size=%d, maxSize=%d, hits=%d, misses=%d, evictions=%d, expirations=%d]",
+				results.size(), maxSize, hits, misses, evictions, expirations);
+	}
+
+	static final class Key {
+		private final Object[] values;
+		private final int hash;
+
+		Key(final Object[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			return other instanceof Key && hash == ((Key)other).hash && Arrays.equals(values, ((Key)other).values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final class Result {
+		private final Object[] values;
+		private final long created;
+
+		Result(final Object[] values, final long created) {
+			this.values = values;
+			this.created = created;
+		}
+	}
+}
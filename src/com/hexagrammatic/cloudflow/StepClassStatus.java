@@ -0,0 +1,139 @@
+package com.hexagrammatic.cloudflow;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the counters <code>WorkflowMonitor</code> keeps for a step class.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see WorkflowMonitorMXBean#getStepClassStatistics()
+ */
+public final class StepClassStatus {
+	private final String stepClass;
+	private final long attempts;
+	private final long timeouts;
+	private final long retries;
+	private final long failures;
+	private final long skips;
+	private final long queuedNanos;
+	private final long runNanos;
+	private final long cpuNanos;
+	private final long allocatedBytes;
+
+	/**
+	 * Creates a new instance.
+	 * @param stepClass the step class name
+	 * @param attempts the number of tries started
+	 * @param timeouts the number of tries that timed out
+	 * @param retries the number of tries that failed and were retried
+	 * @param failures the number of steps whose final try failed
+	 * @param skips the number of steps skipped
+	 * @param queuedNanos the total time ended tries spent waiting for a thread
+	 * @param runNanos the total time ended tries spent running
+	 * @param cpuNanos the total CPU time ended tries used, as measured by resource accounting
+	 * @param allocatedBytes the total bytes ended tries allocated, as measured by resource accounting
+	 */
+	@ConstructorProperties({"stepClass", "attempts", "timeouts", "retries", "failures", "skips", "queuedNanos", "runNanos",
+			"cpuNanos", "allocatedBytes"})
+	public StepClassStatus(final String stepClass, final long attempts, final long timeouts, final long retries,
+			final long failures, final long skips, final long queuedNanos, final long runNanos, final long cpuNanos,
+			final long allocatedBytes) {
+		this.stepClass = stepClass;
+		this.attempts = attempts;
+		this.timeouts = timeouts;
+		this.retries = retries;
+		this.failures = failures;
+		this.skips = skips;
+		this.queuedNanos = queuedNanos;
+		this.runNanos = runNanos;
+		this.cpuNanos = cpuNanos;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/**
+	 * Gets the step class name.
+	 * @return the class name
+	 */
+	public String getStepClass() {
+		return stepClass;
+	}
+
+	/**
+	 * Gets the number of tries started.
+	 * @return the number of tries
+	 */
+	public long getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Gets the number of tries that timed out.
+	 * @return the number of timeouts
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * Gets the number of tries that failed and were retried.
+	 * @return the number of retries
+	 */
+	public long getRetries() {
+		return retries;
+	}
+
+	/**
+	 * Gets the number of steps whose final try failed.
+	 * @return the number of failures
+	 */
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Gets the number of steps skipped.
+	 * @return the number of skips
+	 */
+	public long getSkips() {
+		return skips;
+	}
+
+	/**
+	 * Gets the total time ended tries spent queued, waiting for a thread to run them.
+	 * @return the queued time, in nanoseconds
+	 */
+	public long getQueuedNanos() {
+		return queuedNanos;
+	}
+
+	/**
+	 * Gets the total time ended tries spent running.
+	 * @return the running time, in nanoseconds
+	 */
+	public long getRunNanos() {
+		return runNanos;
+	}
+
+	/**
+	 * Gets the total CPU time ended tries used.  Only tries of workflows with resource accounting turned on count.
+	 * @return the CPU time, in nanoseconds
+	 */
+	public long getCpuNanos() {
+		return cpuNanos;
+	}
+
+	/**
+	 * Gets the total bytes ended tries allocated.  Only tries of workflows with resource accounting turned on count.
+	 * @return the allocated bytes
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: attempts=%d, timeouts=%d, retries=%d, failures=%d, skips=%d, queued=%dns, ran=%dns, cpu=%dns, allocated=%d bytes",
+				stepClass, attempts, timeouts, retries, failures, skips, queuedNanos, runNanos, cpuNanos, allocatedBytes);
+	}
+}
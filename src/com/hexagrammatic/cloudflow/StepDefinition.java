@@ -0,0 +1,31 @@
+package com.hexagrammatic.cloudflow;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a Step class for inclusion in the build-time step index.  When a class carrying this annotation is compiled with
+ * Cloudflow on the classpath, <code>StepIndexProcessor</code> generates a factory that constructs the step without reflection
+ * and records the step, its factory, and its alias in the index.  Parsers consult the index before falling back to loading
+ * the step class by name.
+ * <p>
+ * Annotated classes must be public, concrete, top-level or static nested classes extending Step, with a public
+ * no-argument constructor.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see StepIndexProcessor
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface StepDefinition {
+	/**
+	 * A short name that may be used in place of the fully qualified class name in a step's <code>class</code> declaration.
+	 * Aliases may not contain whitespace.  If empty, the step may only be referred to by its class name.
+	 */
+	String alias() default "";
+}
@@ -0,0 +1,17 @@
+package com.hexagrammatic.cloudflow;
+
+/**
+ * Constructs instances of a single Step class.  Implementations are generated by <code>StepIndexProcessor</code> for
+ * each class annotated with <code>StepDefinition</code> and are not expected to be written by hand.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see StepDefinition
+ */
+public interface StepFactory {
+	/**
+	 * Creates a new, unpopulated instance of the step.
+	 * @return the new step - never <code>null</code>
+	 */
+	Step create();
+}
@@ -0,0 +1,191 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The build-time index of steps annotated with <code>StepDefinition</code>, as visible from a single classloader.  The index
+ * is read from every <code>META-INF/cloudflow/steps.index</code> resource the classloader can see; each line in those
+ * resources names a step class, the generated factory for it, and, optionally, its alias:
+ * <pre>
+ * some.package.SomeStep some.package.SomeStep$$StepFactory someAlias
+ * </pre>
+ * Reading the index loads no classes.  A factory class is only loaded the first time its step is created, and every
+ * creation after that is a plain constructor call.  Indexes hold their classloaders and factories weakly, so an index never
+ * keeps a classloader from being collected; each generated factory is kept alive instead by its own class, which holds it
+ * in a static field for as long as the class's classloader is alive.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see StepIndexProcessor
+ */
+final class StepIndex {
+	static final String RESOURCE = "META-INF/cloudflow/steps.index";
+
+	private static final ConcurrentMap<WeakIdentityKey<ClassLoader>, StepIndex> indexes = new ConcurrentHashMap<WeakIdentityKey<ClassLoader>, StepIndex>();
+	private static final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<ClassLoader>();
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final Set<String> ambiguous = new HashSet<String>();
+
+	/**
+	 * Gets the index visible from the provided classloader, reading it the first time it is requested.
+	 * @param classLoader the classloader - may not be null
+	 * @return the index - never null, but possibly empty.
+	 */
+	static StepIndex forClassLoader(final ClassLoader classLoader) {
+		final StepIndex index = indexes.get(new WeakIdentityKey<ClassLoader>(classLoader, null));
+		if (index != null) return index;
+		Reference<? extends ClassLoader> stale;
+		while ((stale = collected.poll()) != null) {
+			indexes.remove(stale);
+		}
+		final StepIndex created = new StepIndex(classLoader);
+		final StepIndex raced = indexes.putIfAbsent(new WeakIdentityKey<ClassLoader>(classLoader, collected), created);
+		return raced == null ? created : raced;
+	}
+
+	/**
+	 * Creates a step using the index visible from the provided classloader.
+	 * @param classLoader the classloader used to load the step's factory - may not be null
+	 * @param name a step class name or alias - may not be null
+	 * @return a new step, or <code>null</code> if the name is not in the index and should be loaded by other means
+	 * @throws WorkflowCreationException if the name is an alias claimed by more than one step, or the factory cannot be used
+	 */
+	static Step create(final ClassLoader classLoader, final String name) throws WorkflowCreationException {
+		return forClassLoader(classLoader).create(name, classLoader);
+	}
+
+	/**
+	 * Gets the name of the step class indexed under a name, without loading it.
+	 * @param classLoader the classloader whose index to consult - may not be null
+	 * @param name a step class name or alias - may not be null
+	 * @return the step class name, or <code>null</code> if the name is not in the index or is an ambiguous alias.
+	 */
+	static String stepClassName(final ClassLoader classLoader, final String name) {
+		final StepIndex index = forClassLoader(classLoader);
+		if (index.ambiguous.contains(name)) return null;
+		final Entry entry = index.entries.get(name);
+		return entry == null ? null : entry.stepClassName;
+	}
+
+	private StepIndex(final ClassLoader classLoader) {
+		try {
+			final Enumeration<URL> resources = classLoader.getResources(RESOURCE);
+			while (resources.hasMoreElements()) {
+				read(resources.nextElement());
+			}
+		} catch (final IOException e) {
+			throw new IllegalStateException(String.format("Unable to read step index resources '%s'.", RESOURCE), e);
+		}
+	}
+
+	private void read(final URL resource) throws IOException {
+		final InputStream stream = resource.openStream();
+		try {
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(stream, BinaryCodec.UTF8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int comment = line.indexOf('#');
+				if (comment >= 0) line = line.substring(0, comment);
+				line = line.trim();
+				if (line.length() == 0) continue;
+				final String[] parts = line.split("\\s+");
+				if (parts.length < 2 || parts.length > 3) {
+					throw new IOException(String.format("Malformed step index line '%s' in %s.", line, resource));
+				}
+				final Entry entry = new Entry(parts[0], parts[1]);
+				entries.put(entry.stepClassName, entry);
+				if (parts.length == 3) {
+					final Entry existing = entries.get(parts[2]);
+					if (existing != null && !existing.stepClassName.equals(entry.stepClassName)) {
+						ambiguous.add(parts[2]);
+					}
+					entries.put(parts[2], entry);
+				}
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Gets the factory for a step using the index visible from the provided classloader.
+	 * @param classLoader the classloader used to load the step's factory - may not be null
+	 * @param name a step class name or alias - may not be null
+	 * @return the factory, or <code>null</code> if the name is not in the index
+	 * @throws WorkflowCreationException if the name is an alias claimed by more than one step, or the factory cannot be used
+	 */
+	static StepFactory factory(final ClassLoader classLoader, final String name) throws WorkflowCreationException {
+		return forClassLoader(classLoader).factory(name, classLoader);
+	}
+
+	private Step create(final String name, final ClassLoader classLoader) throws WorkflowCreationException {
+		final StepFactory factory = factory(name, classLoader);
+		return factory == null ? null : factory.create();
+	}
+
+	private StepFactory factory(final String name, final ClassLoader classLoader) throws WorkflowCreationException {
+		if (ambiguous.contains(name)) {
+			throw new WorkflowCreationException(String.format("Step alias '%s' is claimed by more than one step class.", name));
+		}
+		final Entry entry = entries.get(name);
+		return entry == null ? null : entry.getFactory(classLoader);
+	}
+
+	private static final class Entry {
+		private final String stepClassName;
+		private final String factoryClassName;
+		private volatile WeakReference<StepFactory> factory;
+
+		Entry(final String stepClassName, final String factoryClassName) {
+			this.stepClassName = stepClassName;
+			this.factoryClassName = factoryClassName;
+		}
+
+		StepFactory getFactory(final ClassLoader classLoader) throws WorkflowCreationException {
+			final WeakReference<StepFactory> reference = factory;
+			StepFactory result = reference == null ? null : reference.get();
+			if (result == null) {
+				try {
+					final Class<?> type = classLoader.loadClass(factoryClassName);
+					Object instance;
+					try {
+						instance = type.getField(StepIndexProcessor.INSTANCE_FIELD).get(null);
+					} catch (final NoSuchFieldException e) {
+						instance = type.getDeclaredConstructor().newInstance();
+					}
+					result = (StepFactory)instance;
+				} catch (final ClassNotFoundException e) {
+					throw new WorkflowCreationException(String.format("Unable to find generated factory '%s' for Step class '%s'.", factoryClassName, stepClassName), e);
+				} catch (final NoSuchMethodException e) {
+					throw new WorkflowCreationException(String.format("Unable to create generated factory '%s' for Step class '%s'.", factoryClassName, stepClassName), e);
+				} catch (final InstantiationException e) {
+					throw new WorkflowCreationException(String.format("Unable to create generated factory '%s' for Step class '%s'.", factoryClassName, stepClassName), e);
+				} catch (final InvocationTargetException e) {
+					throw new WorkflowCreationException(String.format("Unable to create generated factory '%s' for Step class '%s'.", factoryClassName, stepClassName), e.getCause());
+				} catch (final IllegalAccessException e) {
+					throw new WorkflowCreationException(String.format("Generated factory '%s' for Step class '%s' cannot be constructed due to access restrictions.", factoryClassName, stepClassName), e);
+				} catch (final ClassCastException e) {
+					throw new WorkflowCreationException(String.format("Class '%s' indexed for Step class '%s' is not a StepFactory.", factoryClassName, stepClassName), e);
+				}
+				factory = new WeakReference<StepFactory>(result);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor building the step index from classes annotated with <code>StepDefinition</code>.  For each annotated
+ * class, a <code>StepFactory</code> named after the class with a <code>$$StepFactory</code> suffix is generated alongside it,
+ * holding its single instance in a static <code>INSTANCE</code> field, and a line is added to the <code>META-INF/cloudflow/steps.index</code> resource.  Entries from an index left by a previous
+ * compilation are kept, so incremental builds do not lose steps that were not recompiled.
+ * <p>
+ * The processor is registered as a service in the Cloudflow jar, so it runs automatically when code is compiled with
+ * Cloudflow on the classpath.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see StepIndex
+ */
+@SupportedAnnotationTypes("com.hexagrammatic.cloudflow.StepDefinition")
+public class StepIndexProcessor extends AbstractProcessor {
+	static final String FACTORY_SUFFIX = "$$StepFactory";
+	static final String INSTANCE_FIELD = "INSTANCE";
+
+	private final Map<String, String> lines = new TreeMap<String, String>();
+	private final Map<String, String> aliases = new TreeMap<String, String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment env) {
+		if (env.processingOver()) {
+			writeIndex();
+			return false;
+		}
+		final TypeElement stepType = processingEnv.getElementUtils().getTypeElement(Step.class.getName());
+		for (final Element element: env.getElementsAnnotatedWith(StepDefinition.class)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				error(element, "@StepDefinition may only be applied to classes.");
+				continue;
+			}
+			final TypeElement type = (TypeElement)element;
+			if (validate(type, stepType)) {
+				generate(type);
+			}
+		}
+		return true;
+	}
+
+	private boolean validate(final TypeElement type, final TypeElement stepType) {
+		if (!processingEnv.getTypeUtils().isSubtype(type.asType(), stepType.asType())) {
+			error(type, String.format("@StepDefinition class '%s' does not extend '%s'.", type.getQualifiedName(), Step.class.getName()));
+			return false;
+		}
+		if (!type.getModifiers().contains(Modifier.PUBLIC) || type.getModifiers().contains(Modifier.ABSTRACT)) {
+			error(type, String.format("@StepDefinition class '%s' must be public and concrete.", type.getQualifiedName()));
+			return false;
+		}
+		if (type.getNestingKind() != NestingKind.TOP_LEVEL &&
+				(type.getNestingKind() != NestingKind.MEMBER || !type.getModifiers().contains(Modifier.STATIC))) {
+			error(type, String.format("@StepDefinition class '%s' must be a top-level or static member class.", type.getQualifiedName()));
+			return false;
+		}
+		for (Element enclosing = type.getEnclosingElement(); enclosing.getKind() != ElementKind.PACKAGE; enclosing = enclosing.getEnclosingElement()) {
+			if (!enclosing.getModifiers().contains(Modifier.PUBLIC)) {
+				error(type, String.format("@StepDefinition class '%s' must only be enclosed by public classes.", type.getQualifiedName()));
+				return false;
+			}
+		}
+		boolean constructor = false;
+		for (final ExecutableElement ctor: ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (ctor.getParameters().isEmpty() && ctor.getModifiers().contains(Modifier.PUBLIC)) {
+				constructor = true;
+			}
+		}
+		if (!constructor) {
+			error(type, String.format("@StepDefinition class '%s' must have a public no-argument constructor.", type.getQualifiedName()));
+			return false;
+		}
+		final String alias = getAlias(type);
+		if (alias.length() > 0) {
+			for (int i = 0; i < alias.length(); i++) {
+				if (Character.isWhitespace(alias.charAt(i)) || alias.charAt(i) == '#') {
+					error(type, String.format("Step alias '%s' may not contain whitespace or '#'.", alias));
+					return false;
+				}
+			}
+			final String binaryName = binaryName(type);
+			final String existing = aliases.get(alias);
+			if (existing != null && !existing.equals(binaryName)) {
+				error(type, String.format("Step alias '%s' is already used by '%s'.", alias, existing));
+				return false;
+			}
+			aliases.put(alias, binaryName);
+		}
+		return true;
+	}
+
+	private void generate(final TypeElement type) {
+		final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		final String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+		final String binaryName = binaryName(type);
+		final String simpleName = (packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1)) + FACTORY_SUFFIX;
+		final String factoryName = packageName.length() == 0 ? simpleName : packageName + "." + simpleName;
+
+		try {
+			final Writer writer = processingEnv.getFiler().createSourceFile(factoryName, type).openWriter();
+			try {
+				final PrintWriter out = new PrintWriter(writer);
+				if (packageName.length() > 0) {
+					out.printf("package %s;%n%n", packageName);
+				}
+				out.printf("/**%n * Generated by %s for {@link %s} - do not edit.%n */%n", getClass().getName(), type.getQualifiedName());
+				out.printf("public final class %s implements %s {%n", simpleName, StepFactory.class.getName());
+				out.printf("\tpublic static final %s %s = new %s();%n%n", simpleName, INSTANCE_FIELD, simpleName);
+				out.printf("\tpublic %s create() {%n", Step.class.getName());
+				out.printf("\t\treturn new %s();%n", type.getQualifiedName());
+				out.printf("\t}%n}%n");
+				out.flush();
+			} finally {
+				writer.close();
+			}
+		} catch (final IOException e) {
+			error(type, String.format("Unable to generate step factory '%s': %s", factoryName, e.getMessage()));
+			return;
+		}
+
+		final String alias = getAlias(type);
+		lines.put(binaryName, alias.length() == 0 ? String.format("%s %s", binaryName, factoryName) : String.format("%s %s %s", binaryName, factoryName, alias));
+	}
+
+	private void writeIndex() {
+		if (lines.isEmpty()) return;
+		final TreeMap<String, String> merged = new TreeMap<String, String>();
+		try {
+			final FileObject previous = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", StepIndex.RESOURCE);
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(previous.openInputStream(), BinaryCodec.UTF8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() == 0 || line.startsWith("#")) continue;
+					merged.put(line.split("\\s+")[0], line);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (final IOException e) {
+			// No previous index to merge with.
+		}
+		merged.putAll(lines);
+
+		try {
+			final FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", StepIndex.RESOURCE);
+			final Writer writer = new OutputStreamWriter(resource.openOutputStream(), BinaryCodec.UTF8);
+			try {
+				writer.write(String.format("# Generated by %s - do not edit.%n", getClass().getName()));
+				for (final String line: merged.values()) {
+					writer.write(line);
+					writer.write(String.format("%n"));
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (final IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format("Unable to write step index '%s': %s", StepIndex.RESOURCE, e.getMessage()));
+		}
+	}
+
+	private String binaryName(final TypeElement type) {
+		return processingEnv.getElementUtils().getBinaryName(type).toString();
+	}
+
+	private String getAlias(final TypeElement type) {
+		for (final AnnotationMirror mirror: type.getAnnotationMirrors()) {
+			if (!StepDefinition.class.getName().equals(((TypeElement)mirror.getAnnotationType().asElement()).getQualifiedName().toString())) continue;
+			for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value: mirror.getElementValues().entrySet()) {
+				if ("alias".equals(value.getKey().getSimpleName().toString())) {
+					return value.getValue().getValue().toString().trim();
+				}
+			}
+		}
+		return "";
+	}
+
+	private void error(final Element element, final String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}
@@ -0,0 +1,221 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Statistics gathered by <code>HistogramMetrics</code> for all steps sharing a class and name: histograms over every
+ * try of its total latency and of that latency split into time spent queued and time spent running, histograms of the
+ * CPU time and allocated bytes of tries measured through resource accounting, and counts of the tries and their
+ * outcomes.  The histograms of CPU time, allocated bytes, and retry waits are only allocated once they have a value to
+ * record, since many steps never run with resource accounting or never retry; until then their getters return
+ * <code>null</code>.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see HistogramMetrics#getStepStatistics(Class, String)
+ */
+public final class StepStatistics {
+	private static final String EMPTY = new Histogram().toString();
+
+	private final Class<? extends Step> stepClass;
+	private final String stepName;
+	private final Histogram latency = new Histogram();
+	private final Histogram queueTime = new Histogram();
+	private final Histogram runTime = new Histogram();
+	private final AtomicReference<Histogram> cpuTime = new AtomicReference<Histogram>();
+	private final AtomicReference<Histogram> allocated = new AtomicReference<Histogram>();
+	private final AtomicReference<Histogram> retryWait = new AtomicReference<Histogram>();
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong succeeded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+
+	StepStatistics(final Class<? extends Step> stepClass, final String stepName) {
+		this.stepClass = stepClass;
+		this.stepName = stepName;
+	}
+
+	/**
+	 * Gets the class of the steps these statistics cover.
+	 * @return the step class
+	 */
+	public Class<? extends Step> getStepClass() {
+		return stepClass;
+	}
+
+	/**
+	 * Gets the name of the steps these statistics cover.
+	 * @return the step name
+	 */
+	public String getStepName() {
+		return stepName;
+	}
+
+	/**
+	 * Gets the histogram of how long each try took, from submission until it ended, in nanoseconds.
+	 * @return the latency histogram
+	 */
+	public Histogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Gets the histogram of how long each try waited for a thread to run it, in nanoseconds.
+	 * @return the queue time histogram
+	 */
+	public Histogram getQueueTime() {
+		return queueTime;
+	}
+
+	/**
+	 * Gets the histogram of how long each try that a thread picked up spent running, in nanoseconds.
+	 * @return the run time histogram
+	 */
+	public Histogram getRunTime() {
+		return runTime;
+	}
+
+	/**
+	 * Gets the histogram of how much CPU time each try used, in nanoseconds.  Only tries of workflows with resource
+	 * accounting turned on are recorded.
+	 * @return the CPU time histogram, or <code>null</code> if no CPU time has been recorded
+	 * @see Workflow#setResourceAccounting(boolean)
+	 */
+	public Histogram getCpuTime() {
+		return cpuTime.get();
+	}
+
+	/**
+	 * Gets the histogram of how many bytes each try allocated.  Only tries of workflows with resource accounting
+	 * turned on are recorded.
+	 * @return the allocated bytes histogram, or <code>null</code> if no allocations have been recorded
+	 * @see Workflow#setResourceAccounting(boolean)
+	 */
+	public Histogram getAllocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * Gets the histogram of how long each wait before a retry took, in nanoseconds.
+	 * @return the retry wait histogram, or <code>null</code> if no step has waited to retry
+	 */
+	public Histogram getRetryWait() {
+		return retryWait.get();
+	}
+
+	/**
+	 * Gets the number of tries started.
+	 * @return the number of tries started
+	 */
+	public long getStarted() {
+		return started.get();
+	}
+
+	/**
+	 * Gets the number of steps that completed successfully.
+	 * @return the number of successful steps
+	 */
+	public long getSucceeded() {
+		return succeeded.get();
+	}
+
+	/**
+	 * Gets the number of steps whose final try failed.
+	 * @return the number of failed steps
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Gets the number of tries that failed and were retried.
+	 * @return the number of retries
+	 */
+	public long getRetried() {
+		return retried.get();
+	}
+
+	/**
+	 * Gets the number of tries that timed out, whether or not they were retried.
+	 * @return the number of time outs
+	 */
+	public long getTimedOut() {
+		return timedOut.get();
+	}
+
+	/**
+	 * Gets the number of times the steps were skipped.
+	 * @return the number of skips
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	void started() {
+		started.incrementAndGet();
+	}
+
+	void completed(final Attempt attempt) {
+		if (attempt == null) return;
+		record(attempt);
+		if (attempt.getOutcome() == Attempt.Outcome.SUCCEEDED) {
+			succeeded.incrementAndGet();
+		} else {
+			failed.incrementAndGet();
+		}
+	}
+
+	void retried(final Attempt attempt) {
+		if (attempt != null) record(attempt);
+		retried.incrementAndGet();
+	}
+
+	private void record(final Attempt attempt) {
+		latency.record(attempt.getTotalNanos());
+		queueTime.record(attempt.getQueuedNanos());
+		final long run = attempt.getRunNanos();
+		if (run >= 0) runTime.record(run);
+		if (attempt.getCpuNanos() >= 0) histogram(cpuTime).record(attempt.getCpuNanos());
+		if (attempt.getAllocatedBytes() >= 0) histogram(allocated).record(attempt.getAllocatedBytes());
+	}
+
+	void retryWaited(final long waitedNanos) {
+		histogram(retryWait).record(waitedNanos);
+	}
+
+	/**
+	 * Gets the histogram held by a reference, creating it if there is none yet.
+	 */
+	private static Histogram histogram(final AtomicReference<Histogram> reference) {
+		final Histogram current = reference.get();
+		if (current != null) return current;
+		reference.compareAndSet(null, new Histogram());
+		return reference.get();
+	}
+
+	/**
+	 * Describes the histogram held by a reference, without creating it if there is none yet.
+	 */
+	private static String describe(final AtomicReference<Histogram> reference) {
+		final Histogram current = reference.get();
+		return current == null ? EMPTY : current.toString();
+	}
+
+	void timedOut() {
+		timedOut.incrementAndGet();
+	}
+
+	void skipped() {
+		skipped.incrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s '%s': started=%d, succeeded=%d, failed=%d, retried=%d, timedOut=%d, skipped=%d, latency(ns)=[%s], queued(ns)=[%s], ran(ns)=[%s], cpu(ns)=[%s], allocated(bytes)=[%s]",
+				stepClass.getName(), stepName, getStarted(), getSucceeded(), getFailed(), getRetried(), getTimedOut(), getSkipped(),
+				latency, queueTime, runTime, describe(cpuTime), describe(allocated));
+	}
+}
@@ -0,0 +1,190 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Parameter value holding a JSON object or array from a workflow definition.  The value is kept in the form it was
+ * read in - a parsed JSON tree or, when read from a binary definition, the JSON text itself - and is only decoded
+ * into Java collections the first time a step asks for it.  The decoded result is then kept, so repeated reads and
+ * retries of a step do not decode the value again; values that no step reads are never decoded at all.
+ * <p>
+ * Values are immutable: the maps and lists returned are unmodifiable, as are any maps and lists nested within them.
+ * Nested primitives are decoded the same way <code>JsonParser</code> decodes primitive parameters, to Booleans,
+ * Numbers, and Strings.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see JsonParser
+ */
+public final class StructuredValue {
+	private static final Gson gson = new Gson();
+
+	private final String json;
+	private volatile JsonElement element;
+	private volatile Object decoded;
+
+	/**
+	 * Creates a value from a parsed JSON object or array.  The element is held, not copied, and must not be
+	 * modified afterwards.
+	 * @param element the element - must be a JSON object or array
+	 */
+	StructuredValue(final JsonElement element) {
+		Validate.notNull(element, "The provided element may not be null.");
+		Validate.isTrue(element.isJsonObject() || element.isJsonArray(), "The provided element must be a JSON object or array.");
+		this.json = null;
+		this.element = element;
+	}
+
+	/**
+	 * Creates a value from JSON text, which is not parsed until the value is first read.
+	 * @param json the text of a JSON object or array - may not be null
+	 */
+	StructuredValue(final String json) {
+		Validate.notNull(json, "The provided JSON may not be null.");
+		this.json = json;
+	}
+
+	/**
+	 * Determines if this value is a JSON object.
+	 * @return <code>true</code> if the value is an object, <code>false</code> if it is an array.
+	 */
+	public boolean isObject() {
+		return getElement().isJsonObject();
+	}
+
+	/**
+	 * Determines if this value is a JSON array.
+	 * @return <code>true</code> if the value is an array, <code>false</code> if it is an object.
+	 */
+	public boolean isArray() {
+		return getElement().isJsonArray();
+	}
+
+	/**
+	 * Gets this value as a map.
+	 * @return the value, as an unmodifiable map preserving the order of the object's members.
+	 * @throws IllegalStateException if this value is not a JSON object.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> getAsMap() {
+		if (!isObject()) throw new IllegalStateException("Structured value is a JSON array, not an object.");
+		return (Map<String, Object>)decode();
+	}
+
+	/**
+	 * Gets this value as a list.
+	 * @return the value, as an unmodifiable list.
+	 * @throws IllegalStateException if this value is not a JSON array.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Object> getAsList() {
+		if (!isArray()) throw new IllegalStateException("Structured value is a JSON object, not an array.");
+		return (List<Object>)decode();
+	}
+
+	/**
+	 * Binds this value to an instance of the provided type using Gson.  Unlike <code>getAsMap</code> and
+	 * <code>getAsList</code>, the result is not kept, and a new instance is created on every call.
+	 * @param type the type to bind to - may not be null
+	 * @return the bound instance
+	 * @throws IllegalArgumentException if the value cannot be bound to the type.
+	 */
+	public <T> T getAs(final Class<T> type) {
+		Validate.notNull(type, "The provided type may not be null.");
+		try {
+			return gson.fromJson(getElement(), type);
+		} catch (final JsonParseException e) {
+			throw new IllegalArgumentException(String.format("Cannot bind structured value to %s.", type.getName()), e);
+		}
+	}
+
+	/**
+	 * Gets the JSON text of this value.
+	 * @return the JSON text - never null.
+	 */
+	public String toJson() {
+		return json != null ? json : element.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toJson();
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (other == this) return true;
+		if (!(other instanceof StructuredValue)) return false;
+		return getElement().equals(((StructuredValue)other).getElement());
+	}
+
+	@Override
+	public int hashCode() {
+		return getElement().hashCode();
+	}
+
+	private JsonElement getElement() {
+		JsonElement result = element;
+		if (result == null) {
+			try {
+				result = new com.google.gson.JsonParser().parse(json);
+			} catch (final JsonParseException e) {
+				throw new IllegalStateException("Structured value does not contain valid JSON.", e);
+			}
+			if (!result.isJsonObject() && !result.isJsonArray()) {
+				throw new IllegalStateException("Structured value is neither a JSON object nor a JSON array.");
+			}
+			element = result;
+		}
+		return result;
+	}
+
+	private Object decode() {
+		Object result = decoded;
+		if (result == null) {
+			result = decode(getElement());
+			decoded = result;
+		}
+		return result;
+	}
+
+	private static Object decode(final JsonElement value) {
+		if (value == null || value.isJsonNull()) {
+			return null;
+		} else if (value.isJsonPrimitive()) {
+			final JsonPrimitive primitive = value.getAsJsonPrimitive();
+			if (primitive.isBoolean()) {
+				return primitive.getAsBoolean();
+			} else if (primitive.isNumber()) {
+				return primitive.getAsNumber();
+			} else {
+				return primitive.getAsString();
+			}
+		} else if (value.isJsonArray()) {
+			final ArrayList<Object> list = new ArrayList<Object>();
+			for (final JsonElement item: value.getAsJsonArray()) {
+				list.add(decode(item));
+			}
+			return Collections.unmodifiableList(list);
+		} else {
+			final JsonObject obj = value.getAsJsonObject();
+			final LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>();
+			for (final Map.Entry<String, JsonElement> entry: obj.entrySet()) {
+				map.put(entry.getKey(), decode(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(map);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.hexagrammatic.cloudflow;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads how much CPU time the current thread has used and how many bytes it has allocated, through the platform
+ * <code>ThreadMXBean</code>.  CPU time is part of the standard management API, but not every JVM supports it;
+ * allocated bytes are only available on JVMs providing <code>com.sun.management.ThreadMXBean</code>, such as
+ * HotSpot.  Whatever the JVM does not support reads as -1.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Workflow#setResourceAccounting(boolean)
+ */
+final class ThreadResources {
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final com.sun.management.ThreadMXBean allocations = allocationBean();
+	private static volatile boolean enabled = false;
+
+	private ThreadResources() {}
+
+	private static com.sun.management.ThreadMXBean allocationBean() {
+		try {
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threads;
+				if (bean.isThreadAllocatedMemorySupported()) return bean;
+			}
+		} catch (final LinkageError e) {
+			// Not a JVM with the com.sun.management extensions.
+		}
+		return null;
+	}
+
+	/**
+	 * Turns on CPU time and allocation measurement in the JVM, where supported and not already on.  Both stay on for
+	 * the rest of the JVM's life once turned on.
+	 */
+	static void enable() {
+		if (enabled) return;
+		try {
+			if (threads.isThreadCpuTimeSupported() && !threads.isThreadCpuTimeEnabled()) {
+				threads.setThreadCpuTimeEnabled(true);
+			}
+			if (allocations != null && !allocations.isThreadAllocatedMemoryEnabled()) {
+				allocations.setThreadAllocatedMemoryEnabled(true);
+			}
+		} catch (final SecurityException e) {
+			// Measurement stays however it was configured; unsupported readings come back as -1.
+		}
+		enabled = true;
+	}
+
+	/**
+	 * Determines if CPU time can be read.
+	 * @return <code>true</code> if thread CPU time is supported and turned on, <code>false</code> otherwise.
+	 */
+	static boolean isCpuTimeAvailable() {
+		return threads.isThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+	}
+
+	/**
+	 * Determines if allocated bytes can be read.
+	 * @return <code>true</code> if thread allocation measurement is supported and turned on, <code>false</code> otherwise.
+	 */
+	static boolean isAllocatedBytesAvailable() {
+		return allocations != null && allocations.isThreadAllocatedMemoryEnabled();
+	}
+
+	/**
+	 * Gets the CPU time used by the current thread so far.
+	 * @return the CPU time, in nanoseconds, or -1 if it cannot be read.
+	 */
+	static long cpuNanos() {
+		return isCpuTimeAvailable() ? threads.getCurrentThreadCpuTime() : -1;
+	}
+
+	/**
+	 * Gets the bytes allocated by the current thread so far.
+	 * @return the allocated bytes, or -1 if they cannot be read.
+	 */
+	static long allocatedBytes() {
+		return allocations == null ? -1 : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,140 @@
+package com.hexagrammatic.cloudflow;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Identity of a span within a trace, in the form carried between processes by the W3C <code>traceparent</code> header:
+ * a 128-bit trace id shared by every span in the trace, the 64-bit id of the span itself, and whether the trace is
+ * being sampled.
+ * <p>
+ * While a <code>Tracer</code> is attached to a workflow, the context of the current try of a step is available to the
+ * step's <code>execute()</code> method through <code>TraceContext.current()</code>, so steps calling other services can
+ * pass it on.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Tracer
+ */
+public final class TraceContext {
+	private static final ThreadLocal<TraceContext> current = new ThreadLocal<TraceContext>();
+
+	private final long traceIdHigh;
+	private final long traceIdLow;
+	private final long spanId;
+	private final boolean sampled;
+
+	TraceContext(final long traceIdHigh, final long traceIdLow, final long spanId, final boolean sampled) {
+		this.traceIdHigh = traceIdHigh;
+		this.traceIdLow = traceIdLow;
+		this.spanId = spanId;
+		this.sampled = sampled;
+	}
+
+	/**
+	 * Gets the context of the step try running on the current thread.
+	 * @return the context, or <code>null</code> if the current thread is not running a traced step.
+	 */
+	public static TraceContext current() {
+		return current.get();
+	}
+
+	static void setCurrent(final TraceContext context) {
+		if (context == null) {
+			current.remove();
+		} else {
+			current.set(context);
+		}
+	}
+
+	/**
+	 * Parses a context from a W3C <code>traceparent</code> value, such as
+	 * <code>00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01</code>.
+	 * @param traceparent the value to parse - may not be null
+	 * @return the context
+	 * @throws IllegalArgumentException if the value is null or not a valid version 00 <code>traceparent</code>.
+	 */
+	public static TraceContext parse(final String traceparent) {
+		Validate.notNull(traceparent, "The provided traceparent may not be null.");
+		final String value = traceparent.trim();
+		if (value.length() != 55 || !value.startsWith("00-") || value.charAt(35) != '-' || value.charAt(52) != '-') {
+			throw new IllegalArgumentException(String.format("Value '%s' is not a valid traceparent.", traceparent));
+		}
+		try {
+			final long high = parseHex(value, 3);
+			final long low = parseHex(value, 19);
+			final long span = parseHex(value, 36);
+			final int flags = Integer.parseInt(value.substring(53), 16);
+			if ((high == 0 && low == 0) || span == 0) {
+				throw new IllegalArgumentException(String.format("Value '%s' has an all-zero trace or span id.", traceparent));
+			}
+			return new TraceContext(high, low, span, (flags & 1) != 0);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Value '%s' is not a valid traceparent.", traceparent), e);
+		}
+	}
+
+	private static long parseHex(final String value, final int start) {
+		return (Long.parseLong(value.substring(start, start + 8), 16) << 32) | Long.parseLong(value.substring(start + 8, start + 16), 16);
+	}
+
+	/**
+	 * Gets the id of the trace.
+	 * @return the trace id, as 32 lowercase hex digits
+	 */
+	public String getTraceId() {
+		return String.format("%016x%016x", traceIdHigh, traceIdLow);
+	}
+
+	/**
+	 * Gets the id of the span.
+	 * @return the span id, as 16 lowercase hex digits
+	 */
+	public String getSpanId() {
+		return String.format("%016x", spanId);
+	}
+
+	/**
+	 * Determines if the trace is being sampled, that is, recorded and exported.
+	 * @return <code>true</code> if the trace is sampled, <code>false</code> otherwise.
+	 */
+	public boolean isSampled() {
+		return sampled;
+	}
+
+	long getTraceIdHigh() {
+		return traceIdHigh;
+	}
+
+	long getTraceIdLow() {
+		return traceIdLow;
+	}
+
+	long getSpanIdValue() {
+		return spanId;
+	}
+
+	/**
+	 * Formats this context as a W3C <code>traceparent</code> value.
+	 * @return the <code>traceparent</code> value
+	 */
+	public String toTraceparent() {
+		return String.format("00-%016x%016x-%016x-%s", traceIdHigh, traceIdLow, spanId, sampled ? "01" : "00");
+	}
+
+	@Override
+	public String toString() {
+		return toTraceparent();
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (!(other instanceof TraceContext)) return false;
+		final TraceContext context = (TraceContext)other;
+		return traceIdHigh == context.traceIdHigh && traceIdLow == context.traceIdLow && spanId == context.spanId && sampled == context.sampled;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(traceIdLow ^ (traceIdLow >>> 32) ^ spanId ^ (spanId >>> 32));
+	}
+}
@@ -0,0 +1,371 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Metrics implementation that records the execution of workflows as traces made of <code>Span</code>s.  Each execution
+ * of a workflow is the root span of a trace, and each try of each of its steps is a child span of it.  Timeouts are
+ * recorded as events on the span of the try that timed out, while waits before retries, skipped steps and halts are
+ * recorded as events on the workflow's span.
+ * <p>
+ * Sampling is decided once per trace, when the workflow starts: a workflow with a <code>traceparent</code> parameter
+ * holding a W3C <code>traceparent</code> value joins that trace and follows its sampling decision, while any other
+ * workflow starts a new trace that is sampled with the configured probability.  Spans of traces that are not sampled
+ * are never exported, but their contexts are still made available to steps through <code>TraceContext.current()</code>
+ * so that the decision can be passed on to other services.
+ * <p>
+ * Finished spans are queued and handed to the <code>SpanExporter</code> in batches by a background thread, so exporting
+ * never slows down the workflows being traced.  If the exporter falls so far behind that the queue fills up, spans
+ * are dropped; the number dropped is available through <code>getDroppedCount()</code>.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see Workflow#setMetrics(Metrics)
+ * @see TraceContext
+ */
+public class Tracer implements Metrics, Closeable {
+	/**
+	 * The name of the workflow parameter holding the <code>traceparent</code> of the trace the workflow belongs to.
+	 */
+	public static final String TRACEPARENT_PARAMETER = "traceparent";
+
+	/**
+	 * The number of finished spans queued for export when no capacity is provided.
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 2048;
+
+	/**
+	 * The most spans handed to the exporter at once.
+	 */
+	public static final int MAX_BATCH_SIZE = 512;
+
+	private static final long POLL_MILLIS = 100;
+
+	private final SpanExporter exporter;
+	private final double samplingRate;
+	private final Random random = new Random();
+	private final ConcurrentMap<Workflow, Span> roots = new ConcurrentHashMap<Workflow, Span>();
+	private final ConcurrentMap<Attempt, Span> attempts = new ConcurrentHashMap<Attempt, Span>();
+	private final BlockingQueue<Span> queue;
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong handled = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong exportFailures = new AtomicLong();
+	private final Thread worker;
+	private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a new instance that samples every trace.
+	 * @param exporter the exporter to send finished spans to - may not be null
+	 */
+	public Tracer(final SpanExporter exporter) {
+		this(exporter, 1.0);
+	}
+
+	/**
+	 * Creates a new instance queueing up to <code>DEFAULT_QUEUE_CAPACITY</code> finished spans.
+	 * @param exporter the exporter to send finished spans to - may not be null
+	 * @param samplingRate the probability that a new trace is sampled - must be between 0 and 1
+	 */
+	public Tracer(final SpanExporter exporter, final double samplingRate) {
+		this(exporter, samplingRate, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Creates a new instance and starts its export thread.  The export thread is a daemon thread, so an instance that
+	 * is never closed does not keep the JVM alive.
+	 * @param exporter the exporter to send finished spans to - may not be null
+	 * @param samplingRate the probability that a new trace is sampled - must be between 0 and 1
+	 * @param queueCapacity the number of finished spans queued for export - must be positive
+	 */
+	public Tracer(final SpanExporter exporter, final double samplingRate, final int queueCapacity) {
+		Validate.notNull(exporter, "The provided exporter may not be null.");
+		Validate.isTrue(samplingRate >= 0.0 && samplingRate <= 1.0, "The provided sampling rate must be between 0 and 1.");
+		Validate.isTrue(queueCapacity > 0, "The provided queue capacity must be positive.");
+		this.exporter = exporter;
+		this.samplingRate = samplingRate;
+		this.queue = new ArrayBlockingQueue<Span>(queueCapacity);
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				export();
+			}
+		});
+		worker.setDaemon(true);
+		worker.setName("Cloudflow Tracer");
+		worker.start();
+	}
+
+	/**
+	 * Gets the probability that a new trace is sampled.
+	 * @return the sampling rate
+	 */
+	public double getSamplingRate() {
+		return samplingRate;
+	}
+
+	/**
+	 * Gets the span of the provided workflow's current execution.
+	 * @param workflow the workflow
+	 * @return the span, or <code>null</code> if the workflow is not executing.
+	 */
+	public Span getSpan(final Workflow workflow) {
+		return workflow == null ? null : roots.get(workflow);
+	}
+
+	/**
+	 * Gets the number of finished spans dropped, either because the queue was full or because the tracer had been closed.
+	 * @return the number of spans dropped
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the number of times the exporter threw an exception out of <code>export</code>.
+	 * @return the number of failed exports
+	 */
+	public long getExportFailureCount() {
+		return exportFailures.get();
+	}
+
+	/**
+	 * Waits until every span finished so far has been handed to the exporter.
+	 * @param timeout the most time to wait
+	 * @param unit the units of the timeout - may not be null
+	 * @return <code>true</code> if every span was exported, <code>false</code> if the wait timed out first.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean flush(final long timeout, final TimeUnit unit) throws InterruptedException {
+		Validate.notNull(unit, "The provided time unit may not be null.");
+		final long target = queued.get();
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (handled.get() < target) {
+			if (System.nanoTime() - deadline >= 0) return false;
+			synchronized (handled) {
+				handled.wait(10);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops accepting spans, exports those already finished, stops the export thread and closes the exporter.
+	 * @throws IOException if the exporter cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		runningLock.writeLock().lock();
+		try {
+			running = false;
+		} finally {
+			runningLock.writeLock().unlock();
+		}
+		try {
+			worker.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for span export to finish.", e);
+		}
+		exporter.close();
+	}
+
+	@Override
+	public void workflowParsed(final Workflow workflow, final long elapsedNanos) {}
+
+	@Override
+	public void workflowStarted(final Workflow workflow) {
+		final TraceContext parent = parentOf(workflow);
+		final TraceContext context;
+		if (parent == null) {
+			context = new TraceContext(nextId(), nextId(), nextId(), random.nextDouble() < samplingRate);
+		} else {
+			context = new TraceContext(parent.getTraceIdHigh(), parent.getTraceIdLow(), nextId(), parent.isSampled());
+		}
+		final Span span = new Span(context, parent == null ? 0 : parent.getSpanIdValue(),
+				workflow.getName() == null ? "workflow" : workflow.getName(), System.nanoTime());
+		span.setAttribute("workflow.class", workflow.getClass().getName());
+		span.setAttribute("workflow.steps", workflow.getSteps().size());
+		roots.put(workflow, span);
+	}
+
+	@Override
+	public void workflowCompleted(final Workflow workflow, final long elapsedNanos, final boolean successful) {
+		final Span span = roots.remove(workflow);
+		if (span != null && span.end(System.nanoTime(), successful ? Span.Status.OK : Span.Status.ERROR)) {
+			finished(span);
+		}
+	}
+
+	@Override
+	public void workflowHalted(final Workflow workflow) {
+		event(roots.get(workflow), "halted", Collections.<String, Object>emptyMap());
+	}
+
+	@Override
+	public void stepStarted(final Step step, final Attempt attempt) {
+		final Span root = roots.get(step.getWorkflow());
+		if (root == null || attempt == null) return;
+		final TraceContext parent = root.getContext();
+		final TraceContext context = new TraceContext(parent.getTraceIdHigh(), parent.getTraceIdLow(), nextId(), parent.isSampled());
+		final Span span = new Span(context, parent.getSpanIdValue(), nameOf(step), attempt.getSubmitNanos());
+		span.setAttribute("step.class", step.getClass().getName());
+		span.setAttribute("step.name", step.getName());
+		span.setAttribute("attempt", attempt.getNumber());
+		attempts.put(attempt, span);
+	}
+
+	@Override
+	public void stepExecuting(final Step step, final Attempt attempt) {
+		final Span span = attempt == null ? null : attempts.get(attempt);
+		if (span != null) {
+			TraceContext.setCurrent(span.getContext());
+		}
+	}
+
+	@Override
+	public void stepExecuted(final Step step, final Attempt attempt) {
+		TraceContext.setCurrent(null);
+	}
+
+	@Override
+	public void stepCompleted(final Step step, final Attempt attempt) {
+		endAttempt(attempt);
+	}
+
+	@Override
+	public void stepRetried(final Step step, final Attempt attempt) {
+		endAttempt(attempt);
+	}
+
+	@Override
+	public void stepRetryWaited(final Step step, final long waitedNanos) {
+		final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+		attributes.put("step.name", nameOf(step));
+		attributes.put("waitedNanos", waitedNanos);
+		event(roots.get(step.getWorkflow()), "retry.wait", attributes);
+	}
+
+	@Override
+	public void stepTimedOut(final Step step, final Attempt attempt) {
+		final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+		attributes.put("timeout", Utils.createTimeTuple(step.getTimeoutValue(), step.getTimeoutUnits()));
+		event(attempt == null ? null : attempts.get(attempt), "timeout", attributes);
+	}
+
+	@Override
+	public void stepSkipped(final Step step) {
+		event(roots.get(step.getWorkflow()), "step.skipped", Collections.<String, Object>singletonMap("step.name", nameOf(step)));
+	}
+
+	private void endAttempt(final Attempt attempt) {
+		final Span span = attempt == null ? null : attempts.remove(attempt);
+		if (span == null) return;
+		final Attempt.Outcome outcome = attempt.getOutcome();
+		span.setAttribute("outcome", outcome.name());
+		span.setAttribute("queuedNanos", attempt.getQueuedNanos());
+		if (attempt.getRunNanos() >= 0) span.setAttribute("runNanos", attempt.getRunNanos());
+		if (attempt.getCpuNanos() >= 0) span.setAttribute("cpuNanos", attempt.getCpuNanos());
+		if (attempt.getAllocatedBytes() >= 0) span.setAttribute("allocatedBytes", attempt.getAllocatedBytes());
+		if (attempt.getFailure() != null) {
+			span.setAttribute("error", attempt.getFailure().getClass().getName());
+			span.setAttribute("error.message", attempt.getFailure().getMessage());
+		}
+		final long end = attempt.isEnded() ? attempt.getEndNanos() : System.nanoTime();
+		if (span.end(end, outcome == Attempt.Outcome.SUCCEEDED ? Span.Status.OK : Span.Status.ERROR)) {
+			finished(span);
+		}
+	}
+
+	private void event(final Span span, final String name, final Map<String, Object> attributes) {
+		if (span != null && span.getContext().isSampled()) {
+			span.addEvent(name, System.nanoTime(), attributes);
+		}
+	}
+
+	private void finished(final Span span) {
+		if (!span.getContext().isSampled()) return;
+		// Enqueue under the read lock, so close() cannot stop the export thread between the check and the offer
+		runningLock.readLock().lock();
+		try {
+			if (running && queue.offer(span)) {
+				queued.incrementAndGet();
+				return;
+			}
+		} finally {
+			runningLock.readLock().unlock();
+		}
+		dropped.incrementAndGet();
+	}
+
+	private TraceContext parentOf(final Workflow workflow) {
+		final Object value = workflow.getParameter(TRACEPARENT_PARAMETER);
+		if (value == null) return null;
+		try {
+			return TraceContext.parse(value.toString());
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private long nextId() {
+		long id;
+		do {
+			id = random.nextLong();
+		} while (id == 0);
+		return id;
+	}
+
+	private static String nameOf(final Step step) {
+		return step.getName() == null ? step.getClass().getSimpleName() : step.getName();
+	}
+
+	/**
+	 * Body of the export thread: waits for a span to finish, then hands it and up to <code>MAX_BATCH_SIZE</code> - 1
+	 * others already waiting to the exporter at once, until the tracer is closed and every queued span has been
+	 * exported.  The more slowly the exporter runs, the larger the batches become.
+	 */
+	private void export() {
+		final List<Span> batch = new ArrayList<Span>(MAX_BATCH_SIZE);
+		while (running || !queue.isEmpty()) {
+			try {
+				final Span first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) continue;
+				batch.add(first);
+			} catch (final InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+			try {
+				exporter.export(batch);
+			} catch (final IOException e) {
+				exportFailures.incrementAndGet();
+			} catch (final RuntimeException e) {
+				exportFailures.incrementAndGet();
+			}
+			handled.addAndGet(batch.size());
+			batch.clear();
+			synchronized (handled) {
+				handled.notifyAll();
+			}
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.hexagrammatic.cloudflow;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.Validate;
@@ -11,10 +12,14 @@ import org.apache.commons.lang.Validate;
  */
 public abstract class Utils {
 	
+	private static final int TIME_TUPLE_CACHE_SIZE = 256;
+	private static final ConcurrentHashMap<String, Duration> timeTupleCache = new ConcurrentHashMap<String, Duration>();
+	private static final TimeUnit[] UNITS = TimeUnit.values();
+	private static final String[] NEVER_KEYWORDS = {"NEVER", "FOREVER", "NONE"};
+
 	/**
-	 * Provides the ability to convert a String, such as "1 SECOND" or "5 SECONDS", to a tuple consisting
-	 * of a Long for the first value and a TimeUnit for the second value.  The value to convert must consist of
-	 * the following:
+	 * Provides the ability to convert a String, such as "1 SECOND" or "5 SECONDS", to a Duration.
+	 * The value to convert must consist of the following:
 	 * <OL>
 	 * <LI>Any amount of whitespace at the head of the string
 	 * <LI>A numeric value as a string
@@ -22,32 +27,82 @@ public abstract class Utils {
 	 * <LI>An optional timeunit value
 	 * <LI>Any amount of whitespace at the end of the string
 	 * </OL>
-	 * If the timeunit is omitted, it defaults to SECONDS.
+	 * If the timeunit is omitted, it defaults to SECONDS.  Alternatively, the value may be one of 'NEVER', 'FOREVER', or 'NONE',
+	 * surrounded by any amount of whitespace, which all convert to <code>Duration.NEVER</code>.  Units and keywords are not case-sensitive.
+	 * <p>
+	 * Results for the first few hundred distinct strings converted are cached, so the handful of strings most definitions
+	 * use are only converted once.
 	 * @param input the value to convert - may not be null
-	 * @return a tuple containing a Long and a TimeUnit.
+	 * @return the duration
+	 * @throws IllegalArgumentException if the value is null or not in the format above.
 	 */
-	final static Object[] parseTimeTuple(final String input) {
-		//TODO: SUPPORT 'NEVER', 'FOREVER', AND 'NONE' AS A VALUE
+	final static Duration parseTimeTuple(final String input) {
 		Validate.notNull(input, "The provided time period string may not be null.");
-		final String [] parts = input.toUpperCase().trim().split("\\s+", 2);
-		final Object[] results = new Object[2]; 
-		try {			
-			results[0] = Long.parseLong(parts[0]);			
-			if (parts.length > 1) {
-				if (parts[1].endsWith("S")) {
-					results[1] = TimeUnit.valueOf(parts[1]);
-				} else {
-					results[1] = TimeUnit.valueOf(parts[1]+'S');
+		Duration result = timeTupleCache.get(input);
+		if (result == null) {
+			result = parseUncachedTimeTuple(input);
+			if (timeTupleCache.size() < TIME_TUPLE_CACHE_SIZE) {
+				timeTupleCache.putIfAbsent(input, result);
+			}
+		}
+		return result;
+	}
+
+	private static Duration parseUncachedTimeTuple(final String input) {
+		final int length = input.length();
+		int i = skipWhitespace(input, 0);
+		final int start = i;
+		if (i < length && (input.charAt(i) == '-' || input.charAt(i) == '+')) i++;
+		final int digits = i;
+		long value = 0;
+		while (i < length && input.charAt(i) >= '0' && input.charAt(i) <= '9') {
+			final int digit = input.charAt(i) - '0';
+			if (value > (Long.MAX_VALUE - digit) / 10) throw badTimeTuple(input);
+			value = value * 10 + digit;
+			i++;
+		}
+		if (i == digits) {
+			final int end = skipToken(input, start);
+			if (skipWhitespace(input, end) == length) {
+				for (final String keyword: NEVER_KEYWORDS) {
+					if (end - start == keyword.length() && input.regionMatches(true, start, keyword, 0, keyword.length())) {
+						return Duration.NEVER;
+					}
 				}
-			} else {
-				results[1] = TimeUnit.SECONDS;
 			}
-			return results;
-		} catch (final NumberFormatException e) {
-			throw new IllegalArgumentException(String.format("Time period value '%s' is not in the format 'LONG TIMEUNIT'.", input));
+			throw badTimeTuple(input);
 		}
+		if (input.charAt(start) == '-') value = -value;
+
+		if (i < length && !Character.isWhitespace(input.charAt(i))) throw badTimeTuple(input);
+		final int unitStart = skipWhitespace(input, i);
+		if (unitStart == length) return Duration.of(value, TimeUnit.SECONDS);
+		final int unitEnd = skipToken(input, unitStart);
+		if (skipWhitespace(input, unitEnd) != length) throw badTimeTuple(input);
+
+		final int unitLength = unitEnd - unitStart;
+		for (final TimeUnit unit: UNITS) {
+			final String name = unit.name();
+			if ((unitLength == name.length() || unitLength == name.length() - 1) && input.regionMatches(true, unitStart, name, 0, unitLength)) {
+				return Duration.of(value, unit);
+			}
+		}
+		throw new IllegalArgumentException(String.format("Time period value '%s' does not have a recognized time unit.", input));
 	}
 
+	private static int skipWhitespace(final String input, int i) {
+		while (i < input.length() && Character.isWhitespace(input.charAt(i))) i++;
+		return i;
+	}
+
+	private static int skipToken(final String input, int i) {
+		while (i < input.length() && !Character.isWhitespace(input.charAt(i))) i++;
+		return i;
+	}
+
+	private static IllegalArgumentException badTimeTuple(final String input) {
+		return new IllegalArgumentException(String.format("Time period value '%s' is not in the format 'LONG TIMEUNIT'.", input));
+	}
 	
 	/**
 	 * Creates a time tuple string out of the provided parameters.
@@ -69,4 +124,54 @@ public abstract class Utils {
 		}
 	}
 
+	/**
+	 * Determines the name a step created by <code>createStep</code> would have by default, which is the simple name
+	 * of its class, without loading the class or creating the step.
+	 * @param classLoader the classloader to resolve indexed aliases with - may not be null
+	 * @param classname the fully qualified name of a class that extends Step, or an indexed alias - may not be null
+	 * @return the default name of the step
+	 */
+	final static String defaultStepName(final ClassLoader classLoader, final String classname) {
+		Validate.notNull(classLoader, "The provided classloader may not be null.");
+		Validate.notNull(classname, "The provided class name may not be null.");
+		final String indexed = StepIndex.stepClassName(classLoader, classname);
+		final String binaryName = indexed == null ? classname : indexed;
+		int start = Math.max(binaryName.lastIndexOf('.'), binaryName.lastIndexOf('$')) + 1;
+		if (binaryName.lastIndexOf('$') + 1 == start) {
+			while (start < binaryName.length() - 1 && Character.isDigit(binaryName.charAt(start))) start++;
+		}
+		return binaryName.substring(start);
+	}
+
+	/**
+	 * Creates a new instance of the Step class with the provided name.  This is shared by the parsers
+	 * so that every definition format resolves and reports on step classes in the same way.
+	 * <p>
+	 * The build-time step index is consulted first, so indexed steps may be referred to by their alias and
+	 * are constructed without reflection; any other name is loaded as a class.
+	 * @param classLoader the classloader to resolve the class with - may not be null
+	 * @param classname the fully qualified name of a class that extends Step, or an indexed alias - may not be null
+	 * @return a new, unpopulated instance of the step class
+	 * @throws WorkflowCreationException if the class cannot be found, does not extend Step, or cannot be constructed
+	 */
+	final static Step createStep(final ClassLoader classLoader, final String classname) throws WorkflowCreationException {
+		Validate.notNull(classLoader, "The provided classloader may not be null.");
+		Validate.notNull(classname, "The provided class name may not be null.");
+		final Step indexed = StepIndex.create(classLoader, classname);
+		if (indexed != null) return indexed;
+		try {
+			final Class<?> source = classLoader.loadClass(classname);
+			if (Step.class.isAssignableFrom(source)) {
+				return (Step)source.newInstance();
+			} else {
+				throw new WorkflowCreationException(String.format("Provided step class definition '%s' does not extend '%s'", source.getName(), Step.class.getName()));
+			}
+		} catch (final ClassNotFoundException e) {
+			throw new WorkflowCreationException(String.format("Unable to find Step class '%s'.", classname), e);
+		} catch (final InstantiationException e) {
+			throw new WorkflowCreationException(String.format("Unable to create instance of Step class '%s' due to an exception in the constructor.", classname), e);
+		} catch (final IllegalAccessException e) {
+			throw new WorkflowCreationException(String.format("Step class '%s' cannot be constructed due to access restrictions.", classname), e);
+		}
+	}
 }
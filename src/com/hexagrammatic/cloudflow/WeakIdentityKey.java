@@ -0,0 +1,39 @@
+package com.hexagrammatic.cloudflow;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * A weak reference for use as a map key, equal to any other key referring to the same object.  Keys whose referent has
+ * been collected are only equal to themselves, so they can still be removed from the map once polled from their queue.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+final class WeakIdentityKey<T> extends WeakReference<T> {
+	private final int hash;
+
+	/**
+	 * Creates a key.
+	 * @param referent the object the key refers to - may not be null
+	 * @param queue the queue to enqueue the key on once its referent is collected, or <code>null</code> for a key only
+	 * used to look entries up
+	 */
+	WeakIdentityKey(final T referent, final ReferenceQueue<? super T> queue) {
+		super(referent, queue);
+		this.hash = System.identityHashCode(referent);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj == this) return true;
+		if (!(obj instanceof WeakIdentityKey)) return false;
+		final Object referent = get();
+		return referent != null && referent == ((WeakIdentityKey<?>)obj).get();
+	}
+}
@@ -0,0 +1,84 @@
+package com.hexagrammatic.cloudflow;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A workflow definition leased from a <code>WorkQueue</code>.  Items are immutable; extending a lease produces a new
+ * item.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see WorkQueue
+ */
+public final class WorkItem {
+	private final String id;
+	private final String definition;
+	private final int deliveries;
+	private final String receipt;
+	private final long leaseExpiresMillis;
+
+	/**
+	 * Creates a new instance.  Only <code>WorkQueue</code> implementations should need to create items.
+	 * @param id the identifier of the item - may not be null
+	 * @param definition the workflow definition - may not be null
+	 * @param deliveries the number of times the item has been leased, including this one
+	 * @param receipt what the queue uses to recognize the lease - may not be null
+	 * @param leaseExpiresMillis when the lease expires, in milliseconds since the epoch
+	 */
+	public WorkItem(final String id, final String definition, final int deliveries, final String receipt, final long leaseExpiresMillis) {
+		Validate.notNull(id, "The provided id may not be null.");
+		Validate.notNull(definition, "The provided definition may not be null.");
+		Validate.notNull(receipt, "The provided receipt may not be null.");
+		this.id = id;
+		this.definition = definition;
+		this.deliveries = deliveries;
+		this.receipt = receipt;
+		this.leaseExpiresMillis = leaseExpiresMillis;
+	}
+
+	/**
+	 * Gets the identifier of the item, which stays the same across deliveries.
+	 * @return the identifier
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the workflow definition.
+	 * @return the definition
+	 */
+	public String getDefinition() {
+		return definition;
+	}
+
+	/**
+	 * Gets the number of times the item has been leased, including this one.  A number greater than one means an
+	 * earlier delivery was returned to the queue or its lease expired.
+	 * @return the number of deliveries
+	 */
+	public int getDeliveries() {
+		return deliveries;
+	}
+
+	/**
+	 * Gets what the queue uses to recognize this lease.
+	 * @return the receipt
+	 */
+	public String getReceipt() {
+		return receipt;
+	}
+
+	/**
+	 * Gets when the lease expires.
+	 * @return the expiry, in milliseconds since the epoch
+	 */
+	public long getLeaseExpiresMillis() {
+		return leaseExpiresMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("WorkItem[id=%s, deliveries=%d, leaseExpiresMillis=%d]", id, deliveries, leaseExpiresMillis);
+	}
+}
@@ -0,0 +1,67 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interface for distributing workflow definitions to workers.  Definitions are enqueued, then leased by workers, which
+ * hold them for a limited time; a worker keeps its lease by sending heartbeats, and ends it by acknowledging the item
+ * once it has been executed, or by returning it to the queue.  An item whose lease expires, such as because its worker
+ * died, is returned to the queue and leased again, so every item is delivered at least once, and may be delivered more
+ * than once.
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see FileWorkQueue
+ * @see WorkQueueWorker
+ */
+public interface WorkQueue {
+
+	/**
+	 * Adds a workflow definition to the queue.
+	 * @param definition the definition, such as workflow JSON - may not be null
+	 * @return the identifier of the new item
+	 * @throws IOException if the item cannot be stored
+	 */
+	String enqueue(String definition) throws IOException;
+
+	/**
+	 * Leases up to the provided number of items, oldest first.
+	 * @param max the largest number of items to lease - must be positive
+	 * @param duration how long the leases last - must be positive
+	 * @param unit the unit of the duration - may not be null
+	 * @return the leased items, or an empty list if none are available
+	 * @throws IOException if the queue cannot be read
+	 */
+	List<WorkItem> lease(int max, long duration, TimeUnit unit) throws IOException;
+
+	/**
+	 * Extends the lease of an item to the provided duration from now.
+	 * @param item the leased item - may not be null
+	 * @param duration how long the lease lasts from now - must be positive
+	 * @param unit the unit of the duration - may not be null
+	 * @return the item with its extended lease, to be used in place of the provided one, or <code>null</code> if the
+	 * lease has been lost, such as by expiring.
+	 * @throws IOException if the queue cannot be updated
+	 */
+	WorkItem heartbeat(WorkItem item, long duration, TimeUnit unit) throws IOException;
+
+	/**
+	 * Removes a leased item from the queue, once it has been dealt with.
+	 * @param item the leased item - may not be null
+	 * @return <code>true</code> if the item was removed, <code>false</code> if the lease has been lost.
+	 * @throws IOException if the queue cannot be updated
+	 */
+	boolean ack(WorkItem item) throws IOException;
+
+	/**
+	 * Returns a leased item to the queue, to be leased again.
+	 * @param item the leased item - may not be null
+	 * @return <code>true</code> if the item was returned, <code>false</code> if the lease has been lost.
+	 * @throws IOException if the queue cannot be updated
+	 */
+	boolean nack(WorkItem item) throws IOException;
+}
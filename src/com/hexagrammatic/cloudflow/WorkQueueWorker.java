@@ -0,0 +1,310 @@
+package com.hexagrammatic.cloudflow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Runnable that leases workflow definitions from a <code>WorkQueue</code> in batches, parses them with a
+ * <code>JsonParser</code>, and executes them one at a time, until stopped.  While a batch is being worked through, the
+ * leases of every item in it are extended in the background every third of the lease duration.  An item whose workflow
+ * succeeds is acknowledged; one whose workflow fails or times out is returned to the queue, unless it has been
+ * delivered the maximum number of times; one whose definition cannot be parsed is acknowledged, since it would never
+ * succeed.  If an item's lease is lost while its workflow executes, the workflow is halted, since another worker will
+ * execute it.
+ * <p>
+ * To scale out, run any number of workers, in any number of threads or processes, against the same queue.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see WorkQueue
+ */
+public class WorkQueueWorker implements Runnable {
+	private final WorkQueue queue;
+	private final JsonParser parser;
+	private int batchSize = 1;
+	private long leaseMillis = TimeUnit.MINUTES.toMillis(5);
+	private long pollMillis = TimeUnit.SECONDS.toMillis(1);
+	private int maxDeliveries = 0;
+	private volatile boolean stopped = false;
+	private volatile AtomicReference<WorkItem> running = null;
+	private volatile Workflow current = null;
+	private final AtomicLong succeeded = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * Creates a new instance.
+	 * @param queue the queue to lease items from - may not be null
+	 * @param parser the parser for the items' definitions - may not be null
+	 */
+	public WorkQueueWorker(final WorkQueue queue, final JsonParser parser) {
+		Validate.notNull(queue, "The provided queue may not be null.");
+		Validate.notNull(parser, "The provided parser may not be null.");
+		this.queue = queue;
+		this.parser = parser;
+	}
+
+	/**
+	 * Sets the largest number of items leased at once.  Larger batches mean fewer trips to the queue, but items wait
+	 * in a batch, leased, while the items ahead of them execute.  Defaults to 1.
+	 * @param batchSize the batch size - must be positive
+	 */
+	public void setBatchSize(final int batchSize) {
+		Validate.isTrue(batchSize > 0, "The provided batch size must be positive.");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets how long leases last between heartbeats, which bounds how long an item waits to be delivered again if this
+	 * worker dies.  Defaults to 5 minutes.
+	 * @param value the lease duration - must be positive
+	 * @param unit the unit of the duration - may not be null
+	 */
+	public void setLeaseDuration(final long value, final TimeUnit unit) {
+		Validate.notNull(unit, "The provided unit may not be null.");
+		Validate.isTrue(unit.toMillis(value) >= 3, "The provided lease duration must be at least 3 milliseconds.");
+		this.leaseMillis = unit.toMillis(value);
+	}
+
+	/**
+	 * Sets how long to wait before leasing again when the queue is empty or cannot be read.  Defaults to 1 second.
+	 * @param value the poll interval - may not be negative
+	 * @param unit the unit of the interval - may not be null
+	 */
+	public void setPollInterval(final long value, final TimeUnit unit) {
+		Validate.notNull(unit, "The provided unit may not be null.");
+		Validate.isTrue(value >= 0, "The provided poll interval may not be negative.");
+		this.pollMillis = unit.toMillis(value);
+	}
+
+	/**
+	 * Sets the number of deliveries after which a failing item is acknowledged, and so dropped, rather than returned to
+	 * the queue.  Defaults to 0, which returns failing items to the queue indefinitely.
+	 * @param maxDeliveries the maximum number of deliveries, or 0 for no maximum - may not be negative
+	 */
+	public void setMaxDeliveries(final int maxDeliveries) {
+		Validate.isTrue(maxDeliveries >= 0, "The provided maximum number of deliveries may not be negative.");
+		this.maxDeliveries = maxDeliveries;
+	}
+
+	/**
+	 * Stops the worker once the current workflow, if any, has finished.  The rest of the current batch is returned to
+	 * the queue.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Gets the number of items whose workflows succeeded.
+	 * @return the number of successful items
+	 */
+	public long getSucceededCount() {
+		return succeeded.get();
+	}
+
+	/**
+	 * Gets the number of items whose workflows failed or timed out.
+	 * @return the number of failed items
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * Gets the number of items whose definitions could not be parsed.
+	 * @return the number of rejected items
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Gets the number of items whose leases were lost before they were finished.
+	 * @return the number of lost items
+	 */
+	public long getLostCount() {
+		return lost.get();
+	}
+
+	/**
+	 * Gets the number of times the queue could not be read or updated.
+	 * @return the number of queue errors
+	 */
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	@Override
+	public void run() {
+		final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				thread.setName("Cloudflow Work Queue Heartbeat");
+				return thread;
+			}
+		});
+		try {
+			while (!stopped && !Thread.currentThread().isInterrupted()) {
+				final List<WorkItem> items;
+				try {
+					items = queue.lease(batchSize, leaseMillis, TimeUnit.MILLISECONDS);
+				} catch (final IOException e) {
+					errors.incrementAndGet();
+					if (!pause()) return;
+					continue;
+				}
+				if (items.isEmpty()) {
+					if (!pause()) return;
+					continue;
+				}
+				work(items, heartbeats);
+			}
+		} finally {
+			heartbeats.shutdownNow();
+		}
+	}
+
+	private void work(final List<WorkItem> items, final ScheduledExecutorService heartbeats) {
+		final List<AtomicReference<WorkItem>> held = new ArrayList<AtomicReference<WorkItem>>(items.size());
+		for (final WorkItem item: items) {
+			held.add(new AtomicReference<WorkItem>(item));
+		}
+		final long period = leaseMillis / 3;
+		final ScheduledFuture<?> beat = heartbeats.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for (final AtomicReference<WorkItem> reference: held) {
+					heartbeat(reference);
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+		try {
+			for (final AtomicReference<WorkItem> reference: held) {
+				if (stopped || Thread.currentThread().isInterrupted()) {
+					settle(reference, false);
+				} else {
+					process(reference);
+				}
+			}
+		} finally {
+			beat.cancel(false);
+		}
+	}
+
+	private void process(final AtomicReference<WorkItem> reference) {
+		final WorkItem item = reference.get();
+		if (item == null) {
+			lost.incrementAndGet();
+			return;
+		}
+		final Workflow workflow;
+		try {
+			workflow = parser.parse(item.getDefinition());
+		} catch (final WorkflowCreationException e) {
+			rejected.incrementAndGet();
+			settle(reference, true);
+			return;
+		} catch (final RuntimeException e) {
+			rejected.incrementAndGet();
+			settle(reference, true);
+			return;
+		}
+		boolean successful = false;
+		running = reference;
+		current = workflow;
+		try {
+			if (reference.get() != null) {
+				workflow.execute();
+				successful = true;
+			}
+		} catch (final TimeoutException e) {
+			// Counted as a failure below.
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final RuntimeException e) {
+			// Counted as a failure below.
+		} finally {
+			current = null;
+			running = null;
+		}
+		if (reference.get() == null) {
+			lost.incrementAndGet();
+			return;
+		}
+		if (successful) {
+			succeeded.incrementAndGet();
+		} else {
+			failed.incrementAndGet();
+		}
+		settle(reference, successful || (maxDeliveries > 0 && item.getDeliveries() >= maxDeliveries));
+	}
+
+	/**
+	 * Extends the lease of an item, halting its workflow if the lease has been lost.
+	 */
+	private void heartbeat(final AtomicReference<WorkItem> reference) {
+		synchronized (reference) {
+			final WorkItem item = reference.get();
+			if (item == null) return;
+			try {
+				final WorkItem renewed = queue.heartbeat(item, leaseMillis, TimeUnit.MILLISECONDS);
+				reference.set(renewed);
+				if (renewed != null) return;
+			} catch (final IOException e) {
+				errors.incrementAndGet();
+				return;
+			}
+		}
+		final Workflow workflow = current;
+		if (running == reference && workflow != null) workflow.halt();
+	}
+
+	/**
+	 * Acknowledges or returns an item, ending its lease.
+	 */
+	private void settle(final AtomicReference<WorkItem> reference, final boolean ack) {
+		synchronized (reference) {
+			final WorkItem item = reference.getAndSet(null);
+			if (item == null) return;
+			try {
+				if (ack) {
+					queue.ack(item);
+				} else {
+					queue.nack(item);
+				}
+			} catch (final IOException e) {
+				errors.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the poll interval.
+	 * @return <code>false</code> if interrupted while waiting.
+	 */
+	private boolean pause() {
+		try {
+			Thread.sleep(pollMillis);
+			return true;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -1,9 +1,13 @@
 package com.hexagrammatic.cloudflow;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -12,6 +16,8 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang.Validate;
@@ -35,17 +41,40 @@ import org.apache.commons.lang.Validate;
 public class Workflow extends Parameterized {
 	//TODO: Add pause method?
 	//TODO: Add insertAfter methods?
-	private final ArrayList<Step> steps = new ArrayList<Step>();
+	private static final Metrics NO_METRICS = new MetricsAdapter() {};
+	private static volatile Metrics defaultMetrics = NO_METRICS;
+	private static volatile boolean defaultResourceAccounting = Boolean.getBoolean("cloudflow.resourceAccounting");
+	private static final AtomicLong threadsCreated = new AtomicLong();
+	private static final AtomicInteger threadsLive = new AtomicInteger();
+	private static final AtomicInteger threadsBusy = new AtomicInteger();
+	private static final AtomicInteger triesWaiting = new AtomicInteger();
+
+	private final CopyOnWriteArrayList<Step> steps = new CopyOnWriteArrayList<Step>();
+	private volatile UUID id = UUID.randomUUID();
 	private String name = null;
 	private long timeoutValue = -1;
 	private TimeUnit timeoutUnits = TimeUnit.SECONDS;
-	private ExecutorService executor = null;
+	private volatile ExecutorService executor = null;
 	private AtomicBoolean executing = new AtomicBoolean(false);
 	private AtomicBoolean successful = new AtomicBoolean(false);
 	private AtomicReference<Future<Void>> workflowFuture = new AtomicReference<Future<Void>>();
 	private AtomicReference<Future<Void>> currstepFuture = new AtomicReference<Future<Void>>();
 	private AtomicReference<Step> currstep = new AtomicReference<Step>();
+	private Metrics metrics = defaultMetrics;
+	private volatile boolean resourceAccounting = defaultResourceAccounting;
+	private volatile CheckpointJournal checkpointJournal = null;
+	private volatile long startNanos = -1;
 	
+	/**
+	 * Gets the id of this workflow, which identifies it in checkpoints.  A workflow resumed from a checkpoint takes
+	 * on the id of the workflow the checkpoint was taken from.
+	 * @return the id - never null.
+	 * @since 2013.05
+	 */
+	public final UUID getId() {
+		return id;
+	}
+
 	/**
 	 * Gets the name of this workflow.
 	 * @return the name of the workflow, as a String; may be <code>null</code>, but not blank.
@@ -77,9 +106,9 @@ public class Workflow extends Parameterized {
 	 * @see Utils#parseTimeTuple(String)
 	 */
 	protected final void setTimeout(final String timeout) {
-		final Object[] parsed = Utils.parseTimeTuple(timeout);
-		setTimeoutValue((Long)parsed[0]);
-		setTimeoutUnits((TimeUnit)parsed[1]);
+		final Duration parsed = Utils.parseTimeTuple(timeout);
+		setTimeoutValue(parsed.getValue());
+		if (!parsed.isNever()) setTimeoutUnits(parsed.getUnit());
 	}
 	
 	/**
@@ -124,6 +153,123 @@ public class Workflow extends Parameterized {
 		this.timeoutUnits = timeoutUnits;
 	}
 	
+	/**
+	 * Gets the metrics this workflow reports its execution to.
+	 * @return the metrics - never null.
+	 */
+	public final Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics this workflow reports its execution to.  If unset, the default metrics at the time the
+	 * workflow was created are used.
+	 * @param metrics the metrics - if <code>null</code>, execution is not reported anywhere
+	 * @see Workflow#setDefaultMetrics(Metrics)
+	 */
+	public final void setMetrics(final Metrics metrics) {
+		this.metrics = metrics == null ? NO_METRICS : metrics;
+	}
+
+	/**
+	 * Sets the metrics that workflows created from now on report their execution to, unless they are given
+	 * their own through <code>setMetrics</code>.  By default, execution is not reported anywhere.
+	 * @param metrics the metrics - if <code>null</code>, execution is not reported anywhere
+	 */
+	public static void setDefaultMetrics(final Metrics metrics) {
+		defaultMetrics = metrics == null ? NO_METRICS : metrics;
+	}
+
+	/**
+	 * Determines if this workflow measures the CPU time and allocated bytes of each try of its steps.
+	 * @return <code>true</code> if resource accounting is on, <code>false</code> otherwise.
+	 * @since 2013.05
+	 */
+	public final boolean isResourceAccounting() {
+		return resourceAccounting;
+	}
+
+	/**
+	 * Turns measurement of the CPU time and allocated bytes of each try of this workflow's steps on or off.  The
+	 * measurements are taken on the thread running the step's <code>execute()</code> method through the platform
+	 * <code>ThreadMXBean</code>, and are available from <code>Attempt.getCpuNanos()</code> and
+	 * <code>Attempt.getAllocatedBytes()</code>.  Measurements the JVM does not support read as -1.
+	 * <p>
+	 * By default, accounting is on only if the <code>cloudflow.resourceAccounting</code> system property is
+	 * <code>true</code> or it has been turned on for all workflows through <code>setDefaultResourceAccounting</code>.
+	 * @param enabled <code>true</code> to measure resources, <code>false</code> otherwise.
+	 * @since 2013.05
+	 */
+	public final void setResourceAccounting(final boolean enabled) {
+		this.resourceAccounting = enabled;
+	}
+
+	/**
+	 * Turns resource accounting on or off for workflows created from now on.
+	 * @param enabled <code>true</code> to measure resources, <code>false</code> otherwise.
+	 * @see Workflow#setResourceAccounting(boolean)
+	 * @since 2013.05
+	 */
+	public static void setDefaultResourceAccounting(final boolean enabled) {
+		defaultResourceAccounting = enabled;
+	}
+
+	/**
+	 * Gets the journal this workflow records its progress to.
+	 * @return the journal, or <code>null</code> if progress is not recorded.
+	 * @since 2013.05
+	 */
+	public final CheckpointJournal getCheckpointJournal() {
+		return checkpointJournal;
+	}
+
+	/**
+	 * Sets the journal this workflow records its progress to.  When set, a checkpoint holding the workflow's
+	 * parameters is recorded each time a step ends, and the next step does not start until it is on disk; a last
+	 * checkpoint is recorded when the workflow finishes.  If a checkpoint cannot be recorded, the workflow fails as
+	 * if the step had.  Journals may be shared by any number of workflows.
+	 * <p>
+	 * Every parameter of the workflow must be a value <code>BinaryWriter</code> can write.
+	 * @param journal the journal - if <code>null</code>, progress is not recorded
+	 * @since 2013.05
+	 */
+	public final void setCheckpointJournal(final CheckpointJournal journal) {
+		this.checkpointJournal = journal;
+	}
+
+	/**
+	 * Gets the number of threads created to execute workflows since the class was loaded.
+	 * @return the number of threads created
+	 */
+	static long getThreadsCreated() {
+		return threadsCreated.get();
+	}
+
+	/**
+	 * Gets the number of threads created to execute workflows that are still alive.
+	 * @return the number of live threads
+	 */
+	static int getThreadsLive() {
+		return threadsLive.get();
+	}
+
+	/**
+	 * Gets the number of threads created to execute workflows that are currently executing a workflow or step,
+	 * including steps abandoned after timing out that have not yet returned.
+	 * @return the number of busy threads
+	 */
+	static int getThreadsBusy() {
+		return threadsBusy.get();
+	}
+
+	/**
+	 * Gets the number of step tries submitted to a workflow's executor that no thread has picked up yet.
+	 * @return the number of waiting tries
+	 */
+	static int getTriesWaiting() {
+		return triesWaiting.get();
+	}
+
 	/**
 	 * Adds a Step to this workflow, including making this Workflow the owner of the provided step.
 	 * (Note: this method is not final so implementors may override it for any other special behaviors they 
@@ -136,17 +282,62 @@ public class Workflow extends Parameterized {
 		if (s!=null) {
 			if (steps.add(s)) {
 				s.setWorkflow(this);
+				s.setIndex(steps.size() - 1);
+				if (getLockStatistics() != null) s.setLockStatisticsEnabled(true);
 			}
 		}
 	}
 	
 	/**
-	 * Gets the steps in this workflow.
+	 * Turns recording of lock statistics on or off for this workflow and every step in it.  Steps added to the
+	 * workflow afterwards, including steps whose creation was deferred, follow the workflow's setting.
+	 * @since 2013.05
+	 */
+	@Override
+	public void setLockStatisticsEnabled(final boolean enabled) {
+		super.setLockStatisticsEnabled(enabled);
+		for (final Step step: steps) {
+			step.setLockStatisticsEnabled(enabled);
+		}
+	}
+
+	/**
+	 * Gets the lock statistics of this workflow and all of its steps, added together.  The workflow's own lock is
+	 * the one steps write through when they add parameters, so it is usually the one contended; its statistics alone
+	 * are available through <code>getLockStatistics()</code>.
+	 * @return the combined statistics, or <code>null</code> if recording is off for this workflow.
+	 * @since 2013.05
+	 */
+	public final LockStatistics getLockStatisticsSummary() {
+		final LockStatistics own = getLockStatistics();
+		if (own == null) return null;
+		final LockStatistics summary = new LockStatistics();
+		summary.add(own);
+		for (final Step step: steps) {
+			final LockStatistics statistics = step.getLockStatistics();
+			if (statistics != null) summary.add(statistics);
+		}
+		return summary;
+	}
+
+	/**
+	 * Gets the steps in this workflow.  Steps whose creation was deferred by the parser appear as stand-ins
+	 * until the workflow reaches them.
 	 * @return the steps, as an unmodifiable collection.
+	 * @see JsonParser#setLazySteps(boolean)
 	 */
 	public final Collection<Step> getSteps() {
 		return Collections.unmodifiableCollection(steps);
 	}
+
+	/**
+	 * Gets the step at a position in this workflow.
+	 * @param index the position of the step
+	 * @return the step
+	 */
+	final Step getStep(final int index) {
+		return steps.get(index);
+	}
 	
 	/**
 	 * Determines if this workflow is currently executing.
@@ -187,13 +378,80 @@ public class Workflow extends Parameterized {
 	 * Note: Threads executing this workflow and its steps are <i>always</i> daemon threads. 
 	 * @throws TimeoutException if a single step times out without any remaining retries or the whole workflow times out
 	 * @throws RuntimeException thrown if a step decides to 'leak' a RuntimeException out of its <code>execute()</code> method.  
+	 * @throws IllegalStateException thrown if a step whose creation was deferred cannot be created when it is reached.
 	 */
 	public final void execute() throws TimeoutException, InterruptedException {
+		execute(0, 0);
+	}
+
+	/**
+	 * Resumes a workflow from a checkpoint taken while it was executing, such as the latest checkpoint of a
+	 * workflow that was cut off by its JVM exiting.  This workflow must have been created from the same definition
+	 * as the one the checkpoint was taken from, and must not have been executed.
+	 * <p>
+	 * The workflow takes on the id and the parameters recorded in the checkpoint.  The steps that had ended are
+	 * marked as completed without being run again; since a checkpoint only records how the last of them ended, the
+	 * ones before it are marked as successful.  Execution then continues from the first step that had not ended,
+	 * with whatever was left of the workflow's timeout; if none was left, nothing is run.
+	 * @param checkpoint the checkpoint - may not be null
+	 * @throws TimeoutException if a single step times out without any remaining retries, the whole workflow times out,
+	 * or the checkpoint was taken after the workflow's timeout had already been used up
+	 * @throws RuntimeException thrown if a step decides to 'leak' a RuntimeException out of its <code>execute()</code> method.
+	 * @throws IllegalStateException thrown if a step whose creation was deferred cannot be created when it is reached.
+	 * @throws IllegalArgumentException if the checkpoint records a workflow that had finished or failed, or does not
+	 * match the steps of this workflow.
+	 * @see CheckpointJournal#latest(java.io.File)
+	 * @since 2013.05
+	 */
+	public final void resume(final Checkpoint checkpoint) throws TimeoutException, InterruptedException {
+		Validate.notNull(checkpoint, "The provided checkpoint may not be null.");
+		Validate.isTrue(!checkpoint.isFinished(), "The provided checkpoint was taken after the workflow finished.");
+		Validate.isTrue(!checkpoint.isFailed(), "The provided checkpoint was taken after the workflow failed.");
+		final int completed = checkpoint.getCompletedSteps();
+		if (completed > steps.size() || (completed > 0 && !steps.get(completed - 1).getName().equals(checkpoint.getStepName()))) {
+			throw new IllegalArgumentException(String.format("The provided checkpoint, taken after step %d '%s', does not match this workflow.",
+					completed, checkpoint.getStepName()));
+		}
+		if (getTimeoutValue() > 0 && checkpoint.getElapsedNanos() >= getTimeoutUnits().toNanos(getTimeoutValue())) {
+			throw new TimeoutException(timeoutMessage());
+		}
+
+		this.id = checkpoint.getWorkflowId();
+		final Map<String, Object> parameters = checkpoint.getParameters();
+		for (final String key: getParameterNames()) {
+			if (!parameters.containsKey(key)) removeParameter(key);
+		}
+		for (final Map.Entry<String, Object> entry: parameters.entrySet()) {
+			addParameter(entry.getKey(), entry.getValue());
+		}
+		for (int i = 0; i < completed; i++) {
+			steps.get(i).resume(i == completed - 1 ? checkpoint.getStepStatus() : Checkpoint.StepStatus.SUCCEEDED);
+		}
+		execute(completed, checkpoint.getElapsedNanos());
+	}
+
+	/**
+	 * Executes the workflow from a given step on.
+	 * @param first the position of the first step to execute
+	 * @param elapsedNanos how much of the workflow's timeout has already been used
+	 */
+	private final void execute(final int first, final long elapsedNanos) throws TimeoutException, InterruptedException {
 		executor = Executors.newCachedThreadPool(
 					new ThreadFactory() {
 						@Override
 						public Thread newThread(final Runnable r) {
-							final Thread t = new Thread(r);
+							final Thread t = new Thread(new Runnable() {
+								@Override
+								public void run() {
+									threadsLive.incrementAndGet();
+									try {
+										r.run();
+									} finally {
+										threadsLive.decrementAndGet();
+									}
+								}
+							});
+							threadsCreated.incrementAndGet();
 							t.setDaemon(true);
 							t.setName(String.format("Workflow %s(Thread#%s)", 
 													getName() == null ? "" : String.format("'%s' ", getName()), t.getId()));
@@ -205,29 +463,31 @@ public class Workflow extends Parameterized {
 		final Callable<Void> call = new Callable<Void>() {			
 			@Override
 			public Void call() throws Exception {
-				executeSteps();
+				threadsBusy.incrementAndGet();
+				try {
+					executeSteps(first);
+				} finally {
+					threadsBusy.decrementAndGet();
+				}
 				return null;
 			}
 		};
 		
+		final long startNanos = System.nanoTime();
+		this.startNanos = startNanos - elapsedNanos;
+		metrics.workflowStarted(this);
 		final Future<Void> result = executor.submit(call);
 		executing.set(true);
 		workflowFuture.set(result);
 		
 		try {
 			if (getTimeoutValue() > 0) {
-				result.get(getTimeoutValue(), getTimeoutUnits());
+				result.get(getTimeoutUnits().toNanos(getTimeoutValue()) - elapsedNanos, TimeUnit.NANOSECONDS);
 			} else {
 				result.get();
 			}
 		} catch (final TimeoutException te) {
-			String message;
-			if (getName() == null) {
-				message = String.format("Execution of workflow timed out after %s", Utils.createTimeTuple(getTimeoutValue(), getTimeoutUnits()));
-			} else {
-				message = String.format("Execution of workflow '%s' timed out after %s", getName(), Utils.createTimeTuple(getTimeoutValue(), getTimeoutUnits()));
-			}
-			throw new TimeoutException(message);
+			throw new TimeoutException(timeoutMessage());
 		} catch (final ExecutionException ee) {
 			Throwable cause = ee.getCause();
 			while (cause instanceof ExecutionException) {
@@ -237,6 +497,8 @@ public class Workflow extends Parameterized {
 				throw (RuntimeException)cause;
 			} else if (cause instanceof TimeoutException) {
 				throw (TimeoutException)cause;				
+			} else if (cause instanceof WorkflowCreationException) {
+				throw new IllegalStateException(cause.getMessage(), cause);
 			} else {
 				throw new IllegalStateException("Unexpected non-runtime exception encountered.", cause);
 			}
@@ -244,26 +506,38 @@ public class Workflow extends Parameterized {
 			result.cancel(true);
 			workflowFuture.set(null);
 			executing.set(false);
+			metrics.workflowCompleted(this, System.nanoTime() - startNanos, successful.get());
 		}
 	}
 	
+	private String timeoutMessage() {
+		if (getName() == null) {
+			return String.format("Execution of workflow timed out after %s", Utils.createTimeTuple(getTimeoutValue(), getTimeoutUnits()));
+		}
+		return String.format("Execution of workflow '%s' timed out after %s", getName(), Utils.createTimeTuple(getTimeoutValue(), getTimeoutUnits()));
+	}
+
 	/**
 	 * Executes the steps in order, inlcuding handling timeouts and retries.
+	 * @param first the position of the first step to execute
 	 * @throws TimeoutException if a step times out without remaining retries.
 	 * @throws ExecutionException if a step lets an unhandled exeception leak out of its <code>execute()</code> method.
 	 * @throws InterruptedException if the step is interrupted while being executed.
 	 */
-	private final void executeSteps() throws TimeoutException, ExecutionException, InterruptedException {
+	private final void executeSteps(final int first) throws TimeoutException, ExecutionException, InterruptedException {
 		TimeoutException te = null;
 		ExecutionException ee = null;
+		final CheckpointJournal journal = checkpointJournal;
 
 		boolean go = true;
-		for (final Step step: steps) {
+		for (int i = first; i < steps.size(); i++) {
+			final Step step = steps.get(i);
 			try {
 				if (go || step.isAlwaysRun()) {
-					executeStep(step);
+					executeStep(materialize(i));
 				} else {
 					step.skip();
+					metrics.stepSkipped(step);
 				}
 			} catch (final ExecutionException e) {
 				successful.set(false);
@@ -274,6 +548,23 @@ public class Workflow extends Parameterized {
 				go = false;
 				te = t;
 			}
+			if (journal != null) {
+				try {
+					checkpoint(journal, i, !go);
+				} catch (final ExecutionException e) {
+					successful.set(false);
+					go = false;
+					ee = e;
+				}
+			}
+		}
+
+		if (journal != null) {
+			try {
+				checkpoint(journal, -1, ee != null || te != null);
+			} catch (final ExecutionException e) {
+				if (ee == null) ee = e;
+			}
 		}
 		
 		if (ee != null) {			
@@ -286,7 +577,59 @@ public class Workflow extends Parameterized {
 	}
 
 	/**
-	 * Executes and individual step, inlcuding handling timeouts and retries.
+	 * Records a checkpoint of this workflow, waiting until it is on disk.
+	 * @param journal the journal to record the checkpoint to
+	 * @param index the position of the step that ended, or -1 to record the end of the workflow
+	 * @param failed whether a step of the workflow has failed
+	 * @throws ExecutionException if the checkpoint cannot be encoded or recorded.
+	 * @throws InterruptedException if interrupted while waiting for the checkpoint to be recorded.
+	 */
+	private final void checkpoint(final CheckpointJournal journal, final int index, final boolean failed) throws ExecutionException, InterruptedException {
+		final long elapsedNanos = System.nanoTime() - startNanos;
+		try {
+			journal.append(index < 0 ? Checkpoint.workflowEnded(this, !failed, elapsedNanos) :
+					Checkpoint.stepEnded(this, index, failed, elapsedNanos));
+		} catch (final IOException e) {
+			throw new ExecutionException(checkpointFailure(index), e);
+		} catch (final IllegalArgumentException e) {
+			throw new ExecutionException(checkpointFailure(index), e);
+		}
+	}
+
+	private String checkpointFailure(final int index) {
+		if (index < 0) return "Unable to checkpoint the end of the workflow.";
+		return String.format("Unable to checkpoint workflow step '%s'.", steps.get(index).getName());
+	}
+
+	/**
+	 * Replaces the step at the provided position with the step to actually execute, creating it if its creation
+	 * was deferred until it was reached.  The steps are kept in a copy-on-write list, so the replacement is safely
+	 * published to threads reading the steps while the workflow executes.
+	 * @param index the position of the step
+	 * @return the step to execute, or <code>null</code> if creating an optional step fails.
+	 * @throws ExecutionException if the step's creation was deferred and creating it fails.
+	 */
+	private final Step materialize(final int index) throws ExecutionException {
+		final Step step = steps.get(index);
+		try {
+			final Step materialized = step.materialize();
+			if (materialized != step) {
+				materialized.setWorkflow(this);
+				materialized.setIndex(index);
+				if (getLockStatistics() != null) materialized.setLockStatisticsEnabled(true);
+				steps.set(index, materialized);
+			}
+			return materialized;
+		} catch (final WorkflowCreationException e) {
+			step.complete(e);
+			if (step.isOptional()) return null;
+			throw new ExecutionException(String.format("Unable to create deferred workflow step '%s'.", step.getName()), e);
+		}
+	}
+
+	/**
+	 * Executes and individual step, inlcuding handling timeouts and retries.  Steps of a class annotated with
+	 * <code>Memoized</code> have their cached outputs replayed instead of being executed, if any are cached.
 	 * @param step the step itself; if <code>null</code>, this method instantly returns
 	 * @throws TimeoutException if the step times out without remaining retries.
 	 * @throws ExecutionException if the step lets an unhandled exeception leak out of its <code>execute()</code> method.
@@ -296,16 +639,53 @@ public class Workflow extends Parameterized {
 		if (step == null) return;
 		while (step.getTimesTried() <= step.getMaxRetries()) {			
 			step.start();
+			metrics.stepStarted(step, step.getLastAttempt());
 			step.snapshot();
+			final AtomicBoolean pickedUp = new AtomicBoolean(false);
 			final Callable<Void> call = new Callable<Void>() {			
 				@Override
 				public Void call() throws Exception {						
-					step.execute();
+					if (pickedUp.compareAndSet(false, true)) triesWaiting.decrementAndGet();
+					threadsBusy.incrementAndGet();
+					final Attempt attempt = step.getLastAttempt();
+					final boolean accounting = resourceAccounting;
+					try {
+						step.running(attempt);
+						metrics.stepExecuting(step, attempt);
+						if (accounting) ThreadResources.enable();
+						final long cpu = accounting ? ThreadResources.cpuNanos() : -1;
+						final long allocated = accounting ? ThreadResources.allocatedBytes() : -1;
+						try {
+							final StepCache cache = step.getCache();
+							final StepCache.Key key = cache == null ? null : cache.key(step);
+							if (key == null || !cache.replay(step, key)) {
+								step.execute();
+								if (key != null) cache.store(step, key);
+							}
+						} finally {
+							if (accounting) {
+								step.executed(attempt, cpu < 0 ? -1 : ThreadResources.cpuNanos() - cpu,
+										allocated < 0 ? -1 : ThreadResources.allocatedBytes() - allocated);
+							} else {
+								step.executed(attempt);
+							}
+							metrics.stepExecuted(step, attempt);
+						}
+					} finally {
+						threadsBusy.decrementAndGet();
+					}
 					return null;
 				}
 			};
 			
-			final Future<Void> result = executor.submit(call);
+			triesWaiting.incrementAndGet();
+			final Future<Void> result;
+			try {
+				result = executor.submit(call);
+			} catch (final RuntimeException e) {
+				triesWaiting.decrementAndGet();
+				throw e;
+			}
 			currstepFuture.set(result);
 			currstep.set(step);
 			try {
@@ -315,28 +695,56 @@ public class Workflow extends Parameterized {
 					result.get();
 				}
 				step.complete();
+				metrics.stepCompleted(step, step.getLastAttempt());
 				return;
 			} catch (InterruptedException ie) {
 				step.complete(ie);
+				metrics.stepCompleted(step, step.getLastAttempt());
 				throw ie;
+			} catch (CancellationException ce) {
+				step.complete(ce);
+				metrics.stepCompleted(step, step.getLastAttempt());
+				throw ce;
 			} catch (TimeoutException te) {
 				result.cancel(true);
+				step.endAttempt(te);
+				metrics.stepTimedOut(step, step.getLastAttempt());
 				if (step.getTimesTried() > step.getMaxRetries() && !step.isOptional()) {
 					step.complete(te);
+					metrics.stepCompleted(step, step.getLastAttempt());
 					throw new TimeoutException(String.format("Execution of workflow step '%s' timed out after %s", step.getName(), 
 																Utils.createTimeTuple(step.getTimeoutValue(), step.getTimeoutUnits())));
 				}
 			} catch (ExecutionException ee) {
+				step.endAttempt(ee.getCause());
 				if (step.getTimesTried() > step.getMaxRetries() && !step.isOptional()) {
 					step.complete(ee.getCause());
+					metrics.stepCompleted(step, step.getLastAttempt());
 					throw ee;
 				}
 			} finally {
 				result.cancel(true);
+				if (pickedUp.compareAndSet(false, true)) triesWaiting.decrementAndGet();
 				currstepFuture.set(null);
 				currstep.set(null);
 			}
+			if (step.getTimesTried() > step.getMaxRetries()) {
+				try {
+					waitBeforeRetry(step);
+				} catch (InterruptedException ie) {
+					step.complete(ie);
+					metrics.stepCompleted(step, step.getLastAttempt());
+					throw ie;
+				}
+				step.rollback();
+				step.complete(step.getLastAttempt().getFailure());
+				metrics.stepCompleted(step, step.getLastAttempt());
+				return;
+			}
+			metrics.stepRetried(step, step.getLastAttempt());
+			final long waitStart = System.nanoTime();
 			waitBeforeRetry(step);
+			metrics.stepRetryWaited(step, System.nanoTime() - waitStart);
 			step.rollback();
 		}
 	}
@@ -349,6 +757,7 @@ public class Workflow extends Parameterized {
 	 */
 	public void halt() {
 		if (executing.get()) {
+			metrics.workflowHalted(this);
 			if (currstepFuture.get() != null) {
 				currstepFuture.get().cancel(true);
 			}
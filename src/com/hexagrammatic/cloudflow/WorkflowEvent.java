@@ -0,0 +1,177 @@
+package com.hexagrammatic.cloudflow;
+
+/**
+ * Lifecycle event delivered to a <code>WorkflowListener</code> by an <code>EventBus</code>.
+ * <p>
+ * Events are slots in the bus's ring buffer, reused once they have been delivered, so an event is only valid for the
+ * duration of the listener call it is passed to.  Listeners that need to keep any of its contents must copy them out.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see EventBus
+ */
+public final class WorkflowEvent {
+	/**
+	 * The kinds of lifecycle events.
+	 */
+	public enum Type {
+		/** A workflow was created by a parser. */
+		WORKFLOW_PARSED,
+		/** A workflow started executing. */
+		WORKFLOW_STARTED,
+		/** A workflow finished executing, successfully or not. */
+		WORKFLOW_COMPLETED,
+		/** A workflow was halted. */
+		WORKFLOW_HALTED,
+		/** A try of a step was submitted for execution. */
+		ATTEMPT_STARTED,
+		/** A try of a step failed or timed out. */
+		ATTEMPT_FAILED,
+		/** A try of a step timed out. */
+		STEP_TIMED_OUT,
+		/** The wait before a retry is over and the step is being tried again. */
+		STEP_RETRIED,
+		/** The final try of a step ended, successfully or not. */
+		STEP_COMPLETED,
+		/** A step was skipped because an earlier step failed. */
+		STEP_SKIPPED
+	}
+
+	private volatile long published = -1;
+	private long sequence;
+	private Type type;
+	private long nanoTime;
+	private Workflow workflow;
+	private Step step;
+	private int attempt;
+	private Attempt.Outcome outcome;
+	private Throwable failure;
+	private long elapsedNanos;
+	private boolean successful;
+
+	WorkflowEvent() {}
+
+	/**
+	 * Gets the position of this event in the sequence of all events published to the bus.  Gaps in the sequence are
+	 * never seen by listeners; events dropped because the bus was full are never given a sequence number.
+	 * @return the sequence number, starting at 0.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the kind of event.
+	 * @return the event type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets when the event happened.
+	 * @return the <code>System.nanoTime()</code> the event was published at.
+	 */
+	public long getNanoTime() {
+		return nanoTime;
+	}
+
+	/**
+	 * Gets the workflow the event concerns.
+	 * @return the workflow, or <code>null</code> for events about a step that belongs to no workflow.
+	 */
+	public Workflow getWorkflow() {
+		return workflow;
+	}
+
+	/**
+	 * Gets the step the event concerns.
+	 * @return the step, or <code>null</code> for workflow events.
+	 */
+	public Step getStep() {
+		return step;
+	}
+
+	/**
+	 * Gets the try of the step the event concerns.
+	 * @return the try number, starting at 1, or 0 for workflow events and skipped steps.
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+	/**
+	 * Gets how the try of the step the event concerns ended.
+	 * @return the outcome, or <code>null</code> for events not about a try that ended.
+	 */
+	public Attempt.Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * Gets why the try of the step the event concerns failed.
+	 * @return the failure, or <code>null</code> if there was none.
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Gets how long the thing the event concerns took: the execution, for completed workflows; parsing, for parsed
+	 * workflows; the wait, for retries; and the try, for ended tries.
+	 * @return the time taken, in nanoseconds, or 0 if not applicable.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Determines if the workflow or step the event concerns was successful.
+	 * @return <code>true</code> for completed workflows and steps that were successful, <code>false</code> otherwise.
+	 */
+	public boolean isSuccessful() {
+		return successful;
+	}
+
+	final void set(final Type type, final Workflow workflow, final Step step, final Attempt attempt, final long elapsedNanos, final boolean successful) {
+		this.type = type;
+		this.nanoTime = System.nanoTime();
+		this.workflow = workflow;
+		this.step = step;
+		if (attempt == null) {
+			this.attempt = 0;
+			this.outcome = null;
+			this.failure = null;
+		} else {
+			this.attempt = attempt.getNumber();
+			this.outcome = attempt.isEnded() ? attempt.getOutcome() : null;
+			this.failure = attempt.getFailure();
+		}
+		this.elapsedNanos = elapsedNanos;
+		this.successful = successful;
+	}
+
+	final void publish(final long sequence) {
+		this.sequence = sequence;
+		this.published = sequence;
+	}
+
+	final long getPublished() {
+		return published;
+	}
+
+	/**
+	 * Drops the references this event holds, so delivered events do not keep workflows and steps reachable.
+	 */
+	final void clear() {
+		workflow = null;
+		step = null;
+		failure = null;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("#%d %s workflow=%s step=%s attempt=%d outcome=%s", sequence, type,
+				workflow == null ? null : workflow.getName(), step == null ? null : step.getName(), attempt, outcome);
+	}
+}
@@ -0,0 +1,21 @@
+package com.hexagrammatic.cloudflow;
+
+/**
+ * Interface for receiving workflow and step lifecycle events from an <code>EventBus</code>.  Events are delivered in
+ * the order they were published, on the bus's own thread, in batches of however many events were waiting; a listener
+ * that is slow only delays later deliveries, never the workflows publishing them.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see EventBus#addListener(WorkflowListener)
+ */
+public interface WorkflowListener {
+
+	/**
+	 * Called for each event delivered.  The event is only valid until this method returns.
+	 * @param event the event
+	 * @param endOfBatch <code>true</code> if this is the last event of the batch being delivered, such as for
+	 * 		listeners that want to flush their own output once per batch
+	 */
+	void onEvent(WorkflowEvent event, boolean endOfBatch);
+}
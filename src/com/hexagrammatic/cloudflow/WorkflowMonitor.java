@@ -0,0 +1,256 @@
+package com.hexagrammatic.cloudflow;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Metrics implementation that tracks the workflows executing in a process and exposes them, along with per-step class
+ * counters and the state of the threads executing workflows, as a JMX MXBean.  Share one instance between every
+ * workflow, such as through <code>Workflow.setDefaultMetrics</code>, and register it with <code>register()</code>.
+ * <p>
+ * Every attribute is read from atomic counters and concurrent maps, so reading them never blocks the workflows being
+ * monitored.  Attributes describing several workflows are not a consistent snapshot of all of them at a single moment.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see WorkflowMonitorMXBean
+ */
+public class WorkflowMonitor implements Metrics, WorkflowMonitorMXBean {
+	/**
+	 * The JMX domain monitors are registered under.
+	 */
+	public static final String DOMAIN = "com.hexagrammatic.cloudflow";
+
+	private final ConcurrentMap<Workflow, Long> active = new ConcurrentHashMap<Workflow, Long>();
+	private final ConcurrentMap<Class<? extends Step>, AtomicLong[]> stepClasses = new ConcurrentHashMap<Class<? extends Step>, AtomicLong[]>();
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong halted = new AtomicLong();
+	private volatile ObjectName registeredName = null;
+
+	private static final int ATTEMPTS = 0;
+	private static final int TIMEOUTS = 1;
+	private static final int RETRIES = 2;
+	private static final int FAILURES = 3;
+	private static final int SKIPS = 4;
+	private static final int QUEUED_NANOS = 5;
+	private static final int RUN_NANOS = 6;
+	private static final int CPU_NANOS = 7;
+	private static final int ALLOCATED_BYTES = 8;
+
+	/**
+	 * Registers this monitor with the platform MBean server as <code>com.hexagrammatic.cloudflow:type=WorkflowMonitor</code>.
+	 * @return the name registered under
+	 * @throws IllegalStateException if registration fails, such as when another monitor is registered under the name.
+	 */
+	public ObjectName register() {
+		return register(null);
+	}
+
+	/**
+	 * Registers this monitor with the platform MBean server as
+	 * <code>com.hexagrammatic.cloudflow:type=WorkflowMonitor,name=<i>name</i></code>, for processes running several monitors.
+	 * @param name the name to distinguish this monitor by - if <code>null</code>, no name is added
+	 * @return the name registered under
+	 * @throws IllegalStateException if registration fails, such as when another monitor is registered under the name.
+	 */
+	public synchronized ObjectName register(final String name) {
+		Validate.isTrue(registeredName == null, "This monitor is already registered.");
+		try {
+			final ObjectName objectName = new ObjectName(name == null ?
+					String.format("%s:type=WorkflowMonitor", DOMAIN) :
+					String.format("%s:type=WorkflowMonitor,name=%s", DOMAIN, ObjectName.quote(name)));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			registeredName = objectName;
+			return objectName;
+		} catch (final JMException e) {
+			throw new IllegalStateException(String.format("Unable to register workflow monitor: %s", e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Unregisters this monitor from the platform MBean server, if it is registered.
+	 */
+	public synchronized void unregister() {
+		if (registeredName == null) return;
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(registeredName)) server.unregisterMBean(registeredName);
+		} catch (final JMException e) {
+			throw new IllegalStateException(String.format("Unable to unregister workflow monitor: %s", e.getMessage()), e);
+		} finally {
+			registeredName = null;
+		}
+	}
+
+	@Override
+	public int getActiveWorkflowCount() {
+		return active.size();
+	}
+
+	@Override
+	public long getStartedWorkflowCount() {
+		return started.get();
+	}
+
+	@Override
+	public long getCompletedWorkflowCount() {
+		return completed.get();
+	}
+
+	@Override
+	public long getFailedWorkflowCount() {
+		return failed.get();
+	}
+
+	@Override
+	public long getHaltedWorkflowCount() {
+		return halted.get();
+	}
+
+	@Override
+	public List<WorkflowStatus> getActiveWorkflows() {
+		final long now = System.nanoTime();
+		final ArrayList<WorkflowStatus> result = new ArrayList<WorkflowStatus>();
+		for (final Map.Entry<Workflow, Long> entry: active.entrySet()) {
+			final Workflow workflow = entry.getKey();
+			final long elapsed = TimeUnit.NANOSECONDS.toMillis(now - entry.getValue());
+			final Step step = workflow.getCurrentStep();
+			if (step == null) {
+				result.add(new WorkflowStatus(workflow.getName(), elapsed, null, null, 0, -1));
+			} else {
+				final Attempt attempt = step.getLastAttempt();
+				result.add(new WorkflowStatus(workflow.getName(), elapsed, step.getName(), step.getClass().getName(),
+						attempt == null ? 0 : attempt.getNumber(),
+						attempt == null ? -1 : TimeUnit.NANOSECONDS.toMillis(attempt.getTotalNanos())));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<StepClassStatus> getStepClassStatistics() {
+		final ArrayList<StepClassStatus> result = new ArrayList<StepClassStatus>();
+		for (final Map.Entry<Class<? extends Step>, AtomicLong[]> entry: stepClasses.entrySet()) {
+			final AtomicLong[] counters = entry.getValue();
+			result.add(new StepClassStatus(entry.getKey().getName(), counters[ATTEMPTS].get(), counters[TIMEOUTS].get(),
+					counters[RETRIES].get(), counters[FAILURES].get(), counters[SKIPS].get(),
+					counters[QUEUED_NANOS].get(), counters[RUN_NANOS].get(), counters[CPU_NANOS].get(), counters[ALLOCATED_BYTES].get()));
+		}
+		return result;
+	}
+
+	@Override
+	public long getThreadsCreated() {
+		return Workflow.getThreadsCreated();
+	}
+
+	@Override
+	public int getExecutorPoolSize() {
+		return Workflow.getThreadsLive();
+	}
+
+	@Override
+	public int getExecutorActiveCount() {
+		return Workflow.getThreadsBusy();
+	}
+
+	@Override
+	public int getExecutorQueueSize() {
+		return Workflow.getTriesWaiting();
+	}
+
+	@Override
+	public void workflowParsed(final Workflow workflow, final long elapsedNanos) {}
+
+	@Override
+	public void workflowStarted(final Workflow workflow) {
+		started.incrementAndGet();
+		active.put(workflow, System.nanoTime());
+	}
+
+	@Override
+	public void workflowCompleted(final Workflow workflow, final long elapsedNanos, final boolean successful) {
+		active.remove(workflow);
+		completed.incrementAndGet();
+		if (!successful) failed.incrementAndGet();
+	}
+
+	@Override
+	public void workflowHalted(final Workflow workflow) {
+		halted.incrementAndGet();
+	}
+
+	@Override
+	public void stepStarted(final Step step, final Attempt attempt) {
+		countersFor(step)[ATTEMPTS].incrementAndGet();
+	}
+
+	@Override
+	public void stepExecuting(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepExecuted(final Step step, final Attempt attempt) {}
+
+	@Override
+	public void stepCompleted(final Step step, final Attempt attempt) {
+		final AtomicLong[] counters = countersFor(step);
+		if (attempt != null && attempt.getOutcome() != Attempt.Outcome.SUCCEEDED) {
+			counters[FAILURES].incrementAndGet();
+		}
+		addTimes(counters, attempt);
+	}
+
+	@Override
+	public void stepRetried(final Step step, final Attempt attempt) {
+		final AtomicLong[] counters = countersFor(step);
+		counters[RETRIES].incrementAndGet();
+		addTimes(counters, attempt);
+	}
+
+	@Override
+	public void stepRetryWaited(final Step step, final long waitedNanos) {}
+
+	@Override
+	public void stepTimedOut(final Step step, final Attempt attempt) {
+		countersFor(step)[TIMEOUTS].incrementAndGet();
+	}
+
+	@Override
+	public void stepSkipped(final Step step) {
+		countersFor(step)[SKIPS].incrementAndGet();
+	}
+
+	private static void addTimes(final AtomicLong[] counters, final Attempt attempt) {
+		if (attempt == null) return;
+		counters[QUEUED_NANOS].addAndGet(attempt.getQueuedNanos());
+		counters[RUN_NANOS].addAndGet(Math.max(attempt.getRunNanos(), 0));
+		counters[CPU_NANOS].addAndGet(Math.max(attempt.getCpuNanos(), 0));
+		counters[ALLOCATED_BYTES].addAndGet(Math.max(attempt.getAllocatedBytes(), 0));
+	}
+
+	private AtomicLong[] countersFor(final Step step) {
+		final Class<? extends Step> stepClass = step.getClass();
+		AtomicLong[] result = stepClasses.get(stepClass);
+		if (result == null) {
+			final AtomicLong[] created = new AtomicLong[ALLOCATED_BYTES + 1];
+			for (int i = 0; i < created.length; i++) created[i] = new AtomicLong();
+			result = stepClasses.putIfAbsent(stepClass, created);
+			if (result == null) result = created;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,82 @@
+package com.hexagrammatic.cloudflow;
+
+import java.util.List;
+
+/**
+ * Management interface for <code>WorkflowMonitor</code>, describing the workflows executing in a process and the
+ * threads executing them.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see WorkflowMonitor#register()
+ */
+public interface WorkflowMonitorMXBean {
+
+	/**
+	 * Gets the number of workflows currently executing.
+	 * @return the number of executing workflows
+	 */
+	int getActiveWorkflowCount();
+
+	/**
+	 * Gets the number of workflows that have started executing.
+	 * @return the number of workflows started
+	 */
+	long getStartedWorkflowCount();
+
+	/**
+	 * Gets the number of workflows that have finished executing, successfully or not.
+	 * @return the number of workflows completed
+	 */
+	long getCompletedWorkflowCount();
+
+	/**
+	 * Gets the number of workflows that have finished executing unsuccessfully.
+	 * @return the number of workflows failed
+	 */
+	long getFailedWorkflowCount();
+
+	/**
+	 * Gets the number of workflows that have been halted.
+	 * @return the number of workflows halted
+	 */
+	long getHaltedWorkflowCount();
+
+	/**
+	 * Gets the status of every workflow currently executing, including the step each is on.
+	 * @return the workflow statuses
+	 */
+	List<WorkflowStatus> getActiveWorkflows();
+
+	/**
+	 * Gets the try, timeout, and retry counts for every step class that has been executed.
+	 * @return the step class statuses
+	 */
+	List<StepClassStatus> getStepClassStatistics();
+
+	/**
+	 * Gets the number of threads created to execute workflows.
+	 * @return the number of threads created
+	 */
+	long getThreadsCreated();
+
+	/**
+	 * Gets the number of threads executing workflows that are still alive, across every workflow's executor.
+	 * @return the executor pool size
+	 */
+	int getExecutorPoolSize();
+
+	/**
+	 * Gets the number of threads busy executing a workflow or step, across every workflow's executor.
+	 * @return the number of busy threads
+	 */
+	int getExecutorActiveCount();
+
+	/**
+	 * Gets the number of step tries submitted for execution that no thread has picked up yet, across every workflow's
+	 * executor.  Workflow executors hand tasks straight to a thread rather than queueing them, so these are the tries
+	 * waiting for a thread to start.
+	 * @return the number of tries waiting for a thread
+	 */
+	int getExecutorQueueSize();
+}
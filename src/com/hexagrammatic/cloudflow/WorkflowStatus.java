@@ -0,0 +1,93 @@
+package com.hexagrammatic.cloudflow;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of an executing workflow, as reported by <code>WorkflowMonitor</code>.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ * @see WorkflowMonitorMXBean#getActiveWorkflows()
+ */
+public final class WorkflowStatus {
+	private final String workflowName;
+	private final long elapsedMillis;
+	private final String currentStepName;
+	private final String currentStepClass;
+	private final int currentStepAttempt;
+	private final long currentStepMillis;
+
+	/**
+	 * Creates a new instance.
+	 * @param workflowName the name of the workflow
+	 * @param elapsedMillis how long the workflow has been executing, in milliseconds
+	 * @param currentStepName the name of the step being executed, or <code>null</code> if none is
+	 * @param currentStepClass the class name of the step being executed, or <code>null</code> if none is
+	 * @param currentStepAttempt the try of the step being executed, or 0 if none is
+	 * @param currentStepMillis how long the current try has taken, in milliseconds, or -1 if no step is being executed
+	 */
+	@ConstructorProperties({"workflowName", "elapsedMillis", "currentStepName", "currentStepClass", "currentStepAttempt", "currentStepMillis"})
+	public WorkflowStatus(final String workflowName, final long elapsedMillis, final String currentStepName,
+			final String currentStepClass, final int currentStepAttempt, final long currentStepMillis) {
+		this.workflowName = workflowName;
+		this.elapsedMillis = elapsedMillis;
+		this.currentStepName = currentStepName;
+		this.currentStepClass = currentStepClass;
+		this.currentStepAttempt = currentStepAttempt;
+		this.currentStepMillis = currentStepMillis;
+	}
+
+	/**
+	 * Gets the name of the workflow.
+	 * @return the workflow name - may be null.
+	 */
+	public String getWorkflowName() {
+		return workflowName;
+	}
+
+	/**
+	 * Gets how long the workflow has been executing.
+	 * @return the time executing, in milliseconds
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * Gets the name of the step being executed.
+	 * @return the step name, or <code>null</code> if no step is being executed.
+	 */
+	public String getCurrentStepName() {
+		return currentStepName;
+	}
+
+	/**
+	 * Gets the class name of the step being executed.
+	 * @return the step class name, or <code>null</code> if no step is being executed.
+	 */
+	public String getCurrentStepClass() {
+		return currentStepClass;
+	}
+
+	/**
+	 * Gets which try of the step is being executed.
+	 * @return the try number, or 0 if no step is being executed.
+	 */
+	public int getCurrentStepAttempt() {
+		return currentStepAttempt;
+	}
+
+	/**
+	 * Gets how long the current try of the step has taken, including any time spent queued.
+	 * @return the time taken, in milliseconds, or -1 if no step is being executed.
+	 */
+	public long getCurrentStepMillis() {
+		return currentStepMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Workflow '%s' (%dms): step '%s' attempt %d (%dms)", workflowName, elapsedMillis,
+				currentStepName, currentStepAttempt, currentStepMillis);
+	}
+}
@@ -0,0 +1,102 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class FlightRecorderMetricsTest {
+
+	public static class FlakyStep extends Step {
+		private final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		protected void execute() {
+			if (calls.incrementAndGet() == 1) throw new IllegalStateException();
+		}
+	}
+
+	private Recording recording;
+	private File output;
+
+	@Before
+	public void setUp() throws Exception {
+		recording = new Recording();
+		recording.enable("com.hexagrammatic.cloudflow.Parse");
+		recording.enable("com.hexagrammatic.cloudflow.WorkflowExecute");
+		recording.enable("com.hexagrammatic.cloudflow.StepAttempt");
+		recording.enable("com.hexagrammatic.cloudflow.RetryWait");
+		recording.enable("com.hexagrammatic.cloudflow.Timeout");
+		recording.enable("com.hexagrammatic.cloudflow.Halt");
+		output = File.createTempFile("cloudflow", ".jfr");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		recording.close();
+		output.delete();
+		Workflow.setDefaultMetrics(null);
+	}
+
+	@Test
+	public void testEventsCommitted() throws Exception {
+		Workflow.setDefaultMetrics(new FlightRecorderMetrics());
+		recording.start();
+		final Workflow workflow = new JsonParser().parse(
+				"{'name':'recorded', 'steps':[{'class':'" + FlakyStep.class.getName() + "', 'name':'flaky', 'maxRetries':1}]}");
+		workflow.execute();
+		recording.stop();
+		recording.dump(output.toPath());
+
+		final List<RecordedEvent> events = RecordingFile.readAllEvents(output.toPath());
+		final List<String> names = new ArrayList<String>();
+		for (final RecordedEvent event: events) {
+			names.add(event.getEventType().getName());
+		}
+		assertTrue(names.contains("com.hexagrammatic.cloudflow.Parse"));
+		assertTrue(names.contains("com.hexagrammatic.cloudflow.WorkflowExecute"));
+		assertTrue(names.contains("com.hexagrammatic.cloudflow.RetryWait"));
+
+		int attempts = 0;
+		for (final RecordedEvent event: events) {
+			if (event.getEventType().getName().equals("com.hexagrammatic.cloudflow.StepAttempt")) {
+				attempts++;
+				assertEquals("recorded", event.getString("workflowName"));
+				assertEquals("flaky", event.getString("stepName"));
+				assertEquals(attempts == 1 ? "FAILED" : "SUCCEEDED", event.getString("outcome"));
+				assertEquals(attempts, event.getInt("attempt"));
+			} else if (event.getEventType().getName().equals("com.hexagrammatic.cloudflow.WorkflowExecute")) {
+				assertTrue(event.getBoolean("successful"));
+			}
+		}
+		assertEquals(2, attempts);
+	}
+
+	@Test
+	public void testNothingRecordedWhenDisabled() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(new FlightRecorderMetrics());
+		workflow.add(new FlakyStep());
+		try {
+			workflow.execute();
+		} catch (final IllegalStateException ise) {}
+		recording.start();
+		recording.stop();
+		recording.dump(output.toPath());
+		assertTrue(RecordingFile.readAllEvents(output.toPath()).isEmpty());
+	}
+}
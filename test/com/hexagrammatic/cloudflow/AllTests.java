@@ -10,9 +10,32 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
 	UtilsTest.class,
+	DurationTest.class,
+	BinaryCodecTest.class,
 	ParameterizedTest.class,
+	ParameterCodecTest.class,
+	LockStatisticsTest.class,
+	ParameterExpressionTest.class,
+	AttemptTest.class,
 	StepTest.class,
+	DeferredStepTest.class,
 	WorkflowTest.class,
-	JsonParserTest.class
+	StepCacheTest.class,
+	CheckpointJournalTest.class,
+	ExecutionLogTest.class,
+	FileWorkQueueTest.class,
+	WorkQueueWorkerTest.class,
+	RemoteStepTest.class,
+	HistogramTest.class,
+	HistogramMetricsTest.class,
+	CompositeMetricsTest.class,
+	EventBusTest.class,
+	WorkflowMonitorTest.class,
+	TraceContextTest.class,
+	TracerTest.class,
+	StructuredValueTest.class,
+	JsonParserTest.class,
+	StepIndexTest.class,
+	BinaryParserTest.class
 })
 public class AllTests {}
@@ -0,0 +1,213 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Guards the allocation behavior of hot paths, using the JVM's per-thread allocation counters.  Each test warms a path
+ * up, measures the bytes allocated over many operations, and fails if the average exceeds the path's budget.  Paths
+ * with a budget of zero must stay allocation-free; the other budgets are set with some headroom over what the path
+ * allocated when the budget was recorded, so only real regressions trip them.  Lower a budget when a path gets leaner.
+ * <p>
+ * The tests are skipped on JVMs without thread allocation counters.  They are also not part of <code>AllTests</code>,
+ * since coverage instrumentation changes what the measured code allocates; the build runs them separately, against
+ * the uninstrumented classes.
+ *
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class AllocationTest {
+	private static final int WARMUP = 20000;
+	private static final int OPERATIONS = 100000;
+
+	/** Budget, in bytes per call, for reading a parameter present on the object. */
+	private static final long GET_PARAMETER_BUDGET = 0;
+	/** Budget, in bytes per call, for reading a workflow parameter through a step that lacks it. */
+	private static final long STEP_FALLBACK_BUDGET = 0;
+	/** Budget, in bytes per step, for executing a step that does nothing, across every thread involved. */
+	private static final long EXECUTE_STEP_BUDGET = 1024;
+	/** Budget, in bytes per call, for creating a step with a few parameters from its JSON definition. */
+	private static final long POPULATE_STEP_BUDGET = 1024;
+	/** Budget, in bytes per event, for recording a step event to an execution log. */
+	private static final long EXECUTION_LOG_BUDGET = 0;
+
+	private com.sun.management.ThreadMXBean threads;
+
+	@Before
+	public void setUp() {
+		ThreadResources.enable();
+		Assume.assumeTrue(ThreadResources.isAllocatedBytesAvailable());
+		threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	}
+
+	private static void assertWithinBudget(final String path, final long budget, final long bytes, final long operations) {
+		final double perOperation = (double)bytes / operations;
+		assertTrue(String.format("%s allocated %.1f bytes per operation, over its budget of %d.", path, perOperation, budget),
+				perOperation <= budget + (budget == 0 ? 0.01 : 0));
+	}
+
+	@Test
+	public void testGetParameter() {
+		final Parameterized target = new Parameterized() {};
+		final String[] keys = new String[16];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "key" + i;
+			target.addParameter(keys[i], "value");
+		}
+		Object sink = null;
+		for (int i = 0; i < WARMUP; i++) {
+			sink = target.getParameter(keys[i & 15]);
+		}
+		final long before = ThreadResources.allocatedBytes();
+		for (int i = 0; i < OPERATIONS; i++) {
+			sink = target.getParameter(keys[i & 15]);
+		}
+		final long allocated = ThreadResources.allocatedBytes() - before;
+		assertNotNull(sink);
+		assertWithinBudget("Parameterized.getParameter", GET_PARAMETER_BUDGET, allocated, OPERATIONS);
+	}
+
+	@Test
+	public void testStepParameterFallback() {
+		final Workflow workflow = new Workflow();
+		workflow.addParameter("region", "us-east-1");
+		final Step step = new Step() {
+			@Override
+			protected void execute() {}
+		};
+		step.addParameter("local", "value");
+		workflow.add(step);
+		Object sink = null;
+		for (int i = 0; i < WARMUP; i++) {
+			sink = step.getParameter("region");
+		}
+		final long before = ThreadResources.allocatedBytes();
+		for (int i = 0; i < OPERATIONS; i++) {
+			sink = step.getParameter("region");
+		}
+		final long allocated = ThreadResources.allocatedBytes() - before;
+		assertEquals("us-east-1", sink);
+		assertWithinBudget("Step.getParameter fallback", STEP_FALLBACK_BUDGET, allocated, OPERATIONS);
+	}
+
+	@Test
+	public void testExecuteStep() throws Exception {
+		final int steps = 2000;
+		for (int i = 0; i < 3; i++) {
+			workflowOf(steps).execute();
+		}
+		final Workflow workflow = workflowOf(steps);
+		final Map<Long, Long> before = allocatedByThread();
+		workflow.execute();
+		final long allocated = allocatedSince(before);
+		assertTrue(workflow.isSuccessful());
+		assertWithinBudget("Workflow.executeStep", EXECUTE_STEP_BUDGET, allocated, steps);
+	}
+
+	@Test
+	public void testPopulateStep() throws Exception {
+		final JsonParser parser = new JsonParser();
+		for (int i = 0; i < WARMUP / 10; i++) {
+			parser.populateStep(definition(i));
+		}
+		final int operations = OPERATIONS / 10;
+		final JsonObject[] definitions = new JsonObject[operations];
+		for (int i = 0; i < operations; i++) {
+			definitions[i] = definition(i);
+		}
+		Step sink = null;
+		final long before = ThreadResources.allocatedBytes();
+		for (int i = 0; i < operations; i++) {
+			sink = parser.populateStep(definitions[i]);
+		}
+		final long allocated = ThreadResources.allocatedBytes() - before;
+		assertNotNull(sink);
+		assertWithinBudget("JsonParser.populateStep", POPULATE_STEP_BUDGET, allocated, operations);
+	}
+
+	@Test
+	public void testExecutionLog() throws Exception {
+		final File directory = File.createTempFile("execution", ".log");
+		directory.delete();
+		final ExecutionLog log = new ExecutionLog(directory, ExecutionLogEntry.SIZE * (WARMUP + OPERATIONS + 1));
+		try {
+			final Workflow workflow = workflowOf(1);
+			final Step step = workflow.getStep(0);
+			step.start();
+			final Attempt attempt = step.getLastAttempt();
+			for (int i = 0; i < WARMUP; i++) {
+				log.stepStarted(step, attempt);
+			}
+			final long before = ThreadResources.allocatedBytes();
+			for (int i = 0; i < OPERATIONS; i++) {
+				log.stepStarted(step, attempt);
+			}
+			final long allocated = ThreadResources.allocatedBytes() - before;
+			assertEquals(0, log.getDroppedCount());
+			assertWithinBudget("ExecutionLog.stepStarted", EXECUTION_LOG_BUDGET, allocated, OPERATIONS);
+		} finally {
+			log.close();
+			for (final File file: directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private static Workflow workflowOf(final int steps) {
+		final Workflow workflow = new Workflow();
+		for (int i = 0; i < steps; i++) {
+			workflow.add(new JsonParserTest.SimpleStep());
+		}
+		return workflow;
+	}
+
+	private static JsonObject definition(final int index) {
+		final JsonObject obj = new JsonObject();
+		obj.add("class", new JsonPrimitive(JsonParserTest.SimpleStep.class.getName()));
+		obj.add("name", new JsonPrimitive("step"));
+		obj.add("timeout", new JsonPrimitive("30 SECONDS"));
+		obj.add("maxRetries", new JsonPrimitive(3));
+		obj.add("bucket", new JsonPrimitive("bucket"));
+		obj.add("count", new JsonPrimitive(index));
+		obj.add("enabled", new JsonPrimitive(true));
+		return obj;
+	}
+
+	/**
+	 * Reads the bytes allocated so far by every live thread, since executing a workflow allocates on its own threads.
+	 */
+	private Map<Long, Long> allocatedByThread() {
+		final long[] ids = threads.getAllThreadIds();
+		final long[] bytes = threads.getThreadAllocatedBytes(ids);
+		final Map<Long, Long> result = new HashMap<Long, Long>();
+		for (int i = 0; i < ids.length; i++) {
+			if (bytes[i] >= 0) result.put(ids[i], bytes[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Adds up the bytes allocated by every live thread since <code>allocatedByThread</code> was called, counting
+	 * threads started since then from zero.  Threads that died in between are lost, so this can only under-count.
+	 */
+	private long allocatedSince(final Map<Long, Long> before) {
+		long total = 0;
+		for (final Map.Entry<Long, Long> entry: allocatedByThread().entrySet()) {
+			final Long start = before.get(entry.getKey());
+			total += entry.getValue() - (start == null ? 0 : start);
+		}
+		return total;
+	}
+}
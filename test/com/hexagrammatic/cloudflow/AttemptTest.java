@@ -0,0 +1,109 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class AttemptTest {
+
+	@Test
+	public void testInProgress() {
+		final Attempt attempt = new Attempt(1, System.nanoTime());
+		assertEquals(1, attempt.getNumber());
+		assertFalse(attempt.isEnded());
+		assertEquals(Attempt.Outcome.IN_PROGRESS, attempt.getOutcome());
+		assertEquals(-1, attempt.getRunningNanos());
+		assertEquals(-1, attempt.getEndNanos());
+		assertEquals(-1, attempt.getRunNanos());
+		assertTrue(attempt.getQueuedNanos() >= 0);
+		assertNull(attempt.getFailure());
+	}
+
+	@Test
+	public void testQueuedAndRunTimes() {
+		final Attempt attempt = new Attempt(1, 1000);
+		attempt.running(1500);
+		attempt.end(4000, null);
+		assertTrue(attempt.isEnded());
+		assertEquals(Attempt.Outcome.SUCCEEDED, attempt.getOutcome());
+		assertEquals(500, attempt.getQueuedNanos());
+		assertEquals(2500, attempt.getRunNanos());
+		assertEquals(3000, attempt.getTotalNanos());
+	}
+
+	@Test
+	public void testFinishedBeforeEnd() {
+		final Attempt attempt = new Attempt(1, 1000);
+		attempt.running(1500);
+		attempt.finished(3500);
+		attempt.finished(3900);
+		attempt.end(4000, null);
+		assertEquals(3500, attempt.getFinishedNanos());
+		assertEquals(500, attempt.getQueuedNanos());
+		assertEquals(2000, attempt.getRunNanos());
+		assertEquals(3000, attempt.getTotalNanos());
+	}
+
+	@Test
+	public void testFinishedAfterTimeout() {
+		final Attempt attempt = new Attempt(1, 1000);
+		attempt.running(1500);
+		attempt.end(2000, new TimeoutException());
+		assertEquals(-1, attempt.getFinishedNanos());
+		assertEquals(500, attempt.getRunNanos());
+		attempt.finished(9000);
+		assertEquals(7500, attempt.getRunNanos());
+		assertEquals(1000, attempt.getTotalNanos());
+	}
+
+	@Test
+	public void testResourcesUsed() {
+		final Attempt attempt = new Attempt(1, 1000);
+		assertEquals(-1, attempt.getCpuNanos());
+		assertEquals(-1, attempt.getAllocatedBytes());
+		attempt.used(700, 4096);
+		attempt.used(900, 8192);
+		assertEquals(700, attempt.getCpuNanos());
+		assertEquals(4096, attempt.getAllocatedBytes());
+	}
+
+	@Test
+	public void testNeverStartedRunning() {
+		final Attempt attempt = new Attempt(2, 1000);
+		attempt.end(3000, new TimeoutException());
+		assertEquals(Attempt.Outcome.TIMED_OUT, attempt.getOutcome());
+		assertEquals(2000, attempt.getQueuedNanos());
+		assertEquals(-1, attempt.getRunNanos());
+	}
+
+	@Test
+	public void testOutcomes() {
+		Attempt attempt = new Attempt(1, 0);
+		attempt.end(1, new InterruptedException());
+		assertEquals(Attempt.Outcome.INTERRUPTED, attempt.getOutcome());
+
+		attempt = new Attempt(1, 0);
+		final RuntimeException failure = new RuntimeException();
+		attempt.end(1, failure);
+		assertEquals(Attempt.Outcome.FAILED, attempt.getOutcome());
+		assertSame(failure, attempt.getFailure());
+	}
+
+	@Test
+	public void testOnlyFirstEndRecorded() {
+		final Attempt attempt = new Attempt(1, 0);
+		attempt.running(10);
+		attempt.running(20);
+		attempt.end(30, new TimeoutException());
+		attempt.end(40, null);
+		assertEquals(10, attempt.getRunningNanos());
+		assertEquals(30, attempt.getEndNanos());
+		assertEquals(Attempt.Outcome.TIMED_OUT, attempt.getOutcome());
+	}
+}
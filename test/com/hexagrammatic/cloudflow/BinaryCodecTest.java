@@ -0,0 +1,78 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class BinaryCodecTest {
+
+	private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private DataOutputStream out = new DataOutputStream(bytes);
+
+	private DataInputStream in() {
+		return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+
+	@Test
+	public void testVarLongRoundTrip() throws Exception {
+		final long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE};
+		for (final long value: values) BinaryCodec.writeVarLong(out, value);
+		final DataInputStream in = in();
+		for (final long value: values) assertEquals(value, BinaryCodec.readVarLong(in));
+	}
+
+	@Test
+	public void testSmallVarLongIsOneByte() throws Exception {
+		BinaryCodec.writeVarLong(out, 127);
+		assertEquals(1, bytes.size());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNegativeVarLong() throws Exception {
+		BinaryCodec.writeVarLong(out, -1);
+	}
+
+	@Test
+	public void testSignedVarLongRoundTrip() throws Exception {
+		final long[] values = {0, -1, 1, -64, 63, Long.MIN_VALUE, Long.MAX_VALUE};
+		for (final long value: values) BinaryCodec.writeSignedVarLong(out, value);
+		final DataInputStream in = in();
+		for (final long value: values) assertEquals(value, BinaryCodec.readSignedVarLong(in));
+	}
+
+	@Test
+	public void testStringRoundTrip() throws Exception {
+		BinaryCodec.writeString(out, null);
+		BinaryCodec.writeString(out, "");
+		BinaryCodec.writeString(out, "h\u00e9llo \u2603");
+		final DataInputStream in = in();
+		assertNull(BinaryCodec.readString(in));
+		assertEquals("", BinaryCodec.readString(in));
+		assertEquals("h\u00e9llo \u2603", BinaryCodec.readString(in));
+	}
+
+	@Test
+	public void testSupported() {
+		assertTrue(BinaryCodec.isSupported(null));
+		assertTrue(BinaryCodec.isSupported("string"));
+		assertTrue(BinaryCodec.isSupported(1));
+		assertTrue(BinaryCodec.isSupported(false));
+		assertFalse(BinaryCodec.isSupported(new Object()));
+	}
+
+	@Test(expected=IOException.class)
+	public void testUnknownTag() throws Exception {
+		out.writeByte(127);
+		BinaryCodec.readValue(in());
+	}
+}
@@ -0,0 +1,274 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class BinaryParserTest {
+
+	private BinaryWriter writer;
+	private BinaryParser parser;
+
+	@Before
+	public void setUp() throws Exception {
+		writer = new BinaryWriter();
+		parser = new BinaryParser();
+	}
+
+	@Test
+	public void testEmptyWorkflowRoundTrip() throws Exception {
+		final Workflow workflow = parser.parse(writer.toByteArray(new Workflow()));
+		assertNull(workflow.getName());
+		assertEquals(-1, workflow.getTimeoutValue());
+		assertTrue(workflow.getSteps().isEmpty());
+		assertTrue(workflow.getParameterNames().isEmpty());
+	}
+
+	@Test
+	public void testWorkflowRoundTrip() throws Exception {
+		final Workflow source = new Workflow();
+		source.setName("name");
+		source.setTimeout("5 HOURS");
+		source.addParameter("string", "value");
+		source.addParameter("int", 12);
+		source.addParameter("long", -5000000000L);
+		source.addParameter("double", 1.5d);
+		source.addParameter("float", 2.5f);
+		source.addParameter("bool", true);
+		source.addParameter("decimal", new BigDecimal("3.25"));
+
+		final Workflow workflow = parser.parse(writer.toByteArray(source));
+		assertEquals("name", workflow.getName());
+		assertEquals(5, workflow.getTimeoutValue());
+		assertEquals(TimeUnit.HOURS, workflow.getTimeoutUnits());
+		assertEquals("value", workflow.getParameter("string"));
+		assertEquals(12, workflow.getParameter("int"));
+		assertEquals(-5000000000L, workflow.getParameter("long"));
+		assertEquals(1.5d, workflow.getParameter("double"));
+		assertEquals(2.5f, workflow.getParameter("float"));
+		assertEquals(true, workflow.getParameter("bool"));
+		assertEquals(new BigDecimal("3.25"), workflow.getParameter("decimal"));
+	}
+
+	@Test
+	public void testStepRoundTrip() throws Exception {
+		final Workflow source = new Workflow();
+		final Step first = new JsonParserTest.SimpleStep();
+		first.setName("first");
+		first.setTimeout("10 MINUTES");
+		first.setMaxRetries(3);
+		first.setWaitBetweenTries("2 SECONDS");
+		first.setOptional(true);
+		first.addParameter("key", "value");
+		source.add(first);
+		final Step second = new JsonParserTest.SimpleStep();
+		second.setAlwaysRun(true);
+		source.add(second);
+
+		final Workflow workflow = parser.parse(writer.toByteArray(source));
+		final ArrayList<Step> steps = new ArrayList<Step>(workflow.getSteps());
+		assertEquals(2, steps.size());
+
+		Step step = steps.get(0);
+		assertEquals(JsonParserTest.SimpleStep.class, step.getClass());
+		assertEquals("first", step.getName());
+		assertEquals(10, step.getTimeoutValue());
+		assertEquals(TimeUnit.MINUTES, step.getTimeoutUnits());
+		assertEquals(3, step.getMaxRetries());
+		assertEquals(2, step.getWaitBetweenTriesValue());
+		assertEquals(TimeUnit.SECONDS, step.getWaitBetweenTriesUnits());
+		assertTrue(step.isOptional());
+		assertFalse(step.isAlwaysRun());
+		assertEquals("value", step.getParameter("key"));
+		assertFalse(workflow.hasParameter("key"));
+		assertEquals(workflow, step.getWorkflow());
+
+		step = steps.get(1);
+		assertEquals("SimpleStep", step.getName());
+		assertEquals(-1, step.getTimeoutValue());
+		assertEquals(-1, step.getWaitBetweenTriesValue());
+		assertFalse(step.isOptional());
+		assertTrue(step.isAlwaysRun());
+	}
+
+	@Test
+	public void testJsonParsedRoundTrip() throws Exception {
+		final Workflow source = new JsonParser().parse(
+				"{'name':'wf', 'timeout':'1 MINUTE', 'count':42, 'ratio':0.5, " +
+				"'steps':[{'class':'" + JsonParserTest.SimpleStep.class.getName() + "', 'maxRetries':2, 'param':'p'}]}");
+		final Workflow workflow = parser.parse(writer.toByteArray(source));
+		assertEquals("wf", workflow.getName());
+		assertEquals(42, ((Number)workflow.getParameter("count")).intValue());
+		assertEquals(0.5, ((Number)workflow.getParameter("ratio")).doubleValue(), 0.0);
+		final Step step = workflow.getSteps().iterator().next();
+		assertEquals(2, step.getMaxRetries());
+		assertEquals("p", step.getParameter("param"));
+	}
+
+	@Test
+	public void testStructuredParameterRoundTrip() throws Exception {
+		final Workflow source = new JsonParser().parse("{'config':{'nested':[1, 2, 3]}}");
+		final Workflow workflow = parser.parse(writer.toByteArray(source));
+		final StructuredValue value = (StructuredValue)workflow.getParameter("config");
+		assertEquals(source.getParameter("config"), value);
+		assertEquals(3, ((java.util.List<?>)value.getAsMap().get("nested")).size());
+	}
+
+	@Test
+	public void testExpressionParameterRoundTrip() throws Exception {
+		final Workflow source = new Workflow();
+		source.addParameter("region", "us-east-1");
+		source.addParameter("host", ParameterExpression.compile("${region}.example.com"));
+		final Workflow workflow = parser.parse(writer.toByteArray(source));
+		assertEquals("us-east-1.example.com", workflow.getParameter("host"));
+		workflow.addParameter("region", "eu-west-1");
+		assertEquals("eu-west-1.example.com", workflow.getParameter("host"));
+	}
+
+	@Test
+	public void testStreamRoundTrip() throws Exception {
+		final Workflow source = new Workflow();
+		source.setName("streamed");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(source, out);
+		assertEquals("streamed", parser.parse(new ByteArrayInputStream(out.toByteArray())).getName());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnsupportedParameterType() throws Exception {
+		final Workflow source = new Workflow();
+		source.addParameter("object", new Object());
+		writer.toByteArray(source);
+	}
+
+	@Test
+	public void testRemovedParameterNotWritten() throws Exception {
+		final Workflow source = new Workflow();
+		source.addParameter("key", "value");
+		source.removeParameter("key");
+		assertTrue(parser.parse(writer.toByteArray(source)).getParameterNames().isEmpty());
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testBadMagic() throws Exception {
+		parser.parse(new byte[] {1, 2, 3, 4, 5});
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testBadVersion() throws Exception {
+		final byte[] data = writer.toByteArray(new Workflow());
+		data[4] = 99;
+		parser.parse(data);
+	}
+
+	@Test
+	public void testVersionOneRead() throws Exception {
+		final Workflow source = new Workflow();
+		source.setName("old");
+		source.addParameter("key", "value");
+		final byte[] data = writer.toByteArray(source);
+		assertEquals(BinaryWriter.VERSION, data[4]);
+		data[4] = 1;
+		final Workflow workflow = parser.parse(data);
+		assertEquals("old", workflow.getName());
+		assertEquals("value", workflow.getParameter("key"));
+	}
+
+	@Test
+	public void testTimeUnitTagsFixed() throws Exception {
+		final Workflow seconds = new Workflow();
+		seconds.setTimeoutValue(1);
+		seconds.setTimeoutUnits(TimeUnit.SECONDS);
+		final Workflow hours = new Workflow();
+		hours.setTimeoutValue(1);
+		hours.setTimeoutUnits(TimeUnit.HOURS);
+		final byte[] secondsData = writer.toByteArray(seconds);
+		final byte[] hoursData = writer.toByteArray(hours);
+		assertEquals(secondsData.length, hoursData.length);
+		int differing = -1;
+		for (int i = 0; i < secondsData.length; i++) {
+			if (secondsData[i] != hoursData[i]) {
+				assertEquals(-1, differing);
+				differing = i;
+			}
+		}
+		assertEquals(3, secondsData[differing]);
+		assertEquals(5, hoursData[differing]);
+
+		for (final TimeUnit units: TimeUnit.values()) {
+			final Workflow source = new Workflow();
+			source.setTimeoutValue(2);
+			source.setTimeoutUnits(units);
+			assertEquals(units, parser.parse(writer.toByteArray(source)).getTimeoutUnits());
+		}
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testUnknownTimeUnitTag() throws Exception {
+		final Workflow source = new Workflow();
+		source.setTimeoutValue(1);
+		source.setTimeoutUnits(TimeUnit.DAYS);
+		final byte[] data = writer.toByteArray(source);
+		// The unit tag is followed only by the empty step and parameter counts
+		assertEquals(6, data[data.length - 3]);
+		data[data.length - 3] = 7;
+		parser.parse(data);
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testTruncatedData() throws Exception {
+		final Workflow source = new Workflow();
+		source.setName("truncated");
+		final byte[] data = writer.toByteArray(source);
+		final byte[] truncated = new byte[data.length - 3];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		parser.parse(truncated);
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testMissingStepClass() throws Exception {
+		final Workflow source = new Workflow();
+		source.add(new JsonParserTest.SimpleStep());
+		final byte[] data = writer.toByteArray(source);
+		// Corrupt the first character of the step's class name.
+		final String classname = JsonParserTest.SimpleStep.class.getName();
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] == classname.charAt(0) && data[i+1] == classname.charAt(1)) {
+				data[i] = 'X';
+				break;
+			}
+		}
+		parser.parse(data);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNullData() throws Exception {
+		parser.parse((byte[])null);
+	}
+
+	@Test
+	public void testHooksCalled() throws Exception {
+		final Workflow source = new Workflow();
+		source.add(new JsonParserTest.SimpleStep());
+		final ArrayList<String> calls = new ArrayList<String>();
+		parser = new BinaryParser() {
+			@Override protected void pre(final Workflow workflow) { calls.add("pre-workflow"); }
+			@Override protected void post(final Workflow workflow) { calls.add("post-workflow"); }
+			@Override protected void pre(final Step step) { calls.add("pre-step"); }
+			@Override protected void post(final Step step) { calls.add("post-step"); }
+		};
+		parser.parse(writer.toByteArray(source));
+		assertEquals("[pre-workflow, pre-step, post-step, post-workflow]", calls.toString());
+	}
+}
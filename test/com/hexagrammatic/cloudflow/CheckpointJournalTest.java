@@ -0,0 +1,397 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class CheckpointJournalTest {
+
+	private File file;
+	private CheckpointJournal journal;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("checkpoints", ".journal");
+		file.deleteOnExit();
+		file.delete();
+		journal = new CheckpointJournal(file);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		journal.close();
+	}
+
+	private static Step named(final String name, final boolean fail) {
+		final Step step = new Step() {
+			@Override
+			protected void execute() {
+				addParameter(getName(), Integer.valueOf(getTimesTried()));
+				if (fail) throw new IllegalStateException("Failed on purpose.");
+			}
+		};
+		step.setName(name);
+		return step;
+	}
+
+	@Test
+	public void testCheckpointsEachStep() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.setName("journaled");
+		workflow.addParameter("region", "us-east-1");
+		workflow.add(named("first", false));
+		workflow.add(named("second", false));
+		workflow.setCheckpointJournal(journal);
+		workflow.execute();
+
+		final List<Checkpoint> checkpoints = CheckpointJournal.read(file);
+		assertEquals(3, checkpoints.size());
+		assertEquals(3, journal.getRecordCount());
+		assertTrue(journal.getSyncCount() >= 1);
+		assertTrue(journal.getSyncCount() <= 3);
+
+		final Checkpoint first = checkpoints.get(0);
+		assertEquals(workflow.getId(), first.getWorkflowId());
+		assertEquals("journaled", first.getWorkflowName());
+		assertEquals(1, first.getCompletedSteps());
+		assertEquals("first", first.getStepName());
+		assertEquals(Checkpoint.StepStatus.SUCCEEDED, first.getStepStatus());
+		assertFalse(first.isFinished());
+		assertEquals("us-east-1", first.getParameters().get("region"));
+		assertEquals(Integer.valueOf(1), first.getParameters().get("first"));
+		assertNull(first.getParameters().get("second"));
+
+		final Checkpoint second = checkpoints.get(1);
+		assertEquals(2, second.getCompletedSteps());
+		assertEquals(Integer.valueOf(1), second.getParameters().get("second"));
+		assertTrue(second.getElapsedNanos() >= first.getElapsedNanos());
+
+		final Checkpoint last = checkpoints.get(2);
+		assertTrue(last.isFinished());
+		assertTrue(last.isSuccessful());
+		assertEquals(2, last.getCompletedSteps());
+		assertNull(last.getStepName());
+		assertNull(last.getStepStatus());
+	}
+
+	@Test
+	public void testCheckpointsFailure() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.add(named("ok", false));
+		workflow.add(named("broken", true));
+		workflow.add(named("never", false));
+		workflow.setCheckpointJournal(journal);
+		try {
+			workflow.execute();
+			fail("Expected the workflow to fail.");
+		} catch (final IllegalStateException e) {
+			assertEquals("Failed on purpose.", e.getMessage());
+		}
+
+		final List<Checkpoint> checkpoints = CheckpointJournal.read(file);
+		assertEquals(4, checkpoints.size());
+		assertEquals(Checkpoint.StepStatus.SUCCEEDED, checkpoints.get(0).getStepStatus());
+		assertEquals(Checkpoint.StepStatus.FAILED, checkpoints.get(1).getStepStatus());
+		assertEquals(Checkpoint.StepStatus.SKIPPED, checkpoints.get(2).getStepStatus());
+		assertTrue(checkpoints.get(3).isFinished());
+		assertFalse(checkpoints.get(3).isSuccessful());
+	}
+
+	@Test
+	public void testUnsupportedParameterFailsWorkflow() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.addParameter("unencodable", new Object());
+		workflow.add(named("only", false));
+		workflow.setCheckpointJournal(journal);
+		try {
+			workflow.execute();
+			fail("Expected the checkpoint to fail.");
+		} catch (final IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("unencodable"));
+		}
+		assertFalse(workflow.isSuccessful());
+		assertTrue(CheckpointJournal.read(file).isEmpty());
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		final int threads = 8;
+		final int records = 100;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final List<Thread> writers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final Thread writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < records; i++) {
+							final Workflow workflow = new Workflow();
+							workflow.add(named("step", false));
+							journal.append(Checkpoint.stepEnded(workflow, 0, false, i));
+						}
+					} catch (final Throwable e) {
+						error.set(e);
+					}
+				}
+			});
+			writer.start();
+			writers.add(writer);
+		}
+		start.countDown();
+		for (final Thread writer: writers) {
+			writer.join();
+		}
+		assertNull(error.get());
+		assertEquals(threads * records, journal.getRecordCount());
+		assertTrue(journal.getSyncCount() <= threads * records);
+		assertEquals(threads * records, CheckpointJournal.read(file).size());
+	}
+
+	@Test
+	public void testTornRecordIsCutOff() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.add(named("step", false));
+		journal.append(Checkpoint.stepEnded(workflow, 0, false, 1));
+		journal.append(Checkpoint.stepEnded(workflow, 0, false, 2));
+		journal.close();
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 3);
+		} finally {
+			raf.close();
+		}
+		assertEquals(1, CheckpointJournal.read(file).size());
+
+		journal = new CheckpointJournal(file);
+		journal.append(Checkpoint.stepEnded(workflow, 0, false, 3));
+		final List<Checkpoint> checkpoints = CheckpointJournal.read(file);
+		assertEquals(2, checkpoints.size());
+		assertEquals(1, checkpoints.get(0).getElapsedNanos());
+		assertEquals(3, checkpoints.get(1).getElapsedNanos());
+	}
+
+	@Test
+	public void testCorruptRecordEndsRead() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.add(named("step", false));
+		journal.append(Checkpoint.stepEnded(workflow, 0, false, 1));
+		journal.append(Checkpoint.stepEnded(workflow, 0, false, 2));
+		journal.close();
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(raf.length() - 1);
+			final int last = raf.read();
+			raf.seek(raf.length() - 1);
+			raf.write(last ^ 0xFF);
+		} finally {
+			raf.close();
+		}
+		assertEquals(1, CheckpointJournal.read(file).size());
+	}
+
+	@Test(expected=IOException.class)
+	public void testNotAJournal() throws Exception {
+		final File other = File.createTempFile("checkpoints", ".txt");
+		other.deleteOnExit();
+		final FileOutputStream out = new FileOutputStream(other);
+		try {
+			out.write("not a journal".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		new CheckpointJournal(other);
+	}
+
+	@Test(expected=IOException.class)
+	public void testAppendAfterClose() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.add(named("step", false));
+		journal.close();
+		journal.append(Checkpoint.stepEnded(workflow, 0, false, 1));
+	}
+
+	private static Workflow counted(final AtomicInteger[] runs) {
+		final Workflow workflow = new Workflow();
+		workflow.setName("resumable");
+		workflow.addParameter("stale", "definition");
+		for (int i = 0; i < runs.length; i++) {
+			final AtomicInteger count = runs[i];
+			final Step step = new Step() {
+				@Override
+				protected void execute() {
+					count.incrementAndGet();
+					addParameter(getName(), "done");
+				}
+			};
+			step.setName("step" + i);
+			workflow.add(step);
+		}
+		return workflow;
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		final AtomicInteger[] before = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+		final Workflow original = counted(before);
+		original.setCheckpointJournal(journal);
+		original.execute();
+		final Checkpoint afterFirst = CheckpointJournal.read(file).get(0);
+		assertEquals(1, afterFirst.getCompletedSteps());
+
+		final AtomicInteger[] after = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+		final Workflow resumed = counted(after);
+		resumed.addParameter("extra", "definition");
+		resumed.setCheckpointJournal(journal);
+		resumed.resume(afterFirst);
+
+		assertTrue(resumed.isSuccessful());
+		assertEquals(original.getId(), resumed.getId());
+		assertEquals(0, after[0].get());
+		assertEquals(1, after[1].get());
+		assertEquals(1, after[2].get());
+
+		final List<Step> steps = new ArrayList<Step>(resumed.getSteps());
+		assertTrue(steps.get(0).wasResumed());
+		assertTrue(steps.get(0).isCompleted());
+		assertTrue(steps.get(0).isSuccessful());
+		assertEquals(0, steps.get(0).getTimesTried());
+		assertFalse(steps.get(1).wasResumed());
+		assertEquals("done", resumed.getParameter("step0"));
+		assertEquals("definition", resumed.getParameter("stale"));
+		assertFalse(resumed.hasParameter("extra"));
+
+		final Map<UUID, Checkpoint> latest = CheckpointJournal.latest(file);
+		assertEquals(1, latest.size());
+		final Checkpoint last = latest.get(original.getId());
+		assertTrue(last.isFinished());
+		assertTrue(last.isSuccessful());
+		assertTrue(last.getElapsedNanos() >= afterFirst.getElapsedNanos());
+	}
+
+	@Test
+	public void testResumeUsesRemainingTimeout() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.setTimeoutValue(1);
+		workflow.setTimeoutUnits(TimeUnit.SECONDS);
+		workflow.add(named("done", false));
+		final Step slow = new Step() {
+			@Override
+			protected void execute() throws InterruptedException {
+				Thread.sleep(500);
+			}
+		};
+		workflow.add(slow);
+		final Checkpoint checkpoint = Checkpoint.stepEnded(workflow, 0, false, TimeUnit.MILLISECONDS.toNanos(900));
+
+		final Workflow resumed = new Workflow();
+		resumed.setTimeoutValue(1);
+		resumed.setTimeoutUnits(TimeUnit.SECONDS);
+		resumed.add(named("done", false));
+		resumed.add(slow);
+		final long start = System.nanoTime();
+		try {
+			resumed.resume(checkpoint);
+			fail("Expected the resumed workflow to time out.");
+		} catch (final TimeoutException e) {
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 450);
+		}
+	}
+
+	@Test
+	public void testResumeWithTimeoutUsedUp() throws Exception {
+		final AtomicInteger[] runs = {new AtomicInteger(), new AtomicInteger()};
+		final Workflow workflow = counted(runs);
+		workflow.setTimeoutValue(1);
+		workflow.setTimeoutUnits(TimeUnit.SECONDS);
+		final Checkpoint checkpoint = Checkpoint.stepEnded(workflow, 0, false, TimeUnit.SECONDS.toNanos(2));
+
+		final Workflow resumed = counted(runs);
+		resumed.setTimeoutValue(1);
+		resumed.setTimeoutUnits(TimeUnit.SECONDS);
+		final HistogramMetrics metrics = new HistogramMetrics();
+		resumed.setMetrics(metrics);
+		try {
+			resumed.resume(checkpoint);
+			fail("Expected the resumed workflow to time out.");
+		} catch (final TimeoutException e) {
+			assertEquals("Execution of workflow 'resumable' timed out after 1 second", e.getMessage());
+		}
+		assertEquals(0, runs[1].get());
+		assertEquals(0, metrics.getWorkflowsStarted());
+		assertFalse(resumed.isExecuting());
+	}
+
+	@Test
+	public void testResumeLazilyParsed() throws Exception {
+		final String definition = "[{'class':'indexed'}, {'class':'indexed'}]";
+		final JsonParser parser = new JsonParser();
+		parser.setLazySteps(true);
+		final Workflow original = parser.parse(definition);
+		original.setCheckpointJournal(journal);
+		original.execute();
+		final Checkpoint afterFirst = CheckpointJournal.read(file).get(0);
+		assertEquals("IndexedStep", afterFirst.getStepName());
+
+		final Workflow resumed = parser.parse(definition);
+		resumed.resume(afterFirst);
+		assertTrue(resumed.isSuccessful());
+		final List<Step> steps = new ArrayList<Step>(resumed.getSteps());
+		assertTrue(steps.get(0).wasResumed());
+		assertFalse(steps.get(1).wasResumed());
+		assertEquals(StepIndexTest.IndexedStep.class, steps.get(1).getClass());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testResumeFinished() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.add(named("step", false));
+		workflow.resume(Checkpoint.workflowEnded(workflow, true, 1));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testResumeFailed() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.add(named("step", false));
+		workflow.add(named("next", false));
+		workflow.resume(Checkpoint.stepEnded(workflow, 0, true, 1));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testResumeMismatch() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.add(named("step", false));
+		final Workflow other = new Workflow();
+		other.add(named("different", false));
+		other.resume(Checkpoint.stepEnded(workflow, 0, false, 1));
+	}
+
+	@Test
+	public void testWorkflowIds() {
+		assertNotNull(new Workflow().getId());
+		assertFalse(new Workflow().getId().equals(new Workflow().getId()));
+	}
+}
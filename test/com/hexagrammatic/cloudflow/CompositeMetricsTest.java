@@ -0,0 +1,31 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class CompositeMetricsTest {
+
+	@Test
+	public void testEventsPassedToAll() throws Exception {
+		final HistogramMetrics first = new HistogramMetrics();
+		final HistogramMetrics second = new HistogramMetrics();
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(new CompositeMetrics(first, second));
+		workflow.add(new JsonParserTest.SimpleStep());
+		workflow.execute();
+		for (final HistogramMetrics metrics: new HistogramMetrics[] {first, second}) {
+			assertEquals(1, metrics.getWorkflowsSucceeded());
+			assertEquals(1, metrics.getStepStatistics(JsonParserTest.SimpleStep.class, "SimpleStep").getSucceeded());
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNullDelegate() {
+		new CompositeMetrics(new HistogramMetrics(), null);
+	}
+}
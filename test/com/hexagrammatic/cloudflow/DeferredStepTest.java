@@ -0,0 +1,173 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class DeferredStepTest {
+
+	private static final AtomicInteger created = new AtomicInteger();
+	private static final AtomicInteger executed = new AtomicInteger();
+
+	private JsonParser parser;
+
+	@Before
+	public void setUp() throws Exception {
+		created.set(0);
+		executed.set(0);
+		parser = new JsonParser();
+		parser.setLazySteps(true);
+	}
+
+	private static String step(final Class<?> type, final String extra) {
+		return String.format("{'class':'%s'%s}", type.getName(), extra == null ? "" : ", " + extra);
+	}
+
+	@Test
+	public void testStepsNotCreatedWhileParsing() throws Exception {
+		final Workflow workflow = parser.parse("[" + step(CountingStep.class, "'name':'first'") + ", " + step(CountingStep.class, null) + "]");
+		assertEquals(0, created.get());
+		final ArrayList<Step> steps = new ArrayList<Step>(workflow.getSteps());
+		assertEquals("first", steps.get(0).getName());
+		assertEquals("CountingStep", steps.get(1).getName());
+	}
+
+	@Test
+	public void testStepsCreatedWhenReached() throws Exception {
+		final Workflow workflow = parser.parse("[" + step(CountingStep.class, "'key':'value'") + ", " + step(CountingStep.class, null) + "]");
+		workflow.execute();
+		assertEquals(2, created.get());
+		assertEquals(2, executed.get());
+		assertTrue(workflow.isSuccessful());
+		for (final Step step: workflow.getSteps()) {
+			assertEquals(CountingStep.class, step.getClass());
+			assertEquals(workflow, step.getWorkflow());
+			assertTrue(step.isCompleted());
+		}
+		assertEquals("value", workflow.getSteps().iterator().next().getParameter("key"));
+	}
+
+	@Test
+	public void testSkippedStepsNeverCreated() throws Exception {
+		final Workflow workflow = parser.parse("[" + step(FailingStep.class, null) + ", " + step(CountingStep.class, null) + ", " + 
+												step(CountingStep.class, "'alwaysRun':true") + "]");
+		try {
+			workflow.execute();
+			fail("Expected the failing step to fail the workflow.");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		assertEquals(1, created.get());
+		assertEquals(2, executed.get());
+		final ArrayList<Step> steps = new ArrayList<Step>(workflow.getSteps());
+		assertTrue(steps.get(1).wasSkipped());
+		assertTrue(steps.get(2).isAlwaysRun());
+		assertEquals(CountingStep.class, steps.get(2).getClass());
+	}
+
+	@Test
+	public void testMissingClassReportedWhenReached() throws Exception {
+		final Workflow workflow = parser.parse("[{'class':'com.missing.Step'}, " + step(CountingStep.class, "'alwaysRun':true") + "]");
+		try {
+			workflow.execute();
+			fail("Expected the missing step class to fail the workflow.");
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getCause() instanceof WorkflowCreationException);
+		}
+		final Step missing = workflow.getSteps().iterator().next();
+		assertTrue(missing.isCompleted());
+		assertFalse(missing.isSuccessful());
+		assertFalse(workflow.isSuccessful());
+		assertEquals(1, executed.get());
+	}
+
+	@Test
+	public void testMissingOptionalClassDoesNotFailWorkflow() throws Exception {
+		final Workflow workflow = parser.parse("[{'class':'com.missing.Step', 'optional':true}, " + step(CountingStep.class, null) + "]");
+		workflow.execute();
+		assertTrue(workflow.isSuccessful());
+		assertEquals(1, executed.get());
+	}
+
+	@Test
+	public void testAliasNamedLikeCreatedStep() throws Exception {
+		final Workflow workflow = parser.parse("[{'class':'indexed'}]");
+		final Step deferred = workflow.getSteps().iterator().next();
+		assertEquals("IndexedStep", deferred.getName());
+		assertEquals(deferred.getName(), deferred.materialize().getName());
+	}
+
+	@Test
+	public void testInvalidSettingReportedWhenReached() throws Exception {
+		final Workflow workflow = parser.parse("[" + step(CountingStep.class, "'timeout':'soon'") + ", " +
+												step(CountingStep.class, "'alwaysRun':true") + "]");
+		try {
+			workflow.execute();
+			fail("Expected the invalid timeout to fail the workflow.");
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getCause() instanceof WorkflowCreationException);
+		}
+		final Step invalid = workflow.getSteps().iterator().next();
+		assertTrue(invalid.isCompleted());
+		assertFalse(invalid.isSuccessful());
+		assertEquals(1, executed.get());
+	}
+
+	@Test
+	public void testInvalidOptionalSettingDoesNotFailWorkflow() throws Exception {
+		final Workflow workflow = parser.parse("[" + step(CountingStep.class, "'maxRetries':-1, 'optional':true") + ", " +
+												step(CountingStep.class, null) + "]");
+		workflow.execute();
+		assertTrue(workflow.isSuccessful());
+		assertEquals(1, executed.get());
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testMissingClassDeclarationStillRejected() throws Exception {
+		parser.parse("[{'name':'nameless'}]");
+	}
+
+	@Test
+	public void testMaterializedOnce() throws Exception {
+		final Workflow workflow = parser.parse("[" + step(CountingStep.class, null) + "]");
+		final Step deferred = workflow.getSteps().iterator().next();
+		assertSame(deferred.materialize(), deferred.materialize());
+		assertEquals(1, created.get());
+	}
+
+	@Test
+	public void testBinaryWriterCreatesDeferredSteps() throws Exception {
+		final Workflow workflow = parser.parse("[" + step(CountingStep.class, "'maxRetries':3") + "]");
+		final Workflow copy = new BinaryParser().parse(new BinaryWriter().toByteArray(workflow));
+		final Step step = copy.getSteps().iterator().next();
+		assertEquals(CountingStep.class, step.getClass());
+		assertEquals(3, step.getMaxRetries());
+	}
+
+	public static class CountingStep extends Step {
+		public CountingStep() {
+			created.incrementAndGet();
+		}
+
+		@Override
+		protected void execute() {
+			executed.incrementAndGet();
+		}
+	}
+
+	public static class FailingStep extends Step {
+		@Override
+		protected void execute() {
+			executed.incrementAndGet();
+			throw new IllegalStateException();
+		}
+	}
+}
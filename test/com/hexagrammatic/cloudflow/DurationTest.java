@@ -0,0 +1,56 @@
+package com.hexagrammatic.cloudflow;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class DurationTest {
+
+	@Test
+	public void testOf() {
+		final Duration duration = Duration.of(5, MINUTES);
+		assertEquals(5, duration.getValue());
+		assertEquals(MINUTES, duration.getUnit());
+		assertFalse(duration.isNever());
+		assertEquals(MINUTES.toNanos(5), duration.toNanos());
+	}
+
+	@Test
+	public void testNegativeIsNever() {
+		assertSame(Duration.NEVER, Duration.of(-3, SECONDS));
+		assertSame(Duration.NEVER, Duration.of(-1, null));
+	}
+
+	@Test
+	public void testNever() {
+		assertTrue(Duration.NEVER.isNever());
+		assertEquals(-1, Duration.NEVER.getValue());
+		assertNull(Duration.NEVER.getUnit());
+		assertEquals(-1, Duration.NEVER.toNanos());
+		assertEquals("Never", Duration.NEVER.toString());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNullUnit() {
+		Duration.of(1, null);
+	}
+
+	@Test
+	public void testEquality() {
+		assertEquals(Duration.of(2, HOURS), Duration.of(2, HOURS));
+		assertEquals(Duration.of(2, HOURS).hashCode(), Duration.of(2, HOURS).hashCode());
+		assertFalse(Duration.of(2, HOURS).equals(Duration.of(2, MINUTES)));
+		assertFalse(Duration.of(2, HOURS).equals(Duration.of(3, HOURS)));
+	}
+
+	@Test
+	public void testToString() {
+		assertEquals("1 second", Duration.of(1, SECONDS).toString());
+		assertEquals("5 hours", Duration.of(5, HOURS).toString());
+	}
+}
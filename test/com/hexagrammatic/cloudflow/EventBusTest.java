@@ -0,0 +1,246 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class EventBusTest {
+
+	private static class RecordingListener implements WorkflowListener {
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		final List<Long> sequences = Collections.synchronizedList(new ArrayList<Long>());
+		final AtomicInteger batches = new AtomicInteger();
+
+		@Override
+		public void onEvent(final WorkflowEvent event, final boolean endOfBatch) {
+			events.add(event.getType() + (event.getStep() == null ? "" : ":" + event.getStep().getName() + ":" + event.getAttempt()));
+			sequences.add(event.getSequence());
+			if (endOfBatch) batches.incrementAndGet();
+		}
+	}
+
+	private EventBus bus;
+
+	@Before
+	public void setUp() {
+		bus = new EventBus(64);
+	}
+
+	@After
+	public void tearDown() {
+		bus.close();
+	}
+
+	@Test
+	public void testWorkflowEventsDelivered() throws Exception {
+		final RecordingListener listener = new RecordingListener();
+		bus.addListener(listener);
+
+		final AtomicInteger calls = new AtomicInteger();
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(bus);
+		final Step flaky = new Step() {
+			@Override
+			protected void execute() {
+				if (calls.incrementAndGet() == 1) throw new IllegalStateException();
+			}
+		};
+		flaky.setName("flaky");
+		flaky.setMaxRetries(1);
+		workflow.add(flaky);
+		workflow.execute();
+		bus.close();
+
+		assertEquals("[WORKFLOW_STARTED, ATTEMPT_STARTED:flaky:1, ATTEMPT_FAILED:flaky:1, STEP_RETRIED:flaky:1, " +
+				"ATTEMPT_STARTED:flaky:2, STEP_COMPLETED:flaky:2, WORKFLOW_COMPLETED]", listener.events.toString());
+		for (int i = 0; i < listener.sequences.size(); i++) {
+			assertEquals(Long.valueOf(i), listener.sequences.get(i));
+		}
+		assertTrue(listener.batches.get() >= 1);
+		assertEquals(0, bus.getDroppedCount());
+	}
+
+	@Test
+	public void testFailedAndSkippedSteps() throws Exception {
+		final RecordingListener listener = new RecordingListener();
+		bus.addListener(listener);
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(bus);
+		final Step failing = new Step() {
+			@Override
+			protected void execute() {
+				throw new IllegalStateException();
+			}
+		};
+		failing.setName("failing");
+		workflow.add(failing);
+		final Step skipped = new JsonParserTest.SimpleStep();
+		skipped.setName("skipped");
+		workflow.add(skipped);
+		try {
+			workflow.execute();
+			fail("Expected exception not thrown during execution.");
+		} catch (final IllegalStateException ise) {}
+		bus.close();
+
+		assertEquals("[WORKFLOW_STARTED, ATTEMPT_STARTED:failing:1, ATTEMPT_FAILED:failing:1, STEP_COMPLETED:failing:1, " +
+				"STEP_SKIPPED:skipped:0, WORKFLOW_COMPLETED]", listener.events.toString());
+	}
+
+	@Test
+	public void testSlowListenerDropsInsteadOfBlocking() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger delivered = new AtomicInteger();
+		bus.addListener(new WorkflowListener() {
+			@Override
+			public void onEvent(final WorkflowEvent event, final boolean endOfBatch) {
+				try {
+					release.await();
+				} catch (final InterruptedException e) {}
+				delivered.incrementAndGet();
+			}
+		});
+		final Workflow workflow = new Workflow();
+		final long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			bus.workflowStarted(workflow);
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+		assertTrue(bus.getDroppedCount() >= 1000 - 64);
+		release.countDown();
+		bus.close();
+		assertEquals(1000, delivered.get() + bus.getDroppedCount());
+		assertEquals(0, bus.getPendingCount());
+	}
+
+	@Test
+	public void testFailingListenerDoesNotStopDelivery() throws Exception {
+		final RecordingListener listener = new RecordingListener();
+		bus.addListener(new WorkflowListener() {
+			@Override
+			public void onEvent(final WorkflowEvent event, final boolean endOfBatch) {
+				throw new IllegalStateException();
+			}
+		});
+		bus.addListener(listener);
+		final Workflow workflow = new Workflow();
+		bus.workflowStarted(workflow);
+		bus.workflowHalted(workflow);
+		bus.close();
+		assertEquals("[WORKFLOW_STARTED, WORKFLOW_HALTED]", listener.events.toString());
+		assertEquals(2, bus.getListenerFailureCount());
+	}
+
+	@Test
+	public void testEventsAfterCloseDropped() {
+		final RecordingListener listener = new RecordingListener();
+		bus.addListener(listener);
+		bus.close();
+		bus.workflowStarted(new Workflow());
+		assertEquals(1, bus.getDroppedCount());
+		assertTrue(listener.events.isEmpty());
+	}
+
+	@Test
+	public void testRemovedListener() {
+		final RecordingListener listener = new RecordingListener();
+		bus.addListener(listener);
+		bus.removeListener(listener);
+		bus.workflowStarted(new Workflow());
+		bus.close();
+		assertTrue(listener.events.isEmpty());
+	}
+
+	@Test
+	public void testConcurrentPublishers() throws Exception {
+		final AtomicInteger delivered = new AtomicInteger();
+		final EventBus large = new EventBus(1 << 16);
+		large.addListener(new WorkflowListener() {
+			@Override
+			public void onEvent(final WorkflowEvent event, final boolean endOfBatch) {
+				delivered.incrementAndGet();
+			}
+		});
+		final Workflow workflow = new Workflow();
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 5000; i++) large.workflowStarted(workflow);
+				}
+			};
+			threads[t].start();
+		}
+		for (final Thread thread: threads) thread.join();
+		large.close();
+		assertEquals(20000, delivered.get());
+		assertEquals(0, large.getDroppedCount());
+	}
+
+	@Test
+	public void testIdleBusWokenByPublish() throws Exception {
+		final CountDownLatch delivered = new CountDownLatch(2);
+		bus.addListener(new WorkflowListener() {
+			@Override
+			public void onEvent(final WorkflowEvent event, final boolean endOfBatch) {
+				delivered.countDown();
+			}
+		});
+		final Workflow workflow = new Workflow();
+		bus.workflowStarted(workflow);
+		Thread.sleep(200);
+		bus.workflowCompleted(workflow, 0, true);
+		assertTrue(delivered.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testPublishRacingCloseCounted() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			final EventBus racing = new EventBus(1 << 16);
+			final AtomicInteger delivered = new AtomicInteger();
+			racing.addListener(new WorkflowListener() {
+				@Override
+				public void onEvent(final WorkflowEvent event, final boolean endOfBatch) {
+					delivered.incrementAndGet();
+				}
+			});
+			final Workflow workflow = new Workflow();
+			final CountDownLatch started = new CountDownLatch(4);
+			final Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						started.countDown();
+						for (int i = 0; i < 2000; i++) racing.workflowStarted(workflow);
+					}
+				};
+				threads[t].start();
+			}
+			started.await();
+			racing.close();
+			for (final Thread thread: threads) thread.join();
+			assertEquals(8000, delivered.get() + racing.getDroppedCount());
+			assertEquals(0, racing.getPendingCount());
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testCapacityNotPowerOfTwo() {
+		new EventBus(100);
+	}
+}
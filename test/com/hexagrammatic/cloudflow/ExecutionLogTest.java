@@ -0,0 +1,208 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class ExecutionLogTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("execution", ".log");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file: files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private List<ExecutionLogEntry> readAll() throws Exception {
+		final ExecutionLogReader reader = new ExecutionLogReader(directory);
+		final List<ExecutionLogEntry> result = new ArrayList<ExecutionLogEntry>();
+		try {
+			for (ExecutionLogEntry entry = reader.next(); entry != null; entry = reader.next()) {
+				result.add(entry);
+			}
+		} finally {
+			reader.close();
+		}
+		return result;
+	}
+
+	@Test
+	public void testRecordsWorkflow() throws Exception {
+		final ExecutionLog log = new ExecutionLog(directory, ExecutionLogEntry.SIZE * 64);
+		final AtomicInteger calls = new AtomicInteger();
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(log);
+		workflow.add(new JsonParserTest.SimpleStep());
+		final Step flaky = new Step() {
+			@Override
+			protected void execute() {
+				if (calls.incrementAndGet() == 1) throw new IllegalStateException("First try fails.");
+			}
+		};
+		flaky.setMaxRetries(1);
+		workflow.add(flaky);
+		final long before = System.currentTimeMillis();
+		workflow.execute();
+		log.close();
+
+		final List<ExecutionLogEntry> entries = readAll();
+		final ExecutionLogEntry.Type[] expected = {
+			ExecutionLogEntry.Type.WORKFLOW_STARTED,
+			ExecutionLogEntry.Type.STEP_STARTED, ExecutionLogEntry.Type.STEP_EXECUTING, ExecutionLogEntry.Type.STEP_EXECUTED,
+			ExecutionLogEntry.Type.STEP_COMPLETED,
+			ExecutionLogEntry.Type.STEP_STARTED, ExecutionLogEntry.Type.STEP_EXECUTING, ExecutionLogEntry.Type.STEP_EXECUTED,
+			ExecutionLogEntry.Type.STEP_RETRIED, ExecutionLogEntry.Type.STEP_RETRY_WAITED,
+			ExecutionLogEntry.Type.STEP_STARTED, ExecutionLogEntry.Type.STEP_EXECUTING, ExecutionLogEntry.Type.STEP_EXECUTED,
+			ExecutionLogEntry.Type.STEP_COMPLETED,
+			ExecutionLogEntry.Type.WORKFLOW_COMPLETED
+		};
+		assertEquals(expected.length, entries.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], entries.get(i).getType());
+			assertEquals(workflow.getId(), entries.get(i).getWorkflowId());
+			assertTrue(entries.get(i).getEpochNanos() >= (before - 1000) * 1000000L);
+		}
+
+		assertEquals(-1, entries.get(0).getStepIndex());
+		assertEquals(0, entries.get(1).getStepIndex());
+		assertEquals(1, entries.get(1).getAttempt());
+		assertEquals(Attempt.Outcome.SUCCEEDED, entries.get(4).getOutcome());
+		assertEquals(1, entries.get(8).getStepIndex());
+		assertEquals(1, entries.get(8).getAttempt());
+		assertEquals(Attempt.Outcome.FAILED, entries.get(8).getOutcome());
+		assertEquals(2, entries.get(13).getAttempt());
+		assertEquals(Attempt.Outcome.SUCCEEDED, entries.get(13).getOutcome());
+		assertEquals(Attempt.Outcome.SUCCEEDED, entries.get(14).getOutcome());
+		assertTrue(entries.get(14).getDurationNanos() > 0);
+	}
+
+	@Test
+	public void testSegmentsRoll() throws Exception {
+		final ExecutionLog log = new ExecutionLog(directory, ExecutionLogEntry.SIZE * 4);
+		final Workflow workflow = new Workflow();
+		for (int i = 0; i < 10; i++) {
+			log.workflowParsed(workflow, i);
+		}
+		log.close();
+		assertEquals(4, ExecutionLog.segments(directory).length);
+
+		final List<ExecutionLogEntry> entries = readAll();
+		assertEquals(10, entries.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(ExecutionLogEntry.Type.WORKFLOW_PARSED, entries.get(i).getType());
+			assertEquals(i, entries.get(i).getDurationNanos());
+		}
+	}
+
+	@Test
+	public void testTailing() throws Exception {
+		final ExecutionLog log = new ExecutionLog(directory, ExecutionLogEntry.SIZE * 4);
+		final ExecutionLogReader reader = new ExecutionLogReader(directory);
+		final ExecutionLogEntry entry = new ExecutionLogEntry();
+		final Workflow workflow = new Workflow();
+		assertFalse(reader.next(entry));
+
+		log.workflowStarted(workflow);
+		assertTrue(reader.next(entry));
+		assertEquals(ExecutionLogEntry.Type.WORKFLOW_STARTED, entry.getType());
+		assertFalse(reader.next(entry));
+
+		for (int i = 0; i < 5; i++) {
+			log.workflowParsed(workflow, i);
+		}
+		for (int i = 0; i < 5; i++) {
+			assertTrue(reader.next(entry));
+			assertEquals(i, entry.getDurationNanos());
+		}
+		assertFalse(reader.next(entry));
+		log.close();
+		reader.close();
+	}
+
+	@Test
+	public void testReopenSkipsUnwrittenSlots() throws Exception {
+		final Workflow workflow = new Workflow();
+		final ExecutionLog first = new ExecutionLog(directory, ExecutionLogEntry.SIZE * 4);
+		first.workflowParsed(workflow, 1);
+		first.close();
+		final ExecutionLog second = new ExecutionLog(directory, ExecutionLogEntry.SIZE * 4);
+		second.workflowParsed(workflow, 2);
+		second.close();
+		assertEquals(2, ExecutionLog.segments(directory).length);
+
+		final ExecutionLogReader reader = new ExecutionLogReader(directory);
+		final ExecutionLogEntry entry = new ExecutionLogEntry();
+		assertTrue(reader.next(entry));
+		assertEquals(1, entry.getDurationNanos());
+		assertFalse(reader.next(entry));
+		assertTrue(reader.next(entry));
+		assertEquals(2, entry.getDurationNanos());
+		reader.close();
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		final ExecutionLog log = new ExecutionLog(directory, ExecutionLogEntry.SIZE * 1000);
+		final int threads = 8;
+		final int events = 5000;
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final List<Thread> writers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final Thread writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final Workflow workflow = new Workflow();
+						for (int i = 0; i < events; i++) {
+							log.workflowParsed(workflow, i);
+						}
+					} catch (final Throwable e) {
+						error.set(e);
+					}
+				}
+			});
+			writer.start();
+			writers.add(writer);
+		}
+		for (final Thread writer: writers) {
+			writer.join();
+		}
+		log.close();
+		assertNull(error.get());
+		assertEquals(0, log.getDroppedCount());
+		assertEquals(threads * events, readAll().size());
+	}
+
+	@Test
+	public void testClosedLogDrops() throws Exception {
+		final ExecutionLog log = new ExecutionLog(directory, ExecutionLogEntry.SIZE * 4);
+		log.close();
+		log.workflowStarted(new Workflow());
+		assertEquals(1, log.getDroppedCount());
+		assertTrue(readAll().isEmpty());
+	}
+}
@@ -0,0 +1,179 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class FileWorkQueueTest {
+
+	private File directory;
+	private FileWorkQueue queue;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("work", ".queue");
+		directory.delete();
+		queue = new FileWorkQueue(directory);
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	static void delete(final File file) {
+		final File[] files = file.listFiles();
+		if (files != null) {
+			for (final File child: files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void testLeaseInOrder() throws Exception {
+		final String first = queue.enqueue("first");
+		Thread.sleep(2);
+		final String second = queue.enqueue("second \u00e9");
+		Thread.sleep(2);
+		queue.enqueue("third");
+		assertEquals(3, queue.getPendingCount());
+
+		final List<WorkItem> items = queue.lease(2, 1, TimeUnit.MINUTES);
+		assertEquals(2, items.size());
+		assertEquals(first, items.get(0).getId());
+		assertEquals("first", items.get(0).getDefinition());
+		assertEquals(1, items.get(0).getDeliveries());
+		assertEquals(second, items.get(1).getId());
+		assertEquals("second \u00e9", items.get(1).getDefinition());
+		assertTrue(items.get(0).getLeaseExpiresMillis() > System.currentTimeMillis());
+		assertEquals(1, queue.getPendingCount());
+		assertEquals(2, queue.getLeasedCount());
+
+		assertTrue(queue.ack(items.get(0)));
+		assertFalse(queue.ack(items.get(0)));
+		assertEquals(1, queue.getLeasedCount());
+		assertEquals(1, queue.lease(5, 1, TimeUnit.MINUTES).size());
+		assertTrue(queue.lease(5, 1, TimeUnit.MINUTES).isEmpty());
+	}
+
+	@Test
+	public void testNack() throws Exception {
+		final String id = queue.enqueue("work");
+		final WorkItem item = queue.lease(1, 1, TimeUnit.MINUTES).get(0);
+		assertTrue(queue.nack(item));
+		assertFalse(queue.nack(item));
+		assertFalse(queue.ack(item));
+		final WorkItem again = queue.lease(1, 1, TimeUnit.MINUTES).get(0);
+		assertEquals(id, again.getId());
+		assertEquals(2, again.getDeliveries());
+	}
+
+	@Test
+	public void testExpiredLeaseRedelivered() throws Exception {
+		queue.enqueue("work");
+		final WorkItem item = queue.lease(1, 50, TimeUnit.MILLISECONDS).get(0);
+		assertTrue(queue.lease(1, 1, TimeUnit.MINUTES).isEmpty());
+		Thread.sleep(100);
+		final WorkItem again = queue.lease(1, 1, TimeUnit.MINUTES).get(0);
+		assertEquals(item.getId(), again.getId());
+		assertEquals(2, again.getDeliveries());
+		assertNull(queue.heartbeat(item, 1, TimeUnit.MINUTES));
+		assertFalse(queue.ack(item));
+		assertTrue(queue.ack(again));
+	}
+
+	@Test
+	public void testHeartbeat() throws Exception {
+		queue.enqueue("work");
+		final WorkItem item = queue.lease(1, 50, TimeUnit.MILLISECONDS).get(0);
+		final WorkItem renewed = queue.heartbeat(item, 1, TimeUnit.MINUTES);
+		assertNotNull(renewed);
+		assertEquals(item.getId(), renewed.getId());
+		assertEquals(item.getDefinition(), renewed.getDefinition());
+		assertTrue(renewed.getLeaseExpiresMillis() > item.getLeaseExpiresMillis());
+		Thread.sleep(100);
+		assertTrue(queue.lease(1, 1, TimeUnit.MINUTES).isEmpty());
+		assertNull(queue.heartbeat(item, 1, TimeUnit.MINUTES));
+		assertTrue(queue.ack(renewed));
+		assertEquals(0, queue.getLeasedCount());
+	}
+
+	@Test
+	public void testSharedBetweenInstances() throws Exception {
+		queue.enqueue("work");
+		final FileWorkQueue other = new FileWorkQueue(directory);
+		final WorkItem item = other.lease(1, 1, TimeUnit.MINUTES).get(0);
+		assertTrue(queue.lease(1, 1, TimeUnit.MINUTES).isEmpty());
+		assertTrue(queue.ack(item));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testForeignItem() throws Exception {
+		queue.ack(new WorkItem("id", "work", 1, "../../elsewhere", 0));
+	}
+
+	@Test
+	public void testConcurrentLeasing() throws Exception {
+		final int count = 200;
+		for (int i = 0; i < count; i++) {
+			queue.enqueue(Integer.toString(i));
+		}
+		final List<String> leased = Collections.synchronizedList(new ArrayList<String>());
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final FileWorkQueue own = new FileWorkQueue(directory);
+						List<WorkItem> items;
+						while (!(items = own.lease(7, 1, TimeUnit.MINUTES)).isEmpty()) {
+							for (final WorkItem item: items) {
+								leased.add(item.getDefinition());
+								assertTrue(own.ack(item));
+							}
+						}
+					} catch (final Throwable e) {
+						error.set(e);
+					}
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+		for (final Thread worker: workers) {
+			worker.join();
+		}
+		assertNull(error.get());
+		assertEquals(count, leased.size());
+		assertEquals(count, new HashSet<String>(leased).size());
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(0, queue.getLeasedCount());
+	}
+
+	@Test
+	public void testIdsUnique() throws Exception {
+		final Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < 50; i++) {
+			assertTrue(ids.add(queue.enqueue("work")));
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.hexagrammatic.cloudflow;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class HistogramMetricsTest {
+
+	public static class FlakyStep extends Step {
+		private final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		protected void execute() {
+			if (calls.incrementAndGet() == 1) throw new IllegalStateException();
+		}
+	}
+
+	public static class SlowStep extends Step {
+		@Override
+		protected void execute() throws InterruptedException {
+			Thread.sleep(1000);
+		}
+	}
+
+	private HistogramMetrics metrics;
+	private Workflow workflow;
+
+	@Before
+	public void setUp() {
+		metrics = new HistogramMetrics();
+		workflow = new Workflow();
+		workflow.setMetrics(metrics);
+	}
+
+	@Test
+	public void testSuccessfulWorkflow() throws Exception {
+		final FlakyStep first = new FlakyStep();
+		first.setName("first");
+		first.setMaxRetries(1);
+		workflow.add(first);
+		final FlakyStep second = new FlakyStep();
+		second.setName("second");
+		second.setMaxRetries(1);
+		workflow.add(second);
+		workflow.execute();
+
+		assertEquals(1, metrics.getWorkflowsStarted());
+		assertEquals(1, metrics.getWorkflowsSucceeded());
+		assertEquals(0, metrics.getWorkflowsFailed());
+		assertEquals(1, metrics.getWorkflowLatency().getCount());
+
+		final StepStatistics statistics = metrics.getStepStatistics(FlakyStep.class, "first");
+		assertEquals(2, statistics.getStarted());
+		assertEquals(1, statistics.getRetried());
+		assertEquals(1, statistics.getSucceeded());
+		assertEquals(0, statistics.getFailed());
+		assertEquals(2, statistics.getLatency().getCount());
+		assertEquals(2, statistics.getQueueTime().getCount());
+		assertEquals(2, statistics.getRunTime().getCount());
+		assertTrue(statistics.getLatency().getMax() >= statistics.getRunTime().getMax());
+		assertEquals(1, statistics.getRetryWait().getCount());
+		assertEquals(FlakyStep.class, statistics.getStepClass());
+		assertEquals("first", statistics.getStepName());
+
+		assertNotNull(metrics.getStepStatistics(FlakyStep.class, "second"));
+		assertEquals(2, metrics.getAllStepStatistics().size());
+		assertNull(metrics.getStepStatistics(FlakyStep.class, "third"));
+		assertNull(metrics.getStepStatistics(SlowStep.class, "first"));
+	}
+
+	@Test
+	public void testTimedOutAndSkippedSteps() throws Exception {
+		final SlowStep slow = new SlowStep();
+		slow.setTimeoutValue(10);
+		slow.setTimeoutUnits(MILLISECONDS);
+		workflow.add(slow);
+		final FlakyStep skipped = new FlakyStep();
+		workflow.add(skipped);
+		try {
+			workflow.execute();
+			fail("Expected exception not thrown during execution.");
+		} catch (final TimeoutException te) {}
+
+		assertEquals(1, metrics.getWorkflowsFailed());
+		final StepStatistics statistics = metrics.getStepStatistics(SlowStep.class, "SlowStep");
+		assertEquals(1, statistics.getStarted());
+		assertEquals(1, statistics.getTimedOut());
+		assertEquals(1, statistics.getFailed());
+		assertEquals(0, statistics.getRetried());
+		assertEquals(1, metrics.getStepStatistics(FlakyStep.class, "FlakyStep").getSkipped());
+	}
+
+	@Test
+	public void testParseReported() throws Exception {
+		Workflow.setDefaultMetrics(metrics);
+		try {
+			new JsonParser().parse("{'name':'parsed'}");
+			new BinaryParser().parse(new BinaryWriter().toByteArray(new Workflow()));
+		} finally {
+			Workflow.setDefaultMetrics(null);
+		}
+		assertEquals(2, metrics.getParseLatency().getCount());
+	}
+
+	@Test
+	public void testDefaultMetrics() throws Exception {
+		Workflow.setDefaultMetrics(metrics);
+		try {
+			final Workflow created = new Workflow();
+			assertSame(metrics, created.getMetrics());
+			created.add(new FlakyStep());
+			try {
+				created.execute();
+			} catch (final IllegalStateException ise) {}
+			assertEquals(1, metrics.getWorkflowsFailed());
+		} finally {
+			Workflow.setDefaultMetrics(null);
+		}
+		assertNotSame(metrics, new Workflow().getMetrics());
+	}
+
+	@Test
+	public void testStepsBounded() throws Exception {
+		final HistogramMetrics bounded = new HistogramMetrics(2);
+		assertEquals(2, bounded.getMaxSteps());
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(bounded);
+		for (final String name: new String[] {"first", "second", "third", "first"}) {
+			final FlakyStep step = new FlakyStep();
+			step.setName(name);
+			step.setMaxRetries(1);
+			workflow.add(step);
+		}
+		workflow.execute();
+
+		assertEquals(2, bounded.getAllStepStatistics().size());
+		assertEquals(4, bounded.getStepStatistics(FlakyStep.class, "first").getStarted());
+		assertEquals(2, bounded.getStepStatistics(FlakyStep.class, "second").getStarted());
+		assertNull(bounded.getStepStatistics(FlakyStep.class, "third"));
+		assertEquals(5, bounded.getUntrackedCount());
+	}
+
+	@Test
+	public void testUnusedHistogramsEmpty() throws Exception {
+		final Step step = new HistogramMetricsTest.SlowStep() {
+			@Override
+			protected void execute() {}
+		};
+		step.setName("quick");
+		workflow.add(step);
+		workflow.execute();
+		final StepStatistics statistics = metrics.getStepStatistics(step.getClass(), "quick");
+		assertTrue(statistics.toString().contains("cpu(ns)=[count=0"));
+		assertNull(statistics.getCpuTime());
+		assertNull(statistics.getAllocated());
+		assertNull(statistics.getRetryWait());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNonPositiveMaxSteps() {
+		new HistogramMetrics(0);
+	}
+}
@@ -0,0 +1,96 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class HistogramTest {
+
+	@Test
+	public void testEmpty() {
+		final Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(-1, histogram.getMin());
+		assertEquals(-1, histogram.getMax());
+		assertEquals(0.0, histogram.getMean(), 0.0);
+		assertEquals(-1, histogram.getValueAtPercentile(50));
+	}
+
+	@Test
+	public void testSmallValuesExact() {
+		final Histogram histogram = new Histogram();
+		for (int i = 1; i <= 20; i++) histogram.record(i);
+		assertEquals(20, histogram.getCount());
+		assertEquals(210, histogram.getTotal());
+		assertEquals(1, histogram.getMin());
+		assertEquals(20, histogram.getMax());
+		assertEquals(10, histogram.getValueAtPercentile(50));
+		assertEquals(20, histogram.getValueAtPercentile(100));
+		assertEquals(1, histogram.getValueAtPercentile(0));
+	}
+
+	@Test
+	public void testPercentilesWithinPrecision() {
+		final Histogram histogram = new Histogram();
+		for (long i = 1; i <= 100000; i++) histogram.record(i * 1000);
+		assertWithin(50000000L, histogram.getValueAtPercentile(50));
+		assertWithin(99000000L, histogram.getValueAtPercentile(99));
+		assertWithin(99900000L, histogram.getValueAtPercentile(99.9));
+		assertEquals(100000000L, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testNegativeRecordedAsZero() {
+		final Histogram histogram = new Histogram();
+		histogram.record(-5);
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+
+	@Test
+	public void testBucketBounds() {
+		assertEquals(0, Histogram.bucketOf(0));
+		assertEquals(31, Histogram.bucketOf(31));
+		assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucketOf(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, Histogram.upperBoundOf(Histogram.BUCKET_COUNT - 1));
+		for (int i = 0; i < Histogram.BUCKET_COUNT; i++) {
+			assertEquals(i, Histogram.bucketOf(Histogram.lowerBoundOf(i)));
+			assertEquals(i, Histogram.bucketOf(Histogram.upperBoundOf(i)));
+			if (i > 0) assertEquals(Histogram.upperBoundOf(i - 1) + 1, Histogram.lowerBoundOf(i));
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadPercentile() {
+		new Histogram().getValueAtPercentile(101);
+	}
+
+	@Test
+	public void testConcurrentRecording() throws Exception {
+		final Histogram histogram = new Histogram();
+		final CountDownLatch done = new CountDownLatch(4);
+		for (int t = 0; t < 4; t++) {
+			new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++) histogram.record(i);
+					done.countDown();
+				}
+			}.start();
+		}
+		done.await();
+		assertEquals(40000, histogram.getCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(9999, histogram.getMax());
+	}
+
+	private void assertWithin(final long expected, final long actual) {
+		assertTrue(String.format("%d is not within 3%% of %d", actual, expected), Math.abs(actual - expected) <= expected * 0.03);
+	}
+}
@@ -119,13 +119,31 @@ public class JsonParserTest {
 		assertEquals(value.doubleValue(), ((Number)step.getParameter("parameter")).doubleValue(), 0.0);
 	}
 
-	//JSON Arrays are unsupported currently.
-	@Test(expected=WorkflowCreationException.class)
-	public void testStepCreationWithAssignment() throws Exception {	
+	@Test
+	public void testStepCreationWithArrayAssignment() throws Exception {	
 		final JsonObject obj = new JsonObject();
 		obj.add("class", new JsonPrimitive(SimpleStep.class.getName()));
-		obj.add("parameter", new JsonArray());
-		parser.populateStep(obj);
+		final JsonArray array = new JsonArray();
+		array.add(new JsonPrimitive("value"));
+		obj.add("parameter", array);
+		final Step step = parser.populateStep(obj);
+		final StructuredValue value = (StructuredValue)step.getParameter("parameter");
+		assertTrue(value.isArray());
+		assertEquals(1, value.getAsList().size());
+		assertEquals("value", value.getAsList().get(0));
+	}
+
+	@Test
+	public void testStepCreationWithObjectAssignment() throws Exception {	
+		final JsonObject obj = new JsonObject();
+		obj.add("class", new JsonPrimitive(SimpleStep.class.getName()));
+		final JsonObject nested = new JsonObject();
+		nested.add("key", new JsonPrimitive(true));
+		obj.add("parameter", nested);
+		final Step step = parser.populateStep(obj);
+		final StructuredValue value = (StructuredValue)step.getParameter("parameter");
+		assertTrue(value.isObject());
+		assertEquals(true, value.getAsMap().get("key"));
 	}
 	
 	@Test
@@ -308,25 +326,25 @@ public class JsonParserTest {
 		parser.populateWorkflow(obj);
 	}
 
-	@Test(expected=WorkflowCreationException.class)
+	@Test
 	public void testWorkflowCreationWithMaxRetriesNonPrimitive() throws Exception {
 		final JsonObject obj = new JsonObject();
 		obj.add("maxRetries", new JsonArray());
-		parser.populateWorkflow(obj);
+		assertTrue(parser.populateWorkflow(obj).getParameter("maxRetries") instanceof StructuredValue);
 	}
 	
-	@Test(expected=WorkflowCreationException.class)
+	@Test
 	public void testWorkflowCreationWitAlwaysRanNonPrimitive() throws Exception {
 		final JsonObject obj = new JsonObject();
 		obj.add("alwaysRun", new JsonArray());
-		parser.populateWorkflow(obj);
+		assertTrue(parser.populateWorkflow(obj).getParameter("alwaysRun") instanceof StructuredValue);
 	}
 
-	@Test(expected=WorkflowCreationException.class)
+	@Test
 	public void testWorkflowCreationWithWaitBetweenTriesNonPrimitive() throws Exception {
 		final JsonObject obj = new JsonObject();
 		obj.add("waitBetweenTries", new JsonArray());
-		parser.populateWorkflow(obj);
+		assertTrue(parser.populateWorkflow(obj).getParameter("waitBetweenTries") instanceof StructuredValue);
 	}
 
 	@Test
@@ -384,11 +402,12 @@ public class JsonParserTest {
 		assertNull(workflow.getParameter(nullkey));
 	}
 
-	@Test(expected=WorkflowCreationException.class)
+	@Test
 	public void testWorkflowCreationWithNonPrimitiveParameter() throws Exception {
 		final JsonObject obj = new JsonObject();
 		obj.add("key", new JsonArray());
-		parser.populateWorkflow(obj);
+		final Workflow workflow = parser.populateWorkflow(obj);
+		assertTrue(((StructuredValue)workflow.getParameter("key")).getAsList().isEmpty());
 	}
 	
 	@Test
@@ -571,6 +590,39 @@ public class JsonParserTest {
 		}		
 	}
 
+	@Test
+	public void testExpressionsDisabledByDefault() throws Exception {
+		final Workflow workflow = parser.parse("{'region':'us-west-2', 'host':'${region}.example.com'}");
+		assertEquals("${region}.example.com", workflow.getParameter("host"));
+	}
+
+	@Test
+	public void testExpressionsEnabled() throws Exception {
+		parser.setExpressionsEnabled(true);
+		final Workflow workflow = parser.parse("{'region':'us-west-2', 'steps':[{'class':'" + SimpleStep.class.getName() + 
+												"', 'host':'${region}.example.com'}]}");
+		final Step step = workflow.getSteps().iterator().next();
+		assertEquals("us-west-2.example.com", step.getParameter("host"));
+		workflow.addParameter("region", "eu-west-1");
+		assertEquals("eu-west-1.example.com", step.getParameter("host"));
+	}
+
+	@Test
+	public void testEscapedDollarWithoutReference() throws Exception {
+		parser.setExpressionsEnabled(true);
+		final Workflow workflow = parser.parse("{'region':'us-west-2', 'steps':[{'class':'" + SimpleStep.class.getName() + 
+												"', 'price':'cost $$5', 'label':'${region} costs $$5'}]}");
+		final Step step = workflow.getSteps().iterator().next();
+		assertEquals("cost $5", step.getLocalParameter("price"));
+		assertEquals("us-west-2 costs $5", step.getParameter("label"));
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testMalformedExpression() throws Exception {
+		parser.setExpressionsEnabled(true);
+		parser.parse("{'host':'${region.example.com'}");
+	}
+
 	@Test
 	public void testStepCreationWithCustomClassloader() throws Exception {
 		final AtomicInteger count = new AtomicInteger();
@@ -0,0 +1,58 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class LockStatisticsTest {
+
+	@Test
+	public void testEmpty() {
+		final LockStatistics statistics = new LockStatistics();
+		assertEquals(0, statistics.getReadAcquisitions());
+		assertEquals(0, statistics.getWriteAcquisitions());
+		assertEquals(0.0, statistics.getContentionRatio(), 0.0);
+	}
+
+	@Test
+	public void testAcquiredAndReleased() {
+		final LockStatistics statistics = new LockStatistics();
+		statistics.acquired(false, 0, false);
+		statistics.acquired(false, 50, true);
+		statistics.acquired(true, 200, true);
+		statistics.acquired(true, 0, false);
+		statistics.released(false, 10);
+		statistics.released(true, 30);
+		statistics.released(true, 5);
+
+		assertEquals(2, statistics.getReadAcquisitions());
+		assertEquals(2, statistics.getWriteAcquisitions());
+		assertEquals(1, statistics.getContendedReads());
+		assertEquals(1, statistics.getContendedWrites());
+		assertEquals(50, statistics.getReadWaitNanos());
+		assertEquals(200, statistics.getWriteWaitNanos());
+		assertEquals(200, statistics.getMaxWaitNanos());
+		assertEquals(10, statistics.getReadHoldNanos());
+		assertEquals(35, statistics.getWriteHoldNanos());
+		assertEquals(0.5, statistics.getContentionRatio(), 0.0);
+	}
+
+	@Test
+	public void testAdd() {
+		final LockStatistics first = new LockStatistics();
+		first.acquired(true, 100, true);
+		final LockStatistics second = new LockStatistics();
+		second.acquired(true, 300, true);
+		second.acquired(false, 0, false);
+		first.add(second);
+
+		assertEquals(2, first.getWriteAcquisitions());
+		assertEquals(1, first.getReadAcquisitions());
+		assertEquals(400, first.getWriteWaitNanos());
+		assertEquals(300, first.getMaxWaitNanos());
+	}
+}
@@ -0,0 +1,158 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class ParameterCodecTest {
+
+	private final ParameterCodec codec = new ParameterCodec();
+
+	private static Parameterized parameterized() {
+		return new Parameterized() {};
+	}
+
+	@Test
+	public void testRoundTripValues() throws Exception {
+		final Parameterized source = parameterized();
+		source.addParameter("string", "value");
+		source.addParameter("true", Boolean.TRUE);
+		source.addParameter("int", Integer.valueOf(-42));
+		source.addParameter("long", Long.valueOf(Long.MAX_VALUE));
+		source.addParameter("double", Double.valueOf(1.5));
+		source.addParameter("decimal", new BigDecimal("12.50"));
+		source.addParameter("structured", new StructuredValue("{\"a\":[1,2]}"));
+		source.addParameter("expression", ParameterExpression.compile("${string}"));
+
+		final Parameterized target = parameterized();
+		target.addParameter("replaced", "gone");
+		codec.read(codec.toByteArray(source), target);
+
+		assertEquals(source.getParameterNames(), target.getParameterNames());
+		assertEquals("value", target.getParameter("string"));
+		assertEquals(Boolean.TRUE, target.getParameter("true"));
+		assertEquals(Integer.valueOf(-42), target.getParameter("int"));
+		assertEquals(Long.valueOf(Long.MAX_VALUE), target.getParameter("long"));
+		assertEquals(Double.valueOf(1.5), target.getParameter("double"));
+		assertEquals(new BigDecimal("12.50"), target.getParameter("decimal"));
+		assertEquals("{\"a\":[1,2]}", ((StructuredValue)target.getParameter("structured")).toJson());
+		assertEquals("value", target.getParameter("expression"));
+		assertFalse(target.hasParameter("replaced"));
+	}
+
+	@Test
+	public void testRoundTripHistory() throws Exception {
+		final Parameterized source = parameterized();
+		source.addParameter("kept", "first");
+		source.addParameter("changed", "first");
+		source.snapshot();
+		source.addParameter("changed", "second");
+		source.addParameter("added", "second");
+		source.removeParameter("kept");
+
+		final Parameterized target = parameterized();
+		codec.read(codec.toByteArray(source), target);
+		assertEquals(2, target.numVersions("changed"));
+		assertEquals("second", target.getParameter("changed"));
+		assertEquals("second", target.getParameter("added"));
+		assertFalse(target.hasParameter("kept"));
+
+		target.rollback();
+		assertEquals("first", target.getParameter("changed"));
+		assertEquals("first", target.getParameter("kept"));
+		assertFalse(target.hasParameter("added"));
+	}
+
+	@Test
+	public void testStepKeepsWorkflowSeparate() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.addParameter("shared", "workflow");
+		final Step source = new JsonParserTest.SimpleStep();
+		source.addParameter("local", "step");
+
+		final Step target = new JsonParserTest.SimpleStep();
+		workflow.add(target);
+		codec.read(codec.toByteArray(source), target);
+		assertEquals("step", target.getParameter("local"));
+		assertEquals("workflow", target.getParameter("shared"));
+		assertFalse(workflow.hasParameter("local"));
+	}
+
+	@Test
+	public void testCompression() throws Exception {
+		final Parameterized source = parameterized();
+		final char[] chars = new char[4096];
+		Arrays.fill(chars, 'x');
+		for (int i = 0; i < 10; i++) {
+			source.addParameter("key" + i, new String(chars));
+		}
+		final byte[] plain = codec.toByteArray(source);
+		codec.setCompressed(true);
+		assertTrue(codec.isCompressed());
+		final byte[] compressed = codec.toByteArray(source);
+		assertTrue(compressed.length * 10 < plain.length);
+
+		final Parameterized target = parameterized();
+		new ParameterCodec().read(compressed, target);
+		assertEquals(source.getParameterNames(), target.getParameterNames());
+		assertEquals(new String(chars), target.getParameter("key9"));
+	}
+
+	@Test
+	public void testCompactness() throws Exception {
+		final Parameterized source = parameterized();
+		source.addParameter("a", Integer.valueOf(1));
+		assertEquals(6 + 1 + 2 + 1 + 2, codec.toByteArray(source).length);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnsupportedValue() {
+		final Parameterized source = parameterized();
+		source.addParameter("object", new Object());
+		codec.toByteArray(source);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnsupportedOlderVersion() {
+		final Parameterized source = parameterized();
+		source.addParameter("object", new Object());
+		source.snapshot();
+		source.addParameter("object", "now a string");
+		codec.toByteArray(source);
+	}
+
+	@Test
+	public void testBadMagic() throws Exception {
+		final Parameterized target = parameterized();
+		target.addParameter("untouched", "yes");
+		try {
+			codec.read(new byte[] {1, 2, 3, 4, 1, 0, 0}, target);
+			fail("Expected bad data to be rejected.");
+		} catch (final IOException e) {
+			assertEquals("yes", target.getParameter("untouched"));
+		}
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		final Parameterized source = parameterized();
+		source.addParameter("key", "value");
+		final byte[] bytes = codec.toByteArray(source);
+		final Parameterized target = parameterized();
+		target.addParameter("untouched", "yes");
+		try {
+			codec.read(Arrays.copyOf(bytes, bytes.length - 2), target);
+			fail("Expected truncated data to be rejected.");
+		} catch (final IOException e) {
+			assertEquals("yes", target.getParameter("untouched"));
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class ParameterExpressionTest {
+
+	private Parameterized scope;
+
+	@Before
+	public void setUp() throws Exception {
+		scope = new Parameterized() {};
+		scope.addParameter("region", "us-east-1");
+		scope.addParameter("cluster", "blue");
+		scope.addParameter("count", 3);
+	}
+
+	@Test
+	public void testIsExpression() {
+		assertTrue(ParameterExpression.isExpression("${a}"));
+		assertTrue(ParameterExpression.isExpression("prefix-${a}"));
+		assertFalse(ParameterExpression.isExpression("$a"));
+		assertTrue(ParameterExpression.isExpression("cost $$5"));
+		assertFalse(ParameterExpression.isExpression(null));
+	}
+
+	@Test
+	public void testConcatenation() {
+		assertEquals("us-east-1-blue", ParameterExpression.compile("${region}-${cluster}").evaluate(scope));
+	}
+
+	@Test
+	public void testSingleReferenceKeepsType() {
+		assertEquals(3, ParameterExpression.compile("${count}").evaluate(scope));
+	}
+
+	@Test
+	public void testLiteralsOnly() {
+		assertEquals("plain", ParameterExpression.compile("plain").evaluate(scope));
+	}
+
+	@Test
+	public void testEscapedDollar() {
+		assertEquals("${region} costs $5", ParameterExpression.compile("$${region} costs $$5").evaluate(scope));
+	}
+
+	@Test
+	public void testDefault() {
+		assertEquals("zone-a", ParameterExpression.compile("zone-${zone:a}").evaluate(scope));
+		assertEquals("", ParameterExpression.compile("${zone:}").evaluate(scope));
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testMissingReference() {
+		ParameterExpression.compile("${zone}").evaluate(scope);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnterminatedReference() {
+		ParameterExpression.compile("${region");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testEmptyReference() {
+		ParameterExpression.compile("${ }");
+	}
+
+	@Test
+	public void testEvaluatedOnGet() {
+		scope.addParameter("name", ParameterExpression.compile("${region}-${cluster}"));
+		assertEquals("us-east-1-blue", scope.getParameter("name"));
+		scope.addParameter("cluster", "green");
+		assertEquals("us-east-1-green", scope.getParameter("name"));
+	}
+
+	@Test
+	public void testNestedExpressions() {
+		scope.addParameter("inner", ParameterExpression.compile("${region}"));
+		scope.addParameter("outer", ParameterExpression.compile("${inner}/${cluster}"));
+		assertEquals("us-east-1/blue", scope.getParameter("outer"));
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testCircularExpressions() {
+		scope.addParameter("a", ParameterExpression.compile("${b}"));
+		scope.addParameter("b", ParameterExpression.compile("${a}"));
+		scope.getParameter("a");
+	}
+
+	@Test
+	public void testStepResolvesAgainstWorkflow() {
+		final Workflow workflow = new Workflow();
+		workflow.addParameter("region", "eu-west-1");
+		final Step step = new JsonParserTest.SimpleStep();
+		step.addParameter("cluster", "red");
+		step.addParameter("name", ParameterExpression.compile("${region}-${cluster}"));
+		workflow.add(step);
+		assertEquals("eu-west-1-red", step.getParameter("name"));
+	}
+
+	@Test
+	public void testEquality() {
+		assertEquals(ParameterExpression.compile("${a}"), ParameterExpression.compile("${a}"));
+		assertEquals("${a}", ParameterExpression.compile("${a}").getSource());
+	}
+}
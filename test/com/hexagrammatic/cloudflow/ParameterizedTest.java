@@ -135,4 +135,60 @@ public class ParameterizedTest {
 			prev = null;
 		}
 	}
+
+	@Test
+	public void testLockStatisticsOffByDefault() {
+		target.addParameter("key", "value");
+		assertNull(target.getLockStatistics());
+	}
+
+	@Test
+	public void testLockStatisticsCounted() {
+		target.setLockStatisticsEnabled(true);
+		target.addParameter("key", "value");
+		target.snapshot();
+		target.getParameter("key");
+		target.hasParameter("key");
+		target.getParameterNames();
+		final LockStatistics statistics = target.getLockStatistics();
+		assertEquals(2, statistics.getWriteAcquisitions());
+		assertEquals(3, statistics.getReadAcquisitions());
+		assertEquals(0, statistics.getContendedReads() + statistics.getContendedWrites());
+		assertTrue(statistics.getWriteHoldNanos() >= 0);
+		
+		target.setLockStatisticsEnabled(true);
+		assertSame(statistics, target.getLockStatistics());
+		target.setLockStatisticsEnabled(false);
+		assertNull(target.getLockStatistics());
+	}
+
+	@Test
+	public void testLockStatisticsUnderContention() throws Exception {
+		target.setLockStatisticsEnabled(true);
+		final int threads = 4;
+		final int writes = 2000;
+		final Thread[] writers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final String key = "key" + i;
+			writers[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < writes; j++) {
+						target.addParameter(key, j);
+						target.getParameter(key);
+					}
+				}
+			};
+			writers[i].start();
+		}
+		for (final Thread writer: writers) {
+			writer.join();
+		}
+		final LockStatistics statistics = target.getLockStatistics();
+		assertEquals(threads * writes, statistics.getWriteAcquisitions());
+		assertEquals(threads * writes, statistics.getReadAcquisitions());
+		assertTrue(statistics.getContendedWrites() <= statistics.getWriteAcquisitions());
+		assertTrue(statistics.getMaxWaitNanos() <= statistics.getReadWaitNanos() + statistics.getWriteWaitNanos());
+		assertTrue(statistics.getContentionRatio() >= 0.0 && statistics.getContentionRatio() <= 1.0);
+	}
 }
@@ -0,0 +1,300 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class RemoteStepTest {
+
+	static final AtomicInteger failures = new AtomicInteger();
+	static final AtomicInteger interrupted = new AtomicInteger();
+	static volatile CountDownLatch together;
+
+	public static class DoublingStep extends Step {
+		@Override
+		protected void execute() {
+			addParameter("doubled", Integer.valueOf(((Number)getParameter("a")).intValue() * 2));
+			addParameter("thread", Thread.currentThread().getName());
+		}
+	}
+
+	public static class FailingStep extends Step {
+		@Override
+		protected void execute() {
+			failures.incrementAndGet();
+			throw new IllegalStateException("Always fails.");
+		}
+	}
+
+	public static class SleepingStep extends Step {
+		@Override
+		protected void execute() throws InterruptedException {
+			try {
+				Thread.sleep(60000);
+			} catch (final InterruptedException e) {
+				interrupted.incrementAndGet();
+				throw e;
+			}
+		}
+	}
+
+	public static class AssertingStep extends Step {
+		@Override
+		protected void execute() {
+			throw new AssertionError("Broken invariant.");
+		}
+	}
+
+	public static class TogetherStep extends Step {
+		@Override
+		protected void execute() throws InterruptedException {
+			together.countDown();
+			if (!together.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("Invocations were not concurrent.");
+			addParameter("echo", getParameter("value"));
+		}
+	}
+
+	private RemoteStepServer server;
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() throws Exception {
+		pool = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				thread.setName("remote-main");
+				return thread;
+			}
+		});
+		server = new RemoteStepServer(0);
+		server.addPool("main", pool, DoublingStep.class.getName(), FailingStep.class.getName(),
+				SleepingStep.class.getName(), AssertingStep.class.getName(), TogetherStep.class.getName());
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+		pool.shutdownNow();
+	}
+
+	private RemoteStep remote(final Class<? extends Step> type) {
+		final RemoteStep step = new RemoteStep();
+		step.addParameter(RemoteStep.HOST, "localhost");
+		step.addParameter(RemoteStep.PORT, Integer.valueOf(server.getPort()));
+		step.addParameter(RemoteStep.POOL, "main");
+		step.addParameter(RemoteStep.CLASS, type.getName());
+		return step;
+	}
+
+	@Test
+	public void testOutputsReturned() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.addParameter("a", Integer.valueOf(21));
+		workflow.addParameter("unencodable", new Object());
+		final RemoteStep step = remote(DoublingStep.class);
+		workflow.add(step);
+		workflow.execute();
+		assertEquals(Integer.valueOf(42), workflow.getParameter("doubled"));
+		assertEquals("remote-main", workflow.getParameter("thread"));
+		assertEquals(Integer.valueOf(42), step.getParameter("doubled"));
+	}
+
+	@Test
+	public void testJsonDefinition() throws Exception {
+		final Workflow workflow = new JsonParser().parse(String.format("{\"a\": 5, \"steps\": [{\"class\": \"%s\", " +
+				"\"remoteHost\": \"localhost\", \"remotePort\": %d, \"remotePool\": \"main\", \"remoteClass\": \"%s\"}]}",
+				RemoteStep.class.getName(), server.getPort(), DoublingStep.class.getName()));
+		workflow.execute();
+		assertEquals(Integer.valueOf(10), workflow.getParameter("doubled"));
+	}
+
+	@Test
+	public void testFailuresRetried() throws Exception {
+		final int before = failures.get();
+		final Workflow workflow = new Workflow();
+		final RemoteStep step = remote(FailingStep.class);
+		step.setMaxRetries(2);
+		workflow.add(step);
+		try {
+			workflow.execute();
+			fail("Expected the remote failure to fail the workflow.");
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Always fails."));
+		}
+		assertEquals(before + 3, failures.get());
+		assertEquals(3, step.getTimesTried());
+	}
+
+	@Test
+	public void testTimeoutInterruptsRemoteStep() throws Exception {
+		final int before = interrupted.get();
+		final Workflow workflow = new Workflow();
+		final RemoteStep step = remote(SleepingStep.class);
+		step.setTimeout("200 MILLISECONDS");
+		step.setMaxRetries(1);
+		workflow.add(step);
+		try {
+			workflow.execute();
+			fail("Expected the remote step to time out.");
+		} catch (final TimeoutException e) {
+			// Expected.
+		}
+		assertEquals(2, step.getTimesTried());
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (interrupted.get() < before + 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(before + 2, interrupted.get());
+	}
+
+	@Test
+	public void testServerDeadline() throws Exception {
+		final int before = interrupted.get();
+		final RemoteStepClient client = new RemoteStepClient("localhost", server.getPort());
+		try {
+			client.invoke("main", SleepingStep.class.getName(), new HashMap<String, Object>(), TimeUnit.MILLISECONDS.toNanos(100));
+			fail("Expected the server to time the step out.");
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Timed out"));
+		} finally {
+			client.close();
+		}
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (interrupted.get() < before + 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(before + 1, interrupted.get());
+	}
+
+	@Test
+	public void testPipelined() throws Exception {
+		final int count = 64;
+		together = new CountDownLatch(count);
+		final RemoteStepClient client = new RemoteStepClient("localhost", server.getPort());
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final List<Thread> callers = new ArrayList<Thread>();
+		for (int i = 0; i < count; i++) {
+			final Integer value = Integer.valueOf(i);
+			final Thread caller = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final Map<String, Object> parameters = new HashMap<String, Object>();
+						parameters.put("value", value);
+						final Map<String, Object> result = client.invoke("main", TogetherStep.class.getName(), parameters, 0);
+						assertEquals(value, result.get("echo"));
+						assertEquals(1, result.size());
+					} catch (final Throwable e) {
+						error.set(e);
+					}
+				}
+			});
+			caller.start();
+			callers.add(caller);
+		}
+		for (final Thread caller: callers) {
+			caller.join();
+		}
+		client.close();
+		assertNull(error.get());
+		assertEquals(count, client.getRequestsSent());
+		assertTrue(client.getBatchesSent() <= count);
+	}
+
+	@Test
+	public void testUnknownPool() throws Exception {
+		final RemoteStepClient client = new RemoteStepClient("localhost", server.getPort());
+		try {
+			client.invoke("missing", DoublingStep.class.getName(), new HashMap<String, Object>(), 0);
+			fail("Expected the unknown pool to be rejected.");
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Unknown executor pool 'missing'"));
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testStepNotAccepted() throws Exception {
+		final RemoteStepClient client = new RemoteStepClient("localhost", server.getPort());
+		try {
+			client.invoke("main", JsonParserTest.SimpleStep.class.getName(), new HashMap<String, Object>(), 0);
+			fail("Expected the step to be rejected.");
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("does not accept step"));
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testErrorReplied() throws Exception {
+		final RemoteStepClient client = new RemoteStepClient("localhost", server.getPort());
+		try {
+			client.invoke("main", AssertingStep.class.getName(), new HashMap<String, Object>(), 0);
+			fail("Expected the error to fail the invocation.");
+		} catch (final IllegalStateException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(AssertionError.class.getName()));
+			assertTrue(e.getMessage(), e.getMessage().contains("Broken invariant."));
+		} finally {
+			client.close();
+		}
+	}
+
+	@Test
+	public void testLoopbackByDefault() {
+		assertTrue(server.getAddress().isLoopbackAddress());
+	}
+
+	@Test
+	public void testConnectionFailure() throws Exception {
+		final RemoteStepClient client = RemoteStepClient.forAddress("localhost", server.getPort());
+		assertSame(client, RemoteStepClient.forAddress("localhost", server.getPort()));
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final Thread caller = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					client.invoke("main", SleepingStep.class.getName(), new HashMap<String, Object>(), 0);
+				} catch (final Throwable e) {
+					error.set(e);
+				}
+			}
+		});
+		caller.start();
+		Thread.sleep(100);
+		server.close();
+		caller.join(5000);
+		assertTrue(error.get() instanceof IOException);
+		assertTrue(client.isClosed());
+		try {
+			RemoteStepClient.forAddress("localhost", server.getPort());
+			fail("Expected connecting to the closed server to fail.");
+		} catch (final IOException e) {
+			// Expected.
+		}
+	}
+}
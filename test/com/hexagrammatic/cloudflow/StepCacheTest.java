@@ -0,0 +1,193 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class StepCacheTest {
+
+	@Memoized(inputs={"a", "b"}, outputs={"sum", "unset"})
+	public static class AddStep extends Step {
+		static final AtomicInteger executions = new AtomicInteger();
+
+		@Override
+		protected void execute() {
+			executions.incrementAndGet();
+			addParameter("sum", Integer.valueOf(((Integer)getParameter("a")).intValue() + ((Integer)getParameter("b")).intValue()));
+		}
+	}
+
+	@Memoized(inputs={"key"}, outputs={"value"}, maxSize=2)
+	public static class BoundedStep extends Step {
+		static final AtomicInteger executions = new AtomicInteger();
+
+		@Override
+		protected void execute() {
+			executions.incrementAndGet();
+			addParameter("value", "for " + getParameter("key"));
+		}
+	}
+
+	@Memoized(inputs={"key"}, outputs={"value"}, ttl="50 MILLISECONDS")
+	public static class ExpiringStep extends Step {
+		static final AtomicInteger executions = new AtomicInteger();
+
+		@Override
+		protected void execute() {
+			executions.incrementAndGet();
+			addParameter("value", "computed");
+		}
+	}
+
+	@Memoized(inputs={"key"}, outputs={"value"})
+	public static class FlakyStep extends Step {
+		static final AtomicInteger executions = new AtomicInteger();
+
+		@Override
+		protected void execute() {
+			if (executions.incrementAndGet() == 1) throw new IllegalStateException("First try fails.");
+			addParameter("value", "computed");
+		}
+	}
+
+	@Memoized(inputs={"key"}, outputs={"value"}, maxSize=0)
+	public static class InvalidStep extends Step {
+		@Override
+		protected void execute() {}
+	}
+
+	private static Workflow workflow(final Step step, final Object... parameters) {
+		final Workflow workflow = new Workflow();
+		for (int i = 0; i < parameters.length; i += 2) {
+			workflow.addParameter((String)parameters[i], parameters[i + 1]);
+		}
+		workflow.add(step);
+		return workflow;
+	}
+
+	@Test
+	public void testUnannotated() {
+		assertNull(StepCache.forClass(JsonParserTest.SimpleStep.class));
+		assertNull(new JsonParserTest.SimpleStep().getCache());
+	}
+
+	@Test
+	public void testCachedClassCollectable() throws Exception {
+		final WeakReference<ClassLoader> reference = cacheWithIsolatedLoader();
+		StepIndexTest.awaitCollected(reference);
+		assertNull(reference.get());
+	}
+
+	@SuppressWarnings("unchecked")
+	private WeakReference<ClassLoader> cacheWithIsolatedLoader() throws Exception {
+		final ClassLoader loader = StepIndexTest.isolatedLoader(StepCacheTest.class);
+		final Class<? extends Step> type = (Class<? extends Step>)loader.loadClass(AddStep.class.getName());
+		assertNotSame(AddStep.class, type);
+		assertNotNull(StepCache.forClass(type));
+		return new WeakReference<ClassLoader>(loader);
+	}
+
+	@Test
+	public void testStepResolvesItsClassCache() {
+		final AddStep step = new AddStep();
+		assertSame(StepCache.forClass(AddStep.class), step.getCache());
+		assertSame(step.getCache(), step.getCache());
+	}
+
+	@Test
+	public void testHitReplaysOutputs() throws Exception {
+		final StepCache cache = StepCache.forClass(AddStep.class);
+		assertSame(cache, StepCache.forClass(AddStep.class));
+		final int executions = AddStep.executions.get();
+		final long hits = cache.getHits();
+		final long misses = cache.getMisses();
+
+		final Workflow first = workflow(new AddStep(), "a", Integer.valueOf(1), "b", Integer.valueOf(2));
+		first.execute();
+		assertEquals(Integer.valueOf(3), first.getParameter("sum"));
+		assertEquals(executions + 1, AddStep.executions.get());
+
+		final AddStep step = new AddStep();
+		final Workflow second = workflow(step, "a", Integer.valueOf(1), "b", Integer.valueOf(2));
+		second.execute();
+		assertEquals(Integer.valueOf(3), second.getParameter("sum"));
+		assertEquals(Integer.valueOf(3), step.getParameter("sum"));
+		assertFalse(second.hasParameter("unset"));
+		assertTrue(step.isSuccessful());
+		assertEquals(executions + 1, AddStep.executions.get());
+
+		final Workflow third = workflow(new AddStep(), "a", Integer.valueOf(2), "b", Integer.valueOf(2));
+		third.execute();
+		assertEquals(Integer.valueOf(4), third.getParameter("sum"));
+		assertEquals(executions + 2, AddStep.executions.get());
+		assertEquals(hits + 1, cache.getHits());
+		assertEquals(misses + 2, cache.getMisses());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		final StepCache cache = StepCache.forClass(BoundedStep.class);
+		assertEquals(2, cache.getMaxSize());
+		final int executions = BoundedStep.executions.get();
+		final long evictions = cache.getEvictions();
+		workflow(new BoundedStep(), "key", "one").execute();
+		workflow(new BoundedStep(), "key", "two").execute();
+		workflow(new BoundedStep(), "key", "one").execute();
+		workflow(new BoundedStep(), "key", "three").execute();
+		assertEquals(executions + 3, BoundedStep.executions.get());
+		assertEquals(2, cache.size());
+		assertEquals(evictions + 1, cache.getEvictions());
+
+		workflow(new BoundedStep(), "key", "one").execute();
+		assertEquals(executions + 3, BoundedStep.executions.get());
+		final Workflow evicted = workflow(new BoundedStep(), "key", "two");
+		evicted.execute();
+		assertEquals("for two", evicted.getParameter("value"));
+		assertEquals(executions + 4, BoundedStep.executions.get());
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		final StepCache cache = StepCache.forClass(ExpiringStep.class);
+		final int executions = ExpiringStep.executions.get();
+		final long expirations = cache.getExpirations();
+		workflow(new ExpiringStep(), "key", "value").execute();
+		workflow(new ExpiringStep(), "key", "value").execute();
+		assertEquals(executions + 1, ExpiringStep.executions.get());
+		Thread.sleep(100);
+		workflow(new ExpiringStep(), "key", "value").execute();
+		assertEquals(executions + 2, ExpiringStep.executions.get());
+		assertEquals(expirations + 1, cache.getExpirations());
+	}
+
+	@Test
+	public void testFailuresNotCached() throws Exception {
+		final StepCache cache = StepCache.forClass(FlakyStep.class);
+		cache.clear();
+		final FlakyStep step = new FlakyStep();
+		step.setMaxRetries(1);
+		final Workflow workflow = workflow(step, "key", "value");
+		workflow.execute();
+		assertEquals(2, step.getTimesTried());
+		assertEquals("computed", workflow.getParameter("value"));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testInvalidAnnotation() throws Exception {
+		final InvalidStep step = new InvalidStep();
+		try {
+			workflow(step).execute();
+			fail("Expected the invalid annotation to fail the step.");
+		} catch (final IllegalArgumentException e) {
+			assertFalse(step.isSuccessful());
+		}
+	}
+}
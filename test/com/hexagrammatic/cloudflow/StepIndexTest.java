@@ -0,0 +1,201 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class StepIndexTest {
+
+	@Test
+	public void testAliasedStepCreation() throws Exception {
+		final JsonObject obj = new JsonObject();
+		obj.add("class", new JsonPrimitive("indexed"));
+		final Step step = new JsonParser().populateStep(obj);
+		assertEquals(IndexedStep.class, step.getClass());
+	}
+
+	@Test
+	public void testIndexedStepCreatedWithoutLoadingStepClass() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		final ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+			@Override
+			protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+				if (IndexedStep.class.getName().equals(name)) count.incrementAndGet();
+				return super.loadClass(name, resolve);
+			}
+		};
+		final JsonParser parser = new JsonParser();
+		parser.setClassLoader(loader);
+		final JsonObject obj = new JsonObject();
+		obj.add("class", new JsonPrimitive(IndexedStep.class.getName()));
+		assertEquals(IndexedStep.class, parser.populateStep(obj).getClass());
+		assertEquals(0, count.get());
+	}
+
+	@Test
+	public void testUnaliasedStepIndexed() throws Exception {
+		final ClassLoader loader = getClass().getClassLoader();
+		assertEquals(UnaliasedStep.class, StepIndex.create(loader, UnaliasedStep.class.getName()).getClass());
+	}
+
+	@Test
+	public void testUnindexedStep() throws Exception {
+		assertNull(StepIndex.create(getClass().getClassLoader(), JsonParserTest.SimpleStep.class.getName()));
+	}
+
+	@Test
+	public void testFactoryReused() throws Exception {
+		final ClassLoader loader = getClass().getClassLoader();
+		final Step first = StepIndex.create(loader, "indexed");
+		final Step second = StepIndex.create(loader, "indexed");
+		assertNotSame(first, second);
+		final StepFactory factory = StepIndex.factory(loader, "indexed");
+		assertSame(loader.loadClass(IndexedStep.class.getName() + StepIndexProcessor.FACTORY_SUFFIX)
+				.getField(StepIndexProcessor.INSTANCE_FIELD).get(null), factory);
+		System.gc();
+		assertSame(factory, StepIndex.factory(loader, "indexed"));
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testAmbiguousAlias() throws Exception {
+		final ClassLoader loader = loaderWithIndex(
+				"a.Step a.Step$$StepFactory shared",
+				"b.Step b.Step$$StepFactory shared");
+		StepIndex.create(loader, "shared");
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testMissingFactory() throws Exception {
+		final ClassLoader loader = loaderWithIndex("a.Step a.Step$$StepFactory missing");
+		StepIndex.create(loader, "missing");
+	}
+
+	@Test(expected=WorkflowCreationException.class)
+	public void testNonFactory() throws Exception {
+		final ClassLoader loader = loaderWithIndex("a.Step " + String.class.getName() + " notFactory");
+		StepIndex.create(loader, "notFactory");
+	}
+
+	@Test
+	public void testCommentsAndDuplicates() throws Exception {
+		final String line = IndexedStep.class.getName() + " " + IndexedStep.class.getName() + StepIndexProcessor.FACTORY_SUFFIX + " dup";
+		final ClassLoader loader = loaderWithIndex("# comment", "", line, line + " # trailing comment");
+		assertEquals(IndexedStep.class, StepIndex.create(loader, "dup").getClass());
+	}
+
+	@Test
+	public void testClassLoaderCollectable() throws Exception {
+		final WeakReference<ClassLoader> reference = createWithIsolatedLoader();
+		StepIndexTest.awaitCollected(reference);
+		assertNull(reference.get());
+	}
+
+	private WeakReference<ClassLoader> createWithIsolatedLoader() throws Exception {
+		final ClassLoader loader = isolatedLoader(StepIndexTest.class);
+		final Step step = StepIndex.create(loader, "indexed");
+		assertSame(loader, step.getClass().getClassLoader());
+		return new WeakReference<ClassLoader>(loader);
+	}
+
+	/**
+	 * Creates a classloader that loads a test class and its nested classes itself, rather than from its parent, so
+	 * tests can check that nothing keeps them from being collected.
+	 */
+	static ClassLoader isolatedLoader(final Class<?> outer) {
+		final ClassLoader parent = outer.getClassLoader();
+		return new ClassLoader(parent) {
+			@Override
+			protected synchronized Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+				if (!name.startsWith(outer.getName())) return super.loadClass(name, resolve);
+				Class<?> type = findLoadedClass(name);
+				if (type == null) {
+					final InputStream in = parent.getResourceAsStream(name.replace('.', '/') + ".class");
+					if (in == null) throw new ClassNotFoundException(name);
+					try {
+						final ByteArrayOutputStream out = new ByteArrayOutputStream();
+						final byte[] buffer = new byte[4096];
+						int read;
+						while ((read = in.read(buffer)) >= 0) {
+							out.write(buffer, 0, read);
+						}
+						final byte[] bytes = out.toByteArray();
+						type = defineClass(name, bytes, 0, bytes.length);
+					} catch (final IOException e) {
+						throw new ClassNotFoundException(name, e);
+					} finally {
+						try {
+							in.close();
+						} catch (final IOException e) {
+							// ignored
+						}
+					}
+				}
+				return type;
+			}
+		};
+	}
+
+	/**
+	 * Waits for an object to be collected, prompting the collector until it is or ten seconds pass.
+	 */
+	static void awaitCollected(final WeakReference<?> reference) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (reference.get() != null && System.currentTimeMillis() < deadline) {
+			System.gc();
+			Thread.sleep(10);
+		}
+	}
+
+	private ClassLoader loaderWithIndex(final String... lines) throws IOException {
+		final ArrayList<URL> urls = new ArrayList<URL>();
+		for (final String line: lines) {
+			final File file = File.createTempFile("steps", ".index");
+			file.deleteOnExit();
+			final FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write((line + "\n").getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+			urls.add(file.toURI().toURL());
+		}
+		return new ClassLoader(getClass().getClassLoader()) {
+			@Override
+			public Enumeration<URL> getResources(final String name) throws IOException {
+				if (StepIndex.RESOURCE.equals(name)) return Collections.enumeration(urls);
+				return super.getResources(name);
+			}
+		};
+	}
+
+	@StepDefinition(alias="indexed")
+	public static class IndexedStep extends Step {
+		@Override
+		public void execute() { }
+	}
+
+	@StepDefinition
+	public static class UnaliasedStep extends Step {
+		@Override
+		public void execute() { }
+	}
+}
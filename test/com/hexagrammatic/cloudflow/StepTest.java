@@ -3,7 +3,9 @@ package com.hexagrammatic.cloudflow;
 import static org.junit.Assert.*;
 import static java.util.concurrent.TimeUnit.*;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -313,5 +315,92 @@ public class StepTest {
 		Thread.sleep(2);
 		assertEquals(t, step.getTimeRunning());
 	}
-	
+
+	@Test
+	public void testTimeRunningNanos() throws Exception {
+		assertEquals(-1, step.getTimeRunningNanos());
+		step.start();
+		final long running = step.getTimeRunningNanos();
+		assertTrue(running >= 0);
+		step.complete();
+		final long ran = step.getTimeRunningNanos();
+		assertTrue(ran >= running);
+		assertEquals(ran, step.getTimeRunningNanos());
+	}
+
+	@Test
+	public void testAttemptsRecorded() throws Exception {
+		assertTrue(step.getAttempts().isEmpty());
+		assertNull(step.getLastAttempt());
+
+		step.start();
+		step.running(step.getLastAttempt());
+		final IllegalStateException failure = new IllegalStateException();
+		step.endAttempt(failure);
+		step.start();
+		step.running(step.getLastAttempt());
+		step.complete();
+
+		final List<Attempt> attempts = step.getAttempts();
+		assertEquals(2, attempts.size());
+		assertEquals(1, attempts.get(0).getNumber());
+		assertEquals(Attempt.Outcome.FAILED, attempts.get(0).getOutcome());
+		assertSame(failure, attempts.get(0).getFailure());
+		assertEquals(2, attempts.get(1).getNumber());
+		assertEquals(Attempt.Outcome.SUCCEEDED, attempts.get(1).getOutcome());
+		assertSame(attempts.get(1), step.getLastAttempt());
+		assertTrue(attempts.get(0).getEndNanos() <= attempts.get(1).getSubmitNanos());
+	}
+
+	@Test
+	public void testQueuedAndRunNanos() throws Exception {
+		assertEquals(0, step.getQueuedNanos());
+		assertEquals(0, step.getRunNanos());
+
+		step.start();
+		Thread.sleep(5);
+		step.running(step.getLastAttempt());
+		Thread.sleep(5);
+		step.executed(step.getLastAttempt());
+		step.endAttempt(new IllegalStateException());
+		step.start();
+		step.endAttempt(new TimeoutException());
+
+		final List<Attempt> attempts = step.getAttempts();
+		assertEquals(attempts.get(0).getQueuedNanos() + attempts.get(1).getQueuedNanos(), step.getQueuedNanos());
+		assertEquals(attempts.get(0).getRunNanos(), step.getRunNanos());
+		assertTrue(step.getQueuedNanos() >= MILLISECONDS.toNanos(5));
+		assertTrue(step.getRunNanos() >= MILLISECONDS.toNanos(5));
+	}
+
+	@Test
+	public void testCpuAndAllocatedTotals() {
+		assertEquals(-1, step.getCpuNanos());
+		assertEquals(-1, step.getAllocatedBytes());
+
+		step.start();
+		step.running(step.getLastAttempt());
+		step.executed(step.getLastAttempt(), 100, -1);
+		step.endAttempt(new IllegalStateException());
+		step.start();
+		step.running(step.getLastAttempt());
+		step.executed(step.getLastAttempt(), 250, 1024);
+		step.complete();
+
+		assertEquals(350, step.getCpuNanos());
+		assertEquals(1024, step.getAllocatedBytes());
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testAttemptsUnmodifiable() {
+		step.start();
+		step.getAttempts().clear();
+	}
+
+	@Test
+	public void testSkipRecordsNoAttempt() {
+		step.skip();
+		assertTrue(step.getAttempts().isEmpty());
+		assertEquals(0, step.getTimeRunningNanos());
+	}
 }
@@ -0,0 +1,109 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.gson.JsonPrimitive;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class StructuredValueTest {
+
+	private static final String JSON = "{\"name\":\"value\",\"count\":3,\"flag\":true,\"nothing\":null,\"list\":[1,\"two\",{\"three\":3}]}";
+
+	@Test
+	public void testObjectFromText() {
+		final StructuredValue value = new StructuredValue(JSON);
+		assertTrue(value.isObject());
+		assertFalse(value.isArray());
+		final Map<String, Object> map = value.getAsMap();
+		assertEquals("value", map.get("name"));
+		assertEquals(3, ((Number)map.get("count")).intValue());
+		assertEquals(true, map.get("flag"));
+		assertTrue(map.containsKey("nothing"));
+		assertNull(map.get("nothing"));
+		final List<?> list = (List<?>)map.get("list");
+		assertEquals(3, list.size());
+		assertEquals("two", list.get(1));
+		assertEquals(3, ((Number)((Map<?, ?>)list.get(2)).get("three")).intValue());
+	}
+
+	@Test
+	public void testArrayFromElement() {
+		final StructuredValue value = new StructuredValue(new com.google.gson.JsonParser().parse("[1, 2, 3]"));
+		assertTrue(value.isArray());
+		assertEquals(3, value.getAsList().size());
+	}
+
+	@Test
+	public void testDecodedOnce() {
+		final StructuredValue value = new StructuredValue(JSON);
+		assertSame(value.getAsMap(), value.getAsMap());
+	}
+
+	@Test
+	public void testTextNotParsedUntilRead() {
+		final StructuredValue value = new StructuredValue("{not json");
+		assertEquals("{not json", value.toJson());
+		try {
+			value.getAsMap();
+			fail("Expected malformed JSON to be rejected on first read.");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testMapUnmodifiable() {
+		new StructuredValue(JSON).getAsMap().put("key", "value");
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testNestedListUnmodifiable() {
+		((List<?>)new StructuredValue(JSON).getAsMap().get("list")).clear();
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testArrayAsMap() {
+		new StructuredValue("[]").getAsMap();
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testObjectAsList() {
+		new StructuredValue("{}").getAsList();
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testPrimitiveText() {
+		new StructuredValue("12").isObject();
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPrimitiveElement() {
+		new StructuredValue(new JsonPrimitive(12));
+	}
+
+	@Test
+	public void testBinding() {
+		final Config config = new StructuredValue(JSON).getAs(Config.class);
+		assertEquals("value", config.name);
+		assertEquals(3, config.count);
+	}
+
+	@Test
+	public void testEquality() {
+		assertEquals(new StructuredValue("{\"a\": 1}"), new StructuredValue(new com.google.gson.JsonParser().parse("{\"a\":1}")));
+		assertFalse(new StructuredValue("[1]").equals(new StructuredValue("[2]")));
+	}
+
+	static class Config {
+		String name;
+		int count;
+	}
+}
@@ -0,0 +1,62 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class TraceContextTest {
+
+	@Test
+	public void testParse() {
+		final TraceContext context = TraceContext.parse("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+		assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", context.getTraceId());
+		assertEquals("00f067aa0ba902b7", context.getSpanId());
+		assertTrue(context.isSampled());
+		assertEquals("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01", context.toTraceparent());
+		assertFalse(TraceContext.parse("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00").isSampled());
+	}
+
+	@Test
+	public void testHighBitsRoundTrip() {
+		final TraceContext context = new TraceContext(-1L, Long.MIN_VALUE, -2L, true);
+		assertEquals("ffffffffffffffff8000000000000000", context.getTraceId());
+		assertEquals(context, TraceContext.parse(context.toTraceparent()));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParseNull() {
+		TraceContext.parse(null);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParseWrongVersion() {
+		TraceContext.parse("01-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParseNotHex() {
+		TraceContext.parse("00-4bf92f3577b34da6a3ce929d0e0e47zz-00f067aa0ba902b7-01");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testParseZeroTraceId() {
+		TraceContext.parse("00-00000000000000000000000000000000-00f067aa0ba902b7-01");
+	}
+
+	@Test
+	public void testCurrent() {
+		assertNull(TraceContext.current());
+		final TraceContext context = new TraceContext(1, 2, 3, true);
+		TraceContext.setCurrent(context);
+		try {
+			assertSame(context, TraceContext.current());
+		} finally {
+			TraceContext.setCurrent(null);
+		}
+		assertNull(TraceContext.current());
+	}
+}
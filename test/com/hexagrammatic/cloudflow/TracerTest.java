@@ -0,0 +1,310 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class TracerTest {
+
+	private InMemorySpanExporter exporter;
+	private Tracer tracer;
+
+	@Before
+	public void setUp() {
+		exporter = new InMemorySpanExporter();
+		tracer = new Tracer(exporter);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		tracer.close();
+	}
+
+	private static Span named(final List<Span> spans, final String name, final int attempt) {
+		for (final Span span: spans) {
+			if (span.getName().equals(name) && (attempt == 0 || Integer.valueOf(attempt).equals(span.getAttributes().get("attempt")))) {
+				return span;
+			}
+		}
+		fail(String.format("No span named '%s' for attempt %d in %s", name, attempt, spans));
+		return null;
+	}
+
+	@Test
+	public void testSpansForRetriedStep() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicReference<TraceContext> seen = new AtomicReference<TraceContext>();
+		final Workflow workflow = new Workflow();
+		workflow.setName("traced");
+		workflow.setMetrics(tracer);
+		final Step flaky = new Step() {
+			@Override
+			protected void execute() {
+				seen.set(TraceContext.current());
+				if (calls.incrementAndGet() == 1) throw new IllegalStateException("first");
+			}
+		};
+		flaky.setName("flaky");
+		flaky.setMaxRetries(1);
+		flaky.setWaitBetweenTries("1 MILLISECONDS");
+		workflow.add(flaky);
+		workflow.execute();
+		assertTrue(tracer.flush(5, TimeUnit.SECONDS));
+
+		final List<Span> spans = exporter.getSpans();
+		assertEquals(3, spans.size());
+		final Span root = named(spans, "traced", 0);
+		final Span first = named(spans, "flaky", 1);
+		final Span second = named(spans, "flaky", 2);
+
+		assertNull(root.getParentSpanId());
+		assertEquals(Span.Status.OK, root.getStatus());
+		assertEquals(1, root.getEvents().size());
+		assertEquals("retry.wait", root.getEvents().get(0).getName());
+
+		assertEquals(root.getTraceId(), first.getTraceId());
+		assertEquals(root.getSpanId(), first.getParentSpanId());
+		assertEquals(Span.Status.ERROR, first.getStatus());
+		assertEquals(IllegalStateException.class.getName(), first.getAttributes().get("error"));
+		assertEquals(root.getSpanId(), second.getParentSpanId());
+		assertEquals(Span.Status.OK, second.getStatus());
+		assertFalse(first.getSpanId().equals(second.getSpanId()));
+		assertTrue(second.getDurationNanos() >= 0);
+		assertTrue(root.getDurationNanos() >= second.getDurationNanos());
+
+		assertEquals(second.getContext(), seen.get());
+		assertNull(TraceContext.current());
+	}
+
+	@Test
+	public void testTimeoutEvent() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(tracer);
+		final Step slow = new Step() {
+			@Override
+			protected void execute() throws InterruptedException {
+				Thread.sleep(5000);
+			}
+		};
+		slow.setName("slow");
+		slow.setTimeout("10 MILLISECONDS");
+		workflow.add(slow);
+		try {
+			workflow.execute();
+			fail("Expected a timeout.");
+		} catch (final TimeoutException e) {
+			// expected
+		}
+		assertTrue(tracer.flush(5, TimeUnit.SECONDS));
+
+		final List<Span> spans = exporter.getSpans();
+		assertEquals(2, spans.size());
+		final Span attempt = named(spans, "slow", 1);
+		assertEquals(Span.Status.ERROR, attempt.getStatus());
+		assertEquals("TIMED_OUT", attempt.getAttributes().get("outcome"));
+		assertEquals("timeout", attempt.getEvents().get(0).getName());
+		assertEquals(Span.Status.ERROR, named(spans, "workflow", 0).getStatus());
+	}
+
+	@Test
+	public void testHaltedStepSpanEnded() throws Exception {
+		final CountDownLatch running = new CountDownLatch(1);
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(tracer);
+		final Step stuck = new Step() {
+			@Override
+			protected void execute() throws InterruptedException {
+				running.countDown();
+				Thread.sleep(10000);
+			}
+		};
+		stuck.setName("stuck");
+		workflow.add(stuck);
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					workflow.execute();
+				} catch (final Exception e) {
+					// expected once halted
+				}
+			}
+		});
+		thread.start();
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+		workflow.halt();
+		thread.join(5000);
+
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (exporter.getSpans().size() < 2 && System.currentTimeMillis() < deadline) {
+			assertTrue(tracer.flush(5, TimeUnit.SECONDS));
+			Thread.sleep(10);
+		}
+		final List<Span> spans = exporter.getSpans();
+		assertEquals(2, spans.size());
+		final Span attempt = named(spans, "stuck", 1);
+		assertEquals(Span.Status.ERROR, attempt.getStatus());
+		assertEquals("INTERRUPTED", attempt.getAttributes().get("outcome"));
+		assertTrue(stuck.isCompleted());
+	}
+
+	@Test
+	public void testParentFromParameter() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(tracer);
+		workflow.addParameter(Tracer.TRACEPARENT_PARAMETER, "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+		workflow.add(new Step() {
+			@Override
+			protected void execute() {}
+		});
+		workflow.execute();
+		assertTrue(tracer.flush(5, TimeUnit.SECONDS));
+
+		final Span root = named(exporter.getSpans(), "workflow", 0);
+		assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", root.getTraceId());
+		assertEquals("00f067aa0ba902b7", root.getParentSpanId());
+	}
+
+	@Test
+	public void testUnsampledNotExported() throws Exception {
+		tracer.close();
+		tracer = new Tracer(exporter, 0.0);
+		final AtomicReference<TraceContext> seen = new AtomicReference<TraceContext>();
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(tracer);
+		workflow.add(new Step() {
+			@Override
+			protected void execute() {
+				seen.set(TraceContext.current());
+			}
+		});
+		workflow.execute();
+		assertTrue(tracer.flush(5, TimeUnit.SECONDS));
+
+		assertTrue(exporter.getSpans().isEmpty());
+		assertNotNull(seen.get());
+		assertFalse(seen.get().isSampled());
+	}
+
+	@Test
+	public void testUnsampledParentNotExported() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(tracer);
+		workflow.addParameter(Tracer.TRACEPARENT_PARAMETER, "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00");
+		workflow.add(new Step() {
+			@Override
+			protected void execute() {}
+		});
+		workflow.execute();
+		assertTrue(tracer.flush(5, TimeUnit.SECONDS));
+		assertTrue(exporter.getSpans().isEmpty());
+	}
+
+	@Test
+	public void testDroppedWhenQueueFull() throws Exception {
+		final Object gate = new Object();
+		final SpanExporter blocking = new SpanExporter() {
+			@Override
+			public void export(final List<Span> spans) {
+				synchronized (gate) {}
+			}
+
+			@Override
+			public void close() {}
+		};
+		tracer.close();
+		tracer = new Tracer(blocking, 1.0, 1);
+		synchronized (gate) {
+			for (int i = 0; i < 5; i++) {
+				final Workflow workflow = new Workflow();
+				workflow.setMetrics(tracer);
+				tracer.workflowStarted(workflow);
+				tracer.workflowCompleted(workflow, 0, true);
+			}
+		}
+		assertTrue(tracer.getDroppedCount() >= 3);
+	}
+
+	@Test
+	public void testSpansFinishedWhileClosingExportedOrDropped() throws Exception {
+		final int threads = 4;
+		final int perThread = 200;
+		final CountDownLatch started = new CountDownLatch(threads);
+		final Thread[] finishers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			finishers[i] = new Thread() {
+				@Override
+				public void run() {
+					started.countDown();
+					for (int j = 0; j < perThread; j++) {
+						final Workflow workflow = new Workflow();
+						tracer.workflowStarted(workflow);
+						tracer.workflowCompleted(workflow, 0, true);
+					}
+				}
+			};
+			finishers[i].start();
+		}
+		started.await();
+		tracer.close();
+		for (final Thread finisher: finishers) {
+			finisher.join();
+		}
+		assertEquals(threads * perThread, exporter.getSpans().size() + tracer.getDroppedCount());
+	}
+
+	@Test
+	public void testFileExporter() throws Exception {
+		final File file = File.createTempFile("spans", ".json");
+		file.deleteOnExit();
+		tracer.close();
+		tracer = new Tracer(new FileSpanExporter(file));
+		final Workflow workflow = new Workflow();
+		workflow.setName("to \"file\"");
+		workflow.setMetrics(tracer);
+		workflow.add(new Step() {
+			@Override
+			protected void execute() {}
+		});
+		workflow.execute();
+		tracer.close();
+
+		final List<JsonObject> lines = new ArrayList<JsonObject>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(new com.google.gson.JsonParser().parse(line).getAsJsonObject());
+			}
+		} finally {
+			reader.close();
+		}
+		assertEquals(2, lines.size());
+		final JsonObject root = lines.get(1);
+		assertEquals("to \"file\"", root.get("name").getAsString());
+		assertEquals("OK", root.get("status").getAsString());
+		assertFalse(root.has("parentSpanId"));
+		assertEquals(root.get("spanId").getAsString(), lines.get(0).get("parentSpanId").getAsString());
+		assertEquals(1, root.getAsJsonObject("attributes").get("workflow.steps").getAsInt());
+	}
+}
@@ -37,34 +37,84 @@ public class UtilsTest {
 	@Test
 	public void testNoUnitSupplied() {
 		final long timeValue = 1;
-		final Object [] values = Utils.parseTimeTuple(Long.toString(timeValue));
+		final Duration value = Utils.parseTimeTuple(Long.toString(timeValue));
 
-		assertEquals(timeValue, values[0]);		
-		assertEquals(SECONDS, values[1]);
+		assertEquals(timeValue, value.getValue());		
+		assertEquals(SECONDS, value.getUnit());
 	}
 	
 	@Test
 	public void testUnitSuppliedNonPlural() {
-		Object [] values = Utils.parseTimeTuple("5 HOUR");
-		assertEquals(5L, values[0]);		
-		assertEquals(HOURS, values[1]);
+		Duration value = Utils.parseTimeTuple("5 HOUR");
+		assertEquals(5L, value.getValue());		
+		assertEquals(HOURS, value.getUnit());
 		
-		values = Utils.parseTimeTuple("1 NANOSECOND");
-		assertEquals(1L, values[0]);		
-		assertEquals(NANOSECONDS, values[1]);
+		value = Utils.parseTimeTuple("1 NANOSECOND");
+		assertEquals(1L, value.getValue());		
+		assertEquals(NANOSECONDS, value.getUnit());
 	}
 	
 	@Test
 	public void testUnitSuppliedPlural() {
-		Object [] values = Utils.parseTimeTuple("5 HOURS");
-		assertEquals(5L, values[0]);		
-		assertEquals(HOURS, values[1]);
+		Duration value = Utils.parseTimeTuple("5 HOURS");
+		assertEquals(5L, value.getValue());		
+		assertEquals(HOURS, value.getUnit());
 		
-		values = Utils.parseTimeTuple("1 NANOSECONDS");
-		assertEquals(1L, values[0]);		
-		assertEquals(NANOSECONDS, values[1]);
+		value = Utils.parseTimeTuple("1 NANOSECONDS");
+		assertEquals(1L, value.getValue());		
+		assertEquals(NANOSECONDS, value.getUnit());
 	}
 	
+	@Test
+	public void testUnitSuppliedLowerCase() {
+		final Duration value = Utils.parseTimeTuple("  30\tminutes  ");
+		assertEquals(30L, value.getValue());
+		assertEquals(MINUTES, value.getUnit());
+		assertEquals(DAYS, Utils.parseTimeTuple("2 Day").getUnit());
+	}
+
+	@Test
+	public void testNeverKeywords() {
+		assertSame(Duration.NEVER, Utils.parseTimeTuple("NEVER"));
+		assertSame(Duration.NEVER, Utils.parseTimeTuple(" forever "));
+		assertSame(Duration.NEVER, Utils.parseTimeTuple("None"));
+	}
+
+	@Test
+	public void testNegativeValueIsNever() {
+		assertSame(Duration.NEVER, Utils.parseTimeTuple("-5 SECONDS"));
+	}
+
+	@Test
+	public void testParsedValuesCached() {
+		assertSame(Utils.parseTimeTuple("17 MILLISECONDS"), Utils.parseTimeTuple("17 MILLISECONDS"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnknownUnit() {
+		Utils.parseTimeTuple("5 FORTNIGHTS");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTrailingInput() {
+		Utils.parseTimeTuple("5 HOURS LATER");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnitWithoutSeparator() {
+		Utils.parseTimeTuple("5HOURS");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNeverWithUnit() {
+		Utils.parseTimeTuple("NEVER SECONDS");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testOverflow() {
+		Utils.parseTimeTuple("99999999999999999999 SECONDS");
+	}
+
 	@Test
 	public void testCreateTimeTupleSingular() {
 		assertEquals("1 second", Utils.createTimeTuple(1, SECONDS));
@@ -0,0 +1,168 @@
+package com.hexagrammatic.cloudflow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class WorkQueueWorkerTest {
+
+	static final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+	static volatile CountDownLatch started;
+	static volatile CountDownLatch release;
+
+	public static class RecordingStep extends Step {
+		@Override
+		protected void execute() {
+			executed.add((String)getParameter("item"));
+		}
+	}
+
+	public static class FailingStep extends Step {
+		@Override
+		protected void execute() {
+			executed.add((String)getParameter("item"));
+			throw new IllegalStateException("Always fails.");
+		}
+	}
+
+	public static class BlockingStep extends Step {
+		@Override
+		protected void execute() {
+			started.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private File directory;
+	private FileWorkQueue queue;
+
+	@Before
+	public void setUp() throws Exception {
+		executed.clear();
+		directory = File.createTempFile("work", ".queue");
+		directory.delete();
+		queue = new FileWorkQueue(directory);
+	}
+
+	@After
+	public void tearDown() {
+		FileWorkQueueTest.delete(directory);
+	}
+
+	private static String definition(final Class<? extends Step> step, final String item) {
+		return String.format("{\"item\": \"%s\", \"steps\": [{\"class\": \"%s\"}]}", item, step.getName());
+	}
+
+	private static WorkQueueWorker worker(final WorkQueue queue) {
+		final WorkQueueWorker worker = new WorkQueueWorker(queue, new JsonParser());
+		worker.setPollInterval(10, TimeUnit.MILLISECONDS);
+		return worker;
+	}
+
+	private static void await(final WorkQueueWorker worker, final long processed) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (worker.getSucceededCount() + worker.getFailedCount() + worker.getRejectedCount() + worker.getLostCount() < processed) {
+			assertTrue("Timed out waiting for the worker.", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void testExecutesInBatches() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			queue.enqueue(definition(RecordingStep.class, "item" + i));
+		}
+		final WorkQueueWorker worker = worker(queue);
+		worker.setBatchSize(4);
+		final Thread thread = new Thread(worker);
+		thread.start();
+		await(worker, 10);
+		worker.stop();
+		thread.join();
+
+		assertEquals(10, worker.getSucceededCount());
+		assertEquals(10, executed.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("item" + i, executed.get(i));
+		}
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(0, queue.getLeasedCount());
+	}
+
+	@Test
+	public void testFailuresRedeliveredUpToMaximum() throws Exception {
+		queue.enqueue(definition(FailingStep.class, "failing"));
+		queue.enqueue("not json at all {");
+		final WorkQueueWorker worker = worker(queue);
+		worker.setMaxDeliveries(3);
+		final Thread thread = new Thread(worker);
+		thread.start();
+		await(worker, 4);
+		worker.stop();
+		thread.join();
+
+		assertEquals(3, worker.getFailedCount());
+		assertEquals(1, worker.getRejectedCount());
+		assertEquals(3, executed.size());
+		assertEquals(0, queue.getPendingCount());
+		assertEquals(0, queue.getLeasedCount());
+	}
+
+	@Test
+	public void testHeartbeatKeepsLease() throws Exception {
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		queue.enqueue(definition(BlockingStep.class, "blocking"));
+		final WorkQueueWorker worker = worker(queue);
+		worker.setLeaseDuration(60, TimeUnit.MILLISECONDS);
+		final Thread thread = new Thread(worker);
+		thread.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		Thread.sleep(200);
+		assertTrue(queue.lease(1, 1, TimeUnit.MINUTES).isEmpty());
+		release.countDown();
+		await(worker, 1);
+		worker.stop();
+		thread.join();
+		assertEquals(1, worker.getSucceededCount());
+		assertEquals(0, worker.getLostCount());
+	}
+
+	@Test
+	public void testStopReturnsRestOfBatch() throws Exception {
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		queue.enqueue(definition(BlockingStep.class, "blocking"));
+		Thread.sleep(2);
+		queue.enqueue(definition(RecordingStep.class, "waiting"));
+		final WorkQueueWorker worker = worker(queue);
+		worker.setBatchSize(2);
+		final Thread thread = new Thread(worker);
+		thread.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		worker.stop();
+		release.countDown();
+		thread.join();
+		assertEquals(1, worker.getSucceededCount());
+		assertTrue(executed.isEmpty());
+		assertEquals(1, queue.getPendingCount());
+		assertEquals(0, queue.getLeasedCount());
+	}
+}
@@ -0,0 +1,135 @@
+package com.hexagrammatic.cloudflow;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Bill Dimmick <me@billdimmick.com>
+ * @since 2013.05
+ */
+public class WorkflowMonitorTest {
+
+	public static class BlockingStep extends Step {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		protected void execute() throws InterruptedException {
+			entered.countDown();
+			release.await();
+		}
+	}
+
+	public static class SlowStep extends Step {
+		@Override
+		protected void execute() throws InterruptedException {
+			Thread.sleep(1000);
+		}
+	}
+
+	private WorkflowMonitor monitor;
+	private ObjectName name;
+
+	@Before
+	public void setUp() {
+		monitor = new WorkflowMonitor();
+		name = monitor.register("test");
+	}
+
+	@After
+	public void tearDown() {
+		monitor.unregister();
+	}
+
+	@Test
+	public void testActiveWorkflowReported() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.setName("monitored");
+		workflow.setMetrics(monitor);
+		final BlockingStep step = new BlockingStep();
+		step.setName("blocking");
+		workflow.add(step);
+
+		final Thread runner = new Thread() {
+			@Override
+			public void run() {
+				try {
+					workflow.execute();
+				} catch (final Exception e) {}
+			}
+		};
+		runner.start();
+		step.entered.await();
+
+		final WorkflowMonitorMXBean proxy = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), name, WorkflowMonitorMXBean.class);
+		assertEquals(1, proxy.getActiveWorkflowCount());
+		final List<WorkflowStatus> statuses = proxy.getActiveWorkflows();
+		assertEquals(1, statuses.size());
+		assertEquals("monitored", statuses.get(0).getWorkflowName());
+		assertEquals("blocking", statuses.get(0).getCurrentStepName());
+		assertEquals(BlockingStep.class.getName(), statuses.get(0).getCurrentStepClass());
+		assertEquals(1, statuses.get(0).getCurrentStepAttempt());
+		assertTrue(proxy.getExecutorPoolSize() >= 2);
+		assertTrue(proxy.getExecutorActiveCount() >= 2);
+		assertEquals(0, proxy.getExecutorQueueSize());
+		assertTrue(proxy.getThreadsCreated() >= 2);
+
+		step.release.countDown();
+		runner.join();
+		assertEquals(0, proxy.getActiveWorkflowCount());
+		assertEquals(1, proxy.getCompletedWorkflowCount());
+		assertEquals(0, proxy.getFailedWorkflowCount());
+	}
+
+	@Test
+	public void testStepClassStatistics() throws Exception {
+		final Workflow workflow = new Workflow();
+		workflow.setMetrics(monitor);
+		final SlowStep slow = new SlowStep();
+		slow.setTimeoutValue(10);
+		slow.setTimeoutUnits(MILLISECONDS);
+		slow.setMaxRetries(1);
+		workflow.add(slow);
+		workflow.add(new JsonParserTest.SimpleStep());
+		try {
+			workflow.execute();
+			fail("Expected exception not thrown during execution.");
+		} catch (final TimeoutException te) {}
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertEquals(1L, server.getAttribute(name, "FailedWorkflowCount"));
+		assertEquals(0, server.getAttribute(name, "ExecutorQueueSize"));
+		StepClassStatus slowStatus = null;
+		StepClassStatus skippedStatus = null;
+		for (final StepClassStatus status: monitor.getStepClassStatistics()) {
+			if (status.getStepClass().equals(SlowStep.class.getName())) slowStatus = status;
+			if (status.getStepClass().equals(JsonParserTest.SimpleStep.class.getName())) skippedStatus = status;
+		}
+		assertEquals(2, slowStatus.getAttempts());
+		assertEquals(2, slowStatus.getTimeouts());
+		assertEquals(1, slowStatus.getRetries());
+		assertEquals(1, slowStatus.getFailures());
+		assertTrue(slowStatus.getQueuedNanos() >= 0);
+		assertTrue(slowStatus.getRunNanos() > 0);
+		assertEquals(1, skippedStatus.getSkips());
+		assertNotNull(server.getAttribute(name, "StepClassStatistics"));
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testDuplicateRegistration() {
+		new WorkflowMonitor().register("test");
+	}
+}
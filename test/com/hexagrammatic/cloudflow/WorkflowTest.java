@@ -4,6 +4,7 @@ import static java.util.concurrent.TimeUnit.*;
 import static org.junit.Assert.*;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -247,6 +248,120 @@ public class WorkflowTest {
 
 	
 	
+	@Test
+	public void testRetriedStepAttempts() throws TimeoutException, InterruptedException {
+		final AtomicInteger calls = new AtomicInteger();
+		final Step step = new Step() {			
+			@Override
+			public void execute() {
+				if (calls.incrementAndGet() < 3) throw new IllegalStateException();
+			}
+		};
+		step.setMaxRetries(2);
+		workflow.add(step);
+		workflow.execute();
+
+		final java.util.List<Attempt> attempts = step.getAttempts();
+		assertEquals(3, attempts.size());
+		assertEquals(Attempt.Outcome.FAILED, attempts.get(0).getOutcome());
+		assertTrue(attempts.get(0).getFailure() instanceof IllegalStateException);
+		assertEquals(Attempt.Outcome.FAILED, attempts.get(1).getOutcome());
+		assertEquals(Attempt.Outcome.SUCCEEDED, attempts.get(2).getOutcome());
+		for (final Attempt attempt: attempts) {
+			assertTrue(attempt.getRunningNanos() >= attempt.getSubmitNanos());
+			assertTrue(attempt.getEndNanos() >= attempt.getRunningNanos());
+		}
+	}
+
+	@Test
+	public void testTimedOutStepAttempts() throws InterruptedException {
+		final Step step = new Step() {			
+			@Override
+			public void execute() {
+				try { Thread.sleep(1000); } catch (final InterruptedException ie) {}
+			}
+		};
+		step.setTimeoutValue(10);
+		step.setTimeoutUnits(MILLISECONDS);
+		step.setMaxRetries(1);
+		workflow.add(step);
+		try {
+			workflow.execute();
+			fail("Expected exception not thrown during execution.");
+		} catch (final TimeoutException te) {}
+		assertEquals(2, step.getAttempts().size());
+		for (final Attempt attempt: step.getAttempts()) {
+			assertEquals(Attempt.Outcome.TIMED_OUT, attempt.getOutcome());
+		}
+	}
+
+	@Test
+	public void testMetricsCalled() throws TimeoutException, InterruptedException {
+		final StringBuilder calls = new StringBuilder();
+		workflow.setMetrics(new Metrics() {
+			@Override public void workflowParsed(final Workflow workflow, final long elapsedNanos) { calls.append("workflowParsed "); }
+			@Override public void workflowStarted(final Workflow workflow) { calls.append("workflowStarted "); }
+			@Override public void workflowCompleted(final Workflow workflow, final long elapsedNanos, final boolean successful) { calls.append("workflowCompleted:" + successful); }
+			@Override public void workflowHalted(final Workflow workflow) { calls.append("workflowHalted "); }
+			@Override public void stepStarted(final Step step, final Attempt attempt) { calls.append("stepStarted:" + attempt.getNumber() + " "); }
+			@Override public void stepExecuting(final Step step, final Attempt attempt) { calls.append("stepExecuting:" + attempt.getNumber() + " "); }
+			@Override public void stepExecuted(final Step step, final Attempt attempt) { calls.append("stepExecuted:" + attempt.getNumber() + " "); }
+			@Override public void stepCompleted(final Step step, final Attempt attempt) { calls.append("stepCompleted:" + attempt.getOutcome() + " "); }
+			@Override public void stepRetried(final Step step, final Attempt attempt) { calls.append("stepRetried:" + attempt.getOutcome() + " "); }
+			@Override public void stepRetryWaited(final Step step, final long waitedNanos) { calls.append("stepRetryWaited "); }
+			@Override public void stepTimedOut(final Step step, final Attempt attempt) { calls.append("stepTimedOut "); }
+			@Override public void stepSkipped(final Step step) { calls.append("stepSkipped "); }
+		});
+		final AtomicInteger count = new AtomicInteger();
+		final Step step = new Step() {			
+			@Override
+			public void execute() {
+				if (count.incrementAndGet() == 1) throw new IllegalStateException();
+			}
+		};
+		step.setMaxRetries(1);
+		workflow.add(step);
+		workflow.execute();
+		assertEquals("workflowStarted stepStarted:1 stepExecuting:1 stepExecuted:1 stepRetried:FAILED stepRetryWaited stepStarted:2 stepExecuting:2 stepExecuted:2 stepCompleted:SUCCEEDED workflowCompleted:true", calls.toString());
+	}
+
+	@Test
+	public void testOptionalStepCompletedAfterRetries() throws TimeoutException, InterruptedException {
+		final Step optional = new Step() {			
+			@Override
+			public void execute() {
+				throw new IllegalStateException();
+			}
+		};
+		optional.setOptional(true);
+		optional.setMaxRetries(1);
+		workflow.add(optional);
+		workflow.execute();
+		assertTrue(workflow.isSuccessful());
+		assertTrue(optional.isCompleted());
+		assertFalse(optional.isSuccessful());
+		assertEquals(2, optional.getTimesTried());
+	}
+
+	@Test
+	public void testOptionalStepRolledBack() throws TimeoutException, InterruptedException {
+		final Step optional = new Step() {
+			@Override
+			public void execute() {
+				addParameter("x", "partial");
+				throw new IllegalStateException();
+			}
+		};
+		optional.setOptional(true);
+		workflow.add(optional);
+		workflow.execute();
+		assertTrue(workflow.isSuccessful());
+		assertNull(workflow.getParameter("x"));
+		assertEquals(0, workflow.numVersions("x"));
+		assertNull(optional.getParameter("x"));
+		assertEquals(Attempt.Outcome.FAILED, optional.getLastAttempt().getOutcome());
+	}
+
 	@Test(expected=TimeoutException.class)
 	public void testStepTimeout() throws TimeoutException, InterruptedException {
 		final Step step = new Step() {			
@@ -479,5 +594,122 @@ public class WorkflowTest {
 		workflow.execute();
 	}
 
-	
+	@Test
+	public void testLockStatisticsSummary() throws TimeoutException, InterruptedException {
+		final Step first = new Step() {
+			@Override
+			public void execute() {
+				addParameter("first", true);
+			}
+		};
+		workflow.add(first);
+		workflow.setLockStatisticsEnabled(true);
+		final Step second = new Step() {
+			@Override
+			public void execute() {
+				addParameter("second", getParameter("first"));
+			}
+		};
+		workflow.add(second);
+		assertNotNull(first.getLockStatistics());
+		assertNotNull(second.getLockStatistics());
+		workflow.execute();
+
+		final LockStatistics own = workflow.getLockStatistics();
+		assertTrue(own.getWriteAcquisitions() >= 2);
+		final LockStatistics summary = workflow.getLockStatisticsSummary();
+		assertEquals(own.getWriteAcquisitions() + first.getLockStatistics().getWriteAcquisitions()
+				+ second.getLockStatistics().getWriteAcquisitions(), summary.getWriteAcquisitions());
+
+		workflow.setLockStatisticsEnabled(false);
+		assertNull(workflow.getLockStatisticsSummary());
+		assertNull(first.getLockStatistics());
+	}
+
+	@Test
+	public void testResourceAccounting() throws TimeoutException, InterruptedException {
+		final AtomicLong sink = new AtomicLong();
+		final Step busy = new Step() {
+			@Override
+			public void execute() {
+				final byte[][] garbage = new byte[16][];
+				for (int i = 0; i < garbage.length; i++) {
+					garbage[i] = new byte[64 * 1024];
+				}
+				long x = garbage.length;
+				for (int i = 0; i < 5000000; i++) {
+					x = x * 31 + i;
+				}
+				sink.set(x);
+			}
+		};
+		assertFalse(workflow.isResourceAccounting());
+		workflow.setResourceAccounting(true);
+		workflow.add(busy);
+		workflow.execute();
+
+		final Attempt attempt = busy.getLastAttempt();
+		if (ThreadResources.isCpuTimeAvailable()) {
+			assertTrue(attempt.getCpuNanos() > 0);
+			assertEquals(attempt.getCpuNanos(), busy.getCpuNanos());
+		}
+		if (ThreadResources.isAllocatedBytesAvailable()) {
+			assertTrue(attempt.getAllocatedBytes() >= 16 * 64 * 1024);
+		}
+	}
+
+	@Test
+	public void testResourceAccountingOffByDefault() throws TimeoutException, InterruptedException {
+		final Step step = new Step() {
+			@Override
+			public void execute() {}
+		};
+		workflow.add(step);
+		workflow.execute();
+		assertEquals(-1, step.getLastAttempt().getCpuNanos());
+		assertEquals(-1, step.getAllocatedBytes());
+	}
+
+	@Test
+	public void testLateTimedOutTryRecordedOnItsOwnAttempt() throws TimeoutException, InterruptedException {
+		final AtomicInteger tries = new AtomicInteger();
+		final AtomicLong sink = new AtomicLong();
+		final CountDownLatch abandoned = new CountDownLatch(1);
+		final Step step = new Step() {
+			@Override
+			public void execute() throws InterruptedException {
+				if (tries.incrementAndGet() == 1) {
+					final long end = System.nanoTime() + MILLISECONDS.toNanos(150);
+					long x = 0;
+					while (System.nanoTime() < end) {
+						x = x * 31 + 1;
+					}
+					sink.set(x);
+					abandoned.countDown();
+				} else {
+					Thread.sleep(80);
+				}
+			}
+		};
+		step.setTimeoutValue(100);
+		step.setTimeoutUnits(MILLISECONDS);
+		step.setMaxRetries(1);
+		workflow.setResourceAccounting(true);
+		workflow.add(step);
+		workflow.execute();
+		assertTrue(abandoned.await(5, TimeUnit.SECONDS));
+		Thread.sleep(20);
+
+		final Attempt first = step.getAttempts().get(0);
+		final Attempt second = step.getAttempts().get(1);
+		assertEquals(Attempt.Outcome.TIMED_OUT, first.getOutcome());
+		assertTrue(first.getRunNanos() >= MILLISECONDS.toNanos(150));
+		assertTrue(second.getRunNanos() >= MILLISECONDS.toNanos(80));
+		assertTrue(second.getRunNanos() < MILLISECONDS.toNanos(150));
+		if (ThreadResources.isCpuTimeAvailable()) {
+			assertTrue(first.getCpuNanos() >= MILLISECONDS.toNanos(100));
+			assertTrue(second.getCpuNanos() >= 0);
+			assertTrue(second.getCpuNanos() < MILLISECONDS.toNanos(50));
+		}
+	}
 }